@@ -0,0 +1,195 @@
+package com.tyron.nanoj.api.indexing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Thread-safe, sparse bitmap of file ids.
+ * <p>
+ * Ids are grouped into pages of 65536 bits; a page is only allocated once one of its ids is set,
+ * so the bitmap stays small when ids are clustered (as VFS ids of one root usually are).
+ * {@link #get(int)} is lock-free.
+ */
+public final class FileIdBitmap {
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SHIFT - 6);
+
+    private volatile AtomicReferenceArray<AtomicLongArray> pages = new AtomicReferenceArray<>(4);
+
+    public boolean get(int id) {
+        if (id < 0) {
+            return false;
+        }
+        AtomicReferenceArray<AtomicLongArray> p = pages;
+        int pageIndex = id >>> PAGE_SHIFT;
+        if (pageIndex >= p.length()) {
+            return false;
+        }
+        AtomicLongArray page = p.get(pageIndex);
+        if (page == null) {
+            return false;
+        }
+        return (page.get((id >>> 6) & (WORDS_PER_PAGE - 1)) & (1L << id)) != 0;
+    }
+
+    public void set(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("negative file id: " + id);
+        }
+        AtomicLongArray page = pageFor(id >>> PAGE_SHIFT);
+        int word = (id >>> 6) & (WORDS_PER_PAGE - 1);
+        long mask = 1L << id;
+        long prev;
+        do {
+            prev = page.get(word);
+        } while ((prev & mask) == 0 && !page.compareAndSet(word, prev, prev | mask));
+    }
+
+    public void clear(int id) {
+        if (id < 0) {
+            return;
+        }
+        AtomicReferenceArray<AtomicLongArray> p = pages;
+        int pageIndex = id >>> PAGE_SHIFT;
+        if (pageIndex >= p.length()) {
+            return;
+        }
+        AtomicLongArray page = p.get(pageIndex);
+        if (page == null) {
+            return;
+        }
+        int word = (id >>> 6) & (WORDS_PER_PAGE - 1);
+        long mask = 1L << id;
+        long prev;
+        do {
+            prev = page.get(word);
+        } while ((prev & mask) != 0 && !page.compareAndSet(word, prev, prev & ~mask));
+    }
+
+    /**
+     * Drops every page.
+     */
+    public synchronized void clearAll() {
+        pages = new AtomicReferenceArray<>(4);
+    }
+
+    public int cardinality() {
+        AtomicReferenceArray<AtomicLongArray> p = pages;
+        int count = 0;
+        for (int i = 0; i < p.length(); i++) {
+            AtomicLongArray page = p.get(i);
+            if (page == null) continue;
+            for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                count += Long.bitCount(page.get(w));
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return cardinality() == 0;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        AtomicReferenceArray<AtomicLongArray> p = pages;
+        for (int i = 0; i < p.length(); i++) {
+            AtomicLongArray page = p.get(i);
+            if (page == null) continue;
+            for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                long bits = page.get(w);
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    consumer.accept((i << PAGE_SHIFT) | (w << 6) | bit);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a new bitmap holding ids present in both bitmaps.
+     */
+    public FileIdBitmap and(FileIdBitmap other) {
+        return combine(this, other, Op.AND);
+    }
+
+    /**
+     * @return a new bitmap holding ids present in either bitmap.
+     */
+    public FileIdBitmap or(FileIdBitmap other) {
+        return combine(this, other, Op.OR);
+    }
+
+    /**
+     * @return a new bitmap holding ids present in this bitmap but not in {@code other}.
+     */
+    public FileIdBitmap andNot(FileIdBitmap other) {
+        return combine(this, other, Op.AND_NOT);
+    }
+
+    public SearchScope asScope() {
+        return this::get;
+    }
+
+    private enum Op { AND, OR, AND_NOT }
+
+    private static FileIdBitmap combine(FileIdBitmap a, FileIdBitmap b, Op op) {
+        AtomicReferenceArray<AtomicLongArray> pa = a.pages;
+        AtomicReferenceArray<AtomicLongArray> pb = b.pages;
+        int n = Math.max(pa.length(), pb.length());
+
+        FileIdBitmap out = new FileIdBitmap();
+        AtomicReferenceArray<AtomicLongArray> po = new AtomicReferenceArray<>(n);
+        for (int i = 0; i < n; i++) {
+            AtomicLongArray x = i < pa.length() ? pa.get(i) : null;
+            AtomicLongArray y = i < pb.length() ? pb.get(i) : null;
+            if (x == null && (op != Op.OR || y == null)) continue;
+            if (y == null && op == Op.AND) continue;
+
+            AtomicLongArray page = new AtomicLongArray(WORDS_PER_PAGE);
+            for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                long xv = x != null ? x.get(w) : 0L;
+                long yv = y != null ? y.get(w) : 0L;
+                long v = switch (op) {
+                    case AND -> xv & yv;
+                    case OR -> xv | yv;
+                    case AND_NOT -> xv & ~yv;
+                };
+                page.set(w, v);
+            }
+            po.set(i, page);
+        }
+        out.pages = po;
+        return out;
+    }
+
+    private AtomicLongArray pageFor(int pageIndex) {
+        AtomicReferenceArray<AtomicLongArray> p = pages;
+        if (pageIndex < p.length()) {
+            AtomicLongArray page = p.get(pageIndex);
+            if (page != null) {
+                return page;
+            }
+        }
+        synchronized (this) {
+            p = pages;
+            if (pageIndex >= p.length()) {
+                int newLength = Math.max(p.length() * 2, pageIndex + 1);
+                AtomicReferenceArray<AtomicLongArray> grown = new AtomicReferenceArray<>(newLength);
+                for (int i = 0; i < p.length(); i++) {
+                    grown.set(i, p.get(i));
+                }
+                pages = grown;
+                p = grown;
+            }
+            AtomicLongArray page = p.get(pageIndex);
+            if (page == null) {
+                page = new AtomicLongArray(WORDS_PER_PAGE);
+                p.set(pageIndex, page);
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.tyron.nanoj.api.indexing;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.api.vfs.VirtualFileManager;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Scope of all files under a fixed set of roots (source folders, library jars, jrt modules).
+ * <p>
+ * Membership of a file id is resolved once (id -> file -> root prefix check) and memoized in two
+ * bitmaps, so after warm-up {@link #contains(int)} is a pair of bit tests. {@link Scopes} keeps one
+ * instance per root set and invalidates it from VFS events.
+ * <p>
+ * A file belongs to a root if its URI lies under the root folder, or inside the root archive
+ * ({@code jar:<root>!/...}), or if its path lies below the root's path.
+ */
+public final class RootSetScope implements SearchScope {
+
+    private final VirtualFileManager vfm;
+    private final List<String> rootKeys;
+    private final List<String> uriPrefixes;
+    private final List<String> pathPrefixes;
+
+    private final FileIdBitmap resolved = new FileIdBitmap();
+    private final FileIdBitmap members = new FileIdBitmap();
+
+    RootSetScope(VirtualFileManager vfm, List<FileObject> roots) {
+        this.vfm = vfm;
+        Set<String> keys = new LinkedHashSet<>();
+        List<String> uris = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (FileObject root : roots) {
+            if (root == null) continue;
+            String uri = root.toUri().normalize().toString();
+            if (!keys.add(uri)) continue;
+            if (root.isFolder()) {
+                uris.add(uri.endsWith("/") ? uri : uri + "/");
+            } else {
+                uris.add(uri);
+                uris.add("jar:" + uri + "!/");
+            }
+            String path = root.getPath();
+            if (path != null && !path.isEmpty()) {
+                paths.add(path);
+            }
+        }
+        List<String> sortedKeys = new ArrayList<>(keys);
+        Collections.sort(sortedKeys);
+        this.rootKeys = Collections.unmodifiableList(sortedKeys);
+        this.uriPrefixes = uris;
+        this.pathPrefixes = paths;
+    }
+
+    /**
+     * Normalized root URIs, sorted; identifies the root set.
+     */
+    public List<String> getRootKeys() {
+        return rootKeys;
+    }
+
+    @Override
+    public boolean contains(int fileId) {
+        if (resolved.get(fileId)) {
+            return members.get(fileId);
+        }
+        if (fileId < 0) {
+            return false;
+        }
+        boolean member = resolve(fileId);
+        if (member) {
+            members.set(fileId);
+        } else {
+            members.clear(fileId);
+        }
+        resolved.set(fileId);
+        return member;
+    }
+
+    /**
+     * An origin may hold members if it lies under one of the roots, or if it is a broader
+     * partition (e.g. the {@code file:} catch-all) that contains a root.
+     */
+    @Override
+    public boolean mayContainOrigin(String origin) {
+        if (origin == null) {
+            return true;
+        }
+        for (String prefix : uriPrefixes) {
+            if (origin.startsWith(prefix) || prefix.startsWith(origin)) return true;
+        }
+        return false;
+    }
+
+    private boolean resolve(int fileId) {
+        FileObject file;
+        try {
+            file = vfm.findById(fileId);
+        } catch (Throwable t) {
+            return false;
+        }
+        if (file == null) {
+            return false;
+        }
+
+        URI uri = file.toUri();
+        if (uri != null) {
+            String s = uri.normalize().toString();
+            for (String prefix : uriPrefixes) {
+                // an archive root itself only matches exactly.
+                if (prefix.endsWith("/") ? s.startsWith(prefix) : s.equals(prefix)) return true;
+            }
+        }
+        String path = file.getPath();
+        if (path != null) {
+            for (String prefix : pathPrefixes) {
+                if (isUnderPath(path, prefix)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether {@code path} is {@code root} or lies below it; {@code /p/src-gen} is not below {@code /p/src}.
+     */
+    private static boolean isUnderPath(String path, String root) {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        if (path.length() == root.length() || root.endsWith("/")) {
+            return true;
+        }
+        char next = path.charAt(root.length());
+        // '!' separates an archive from its entries.
+        return next == '/' || next == '!' || next == File.separatorChar;
+    }
+
+    /**
+     * Forgets the memoized membership of one file id (e.g. after it was created or moved).
+     */
+    public void invalidate(int fileId) {
+        resolved.clear(fileId);
+        members.clear(fileId);
+    }
+
+    /**
+     * Forgets all memoized memberships.
+     */
+    public void invalidateAll() {
+        resolved.clearAll();
+        members.clearAll();
+    }
+
+    /**
+     * @return ids resolved so far that belong to this scope.
+     */
+    public FileIdBitmap snapshotMembers() {
+        return members.and(resolved);
+    }
+}
@@ -1,59 +1,141 @@
 package com.tyron.nanoj.api.indexing;
 
 import com.tyron.nanoj.api.project.Project;
+import com.tyron.nanoj.api.vfs.BulkFileEvent;
+import com.tyron.nanoj.api.vfs.FileChangeListener;
+import com.tyron.nanoj.api.vfs.FileEvent;
 import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.api.vfs.FileRenameEvent;
 import com.tyron.nanoj.api.vfs.VirtualFileManager;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Scopes {
 
+    // Bound to the current VirtualFileManager; replaced when the manager changes (e.g. between tests).
+    private static RootScopeCache cache;
+
     /**
      * Includes only files inside the project's source roots (src/main/java).
      */
     public static SearchScope projectSource(Project project) {
-        IndexManager manager = IndexManager.getInstance();
-        List<FileObject> roots = project.getSourceRoots();
-        
-        return fileId -> {
-            var file =  VirtualFileManager.getInstance().findById(fileId);
-            if (file == null) return false;
-            String path = file.getPath();
-            if (path == null) return false;
-            
-            // Check if path starts with any source root
-            for (FileObject root : roots) {
-                if (path.startsWith(root.getPath())) return true;
-            }
-            return false;
-        };
+        return rootSet(project.getSourceRoots());
     }
 
     /**
      * Includes only files in external libraries (jars/dependencies).
      */
     public static SearchScope libraries(Project project) {
-        IndexManager manager = IndexManager.getInstance();
-        List<FileObject> libs = project.getClassPath();
-        List<FileObject> boot = project.getBootClassPath();
+        List<FileObject> roots = new ArrayList<>(project.getClassPath());
+        roots.addAll(project.getBootClassPath());
+        return rootSet(roots);
+    }
 
-        return fileId -> {
-            var file = VirtualFileManager.getInstance().findById(fileId);
-            if (file == null) return false;
-            String path = file.getPath();
-            if (path == null) return false;
+    public static SearchScope all(Project project) {
+        return fileId -> true;
+    }
 
-            for (FileObject lib : libs) {
-                if (path.startsWith(lib.getPath())) return true;
-            }
-            for (FileObject b : boot) {
-                if (path.startsWith(b.getPath())) return true;
+    /**
+     * Scope of all files under the given roots. Instances are shared per root set, so their
+     * memoized membership bitmaps survive across queries.
+     */
+    public static RootSetScope rootSet(List<FileObject> roots) {
+        VirtualFileManager vfm = VirtualFileManager.getInstance();
+        RootScopeCache current;
+        synchronized (Scopes.class) {
+            current = cache;
+            if (current == null || current.vfm != vfm) {
+                if (current != null) {
+                    current.detach();
+                }
+                current = new RootScopeCache(vfm);
+                cache = current;
             }
-            return false;
-        };
+        }
+        RootSetScope candidate = new RootSetScope(vfm, roots);
+        return current.scopes.computeIfAbsent(candidate.getRootKeys(), k -> candidate);
     }
 
-    public static SearchScope all(Project project) {
-        return fileId -> true;
+    /**
+     * Invalidates memoized scope membership when files appear, disappear or move.
+     */
+    private static final class RootScopeCache implements FileChangeListener {
+
+        private final VirtualFileManager vfm;
+        private final Map<List<String>, RootSetScope> scopes = new ConcurrentHashMap<>();
+
+        RootScopeCache(VirtualFileManager vfm) {
+            this.vfm = vfm;
+            vfm.addGlobalListener(this);
+        }
+
+        void detach() {
+            try {
+                vfm.removeGlobalListener(this);
+            } catch (Throwable ignored) {
+                // best-effort; the old manager may already be disposed.
+            }
+        }
+
+        @Override
+        public void fileCreated(FileEvent event) {
+            // a file that has no id yet has no memoized membership either.
+            invalidate(event.getFile());
+        }
+
+        @Override
+        public void fileDeleted(FileEvent event) {
+            // Ids stay bound to their URI, so files below a deleted folder keep their membership.
+            invalidate(event.getFile());
+        }
+
+        @Override
+        public void fileChanged(FileEvent event) {
+            // Content changes do not move files between roots.
+        }
+
+        @Override
+        public void fileRenamed(FileEvent event) {
+            // The id moves to the new URI; files below a renamed folder get new ids.
+            if (event instanceof FileRenameEvent re) {
+                invalidate(re.getOldFile());
+            }
+            invalidate(event.getFile());
+        }
+
+        @Override
+        public void filesChanged(BulkFileEvent event) {
+            if (scopes.isEmpty()) return;
+            for (FileRenameEvent renamed : event.getRenamed()) {
+                fileRenamed(renamed);
+            }
+            for (FileObject created : event.getCreated()) {
+                invalidate(created);
+            }
+            for (FileObject deleted : event.getDeleted()) {
+                invalidate(deleted);
+            }
+        }
+
+        private void invalidate(FileObject file) {
+            if (scopes.isEmpty() || file == null) return;
+            OptionalInt fileId;
+            try {
+                fileId = vfm.findFileId(file);
+            } catch (Throwable t) {
+                for (RootSetScope scope : scopes.values()) {
+                    scope.invalidateAll();
+                }
+                return;
+            }
+            if (fileId.isEmpty()) return;
+            for (RootSetScope scope : scopes.values()) {
+                scope.invalidate(fileId.getAsInt());
+            }
+        }
     }
-}
\ No newline at end of file
+}
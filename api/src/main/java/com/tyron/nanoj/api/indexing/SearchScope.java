@@ -8,6 +8,55 @@ public interface SearchScope {
      */
     boolean contains(int fileId);
 
+    /**
+     * Coarse pre-filter used by the index to skip whole partitions of postings.
+     * <p>
+     * An origin is the URI prefix shared by all files of one partition: a source root
+     * ({@code file:/.../src/}), an archive ({@code jar:file:/.../lib.jar!/}), a jrt module
+     * ({@code jrt:/modules/java.base/}), or a catch-all such as {@code file:} or the empty string.
+     *
+     * @return false only if no file under {@code origin} can be in this scope.
+     */
+    default boolean mayContainOrigin(String origin) {
+        return true;
+    }
+
+    /**
+     * @return a scope containing files in this scope or in {@code other}.
+     */
+    default SearchScope union(SearchScope other) {
+        SearchScope self = this;
+        return new SearchScope() {
+            @Override
+            public boolean contains(int fileId) {
+                return self.contains(fileId) || other.contains(fileId);
+            }
+
+            @Override
+            public boolean mayContainOrigin(String origin) {
+                return self.mayContainOrigin(origin) || other.mayContainOrigin(origin);
+            }
+        };
+    }
+
+    /**
+     * @return a scope containing files in both this scope and {@code other}.
+     */
+    default SearchScope intersect(SearchScope other) {
+        SearchScope self = this;
+        return new SearchScope() {
+            @Override
+            public boolean contains(int fileId) {
+                return self.contains(fileId) && other.contains(fileId);
+            }
+
+            @Override
+            public boolean mayContainOrigin(String origin) {
+                return self.mayContainOrigin(origin) && other.mayContainOrigin(origin);
+            }
+        };
+    }
+
     // --- Common Scopes ---
 
     static SearchScope all() {
@@ -15,12 +64,31 @@ public interface SearchScope {
     }
 
     static SearchScope of(SearchScope... scopes) {
-        return (fileId) -> {
-            for (SearchScope scope : scopes) {
-                if (scope.contains(fileId)) return true;
+        return new SearchScope() {
+            @Override
+            public boolean contains(int fileId) {
+                for (SearchScope scope : scopes) {
+                    if (scope.contains(fileId)) return true;
+                }
+
+                return false;
             }
 
-            return false;
+            @Override
+            public boolean mayContainOrigin(String origin) {
+                for (SearchScope scope : scopes) {
+                    if (scope.mayContainOrigin(origin)) return true;
+                }
+
+                return false;
+            }
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * Scope over a precomputed set of file ids.
+     */
+    static SearchScope of(FileIdBitmap fileIds) {
+        return fileIds.asScope();
+    }
+}
@@ -0,0 +1,48 @@
+package com.tyron.nanoj.api.vfs;
+
+import java.util.List;
+
+/**
+ * A batch of changes found by one refresh, e.g. everything a branch switch touched under a root.
+ *
+ * @see FileChangeListener#filesChanged(BulkFileEvent)
+ */
+public final class BulkFileEvent {
+
+    private final List<FileRenameEvent> renamed;
+    private final List<FileObject> created;
+    private final List<FileObject> changed;
+    private final List<FileObject> deleted;
+
+    public BulkFileEvent(List<FileRenameEvent> renamed, List<FileObject> created,
+                         List<FileObject> changed, List<FileObject> deleted) {
+        this.renamed = List.copyOf(renamed);
+        this.created = List.copyOf(created);
+        this.changed = List.copyOf(changed);
+        this.deleted = List.copyOf(deleted);
+    }
+
+    public List<FileRenameEvent> getRenamed() {
+        return renamed;
+    }
+
+    public List<FileObject> getCreated() {
+        return created;
+    }
+
+    public List<FileObject> getChanged() {
+        return changed;
+    }
+
+    public List<FileObject> getDeleted() {
+        return deleted;
+    }
+
+    public int size() {
+        return renamed.size() + created.size() + changed.size() + deleted.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,44 @@
+package com.tyron.nanoj.api.vfs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Pages through the children of a folder, see {@link FileObject#openChildren()}.
+ * <p>
+ * All pages come from one listing, so they neither overlap nor skip entries, and a page costs only its own
+ * entries however far into the folder it is. The listing stays open until the cursor is closed.
+ */
+public final class ChildrenCursor implements AutoCloseable {
+
+    private final Stream<FileObject> children;
+    private final Iterator<FileObject> iterator;
+
+    public ChildrenCursor(Stream<FileObject> children) {
+        this.children = Objects.requireNonNull(children, "children");
+        this.iterator = children.iterator();
+    }
+
+    /**
+     * @return up to {@code limit} children following the previous page; empty once the listing is exhausted.
+     */
+    public List<FileObject> next(int limit) {
+        List<FileObject> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public void close() {
+        children.close();
+    }
+}
@@ -9,4 +9,16 @@ public interface FileChangeListener {
     void fileDeleted(FileEvent event);
     void fileChanged(FileEvent event);
     void fileRenamed(FileEvent event);
+
+    /**
+     * Receives all changes found by one refresh at once. The default implementation forwards them to the
+     * single-file callbacks (renames, creations, changes, then deletions); override it to handle the batch
+     * in one go.
+     */
+    default void filesChanged(BulkFileEvent event) {
+        for (FileRenameEvent renamed : event.getRenamed()) fileRenamed(renamed);
+        for (FileObject created : event.getCreated()) fileCreated(new FileEvent(created));
+        for (FileObject changed : event.getChanged()) fileChanged(new FileEvent(changed));
+        for (FileObject deleted : event.getDeleted()) fileDeleted(new FileEvent(deleted));
+    }
 }
\ No newline at end of file
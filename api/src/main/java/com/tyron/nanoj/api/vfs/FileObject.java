@@ -4,9 +4,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Abstraction over a file system entry (File, ZipEntry, Memory).
@@ -48,6 +50,24 @@ public interface FileObject extends FileObjectWithId {
      */
     List<FileObject> getChildren();
 
+    /**
+     * Streams the children of a folder; empty if this is not a folder.
+     * <p>
+     * Implementations may read the listing lazily (e.g. from a {@code DirectoryStream}) instead of
+     * materializing it, so the stream must be closed, preferably with try-with-resources.
+     */
+    default Stream<FileObject> streamChildren() {
+        return getChildren().stream();
+    }
+
+    /**
+     * Opens a cursor that hands out the children page by page, in {@link #streamChildren()} order. It must be
+     * closed, preferably with try-with-resources.
+     */
+    default ChildrenCursor openChildren() {
+        return new ChildrenCursor(streamChildren());
+    }
+
     /**
      * Retrieves a specific child.
      * @param name The name of the child.
@@ -87,11 +107,21 @@ public interface FileObject extends FileObjectWithId {
         }
     }
 
+    /**
+     * Reads the entire file as a read-only buffer positioned at 0.
+     * <p>
+     * Unlike {@link #getContent()}, implementations may hand out a shared, cached or memory-mapped view
+     * instead of a heap copy, so callers must not keep the buffer once the file may have changed.
+     */
+    default ByteBuffer getContentBuffer() throws IOException {
+        return ByteBuffer.wrap(getContent()).asReadOnlyBuffer();
+    }
+
     /**
      * Convenience method to read file as UTF-8 string.
      */
     default String getText() throws IOException {
-        return new String(getContent(), StandardCharsets.UTF_8);
+        return StandardCharsets.UTF_8.decode(getContentBuffer()).toString();
     }
 
     // --- Mutation ---
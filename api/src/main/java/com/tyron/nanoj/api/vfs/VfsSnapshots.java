@@ -25,6 +25,13 @@ public final class VfsSnapshots {
             root.refresh();
         }
 
+        if (mode == VfsSnapshot.Mode.TREE) {
+            VfsSnapshot persisted = persistedSnapshot(root);
+            if (persisted != null) {
+                return persisted;
+            }
+        }
+
         List<VfsSnapshot.Entry> entries = new ArrayList<>();
         if (mode == VfsSnapshot.Mode.SELF) {
             entries.add(entryOf(root, refresh));
@@ -36,6 +43,15 @@ public final class VfsSnapshots {
         return new VfsSnapshot(mode, root.getPath(), entries);
     }
 
+    private static VfsSnapshot persistedSnapshot(FileObject root) {
+        try {
+            return VirtualFileManager.getInstance().snapshotTree(root);
+        } catch (Throwable ignored) {
+            // No VFS service (or no records for this root): walk instead.
+            return null;
+        }
+    }
+
     private static void snapshotTree(FileObject root, boolean refresh, List<VfsSnapshot.Entry> out) {
         Deque<FileObject> stack = new ArrayDeque<>();
         Set<String> visitedPaths = new HashSet<>();
@@ -75,7 +91,8 @@ public final class VfsSnapshots {
         boolean exists = fo.exists();
         boolean folder = exists && fo.isFolder();
         long lm = exists ? fo.lastModified() : 0L;
-        long len = exists ? fo.getLength() : 0L;
+        // Folder sizes are file system specific; the persisted records store 0 as well.
+        long len = exists && !folder ? fo.getLength() : 0L;
 
         return new VfsSnapshot.Entry(fo.getPath(), exists, folder, lm, len);
     }
@@ -5,7 +5,10 @@ import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
 import java.net.URI;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * IntelliJ-inspired Virtual File Manager (application-scoped).
@@ -36,10 +39,57 @@ public interface VirtualFileManager {
 
     int getFileId(FileObject file);
 
+    /**
+     * Like {@link #getFileId}, but never allocates an id.
+     *
+     * @return the id of {@code file}, or empty if none was handed out for it.
+     */
+    default OptionalInt findFileId(FileObject file) {
+        return OptionalInt.of(getFileId(file));
+    }
+
     FileObject findById(int id);
 
+    /**
+     * Makes the ids handed out by {@link #getFileId} so far survive a crash. Call it before committing anything
+     * that stores file ids, so a later session cannot hand one of them out for another file.
+     */
+    default void syncFileIds() {
+    }
+
     void trackRoot(FileObject root);
 
+    /**
+     * Answers a {@link VfsSnapshot.Mode#TREE} snapshot of {@code root} from the persisted records of a tracked
+     * root instead of walking the file system.
+     *
+     * @return the up-to-date snapshot, or null if {@code root} is not below a tracked root whose records are
+     * kept current; callers then walk the tree themselves.
+     */
+    default VfsSnapshot snapshotTree(FileObject root) {
+        return null;
+    }
+
+    /**
+     * Digest of everything below {@code root} (names, kinds and metadata stamps), maintained incrementally
+     * from change events. Equal digests mean nothing under {@code root} changed in between. Digests are kept
+     * across sessions; changes made while no manager was running are seen through their stamps only.
+     *
+     * @return the digest, or empty if {@code root} is not below a tracked root whose records are kept current.
+     */
+    default OptionalLong getTreeDigest(FileObject root) {
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Runs {@code batch} on the calling thread. Its {@link #snapshotTree} and {@link #getTreeDigest} calls share
+     * one sync with the file system instead of syncing per call, so the batch sees the file system as of its
+     * first such call, plus whatever changes were already reported by then.
+     */
+    default <T> T snapshotBatch(Supplier<T> batch) {
+        return batch.get();
+    }
+
     void addGlobalListener(FileChangeListener l);
 
     void removeGlobalListener(FileChangeListener l);
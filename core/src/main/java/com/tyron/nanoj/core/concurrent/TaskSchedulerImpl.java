@@ -57,7 +57,7 @@ public final class TaskSchedulerImpl implements TaskScheduler {
         CompletableFuture<T> result = new CompletableFuture<>();
         ExecutorService exec = laneExecutor(lane);
 
-        Future<?> submitted = exec.submit(() -> {
+        FutureTask<Void> submitted = new FutureTask<>(() -> {
             if (!project.isOpen()) {
                 result.complete(null);
                 return;
@@ -101,7 +101,17 @@ public final class TaskSchedulerImpl implements TaskScheduler {
                     result.completeExceptionally(t);
                 }
             }
-        });
+        }, null) {
+            @Override
+            protected void done() {
+                // a task cancelled before it started would never complete its result.
+                if (isCancelled()) {
+                    token.cancel();
+                    result.cancel(false);
+                }
+            }
+        };
+        exec.execute(submitted);
 
         slot.current = submitted;
         return result;
@@ -9,7 +9,6 @@ import com.tyron.nanoj.api.indexing.IndexingProgressSnapshot;
 import com.tyron.nanoj.api.vfs.FileObject;
 import com.tyron.nanoj.api.vfs.VirtualFileManager;
 import com.tyron.nanoj.core.vfs.FileUtil;
-import com.tyron.nanoj.core.vfs.StreamUtils;
 import org.jetbrains.annotations.TestOnly;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -18,48 +17,40 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+/**
+ * Write side of the index. Files flow through an {@link IndexingPipeline}: read (class file bytes),
+ * map ({@link IndexDefinition#map}), serialize ({@link IndexDefinition#serializeValue}) and a single
+ * writer thread that applies and group-commits the results.
+ */
 public abstract class AbstractIndexManager implements IndexManager {
 
-    private static class QueueEntry {
-        final Map<IndexDefinition<?, ?>, List<BatchResult>> batch;
-        final CountDownLatch flushLatch;
-
-        QueueEntry(Map<IndexDefinition<?, ?>, List<BatchResult>> batch) {
-            this.batch = batch;
-            this.flushLatch = null;
-        }
-
-        QueueEntry(CountDownLatch flushLatch) {
-            this.batch = null;
-            this.flushLatch = flushLatch;
-        }
-
-        boolean isFlushSignal() {
-            return flushLatch != null;
-        }
-    }
+    /**
+     * If true (default), files are stamped with a CRC-32 of their content and files whose digest did not
+     * change since they were indexed skip {@link IndexDefinition#map} (see {@link IndexingStampStore}).
+     */
+    public static final String CONTENT_DIGESTS_KEY = "nanoj.indexing.contentDigests";
 
     private final DB db;
 
     protected final IndexingStampStore stampStore;
     protected final Map<String, IndexDefinition<?, ?>> definitions = new ConcurrentHashMap<>();
     protected final Map<String, MapDBIndexWrapper> wrappers = new ConcurrentHashMap<>();
+    protected final IndexOrigins origins = new IndexOrigins();
 
-    private final BlockingQueue<QueueEntry> writeQueue = new ArrayBlockingQueue<>(10);
-    private final ExecutorService writerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Index-Writer-Thread"));
-    private final AtomicBoolean isIndexing = new AtomicBoolean(true);
+    private final IndexingPipeline<LoadedFile, MappedFile, SerializedFile> pipeline;
 
     private final CopyOnWriteArrayList<IndexingProgressListener> progressListeners = new CopyOnWriteArrayList<>();
 
+    private final boolean contentDigests = Boolean.parseBoolean(System.getProperty(CONTENT_DIGESTS_KEY, "true"));
+
     private final AtomicLong processedCount = new AtomicLong(0);
-    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicLong unchangedCount = new AtomicLong(0);
+    private final AtomicLong postingWrites = new AtomicLong(0);
     private final AtomicLong lastProgressTime = new AtomicLong(0);
+    private final AtomicLong committedGeneration = new AtomicLong(0);
     private volatile String currentFilePath = null;
 
     public AbstractIndexManager() {
@@ -77,13 +68,17 @@ public abstract class AbstractIndexManager implements IndexManager {
 
         this.stampStore = new IndexingStampStore(db);
 
-        startWriter();
+        this.pipeline = new IndexingPipeline<>("Index", new PipelineSteps());
     }
 
     @Override
     public void register(IndexDefinition<?, ?> def) {
         definitions.put(def.id(), def);
-        var wrapper = wrappers.computeIfAbsent(def.id(), id -> new MapDBIndexWrapper(db, id));
+        var wrapper = wrappers.computeIfAbsent(def.id(), id -> {
+            MapDBIndexWrapper created = new MapDBIndexWrapper(db, id);
+            created.enableReadIsolation();
+            return created;
+        });
 
         if (stampStore.isIndexDirty(def.id(), def.getVersion())) {
             wrapper.clear();
@@ -92,60 +87,77 @@ public abstract class AbstractIndexManager implements IndexManager {
         }
     }
 
-    private void startWriter() {
-        writerExecutor.submit(() -> {
-            while (isIndexing.get() || !writeQueue.isEmpty()) {
-                try {
-                    QueueEntry entry = writeQueue.poll(1, TimeUnit.SECONDS);
-
-                    if (entry != null) {
-                        if (entry.isFlushSignal()) {
-                            try {
-                                db.commit();
-                            } finally {
-                                entry.flushLatch.countDown();
-                            }
-                        } else {
-                            try {
-                                flushToDisk(entry.batch);
-                                db.commit();
-                            } catch (Exception e) {
-                                db.rollback();
-                                System.err.println("Batch write failed, rolled back: " + e.getMessage());
-                            }
-                        }
-                    }
-
-                    notifyProgress();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                } catch (Throwable t) {
-                    t.printStackTrace();
-                }
-            }
-        });
+    /**
+     * Commits pending writes and publishes them to queries as a new generation. Writer thread only.
+     */
+    private void commitGeneration() {
+        for (MapDBIndexWrapper wrapper : wrappers.values()) {
+            wrapper.prepareCommit();
+        }
+        // postings store file ids.
+        VirtualFileManager.getInstance().syncFileIds();
+        db.commit();
+        for (MapDBIndexWrapper wrapper : wrappers.values()) {
+            wrapper.publishGeneration();
+        }
+        committedGeneration.incrementAndGet();
+    }
+
+    /**
+     * @return number of write generations committed and visible to queries.
+     */
+    public long getCommittedGeneration() {
+        return committedGeneration.get();
+    }
+
+    /**
+     * @return files whose content digest matched their stamp, so mapping was skipped.
+     */
+    public long getUnchangedFileCount() {
+        return unchangedCount.get();
+    }
+
+    /**
+     * @return postings written or removed so far; postings whose payload did not change are not counted.
+     */
+    public long getPostingWriteCount() {
+        return postingWrites.get();
+    }
+
+    /**
+     * @return per-stage counters of the indexing pipeline (read, map, serialize, write).
+     */
+    public List<IndexingPipeline.StageMetrics> getPipelineMetrics() {
+        return pipeline.getMetrics();
     }
 
     @Override
     public void processRoots(Iterable<FileObject> roots) {
-        isIndexing.set(true);
         processedCount.set(0);
-        activeCount.set(0);
 
-        try {
-            var allFilesStream = StreamSupport.stream(roots.spliterator(), false)
-                    .flatMap(FileUtil::childrenStream);
-//                            .filter(file -> !stampStore.isUpToDate(file) || hasAnyPendingIndex(file));
+        for (FileObject root : roots) {
+            origins.addRoot(root);
+        }
 
-            StreamUtils.batch(allFilesStream, 15_000)
-                    .parallel()
-                    .forEach(this::processBatch);
+        try {
+            // Traversal is throttled by the read stage's queue budget.
+            StreamSupport.stream(roots.spliterator(), false)
+                    .flatMap(FileUtil::childrenStream)
+                    .forEach(this::submit);
         } finally {
             finishIndexing();
         }
     }
 
+    private void submit(FileObject file) {
+        try {
+            pipeline.submit(file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Indexing interrupted");
+        }
+    }
+
     private boolean hasAnyPendingIndex(FileObject file) {
         return definitions.values().stream().filter(it -> it.supports(file))
                 .map(IndexDefinition::id)
@@ -172,8 +184,8 @@ public abstract class AbstractIndexManager implements IndexManager {
 
     public IndexingProgressSnapshot getProgressSnapshot() {
         return new IndexingProgressSnapshot(
-                0,
-                activeCount.get(),
+                pipeline.queuedFiles(),
+                pipeline.runningFiles(),
                 processedCount.get(),
                 currentFilePath
         );
@@ -187,103 +199,78 @@ public abstract class AbstractIndexManager implements IndexManager {
         long last = lastProgressTime.get();
         if (now - last > 100) {
             if (lastProgressTime.compareAndSet(last, now)) {
-                IndexingProgressSnapshot snapshot = getProgressSnapshot();
-                for (IndexingProgressListener listener : progressListeners) {
-                    listener.onProgress(snapshot);
-                }
+                fireProgress();
             }
         }
     }
 
+    private void fireProgress() {
+        IndexingProgressSnapshot snapshot = getProgressSnapshot();
+        for (IndexingProgressListener listener : progressListeners) {
+            listener.onProgress(snapshot);
+        }
+    }
+
+    /**
+     * Waits for all submitted files to be written and committed, then reports the idle state.
+     */
     public void finishIndexing() {
-        isIndexing.set(false);
+        flush();
         currentFilePath = null;
-        notifyProgress();
-
-        writerExecutor.shutdown();
-        try {
-            if (!writerExecutor.awaitTermination(1, TimeUnit.HOURS)) {
-                System.err.println("Timed out waiting for index writer to finish.");
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        db.commit();
+        fireProgress();
     }
 
+    /**
+     * @throws IndexingPipeline.CommitFailedException if files written since the previous flush were lost.
+     */
     public void flush() {
-        CountDownLatch latch = new CountDownLatch(1);
         try {
-            writeQueue.put(new QueueEntry(latch));
-            latch.await();
+            pipeline.flush();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             System.err.println("Flush interrupted");
+        } finally {
+            fireProgress();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public Map<IndexDefinition<?, ?>, List<BatchResult>> processFile(FileObject file) {
-        activeCount.incrementAndGet();
-        currentFilePath = file.getName();
-        notifyProgress();
-
-        try {
-            Object helper = createHelperForFile(file);
-            int fileId = file.getId();
+    /**
+     * Stops the pipeline workers. Files still queued are dropped.
+     */
+    protected void shutdownIndexing() {
+        pipeline.shutdown();
+    }
 
-            return definitions.values().parallelStream()
-                    .filter(def -> def.supports(file))
-                    .map(def -> {
-                        try {
-                            Map<?, ?> map = def.map(file, helper);
-                            return new ResultPair(def, map);
-                        } catch (Exception e) {
-                            System.err.println("Failed to index file " + file.getName() + " for index " + def.id() + ": " + e.getMessage());
-                            return new ResultPair(def, null);
-                        }
-                    }).filter(pair -> pair.data != null && !pair.data.isEmpty())
-                    .collect(Collectors.groupingBy(
-                            ResultPair::def,
-                            Collectors.mapping(
-                                    pair -> new BatchResult(fileId, file, (Map<Object, Object>) pair.data),
-                                    Collectors.toList()
-                            )
-                    ));
-        } finally {
-            activeCount.decrementAndGet();
-            processedCount.incrementAndGet();
-            notifyProgress();
+    @TestOnly
+    public void processBatch(List<FileObject> batch) {
+        for (FileObject file : batch) {
+            submit(file);
         }
     }
 
-    private record ResultPair(IndexDefinition<?, ?> def, Map<?, ?> data) {}
+    /**
+     * @param digest content digest, e.g. {@link FileUtil#storedCrc32} or a CRC-32 of the loaded bytes.
+     * @return the file's stamp, or null if the digest is unknown.
+     */
+    private static FileStamp stamp(FileObject file, long digest) {
+        if (digest < 0) {
+            return null;
+        }
+        try {
+            return new FileStamp(file.lastModified(), file.getLength(), digest);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
 
-    @TestOnly
-    public void processBatch(List<FileObject> batch) {
-        Map<IndexDefinition<?, ?>, List<BatchResult>> batchAccumulator = batch.parallelStream()
-//                .filter(file -> !stampStore.isUpToDate(file) || hasAnyPendingIndex(file))
-                .map(this::processFile)
-                .flatMap(map -> map.entrySet().stream())
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (list1, list2) -> {
-                            List<BatchResult> merged = new ArrayList<>(list1.size() + list2.size());
-                            merged.addAll(list1);
-                            merged.addAll(list2);
-                            return merged;
-                        }
-                ));
-
-        if (!batchAccumulator.isEmpty()) {
-            try {
-                System.out.println("Available: " + writeQueue.remainingCapacity());
-                writeQueue.put(new QueueEntry(batchAccumulator));
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    private boolean isIndexedByAll(int fileId, List<IndexDefinition<?, ?>> definitions) {
+        for (IndexDefinition<?, ?> def : definitions) {
+            MapDBIndexWrapper wrapper = wrappers.get(def.id());
+            if (wrapper == null || !wrapper.hasIndexed(fileId)) {
+                return false;
             }
         }
+        return true;
     }
 
     private Object createHelperForFile(FileObject file) {
@@ -297,67 +284,190 @@ public abstract class AbstractIndexManager implements IndexManager {
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    private <K, V> void flushToDisk(Map<IndexDefinition<?, ?>, List<BatchResult>> accumulator) {
-        accumulator.forEach((rawDef, batchResults) -> {
-            IndexDefinition<K, V> def = (IndexDefinition<K, V>) rawDef;
-            MapDBIndexWrapper wrapper = wrappers.get(def.id());
+    private final class PipelineSteps implements IndexingPipeline.Steps<LoadedFile, MappedFile, SerializedFile> {
 
-            List<PreparedWrite> preparedWrites = batchResults.parallelStream()
-                    .map(res -> prepareWrite(def, res))
-                    .toList();
+        @Override
+        public LoadedFile read(FileObject file) {
+            List<IndexDefinition<?, ?>> supporting = new ArrayList<>();
+            for (IndexDefinition<?, ?> def : definitions.values()) {
+                if (def.supports(file)) {
+                    supporting.add(def);
+                }
+            }
+            if (supporting.isEmpty()) {
+                processedCount.incrementAndGet();
+                return null;
+            }
 
-            preparedWrites.parallelStream().forEach(write -> applyWriteToDb(wrapper, write));
-        });
+            int fileId = file.getId();
+            // An archive entry's stored CRC decides before its content is inflated.
+            FileStamp stamp = contentDigests ? stamp(file, FileUtil.storedCrc32(file)) : null;
+            if (isUnchanged(fileId, stamp, supporting)) {
+                return null;
+            }
+            Object helper = createHelperForFile(file);
+            if (contentDigests && stamp == null && helper instanceof byte[] bytes) {
+                stamp = stamp(file, IndexingStampStore.digest(bytes));
+                if (isUnchanged(fileId, stamp, supporting)) {
+                    return null;
+                }
+            }
+            return new LoadedFile(file, fileId, origins.originOf(file), supporting, helper, stamp);
+        }
+
+        private boolean isUnchanged(int fileId, FileStamp stamp, List<IndexDefinition<?, ?>> supporting) {
+            if (stamp != null && stampStore.isContentUnchanged(fileId, stamp.digest) && isIndexedByAll(fileId, supporting)) {
+                // Same bytes as last time (e.g. only the mtime moved); keep the existing entries.
+                unchangedCount.incrementAndGet();
+                processedCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public MappedFile map(LoadedFile loaded) {
+            currentFilePath = loaded.file.getName();
+            notifyProgress();
+
+            List<MappedIndex> results = new ArrayList<>(loaded.definitions.size());
+            for (IndexDefinition<?, ?> def : loaded.definitions) {
+                try {
+                    Map<?, ?> map = def.map(loaded.file, loaded.helper);
+                    results.add(new MappedIndex(def, map != null ? map : Collections.emptyMap()));
+                } catch (Exception e) {
+                    System.err.println("Failed to index file " + loaded.file.getName() + " for index " + def.id() + ": " + e.getMessage());
+                }
+            }
+            if (results.isEmpty()) {
+                processedCount.incrementAndGet();
+                return null;
+            }
+            FileStamp stamp = loaded.stamp;
+            if (stamp != null && results.size() < loaded.definitions.size()) {
+                // A failed definition keeps stale entries; never let a digest match vouch for them.
+                stamp = new FileStamp(stamp.lastModified, stamp.length, -1L);
+            }
+            return new MappedFile(loaded.fileId, loaded.origin, results, stamp);
+        }
+
+        @Override
+        public SerializedFile serialize(MappedFile mapped) {
+            List<PreparedWrite> writes = new ArrayList<>(mapped.results.size());
+            for (MappedIndex result : mapped.results) {
+                writes.add(prepareWrite(result.def, mapped.fileId, mapped.origin, result.data));
+            }
+            return new SerializedFile(mapped.fileId, writes, mapped.stamp);
+        }
+
+        @Override
+        public void apply(SerializedFile serialized) {
+            for (PreparedWrite write : serialized.writes) {
+                MapDBIndexWrapper wrapper = wrappers.get(write.indexId);
+                if (wrapper != null) {
+                    applyWriteToDb(wrapper, write);
+                }
+            }
+            FileStamp stamp = serialized.stamp;
+            if (stamp != null) {
+                // Same transaction as the entries, so a stamp never outlives a rolled-back write.
+                stampStore.update(serialized.fileId, stamp.lastModified, stamp.length, stamp.digest);
+            }
+            processedCount.incrementAndGet();
+            notifyProgress();
+        }
+
+        @Override
+        public void commit() {
+            commitGeneration();
+        }
+
+        @Override
+        public void rollback(Throwable error) {
+            db.rollback();
+            wrappers.values().forEach(MapDBIndexWrapper::discardGeneration);
+            System.err.println("Batch write failed, rolled back: " + error.getMessage());
+        }
     }
 
     @SuppressWarnings("unchecked")
-    private <K, V> PreparedWrite prepareWrite(IndexDefinition<K, V> def, BatchResult res) {
-        int fileId = res.fileId;
-        List<SerializedEntry> entries = new ArrayList<>(res.data.size());
+    private static <K, V> PreparedWrite prepareWrite(IndexDefinition<K, V> def, int fileId, String origin, Map<?, ?> data) {
+        List<SerializedEntry> entries = new ArrayList<>(data.size());
 
-        for (Map.Entry<Object, Object> entry : res.data.entrySet()) {
+        for (Map.Entry<?, ?> entry : data.entrySet()) {
             String keyStr = entry.getKey().toString();
             V value = (V) entry.getValue();
             byte[] valBytes = def.serializeValue(value);
-            entries.add(new SerializedEntry(keyStr, valBytes));
+            entries.add(new SerializedEntry(keyStr, valBytes, MapDBIndexWrapper.payloadDigest(valBytes)));
         }
 
-        return new PreparedWrite(fileId, entries);
+        return new PreparedWrite(def.id(), fileId, origin, entries);
     }
 
     private void applyWriteToDb(MapDBIndexWrapper wrapper, PreparedWrite write) {
-        Set<String> oldKeys = wrapper.getForwardKeys(write.fileId);
-        if (oldKeys != null) {
-            for (String oldKey : oldKeys) {
-                wrapper.removeInvertedByFileId(oldKey, write.fileId);
-            }
+        int size = write.entries.size();
+        String[] keys = new String[size];
+        byte[][] values = new byte[size][];
+        long[] digests = new long[size];
+        for (int i = 0; i < size; i++) {
+            SerializedEntry entry = write.entries.get(i);
+            keys[i] = entry.key;
+            values[i] = entry.packet;
+            digests[i] = entry.digest;
         }
+        postingWrites.addAndGet(wrapper.replaceFile(write.fileId, write.origin, keys, values, digests));
+    }
+
+    // Weights are rough retained-heap estimates used for the pipeline's queue budgets.
 
-        Set<String> newKeys = new HashSet<>();
-        for (SerializedEntry entry : write.entries) {
-            wrapper.putInverted(entry.key, write.fileId, entry.packet);
-            newKeys.add(entry.key);
+    private record FileStamp(long lastModified, long length, long digest) {}
+
+    private record LoadedFile(FileObject file, int fileId, String origin,
+                              List<IndexDefinition<?, ?>> definitions, Object helper,
+                              FileStamp stamp) implements IndexingPipeline.Weighted {
+        @Override
+        public long weight() {
+            return 256 + (helper instanceof byte[] bytes ? bytes.length : 0);
         }
+    }
 
-        wrapper.putForward(write.fileId, newKeys);
+    private record MappedIndex(IndexDefinition<?, ?> def, Map<?, ?> data) {}
 
-//        stampStore.update(VirtualFileManager.getInstance().findById(write.fileId));
+    private record MappedFile(int fileId, String origin, List<MappedIndex> results, FileStamp stamp) implements IndexingPipeline.Weighted {
+        @Override
+        public long weight() {
+            long weight = 128;
+            for (MappedIndex result : results) {
+                weight += 64 + 128L * result.data.size();
+            }
+            return weight;
+        }
+    }
+
+    private record SerializedFile(int fileId, List<PreparedWrite> writes, FileStamp stamp) implements IndexingPipeline.Weighted {
+        @Override
+        public long weight() {
+            long weight = 128;
+            for (PreparedWrite write : writes) {
+                weight += 64;
+                for (SerializedEntry entry : write.entries) {
+                    weight += 48 + 2L * entry.key.length() + entry.packet.length;
+                }
+            }
+            return weight;
+        }
     }
 
     protected record PreparedWrite(
+            String indexId,
             int fileId,
+            String origin,
             List<SerializedEntry> entries
     ) {}
 
     protected record SerializedEntry(
             String key,
-            byte[] packet
-    ) {}
-
-    public record BatchResult(
-            int fileId,
-            FileObject file,
-            Map<Object, Object> data
+            byte[] packet,
+            long digest
     ) {}
-}
\ No newline at end of file
+}
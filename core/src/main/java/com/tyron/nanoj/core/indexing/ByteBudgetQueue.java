@@ -0,0 +1,151 @@
+package com.tyron.nanoj.core.indexing;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking FIFO bounded by the summed weight (estimated bytes) of its items rather than their count.
+ * <p>
+ * An item heavier than the whole budget is still accepted once the queue is empty, so a single large
+ * file cannot dead-lock a stage.
+ */
+final class ByteBudgetQueue<T> {
+
+    private record Slot<T>(T item, long weight) {}
+
+    private final long capacityBytes;
+    private final ArrayDeque<Slot<T>> slots = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private long usedBytes;
+    private long peakBytes;
+    private boolean closed;
+
+    ByteBudgetQueue(long capacityBytes) {
+        this.capacityBytes = Math.max(1, capacityBytes);
+    }
+
+    /**
+     * Blocks while the item does not fit. Items offered after {@link #close()} are dropped.
+     *
+     * @return false if the queue was closed.
+     */
+    boolean put(T item, long weight) throws InterruptedException {
+        long w = Math.max(0, weight);
+        lock.lockInterruptibly();
+        try {
+            while (!closed && usedBytes > 0 && usedBytes + w > capacityBytes) {
+                notFull.await();
+            }
+            if (closed) {
+                return false;
+            }
+            slots.addLast(new Slot<>(item, w));
+            usedBytes += w;
+            peakBytes = Math.max(peakBytes, usedBytes);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until an item is available.
+     *
+     * @return the next item, or null once the queue is closed and drained.
+     */
+    T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits at most {@code timeoutNanos} for an item.
+     *
+     * @return the next item, or null if none arrived in time or the queue is closed and drained.
+     */
+    T poll(long timeoutNanos) throws InterruptedException {
+        long remaining = timeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty() && !closed && remaining > 0) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T removeFirst() {
+        Slot<T> slot = slots.pollFirst();
+        if (slot == null) {
+            return null;
+        }
+        usedBytes -= slot.weight;
+        notFull.signalAll();
+        return slot.item;
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return slots.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long usedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long peakBytes() {
+        lock.lock();
+        try {
+            return peakBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long capacityBytes() {
+        return capacityBytes;
+    }
+}
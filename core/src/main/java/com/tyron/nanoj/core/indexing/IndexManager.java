@@ -9,6 +9,7 @@ import com.tyron.nanoj.api.vfs.*;
 import com.tyron.nanoj.core.dumb.DumbCore;
 import com.tyron.nanoj.api.indexing.IndexDefinition;
 import com.tyron.nanoj.core.service.ProjectServiceManager;
+import com.tyron.nanoj.core.vfs.FileObjectTreeIterator;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
@@ -136,7 +137,7 @@ public class IndexManager implements Disposable {
     private final Map<String, IndexDefinition<?, ?>> definitions = new ConcurrentHashMap<>();
     private final Map<String, MapDBIndexWrapper> wrappers = new ConcurrentHashMap<>();
 
-    // rhread-safe access: readers (completion) acquire read lock; writers (indexing) acquire write lock
+    // serializes writers only; readers never lock and see the last generation published by commitAndPublish()
     private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
 
     private static final class SharedIndexStore {
@@ -258,6 +259,21 @@ public class IndexManager implements Disposable {
 
                 updateFile(newFile);
             }
+
+            @Override
+            public void filesChanged(BulkFileEvent event) {
+                for (FileRenameEvent renamed : event.getRenamed()) {
+                    fileRenamed(renamed);
+                }
+                // One indexing batch and one removal commit instead of a task per file.
+                List<FileObject> updated = new ArrayList<>(event.getCreated().size() + event.getChanged().size());
+                updated.addAll(event.getCreated());
+                updated.addAll(event.getChanged());
+                if (!updated.isEmpty()) {
+                    updateFilesAsync(updated);
+                }
+                removeFilesAsync(event.getDeleted());
+            }
         };
     }
 
@@ -281,7 +297,11 @@ public class IndexManager implements Disposable {
         }
 
         definitions.put(def.id(), def);
-        MapDBIndexWrapper wrapper = wrappers.computeIfAbsent(def.id(), id -> new MapDBIndexWrapper(db, id));
+        MapDBIndexWrapper wrapper = wrappers.computeIfAbsent(def.id(), id -> {
+            MapDBIndexWrapper created = new MapDBIndexWrapper(db, id);
+            created.enableReadIsolation();
+            return created;
+        });
 
         try {
             Integer prev = definitionVersionStore.getStoredVersion(def.id());
@@ -292,7 +312,7 @@ public class IndexManager implements Disposable {
                 indexLock.writeLock().lock();
                 try {
                     wrapper.clear();
-                    db.commit();
+                    commitAndPublish();
                 } finally {
                     indexLock.writeLock().unlock();
                 }
@@ -563,7 +583,7 @@ public class IndexManager implements Disposable {
                     } catch (Throwable ignored) {
                     }
                     try {
-                        db.commit();
+                        commitAndPublish();
                     } catch (Throwable ignored) {
                     }
                 } finally {
@@ -634,25 +654,39 @@ public class IndexManager implements Disposable {
             return false;
         }
 
-        indexLock.readLock().lock();
-        try {
-            for (IndexDefinition<?, ?> def : definitions.values()) {
-                if (def == null) {
+        for (IndexDefinition<?, ?> def : definitions.values()) {
+            if (def == null) {
+                continue;
+            }
+            try {
+                if (!def.supports(file)) {
                     continue;
                 }
-                try {
-                    if (!def.supports(file)) {
-                        continue;
-                    }
-//                    if (def.isOutdated(file, stampStore)) {
-//                        return true;
-//                    }
-                } catch (Throwable ignored) {
-                }
+//                if (def.isOutdated(file, stampStore)) {
+//                    return true;
+//                }
+            } catch (Throwable ignored) {
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Commits and publishes the written generation to index readers. Caller holds the index write lock.
+     */
+    private void commitAndPublish() {
+        for (MapDBIndexWrapper wrapper : wrappers.values()) {
+            if (wrapper != null) {
+                wrapper.prepareCommit();
+            }
+        }
+        // postings store file ids.
+        VirtualFileManager.getInstance().syncFileIds();
+        db.commit();
+        for (MapDBIndexWrapper wrapper : wrappers.values()) {
+            if (wrapper != null) {
+                wrapper.publishGeneration();
             }
-            return false;
-        } finally {
-            indexLock.readLock().unlock();
         }
     }
 
@@ -858,7 +892,7 @@ public class IndexManager implements Disposable {
                     }
                 }
 
-                db.commit();
+                commitAndPublish();
             } finally {
                 indexLock.writeLock().unlock();
             }
@@ -994,7 +1028,7 @@ public class IndexManager implements Disposable {
                     }
                 }
 
-                db.commit();
+                commitAndPublish();
 
             } finally {
                 indexLock.writeLock().unlock();
@@ -1115,7 +1149,7 @@ public class IndexManager implements Disposable {
 //                    stampStore.update(def.id(), def.getVersion(), path, file);
                 }
 
-                db.commit();
+                commitAndPublish();
 
             } finally {
                 indexLock.writeLock().unlock();
@@ -1447,45 +1481,27 @@ public class IndexManager implements Disposable {
             return CompletableFuture.completedFuture(null);
         }
 
-        Deque<FileObject> stack = new ArrayDeque<>();
-        stack.push(root);
-
         ArrayList<FileObject> batch = new ArrayList<>(traversalBatchSize);
         CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
 
-        while (!stack.isEmpty()) {
-            if (disposed.get() || !project.isOpen()) {
-                break;
-            }
-
-            FileObject cur = stack.pop();
-            if (cur == null) continue;
-
-            if (cur.isFolder()) {
-                List<FileObject> kids;
-                try {
-                    kids = cur.getChildren();
-                } catch (Throwable ignored) {
-                    kids = List.of();
-                }
-                if (kids == null || kids.isEmpty()) continue;
-                for (FileObject k : kids) {
-                    if (k != null) {
-                        stack.push(k);
-                    }
+        // Streams each folder's listing instead of materializing every pending sibling.
+        try (FileObjectTreeIterator files = new FileObjectTreeIterator(root)) {
+            while (files.hasNext()) {
+                if (disposed.get() || !project.isOpen()) {
+                    break;
                 }
-                continue;
-            }
 
-            if (!shouldIndex(cur)) {
-                continue;
-            }
+                FileObject cur = files.next();
+                if (!shouldIndex(cur)) {
+                    continue;
+                }
 
-            batch.add(cur);
-            if (batch.size() >= traversalBatchSize) {
-                List<FileObject> toSubmit = new ArrayList<>(batch);
-                batch.clear();
-                chain = chain.thenCompose(v -> asCompletableVoid(updateFilesAsyncLeaf(toSubmit)));
+                batch.add(cur);
+                if (batch.size() >= traversalBatchSize) {
+                    List<FileObject> toSubmit = new ArrayList<>(batch);
+                    batch.clear();
+                    chain = chain.thenCompose(v -> asCompletableVoid(updateFilesAsyncLeaf(toSubmit)));
+                }
             }
         }
 
@@ -1604,6 +1620,11 @@ public class IndexManager implements Disposable {
             }
 
             if (!db.isClosed()) {
+                for (MapDBIndexWrapper wrapper : wrappers.values()) {
+                    if (wrapper != null) {
+                        wrapper.prepareCommit();
+                    }
+                }
                 db.commit();
                 db.close();
             }
@@ -1698,39 +1719,89 @@ public class IndexManager implements Disposable {
         return future;
     }
 
-    private void removeFileFromAllIndices(int fileId) {
-        if (fileId <= 0) {
-            return;
+    /**
+     * Removes several files in one write task and one commit.
+     */
+    private Future<?> removeFilesAsync(List<FileObject> files) {
+        if (disposed.get() || !project.isOpen() || files.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
         }
 
-        indexLock.writeLock().lock();
+        final List<Integer> fileIds = new ArrayList<>(files.size());
+        for (FileObject file : files) {
+            int fileId = safeVfsId(file);
+            if (fileId > 0) {
+                fileIds.add(fileId);
+            }
+        }
+        if (fileIds.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
         try {
-            for (MapDBIndexWrapper wrapper : wrappers.values()) {
-                if (wrapper == null) continue;
-                Set<String> oldKeys;
+            writeExecutor.submit(() -> {
+                indexLock.writeLock().lock();
                 try {
-                    oldKeys = wrapper.getForwardKeys(fileId);
-                } catch (Throwable t) {
-                    continue;
-                }
-
-                for (String oldKey : oldKeys) {
+                    for (int fileId : fileIds) {
+                        removePostings(fileId);
+                    }
                     try {
-                        wrapper.removeInvertedByFileId(oldKey, fileId);
+                        commitAndPublish();
                     } catch (Throwable ignored) {
                     }
+                } catch (Throwable ignored) {
+                } finally {
+                    indexLock.writeLock().unlock();
+                    future.complete(null);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private void removeFileFromAllIndices(int fileId) {
+        if (fileId <= 0) {
+            return;
+        }
+
+        indexLock.writeLock().lock();
+        try {
+            removePostings(fileId);
+            try {
+                commitAndPublish();
+            } catch (Throwable ignored) {
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Caller must hold the write lock.
+     */
+    private void removePostings(int fileId) {
+        for (MapDBIndexWrapper wrapper : wrappers.values()) {
+            if (wrapper == null) continue;
+            Set<String> oldKeys;
+            try {
+                oldKeys = wrapper.getForwardKeys(fileId);
+            } catch (Throwable t) {
+                continue;
+            }
+
+            for (String oldKey : oldKeys) {
                 try {
-                    wrapper.removeForward(fileId);
+                    wrapper.removeInvertedByFileId(oldKey, fileId);
                 } catch (Throwable ignored) {
                 }
             }
             try {
-                db.commit();
+                wrapper.removeForward(fileId);
             } catch (Throwable ignored) {
             }
-        } finally {
-            indexLock.writeLock().unlock();
         }
     }
-}
\ No newline at end of file
+}
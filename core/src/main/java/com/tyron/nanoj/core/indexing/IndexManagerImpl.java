@@ -6,45 +6,55 @@ import com.tyron.nanoj.api.indexing.SearchScope;
 import com.tyron.nanoj.api.project.Project;
 
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
+/**
+ * Query side of the index. Queries take no locks: each {@link MapDBIndexWrapper} serves the last
+ * committed generation while the index writer thread applies the next one.
+ */
 public class IndexManagerImpl extends AbstractIndexManager {
 
-    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /**
+     * Whether scopes of a class override {@link SearchScope#mayContainOrigin(String)}; the others accept every
+     * origin and are queried with {@link MapDBIndexWrapper#ALL_ORIGINS}.
+     */
+    private static final ClassValue<Boolean> FILTERS_ORIGINS = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("mayContainOrigin", String.class).getDeclaringClass() != SearchScope.class;
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+    };
 
     public IndexManagerImpl() {
 
     }
 
+    static Predicate<String> originFilter(SearchScope scope) {
+        return FILTERS_ORIGINS.get(scope.getClass()) ? scope::mayContainOrigin : MapDBIndexWrapper.ALL_ORIGINS;
+    }
+
     /**
      * Iterates over values for a specific exact key.
      */
     @SuppressWarnings("unchecked")
     public <K, V> boolean processValues(String indexId, String key, SearchScope scope, IndexProcessor<V> processor) {
-        indexLock.readLock().lock();
-        try {
-            MapDBIndexWrapper wrapper = wrappers.get(indexId);
-            IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
+        MapDBIndexWrapper wrapper = wrappers.get(indexId);
+        IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
 
-            if (wrapper == null || def == null) return true;
+        if (wrapper == null || def == null) return true;
 
-            Map<MapDBIndexWrapper.InvertedKey, byte[]> rawPackets = wrapper.getValues(key);
+        return wrapper.processValues(key, originFilter(scope), (k, fileId, v) -> {
+            if (scope.contains(fileId)) {
+                V value = def.deserializeValue(v);
 
-            for (Map.Entry<MapDBIndexWrapper.InvertedKey, byte[]> entry : rawPackets.entrySet()) {
-                MapDBIndexWrapper.InvertedKey invertedKey = entry.getKey();
-                byte[] v = entry.getValue();
-                if (scope.contains(invertedKey.fileId())) {
-                    V value = def.deserializeValue(v);
-
-                    if (!processor.process(invertedKey.fileId(), value)) {
-                        return false;
-                    }
-                }
+                return processor.process(fileId, value);
             }
             return true;
-        } finally {
-            indexLock.readLock().unlock();
-        }
+        });
     }
 
     /**
@@ -52,29 +62,19 @@ public class IndexManagerImpl extends AbstractIndexManager {
      */
     @SuppressWarnings("unchecked")
     public <K, V> boolean processPrefix(String indexId, String prefix, SearchScope scope, IndexProcessor<V> processor) {
-        indexLock.readLock().lock();
-        try {
-            MapDBIndexWrapper wrapper = wrappers.get(indexId);
-            IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
-
-            if (wrapper == null || def == null) return true;
-
-            Map<MapDBIndexWrapper.InvertedKey, byte[]> prefixMatches = wrapper.searchPrefix(prefix);
-
-            for (Map.Entry<MapDBIndexWrapper.InvertedKey, byte[]> entry : prefixMatches.entrySet()) {
-                if (scope.contains(entry.getKey().fileId())) {
-                    V value = def.deserializeValue(entry.getValue());
-                    
-                    if (!processor.process(entry.getKey().fileId(), value)) {
-                        return false;
-                    }
-                }
-            }
+        MapDBIndexWrapper wrapper = wrappers.get(indexId);
+        IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
 
+        if (wrapper == null || def == null) return true;
+
+        return wrapper.processPrefix(prefix, originFilter(scope), (k, fileId, v) -> {
+            if (scope.contains(fileId)) {
+                V value = def.deserializeValue(v);
+
+                return processor.process(fileId, value);
+            }
             return true;
-        } finally {
-            indexLock.readLock().unlock();
-        }
+        });
     }
 
     /**
@@ -82,32 +82,19 @@ public class IndexManagerImpl extends AbstractIndexManager {
      */
     @SuppressWarnings("unchecked")
     public <K, V> boolean processPrefixWithKeys(String indexId, String prefix, SearchScope scope, com.tyron.nanoj.api.indexing.KeyedIndexProcessor<V> processor) {
-        indexLock.readLock().lock();
-        try {
-            MapDBIndexWrapper wrapper = wrappers.get(indexId);
-            IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
-
-            if (wrapper == null || def == null) return true;
-
-            Map<MapDBIndexWrapper.InvertedKey, byte[]> prefixMatches = wrapper.searchPrefix(prefix);
+        MapDBIndexWrapper wrapper = wrappers.get(indexId);
+        IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
 
-            for (Map.Entry<MapDBIndexWrapper.InvertedKey, byte[]> entry : prefixMatches.entrySet()) {
-                String key = entry.getKey().key();
-                byte[] value = entry.getValue();
+        if (wrapper == null || def == null) return true;
 
-                if (scope.contains(entry.getKey().fileId())) {
-                    V v = def.deserializeValue(value);
+        return wrapper.processPrefix(prefix, originFilter(scope), (key, fileId, value) -> {
+            if (scope.contains(fileId)) {
+                V v = def.deserializeValue(value);
 
-                    if (!processor.process(key, entry.getKey().fileId(), v)) {
-                        return false;
-                    }
-                }
+                return processor.process(key, fileId, v);
             }
-
             return true;
-        } finally {
-            indexLock.readLock().unlock();
-        }
+        });
     }
 
     public <K, V> List<V> search(String indexId, String key) {
@@ -124,28 +111,21 @@ public class IndexManagerImpl extends AbstractIndexManager {
      */
     @SuppressWarnings("unchecked")
     public <K, V> Map<String, List<V>> searchPrefix(String indexId, String prefix) {
-        indexLock.readLock().lock();
-        try {
-            MapDBIndexWrapper wrapper = wrappers.get(indexId);
-            IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
+        MapDBIndexWrapper wrapper = wrappers.get(indexId);
+        IndexDefinition<K, V> def = (IndexDefinition<K, V>) definitions.get(indexId);
 
-            if (wrapper == null || def == null) return Collections.emptyMap();
+        if (wrapper == null || def == null) return Collections.emptyMap();
 
-            Map<MapDBIndexWrapper.InvertedKey, byte[]> rawMap = wrapper.searchPrefix(prefix);
-            Map<String, List<V>> result = new HashMap<>();
-
-            for (Map.Entry<MapDBIndexWrapper.InvertedKey, byte[]> entry : rawMap.entrySet()) {
-                Objects.requireNonNull(result.putIfAbsent(entry.getKey().key(), new ArrayList<>()))
-                        .add(def.deserializeValue(entry.getValue()));
-            }
-            return result;
-        } finally {
-            indexLock.readLock().unlock();
-        }
+        Map<String, List<V>> result = new HashMap<>();
+        wrapper.processPrefix(prefix, (key, fileId, value) -> {
+            result.computeIfAbsent(key, k -> new ArrayList<>()).add(def.deserializeValue(value));
+            return true;
+        });
+        return result;
     }
 
     @Override
     public void dispose() {
-
+        shutdownIndexing();
     }
 }
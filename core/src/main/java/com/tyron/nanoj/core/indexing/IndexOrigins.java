@@ -0,0 +1,75 @@
+package com.tyron.nanoj.core.indexing;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns indexed files to origins, the partitions {@link MapDBIndexWrapper} groups postings by.
+ * <p>
+ * An origin is a URI prefix (see {@link com.tyron.nanoj.api.indexing.SearchScope#mayContainOrigin(String)}):
+ * <ul>
+ *     <li>archive entries: {@code jar:<archive>!/}</li>
+ *     <li>jrt entries: {@code jrt:/modules/<module>/}</li>
+ *     <li>files under a registered root folder: that root ({@code file:/.../src/})</li>
+ *     <li>anything else: its scheme ({@code file:})</li>
+ * </ul>
+ */
+public final class IndexOrigins {
+
+    private static final String JRT_MODULES = "jrt:/modules/";
+
+    private final Set<String> folderRoots = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Makes files under {@code root} (if it is a folder) their own origin.
+     */
+    public void addRoot(FileObject root) {
+        if (root == null || !root.isFolder()) {
+            return;
+        }
+        try {
+            String uri = root.toUri().normalize().toString();
+            folderRoots.add(uri.endsWith("/") ? uri : uri + "/");
+        } catch (Throwable ignored) {
+            // best-effort; files under this root fall back to the scheme origin.
+        }
+    }
+
+    public String originOf(FileObject file) {
+        URI uri;
+        try {
+            uri = file.toUri();
+        } catch (Throwable t) {
+            return MapDBIndexWrapper.DEFAULT_ORIGIN;
+        }
+        if (uri == null) {
+            return MapDBIndexWrapper.DEFAULT_ORIGIN;
+        }
+        String s = uri.normalize().toString();
+
+        if (s.startsWith("jar:")) {
+            int bang = s.indexOf("!/");
+            return bang >= 0 ? s.substring(0, bang + 2) : s;
+        }
+        if (s.startsWith(JRT_MODULES)) {
+            int slash = s.indexOf('/', JRT_MODULES.length());
+            return slash >= 0 ? s.substring(0, slash + 1) : s + "/";
+        }
+
+        String best = null;
+        for (String root : folderRoots) {
+            if (s.startsWith(root) && (best == null || root.length() > best.length())) {
+                best = root;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+
+        int colon = s.indexOf(':');
+        return colon > 0 ? s.substring(0, colon + 1) : MapDBIndexWrapper.DEFAULT_ORIGIN;
+    }
+}
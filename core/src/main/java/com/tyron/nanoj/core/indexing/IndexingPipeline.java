@@ -0,0 +1,529 @@
+package com.tyron.nanoj.core.indexing;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Staged indexing engine: <b>read</b> (VFS content, I/O bound) -> <b>map</b> ({@code IndexDefinition.map},
+ * CPU bound) -> <b>serialize</b> ({@code serializeValue}) -> <b>write</b> (single writer thread, group commit).
+ * <p>
+ * The writer commits once {@link #COMMIT_BYTES_KEY} bytes were applied, once the oldest uncommitted write is
+ * {@link #COMMIT_INTERVAL_MS_KEY} old, and on {@link #flush()}. If applying a file fails, the write generation
+ * is rolled back, the files applied since the last commit are applied again and the failed file is dropped.
+ * If a commit fails, the generation is rolled back, applied again and committed once more; if that fails too,
+ * its files are lost and the next {@link #flush()} throws a {@link CommitFailedException} naming them.
+ * <p>
+ * Every stage has its own workers and reads from its own {@link ByteBudgetQueue}, bounded by the estimated
+ * heap size of the queued items ({@link Weighted#weight()}). A slow stage therefore throttles the stages
+ * before it, down to {@link #submit(FileObject)}, instead of letting results pile up on the heap.
+ * <p>
+ * Stage callbacks may return null to drop a file. If the same file is submitted again before its previous
+ * run was written, the older run is discarded at the write stage.
+ */
+public final class IndexingPipeline<R extends IndexingPipeline.Weighted, M extends IndexingPipeline.Weighted, S extends IndexingPipeline.Weighted> {
+
+    private static final Logger LOG = Logger.getLogger(IndexingPipeline.class.getName());
+
+    public static final String READ_THREADS_KEY = "nanoj.indexing.pipeline.readThreads";
+    public static final String MAP_THREADS_KEY = "nanoj.indexing.pipeline.mapThreads";
+    public static final String SERIALIZE_THREADS_KEY = "nanoj.indexing.pipeline.serializeThreads";
+
+    /**
+     * Budget of each stage's input queue, in estimated bytes.
+     */
+    public static final String QUEUE_BYTES_KEY = "nanoj.indexing.pipeline.queueBytes";
+
+    /**
+     * The writer commits once this many estimated bytes were applied.
+     */
+    public static final String COMMIT_BYTES_KEY = "nanoj.indexing.pipeline.commitBytes";
+
+    /**
+     * The writer commits once its oldest uncommitted write is this many milliseconds old, so results of a
+     * trickle of files become visible without a {@link #flush()}.
+     */
+    public static final String COMMIT_INTERVAL_MS_KEY = "nanoj.indexing.pipeline.commitIntervalMs";
+
+    /**
+     * Estimated footprint of a queued, not yet read file.
+     */
+    private static final long SUBMITTED_FILE_WEIGHT = 256;
+
+    public interface Weighted {
+        /**
+         * @return estimated retained heap size in bytes.
+         */
+        long weight();
+    }
+
+    /**
+     * Stage callbacks. {@link #apply}, {@link #commit} and {@link #rollback} run on the writer thread only.
+     */
+    public interface Steps<R, M, S> {
+        R read(FileObject file) throws Exception;
+
+        M map(R read) throws Exception;
+
+        S serialize(M mapped) throws Exception;
+
+        void apply(S serialized);
+
+        void commit();
+
+        void rollback(Throwable error);
+    }
+
+    /**
+     * Cumulative counters of one stage.
+     *
+     * @param busyNanos    time spent in the stage callback
+     * @param blockedNanos time spent waiting for room in the next stage's queue (backpressure)
+     */
+    public record StageMetrics(String stage,
+                               int workers,
+                               long items,
+                               long busyNanos,
+                               long blockedNanos,
+                               int queuedItems,
+                               long queuedBytes,
+                               long peakQueuedBytes,
+                               long queueCapacityBytes) {
+        @Override
+        public String toString() {
+            return String.format("%s[workers=%d, items=%d, busy=%dms, blocked=%dms, queued=%d (%d/%d KiB, peak %d KiB)]",
+                    stage, workers, items, busyNanos / 1_000_000, blockedNanos / 1_000_000,
+                    queuedItems, queuedBytes / 1024, queueCapacityBytes / 1024, peakQueuedBytes / 1024);
+        }
+    }
+
+    /**
+     * Thrown by {@link #flush()} when files written since the previous flush were lost because their generation
+     * could not be committed.
+     */
+    public static final class CommitFailedException extends RuntimeException {
+        private final List<String> lostPaths;
+
+        CommitFailedException(List<String> lostPaths, Throwable cause) {
+            super("Index commit failed, " + lostPaths.size() + " file(s) were not written", cause);
+            this.lostPaths = List.copyOf(lostPaths);
+        }
+
+        /**
+         * @return the paths whose writes were rolled back for good.
+         */
+        public List<String> getLostPaths() {
+            return lostPaths;
+        }
+    }
+
+    /**
+     * A file travelling through the stages, tagged with its submission sequence.
+     */
+    private record Envelope(String path, long seq, Object item, CompletableFuture<Void> commitSignal) {
+        Envelope with(Object next) {
+            return new Envelope(path, seq, next, null);
+        }
+    }
+
+    /**
+     * Newest submission of a path and how many of its envelopes are still in flight. Kept until the last one
+     * finished, so an older envelope is still recognized as superseded after a newer one was dropped early.
+     */
+    private record Submissions(long latest, int inFlight) {}
+
+    private final class Stage {
+        final String name;
+        final int workers;
+        final ByteBudgetQueue<Envelope> input;
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder blockedNanos = new LongAdder();
+
+        Stage(String name, int workers, long queueBytes) {
+            this.name = name;
+            this.workers = workers;
+            this.input = new ByteBudgetQueue<>(queueBytes);
+        }
+
+        StageMetrics metrics() {
+            return new StageMetrics(name, workers, items.sum(), busyNanos.sum(), blockedNanos.sum(),
+                    input.size(), input.usedBytes(), input.peakBytes(), input.capacityBytes());
+        }
+    }
+
+    private final Steps<R, M, S> steps;
+    private final Stage readStage;
+    private final Stage mapStage;
+    private final Stage serializeStage;
+    private final Stage writeStage;
+    private final long commitBytes;
+    private final long commitIntervalNanos;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, Submissions> submissions = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Object drainLock = new Object();
+    private long inFlight;
+
+    // Writer thread only: paths lost by failed commits since the last flush, and the first failure.
+    private final List<String> lostPaths = new ArrayList<>();
+    private Throwable commitFailure;
+
+    IndexingPipeline(String name, Steps<R, M, S> steps) {
+        this.steps = steps;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        long queueBytes = Math.max(64 * 1024, Long.getLong(QUEUE_BYTES_KEY, 16L * 1024 * 1024));
+        this.commitBytes = Math.max(1, Long.getLong(COMMIT_BYTES_KEY, 8L * 1024 * 1024));
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong(COMMIT_INTERVAL_MS_KEY, 100)));
+
+        this.readStage = new Stage("read", intConfig(READ_THREADS_KEY, 2), queueBytes);
+        this.mapStage = new Stage("map", intConfig(MAP_THREADS_KEY, Math.max(1, cpus - 1)), queueBytes);
+        this.serializeStage = new Stage("serialize", intConfig(SERIALIZE_THREADS_KEY, Math.max(1, cpus / 4)), queueBytes);
+        this.writeStage = new Stage("write", 1, queueBytes);
+
+        startWorkers(name + "-Read", readStage, mapStage, f -> steps.read((FileObject) f));
+        startWorkers(name + "-Map", mapStage, serializeStage, r -> steps.map(cast(r)));
+        startWorkers(name + "-Serialize", serializeStage, writeStage, m -> steps.serialize(cast(m)));
+        start(new Thread(this::writeLoop, name + "-Writer-Thread"));
+    }
+
+    private static int intConfig(String key, int defaultValue) {
+        return Math.max(1, Integer.getInteger(key, defaultValue));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object o) {
+        return (T) o;
+    }
+
+    @FunctionalInterface
+    private interface StageFunction {
+        Object apply(Object in) throws Exception;
+    }
+
+    /**
+     * Queues a file for indexing, blocking while the read stage is over budget.
+     */
+    public void submit(FileObject file) throws InterruptedException {
+        String path = file.getPath();
+        long seq = sequence.incrementAndGet();
+        submissions.merge(path, new Submissions(seq, 1),
+                (s, added) -> new Submissions(Math.max(s.latest, seq), s.inFlight + 1));
+        synchronized (drainLock) {
+            inFlight++;
+        }
+        Envelope envelope = new Envelope(path, seq, file, null);
+        if (!readStage.input.put(envelope, SUBMITTED_FILE_WEIGHT)) {
+            finished(envelope);
+        }
+    }
+
+    /**
+     * Waits until every submitted file went through the writer and the result is committed.
+     *
+     * @throws CommitFailedException if files written since the previous flush could not be committed.
+     */
+    public void flush() throws InterruptedException {
+        synchronized (drainLock) {
+            while (inFlight > 0) {
+                drainLock.wait();
+            }
+        }
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        if (writeStage.input.put(new Envelope(null, 0, null, committed), 0)) {
+            try {
+                committed.get();
+            } catch (ExecutionException e) {
+                throw (CommitFailedException) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * @return files submitted but not yet written, excluding {@link #runningFiles()}.
+     */
+    public int queuedFiles() {
+        long pending;
+        synchronized (drainLock) {
+            pending = inFlight;
+        }
+        return (int) Math.max(0, pending - running.get());
+    }
+
+    /**
+     * @return files currently inside a stage callback.
+     */
+    public int runningFiles() {
+        return running.get();
+    }
+
+    /**
+     * @return paths with envelopes still in flight.
+     */
+    int trackedPaths() {
+        return submissions.size();
+    }
+
+    public List<StageMetrics> getMetrics() {
+        return List.of(readStage.metrics(), mapStage.metrics(), serializeStage.metrics(), writeStage.metrics());
+    }
+
+    /**
+     * Stops all workers; queued files are dropped.
+     */
+    public void shutdown() {
+        readStage.input.close();
+        mapStage.input.close();
+        serializeStage.input.close();
+        writeStage.input.close();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    private void startWorkers(String name, Stage stage, Stage next, StageFunction function) {
+        for (int i = 0; i < stage.workers; i++) {
+            start(new Thread(() -> workLoop(stage, next, function), name + "-" + i));
+        }
+    }
+
+    private void start(Thread thread) {
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void workLoop(Stage stage, Stage next, StageFunction function) {
+        try {
+            Envelope envelope;
+            while ((envelope = stage.input.take()) != null) {
+                if (isSuperseded(envelope)) {
+                    finished(envelope);
+                    continue;
+                }
+
+                Object out = null;
+                running.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    out = function.apply(envelope.item);
+                } catch (Throwable t) {
+                    LOG.log(Level.WARNING, "Indexing " + stage.name + " failed for " + envelope.path, t);
+                } finally {
+                    stage.busyNanos.add(System.nanoTime() - start);
+                    stage.items.increment();
+                    running.decrementAndGet();
+                }
+
+                if (out == null) {
+                    finished(envelope);
+                    continue;
+                }
+
+                long waitStart = System.nanoTime();
+                boolean accepted = next.input.put(envelope.with(out), ((Weighted) out).weight());
+                stage.blockedNanos.add(System.nanoTime() - waitStart);
+                if (!accepted) {
+                    finished(envelope);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        // applied since the last commit, kept to be applied again if the generation is rolled back.
+        List<Envelope> uncommitted = new ArrayList<>();
+        long uncommittedBytes = 0;
+        long commitDeadline = 0;
+        try {
+            while (true) {
+                Envelope envelope;
+                if (uncommitted.isEmpty()) {
+                    envelope = writeStage.input.take();
+                    if (envelope == null) {
+                        return;
+                    }
+                } else {
+                    envelope = writeStage.input.poll(commitDeadline - System.nanoTime());
+                    if (envelope == null) {
+                        commit(uncommitted);
+                        uncommittedBytes = 0;
+                        continue;
+                    }
+                }
+
+                if (envelope.commitSignal != null) {
+                    try {
+                        commit(uncommitted);
+                    } finally {
+                        uncommittedBytes = 0;
+                        signalCommitted(envelope.commitSignal);
+                    }
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    if (!isSuperseded(envelope)) {
+                        if (apply(envelope)) {
+                            if (uncommitted.isEmpty()) {
+                                commitDeadline = start + commitIntervalNanos;
+                            }
+                            uncommitted.add(envelope);
+                            uncommittedBytes += ((Weighted) envelope.item).weight();
+                        } else {
+                            uncommittedBytes = reapply(uncommitted);
+                        }
+                    }
+                } finally {
+                    writeStage.busyNanos.add(System.nanoTime() - start);
+                    writeStage.items.increment();
+                }
+
+                if (uncommittedBytes >= commitBytes) {
+                    commit(uncommitted);
+                    uncommittedBytes = 0;
+                }
+                finished(envelope);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies one file. If it fails, the write generation is rolled back, since the file may be half written.
+     *
+     * @return false if the file failed and the generation was rolled back.
+     */
+    private boolean apply(Envelope envelope) {
+        try {
+            steps.apply(cast(envelope.item));
+            return true;
+        } catch (Throwable t) {
+            LOG.log(Level.WARNING, "Index write failed for " + envelope.path + ", rolling back", t);
+            rollback(t);
+            return false;
+        }
+    }
+
+    /**
+     * Applies the files of a rolled back generation again. A file that fails now is dropped and the
+     * generation rolled back and rebuilt without it.
+     *
+     * @return estimated bytes applied.
+     */
+    private long reapply(List<Envelope> uncommitted) {
+        retry:
+        while (true) {
+            long bytes = 0;
+            for (Iterator<Envelope> it = uncommitted.iterator(); it.hasNext(); ) {
+                Envelope envelope = it.next();
+                if (!apply(envelope)) {
+                    it.remove();
+                    continue retry;
+                }
+                bytes += ((Weighted) envelope.item).weight();
+            }
+            return bytes;
+        }
+    }
+
+    private void rollback(Throwable error) {
+        try {
+            steps.rollback(error);
+        } catch (Throwable t) {
+            LOG.log(Level.WARNING, "Index rollback failed", t);
+        }
+    }
+
+    /**
+     * Commits the generation. If that fails, it is rolled back, applied again and committed once more; if that
+     * fails as well, its files are recorded as lost for the next {@link #flush()}.
+     */
+    private void commit(List<Envelope> uncommitted) {
+        long start = System.nanoTime();
+        try {
+            Throwable error = tryCommit();
+            if (error == null) {
+                return;
+            }
+            LOG.log(Level.WARNING, "Index commit failed, rolling back and retrying", error);
+            rollback(error);
+            reapply(uncommitted);
+            Throwable retryError = tryCommit();
+            if (retryError == null) {
+                return;
+            }
+            LOG.log(Level.SEVERE, "Index commit failed again, " + uncommitted.size() + " file(s) were not written", retryError);
+            rollback(retryError);
+            for (Envelope envelope : uncommitted) {
+                lostPaths.add(envelope.path);
+            }
+            if (commitFailure == null) {
+                commitFailure = retryError;
+            }
+        } finally {
+            uncommitted.clear();
+            writeStage.busyNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private Throwable tryCommit() {
+        try {
+            steps.commit();
+            return null;
+        } catch (Throwable t) {
+            return t;
+        }
+    }
+
+    /**
+     * Completes a flush, exceptionally if commits failed since the previous one.
+     */
+    private void signalCommitted(CompletableFuture<Void> signal) {
+        if (lostPaths.isEmpty()) {
+            signal.complete(null);
+            return;
+        }
+        CommitFailedException failure = new CommitFailedException(lostPaths, commitFailure);
+        lostPaths.clear();
+        commitFailure = null;
+        signal.completeExceptionally(failure);
+    }
+
+    private boolean isSuperseded(Envelope envelope) {
+        Submissions s = submissions.get(envelope.path);
+        return s != null && s.latest > envelope.seq;
+    }
+
+    /**
+     * Called exactly once per submitted envelope, whether it was written or dropped.
+     */
+    private void finished(Envelope envelope) {
+        submissions.computeIfPresent(envelope.path,
+                (path, s) -> s.inFlight <= 1 ? null : new Submissions(s.latest, s.inFlight - 1));
+        synchronized (drainLock) {
+            inFlight--;
+            if (inFlight <= 0) {
+                inFlight = 0;
+                drainLock.notifyAll();
+            }
+        }
+    }
+}
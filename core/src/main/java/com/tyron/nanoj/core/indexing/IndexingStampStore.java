@@ -9,20 +9,23 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 /**
  * Persistent "was this file already indexed and unchanged?" tracking.
  * <p>
  * Stored in the same MapDB as indices so it survives restarts.
  * <p>
- * Note: today we use (lastModified, length). If we need stronger guarantees,
- * we can extend this to store a content hash (e.g. CRC32/SHA-256) and compute it
- * opportunistically (for example from already-read .class bytes during indexing).
+ * Tracks (lastModified, length) and, where available, a CRC-32 content digest. The digest is computed
+ * opportunistically from bytes the indexer already holds (.class bytes read as the indexing helper), or
+ * taken from archive metadata; {@link #isContentUnchanged(int, long)} is then authoritative regardless of
+ * timestamps.
  */
 public final class IndexingStampStore {
 
     private final Map<Integer, Long> indexFileIdToLastModified;
     private final Map<Integer, Long> indexFileIdToLength;
+    private final Map<Integer, Long> indexFileIdToDigest;
 
     private final Map<String, Integer> indexIdToVersion;
 
@@ -37,6 +40,11 @@ public final class IndexingStampStore {
                 .valueSerializer(Serializer.LONG)
                 .createOrOpen();
 
+        this.indexFileIdToDigest = db.hashMap("sys_file_to_digest")
+                .keySerializer(Serializer.INTEGER)
+                .valueSerializer(Serializer.LONG)
+                .createOrOpen();
+
         this.indexIdToVersion = db.hashMap("sys_index_id_to_version")
                 .keySerializer(Serializer.STRING)
                 .valueSerializer(Serializer.INTEGER)
@@ -91,6 +99,41 @@ public final class IndexingStampStore {
         indexFileIdToLength.put(file.getId(), curLen);
     }
 
+    /**
+     * @return CRC-32 of {@code bytes}, comparable with CRC-32 values stored in archive central directories.
+     */
+    public static long digest(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    /**
+     * @return true if the file was stamped with the same content digest. Unknown digests (negative) never match.
+     */
+    public boolean isContentUnchanged(int fileId, long digest) {
+        if (digest < 0) {
+            return false;
+        }
+        Long stored = indexFileIdToDigest.get(fileId);
+        return stored != null && stored == digest;
+    }
+
+    /**
+     * Stamps a file after its index entries were written.
+     *
+     * @param digest content digest, or a negative value if unknown (drops any previous digest).
+     */
+    public void update(int fileId, long lastModified, long length, long digest) {
+        indexFileIdToLastModified.put(fileId, lastModified);
+        indexFileIdToLength.put(fileId, length);
+        if (digest >= 0) {
+            indexFileIdToDigest.put(fileId, digest);
+        } else {
+            indexFileIdToDigest.remove(fileId);
+        }
+    }
+
     public boolean isIndexDirty(String indexId, int version) {
         Integer storedVersion = indexIdToVersion.get(indexId);
         if (storedVersion == null) {
@@ -114,6 +157,10 @@ public final class IndexingStampStore {
             indexFileIdToLastModified.clear();
         } catch (Throwable ignored) {
         }
+        try {
+            indexFileIdToDigest.clear();
+        } catch (Throwable ignored) {
+        }
         try {
             indexIdToVersion.clear();
         } catch (Throwable ignored) {
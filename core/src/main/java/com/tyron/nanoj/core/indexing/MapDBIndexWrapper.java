@@ -3,33 +3,74 @@ package com.tyron.nanoj.core.indexing;
 import org.jetbrains.annotations.NotNull;
 import org.jspecify.annotations.NonNull;
 import org.mapdb.*;
-import org.mapdb.serializer.GroupSerializer;
-import org.mapdb.serializer.GroupSerializerObjectArray;
 import org.mapdb.serializer.SerializerArray;
+import org.mapdb.serializer.SerializerArrayTuple;
 
-import java.io.IOException;
-import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
 
 /**
  * Encapsulates the MapDB structures for a single Index Definition.
  * <p>
- * Manages two persistent maps:
- * 1. <b>Inverted (B-Tree):</b> Key -> List of Values. Sorted, allows Prefix Search.
- * 2. <b>Forward (Hash Map):</b> FileID -> List of Keys. Fast lookup for invalidation.
+ * Postings are partitioned by <b>origin</b> (source root, archive, jrt module; see {@link IndexOrigins}):
+ * every (origin, key) pair gets its own key id, so a key id's postings all come from one origin.
+ * Manages these persistent structures:
+ * 1. <b>Origins (B-Tree):</b> origin URI prefix -> origin id; {@code <id>_file_origins} records each file's origin
+ *    and {@code <id>_origin_files} counts the files per origin. An origin is dropped once it has neither files
+ *    nor keys, e.g. after its archive was replaced.
+ * 2. <b>Key directories (B-Trees):</b> (originId, key) -> keyId and (key, originId) -> keyId. The first one
+ *    serves prefix scans restricted to some origins without visiting other partitions; the second one serves
+ *    exact lookups and unrestricted prefix scans in key order. A key id is dropped with its last posting, so
+ *    scans never walk keys that no file has anymore.
+ * 3. <b>Postings (B-Tree):</b> (keyId, fileId) packed into one long -> value packet. A key id's postings
+ *    form one contiguous, fileId-sorted range; node keys are delta-packed by {@link Serializer#LONG_DELTA},
+ *    so the key string is stored once instead of once per file.
+ * 4. <b>Forward (Hash Maps):</b> FileID -> List of Keys, plus a parallel array of 64-bit payload digests
+ *    ({@code <id>_fwd_digests}). Fast lookup for invalidation; the digests let {@link #replaceFile} rewrite
+ *    only the postings whose payload actually changed.
  * </p>
  * 
- * <b>Thread Safety:</b> Read methods return defensive copies and are safe for concurrent access.
- * Write methods (putInverted, removeInvertedByFileId, putForward, removeForward) MUST be guarded
- * by the caller's write lock (IndexManager.indexLock).
+ * <b>Thread Safety:</b> Read methods are safe for concurrent access and take no locks.
+ * Write methods (putOrigin, putInverted, removeInvertedByFileId, putForward, removeForward, replaceFile) must come from
+ * a single writer (the index writer thread, or callers holding IndexManager.indexLock).
+ * <p>
+ * <b>Read isolation</b> (opt-in, see {@link #enableReadIsolation()}): MapDB makes uncommitted writes visible
+ * to readers immediately. Before a write
+ * generation touches a file for the first time, the file's committed postings are saved as a before-image,
+ * numbered in staging order. {@link #publishGeneration()} (after {@code db.commit()}) and
+ * {@link #discardGeneration()} (after {@code db.rollback()}) start a new set of before-images, linked from
+ * the previous one.
+ * <p>
+ * A query fixes its view when it starts: the current before-images up to the last staged number. Files in
+ * the view are skipped during the scan and served from their before-images afterwards. A file staged later
+ * (in the same or a following generation) is served in place from its oldest before-image, which still
+ * holds the state the query started with, so results contain each (key, file) at most once and never an
+ * unpublished value.
+ * <p>
+ * Postings removed by the pending generation stay in the tree until {@link #prepareCommit()}, which waits for
+ * the queries whose view does not cover every file staged so far and only then removes them. A query thus
+ * never misses a posting that a late-staged file lost while it was scanning; the writer waits at most once per
+ * generation, for the queries that were running when it finished staging.
  */
 public class MapDBIndexWrapper {
 
+    /**
+     * Origin of files whose origin was never recorded. Every scope may contain it.
+     */
+    public static final String DEFAULT_ORIGIN = "";
+
     public String getIndexId() {
         return indexId;
     }
 
-    public record InvertedKey(String key, int fileId) implements Serializable, Comparable<InvertedKey> {
+    /**
+     * Materialized (key, fileId) pair, as returned by {@link #getValues(String)} and {@link #searchPrefix(String)}.
+     */
+    public record InvertedKey(String key, int fileId) implements Comparable<InvertedKey> {
         @Override
         public int compareTo(@NotNull InvertedKey o) {
             int cmp = this.key.compareTo(o.key);
@@ -38,31 +79,96 @@ public class MapDBIndexWrapper {
         }
     }
 
-    public static final GroupSerializer<InvertedKey> INVERTED_KEY_SERIALIZER = new GroupSerializerObjectArray<InvertedKey>() {
-        @Override
-        public void serialize(@NonNull DataOutput2 out, MapDBIndexWrapper.InvertedKey value) throws IOException {
-            out.writeUTF(value.key);
-            out.writeInt(value.fileId);
-        }
+    /**
+     * Receives postings during a scan. Return false to stop.
+     */
+    @FunctionalInterface
+    public interface PostingProcessor {
+        boolean process(String key, int fileId, byte[] value);
+    }
 
-        @Override
-        public InvertedKey deserialize(@NonNull DataInput2 input, int available) throws IOException {
-            return new InvertedKey(input.readUTF(), input.readInt());
+    /**
+     * Origin filter accepting every origin. Scans given this exact instance skip resolving the origin table.
+     */
+    static final Predicate<String> ALL_ORIGINS = origin -> true;
+
+    /**
+     * Committed state of one file, saved before the pending generation modified it.
+     *
+     * @param seq staging order, increasing across generations.
+     */
+    private record FileImage(int originId, Map<String, byte[]> postings, long seq) {
+    }
+
+    /**
+     * Before-images of one write generation. {@code next} is set once the generation is published or discarded.
+     */
+    private static final class Generation {
+        final Map<Integer, FileImage> images = new ConcurrentHashMap<>();
+        volatile Generation next;
+    }
+
+    /**
+     * What a query treats as staged: the before-images of {@code start} numbered up to {@code stagedThrough}.
+     * Registered in {@link #activeViews} before it is filled in, so {@link #prepareCommit()} cannot miss it.
+     */
+    private static final class View {
+        // null and 0 while the view is being opened.
+        volatile Generation start;
+        volatile long stagedThrough;
+
+        /**
+         * @return the oldest before-image of {@code fileId} from the query's generation on, or null if the
+         * file was not modified since.
+         */
+        FileImage imageOf(int fileId) {
+            for (Generation g = start; g != null; g = g.next) {
+                FileImage image = g.images.get(fileId);
+                if (image != null) {
+                    return image;
+                }
+            }
+            return null;
         }
 
-        @Override
-        public int compare(InvertedKey k1, InvertedKey k2) {
-            int cmp = k1.key.compareTo(k2.key);
-            if (cmp != 0) return cmp;
-            return Integer.compare(k1.fileId, k2.fileId);
+        boolean covers(int fileId, FileImage image) {
+            return image.seq <= stagedThrough && start.images.get(fileId) == image;
         }
-    };
-    private final BTreeMap<InvertedKey, byte[]> inverted;
+    }
+
+    private final BTreeMap<String, Integer> origins;
+    private final Atomic.Integer originIdSequence;
+    private final HTreeMap<Integer, Integer> fileOrigins;
+    /**
+     * Files per origin id. Null for read-only DBs written before it existed; an origin without a count is
+     * never dropped, since its files were recorded before counting started.
+     */
+    private final HTreeMap<Integer, Integer> originFiles;
+    private final BTreeMap<Object[], Integer> originKeys;
+    private final BTreeMap<Object[], Integer> keyOrigins;
+    private final BTreeMap<Long, byte[]> postings;
+    private final Atomic.Integer keyIdSequence;
     private final HTreeMap<Integer, String[]> forward;
+    /**
+     * Payload digests aligned with {@link #forward}'s key arrays. Null for read-only DBs written before
+     * digests existed; an entry is missing whenever the keys were written without digests.
+     */
+    private final HTreeMap<Integer, long[]> forwardDigests;
     @NotNull
     private final DB db;
     private final String indexId;
 
+    private volatile boolean readIsolation;
+    private volatile Generation pending = new Generation();
+    private long stageSequence;
+    private volatile long stagedThrough;
+    // Views of the running queries.
+    private final Set<View> activeViews = ConcurrentHashMap.newKeySet();
+    // Postings the pending generation removed, and the key ids that may have lost their last one; writer only.
+    private final Set<Long> removedPostings = new HashSet<>();
+    private final Map<Integer, Object[]> releasableKeys = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
     public MapDBIndexWrapper(DB db, String indexId) {
         this(db, indexId, true);
     }
@@ -84,84 +190,671 @@ public class MapDBIndexWrapper {
         this.db = db;
         this.indexId = indexId;
 
-        var keySerializer = INVERTED_KEY_SERIALIZER;
-        var valueSerializer = Serializer.BYTE_ARRAY;
+        // Forward entries written next to an older postings layout would claim files as indexed.
+        boolean legacyLayout = createIfMissing
+                && (db.exists(indexId + "_inv") || db.exists(indexId + "_keys"))
+                && !db.exists(indexId + "_key_origins");
+
+        this.origins = open(db.treeMap(indexId + "_origins")
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(Serializer.INTEGER), createIfMissing);
+
+        this.originIdSequence = createIfMissing
+                ? db.atomicInteger(indexId + "_origin_seq").createOrOpen()
+                : db.atomicInteger(indexId + "_origin_seq").open();
+
+        this.fileOrigins = open(db.hashMap(indexId + "_file_origins")
+                .keySerializer(Serializer.INTEGER)
+                .valueSerializer(Serializer.INTEGER), createIfMissing);
+
+        this.originFiles = createIfMissing || db.exists(indexId + "_origin_files")
+                ? open(db.hashMap(indexId + "_origin_files")
+                        .keySerializer(Serializer.INTEGER)
+                        .valueSerializer(Serializer.INTEGER), createIfMissing)
+                : null;
+
+        this.originKeys = open(db.treeMap(indexId + "_origin_keys")
+                .keySerializer(new SerializerArrayTuple(Serializer.INTEGER, Serializer.STRING))
+                .valueSerializer(Serializer.INTEGER), createIfMissing);
+
+        this.keyOrigins = open(db.treeMap(indexId + "_key_origins")
+                .keySerializer(new SerializerArrayTuple(Serializer.STRING, Serializer.INTEGER))
+                .valueSerializer(Serializer.INTEGER), createIfMissing);
+
+        this.postings = open(db.treeMap(indexId + "_postings")
+                .keySerializer(Serializer.LONG_DELTA)
+                .valueSerializer(Serializer.BYTE_ARRAY), createIfMissing);
+
+        this.keyIdSequence = createIfMissing
+                ? db.atomicInteger(indexId + "_key_seq").createOrOpen()
+                : db.atomicInteger(indexId + "_key_seq").open();
+
+        this.forward = open(db.hashMap(indexId + "_fwd")
+                .keySerializer(Serializer.INTEGER)
+                .valueSerializer(new SerializerArray<>(Serializer.STRING, String.class)), createIfMissing);
+
+        this.forwardDigests = createIfMissing || db.exists(indexId + "_fwd_digests")
+                ? open(db.hashMap(indexId + "_fwd_digests")
+                        .keySerializer(Serializer.INTEGER)
+                        .valueSerializer(Serializer.LONG_ARRAY), createIfMissing)
+                : null;
+
+        if (legacyLayout) {
+            postings.clear();
+            forward.clear();
+            forwardDigests.clear();
+        }
+    }
+
+    private static <K, V> BTreeMap<K, V> open(DB.TreeMapMaker<K, V> maker, boolean createIfMissing) {
+        return createIfMissing ? maker.createOrOpen() : maker.open();
+    }
+
+    private static <K, V> HTreeMap<K, V> open(DB.HashMapMaker<K, V> maker, boolean createIfMissing) {
+        return createIfMissing ? maker.createOrOpen() : maker.open();
+    }
+
+    private static long postingKey(int keyId, int fileId) {
+        return ((long) keyId << 32) | (fileId & 0xFFFFFFFFL);
+    }
+
+    private static int fileIdOf(long postingKey) {
+        return (int) postingKey;
+    }
+
+    private int internOrigin(String origin) {
+        Integer id = origins.get(origin);
+        if (id != null) {
+            return id;
+        }
+        int candidate = originIdSequence.incrementAndGet();
+        Integer raced = origins.putIfAbsent(origin, candidate);
+        return raced != null ? raced : candidate;
+    }
+
+    /**
+     * @return the origin id postings of {@code fileId} are filed under, or null if none was ever assigned.
+     */
+    private Integer originIdOf(int fileId) {
+        Integer id = fileOrigins.get(fileId);
+        return id != null ? id : origins.get(DEFAULT_ORIGIN);
+    }
+
+    private int internKey(int originId, String key) {
+        Object[] tuple = {key, originId};
+        Integer id = keyOrigins.get(tuple);
+        if (id != null) {
+            return id;
+        }
+        int candidate = keyIdSequence.incrementAndGet();
+        Integer raced = keyOrigins.putIfAbsent(tuple, candidate);
+        if (raced != null) {
+            return raced;
+        }
+        originKeys.put(new Object[]{originId, key}, candidate);
+        return candidate;
+    }
+
+    /**
+     * Records the origin of a file. Postings of the file must be removed before its origin changes,
+     * since removal looks them up under the recorded origin.
+     */
+    public void putOrigin(int fileId, String origin) {
+        stage(fileId);
+        int originId = internOrigin(origin != null ? origin : DEFAULT_ORIGIN);
+        Integer previous = fileOrigins.get(fileId);
+        if (previous == null || previous != originId) {
+            fileOrigins.put(fileId, originId);
+            countOriginFile(originId, 1);
+            if (previous != null) {
+                countOriginFile(previous, -1);
+                releaseOriginIfUnused(previous);
+            }
+        }
+    }
+
+    private void countOriginFile(int originId, int delta) {
+        if (originFiles == null) {
+            return;
+        }
+        Integer count = originFiles.get(originId);
+        if (count == null) {
+            if (delta > 0) {
+                originFiles.put(originId, delta);
+            }
+            return;
+        }
+        originFiles.put(originId, Math.max(0, count + delta));
+    }
+
+    /**
+     * Drops the key id of ({@code originId}, {@code key}) if it has no postings left.
+     */
+    private void releaseKeyIfUnused(int originId, String key, int keyId) {
+        Long next = postings.ceilingKey(postingKey(keyId, 0));
+        if (next != null && next <= postingKey(keyId, -1)) {
+            return;
+        }
+        keyOrigins.remove(new Object[]{key, originId});
+        originKeys.remove(new Object[]{originId, key});
+        releaseOriginIfUnused(originId);
+    }
+
+    /**
+     * Drops an origin that has neither files nor keys left. Its id is not reused.
+     */
+    private void releaseOriginIfUnused(int originId) {
+        Integer files = originFiles != null ? originFiles.get(originId) : null;
+        if (files == null || files > 0) {
+            return;
+        }
+        Object[] firstKey = originKeys.ceilingKey(new Object[]{originId, ""});
+        if (firstKey != null && (Integer) firstKey[0] == originId) {
+            return;
+        }
+        originFiles.remove(originId);
+        for (Map.Entry<String, Integer> origin : origins.entrySet()) {
+            if (origin.getValue() == originId && !DEFAULT_ORIGIN.equals(origin.getKey())) {
+                origins.remove(origin.getKey(), originId);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return all origins that still have files or postings in this index.
+     */
+    public Set<String> getOrigins() {
+        return Collections.unmodifiableSet(new TreeSet<>(origins.keySet()));
+    }
+
+    /**
+     * Saves the committed postings of {@code fileId} before the pending generation first modifies it.
+     */
+    private void stage(int fileId) {
+        if (!readIsolation) {
+            return;
+        }
+        Map<Integer, FileImage> images = pending.images;
+        if (images.containsKey(fileId)) {
+            return;
+        }
+        long seq = ++stageSequence;
+        images.put(fileId, readCommittedImage(fileId, seq));
+        // publishes the image to queries that start from now on.
+        stagedThrough = seq;
+    }
+
+    private FileImage readCommittedImage(int fileId, long seq) {
+        String[] keys = forward.get(fileId);
+        Integer originId = originIdOf(fileId);
+        if (keys == null || keys.length == 0 || originId == null) {
+            return new FileImage(-1, Collections.emptyMap(), seq);
+        }
+        Map<String, byte[]> values = new HashMap<>(keys.length * 2);
+        for (String key : keys) {
+            Integer keyId = keyOrigins.get(new Object[]{key, originId});
+            if (keyId == null) continue;
+            byte[] value = postings.get(postingKey(keyId, fileId));
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return new FileImage(values.isEmpty() ? -1 : originId, values, seq);
+    }
+
+    /**
+     * Hides writes from queries until {@link #publishGeneration()}. Only for writers that publish after
+     * every commit; otherwise writes stay invisible and their before-images accumulate.
+     */
+    public void enableReadIsolation() {
+        readIsolation = true;
+    }
+
+    /**
+     * Removes the postings the pending generation removed, once no running query could miss them. Call before
+     * the DB commit.
+     */
+    public void prepareCommit() {
+        if (removedPostings.isEmpty()) {
+            return;
+        }
+        awaitQueriesBefore(stagedThrough);
+        for (Long posting : removedPostings) {
+            postings.remove(posting);
+        }
+        removedPostings.clear();
+        for (Map.Entry<Integer, Object[]> key : releasableKeys.entrySet()) {
+            releaseKeyIfUnused((Integer) key.getValue()[0], (String) key.getValue()[1], key.getKey());
+        }
+        releasableKeys.clear();
+    }
+
+    /**
+     * Waits for the queries whose view does not cover every file staged up to {@code seq}.
+     */
+    private void awaitQueriesBefore(long seq) {
+        while (true) {
+            boolean waiting = false;
+            for (View view : activeViews) {
+                if (view.stagedThrough < seq) {
+                    waiting = true;
+                    break;
+                }
+            }
+            if (!waiting) {
+                return;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+    }
 
-        if (createIfMissing) {
-            this.inverted = db.treeMap(indexId + "_inv")
-                    .keySerializer(keySerializer)
-                    .valueSerializer(valueSerializer)
-                    .createOrOpen();
+    /**
+     * Makes the pending generation visible to queries. Call after the DB commit. Removals that were not
+     * applied by {@link #prepareCommit()} are applied now and committed with the next generation.
+     *
+     * @return the new generation number.
+     */
+    public long publishGeneration() {
+        prepareCommit();
+        nextGeneration();
+        return generation.incrementAndGet();
+    }
 
-            this.forward = db.hashMap(indexId + "_fwd")
-                    .keySerializer(Serializer.INTEGER)
-                    .valueSerializer(new SerializerArray<>(Serializer.STRING, String.class))
-                    .createOrOpen();
-        } else {
-            this.inverted = db.treeMap(indexId + "_inv")
-                    .keySerializer(keySerializer)
-                    .valueSerializer(valueSerializer)
-                    .open();
+    /**
+     * Drops the pending generation's before-images and removals. Call after the DB rollback.
+     */
+    public void discardGeneration() {
+        removedPostings.clear();
+        releasableKeys.clear();
+        nextGeneration();
+    }
 
-            this.forward = db.hashMap(indexId + "_fwd")
-                    .keySerializer(Serializer.INTEGER)
-                    .valueSerializer(new SerializerArray<>(Serializer.STRING, String.class))
-                    .open();
+    private void nextGeneration() {
+        Generation current = pending;
+        if (!current.images.isEmpty()) {
+            Generation next = new Generation();
+            // queries that started on the old generation follow the link to files staged after it.
+            current.next = next;
+            pending = next;
         }
     }
 
+    private View openView() {
+        View view = new View();
+        activeViews.add(view);
+        view.start = pending;
+        view.stagedThrough = stagedThrough;
+        return view;
+    }
+
+    private void closeView(View view) {
+        activeViews.remove(view);
+    }
+
+    /**
+     * @return number of generations published so far.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
     public Set<String> getForwardKeys(int fileId) {
         String[] keys = forward.get(fileId);
         if (keys == null) return Collections.emptySet();
         return new HashSet<>(Arrays.asList(keys));
     }
 
+    /**
+     * @return key -> payload digest of {@code fileId}'s postings, or null if its keys were stored without digests.
+     */
+    public Map<String, Long> getForwardDigests(int fileId) {
+        String[] keys = forward.get(fileId);
+        long[] digests = forwardDigests != null ? forwardDigests.get(fileId) : null;
+        if (keys == null || digests == null || digests.length != keys.length) {
+            return null;
+        }
+        Map<String, Long> result = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            result.put(keys[i], digests[i]);
+        }
+        return result;
+    }
+
     public void putForward(int fileId, Set<String> keys) {
+        stage(fileId);
         forward.put(fileId, keys.toArray(new String[0]));
+        if (forwardDigests != null) {
+            forwardDigests.remove(fileId);
+        }
     }
 
     public void removeForward(int fileId) {
+        stage(fileId);
         forward.remove(fileId);
+        if (forwardDigests != null) {
+            forwardDigests.remove(fileId);
+        }
+        Integer originId = fileOrigins.remove(fileId);
+        if (originId != null) {
+            countOriginFile(originId, -1);
+            releaseOriginIfUnused(originId);
+        }
     }
 
+    /**
+     * 64-bit digest of a posting payload, as stored next to the forward keys.
+     */
+    public static long payloadDigest(byte[] value) {
+        CRC32C crc = new CRC32C();
+        crc.update(value, 0, value.length);
+        return ((long) Arrays.hashCode(value) << 32) | crc.getValue();
+    }
+
+    /**
+     * Replaces all postings of {@code fileId} with {@code keys}/{@code values}, touching only the postings
+     * that changed: keys that disappeared are removed, keys that are new or whose digest differs are written,
+     * and the forward entry is rewritten only if anything changed. Falls back to a full rewrite if the file
+     * moved to another origin or its keys were stored without digests.
+     *
+     * @param digests {@link #payloadDigest(byte[])} of each value, aligned with {@code keys}; keys must be distinct.
+     * @return number of postings written or removed.
+     */
+    public int replaceFile(int fileId, String origin, String[] keys, byte[][] values, long[] digests) {
+        int originId = internOrigin(origin != null ? origin : DEFAULT_ORIGIN);
+        Integer recordedOriginId = originIdOf(fileId);
+        Map<String, Long> old = getForwardDigests(fileId);
+
+        if (old == null || recordedOriginId == null || recordedOriginId != originId) {
+            int touched = 0;
+            for (String oldKey : getForwardKeys(fileId)) {
+                removeInvertedByFileId(oldKey, fileId);
+                touched++;
+            }
+            putOrigin(fileId, origin);
+            for (int i = 0; i < keys.length; i++) {
+                putInverted(keys[i], fileId, values[i]);
+            }
+            writeForward(fileId, keys, digests);
+            return touched + keys.length;
+        }
+
+        if (fileOrigins.get(fileId) == null) {
+            putOrigin(fileId, origin);
+        }
+        int touched = 0;
+        for (int i = 0; i < keys.length; i++) {
+            Long previous = old.remove(keys[i]);
+            if (previous == null || previous != digests[i]) {
+                putInverted(keys[i], fileId, values[i]);
+                touched++;
+            }
+        }
+        for (String gone : old.keySet()) {
+            removeInvertedByFileId(gone, fileId);
+            touched++;
+        }
+        if (touched > 0) {
+            writeForward(fileId, keys, digests);
+        }
+        return touched;
+    }
+
+    private void writeForward(int fileId, String[] keys, long[] digests) {
+        stage(fileId);
+        forward.put(fileId, keys);
+        if (forwardDigests != null) {
+            forwardDigests.put(fileId, digests);
+        }
+    }
+
+    /**
+     * Adds a posting under the origin recorded by {@link #putOrigin(int, String)}, or {@link #DEFAULT_ORIGIN}.
+     */
     public void putInverted(String key, int fileId, byte[] value) {
-        inverted.put(new InvertedKey(key, fileId), value);
+        stage(fileId);
+        Integer originId = fileOrigins.get(fileId);
+        int keyId = internKey(originId != null ? originId : internOrigin(DEFAULT_ORIGIN), key);
+        long posting = postingKey(keyId, fileId);
+        removedPostings.remove(posting);
+        postings.put(posting, value);
     }
 
     public void removeInvertedByFileId(String key, int fileIdToRemove) {
-        inverted.remove(new InvertedKey(key, fileIdToRemove));
+        stage(fileIdToRemove);
+        Integer originId = originIdOf(fileIdToRemove);
+        if (originId == null) {
+            return;
+        }
+        Integer keyId = keyOrigins.get(new Object[]{key, originId});
+        if (keyId == null) {
+            return;
+        }
+        long posting = postingKey(keyId, fileIdToRemove);
+        if (readIsolation) {
+            // removed by prepareCommit(), a running query may still have to visit it.
+            if (postings.containsKey(posting) && removedPostings.add(posting)) {
+                releasableKeys.put(keyId, new Object[]{originId, key});
+            }
+        } else if (postings.remove(posting) != null) {
+            releaseKeyIfUnused(originId, key, keyId);
+        }
     }
 
     /**
-     * Exact Match Search
+     * Exact match scan over all origins.
      */
-    public Map<InvertedKey, byte[]> getValues(String key) {
-        var minKey = new InvertedKey(key, Integer.MIN_VALUE);
-        var maxKey = new InvertedKey(key, Integer.MAX_VALUE);
-        return inverted.subMap(minKey, true, maxKey, true);
+    public boolean processValues(String key, PostingProcessor processor) {
+        return processValues(key, ALL_ORIGINS, processor);
     }
 
     /**
-     * Prefix Search (e.g., "Li" -> "List", "LinkedList")
+     * Exact match scan, in (origin, fileId) order. Postings of origins rejected by {@code originFilter}
+     * are not visited.
      */
-    public Map<InvertedKey, byte[]> searchPrefix(String prefix) {
-        var minKey = new InvertedKey(prefix, Integer.MIN_VALUE);
-        var maxKey = new InvertedKey(prefix + Character.MAX_VALUE, Integer.MAX_VALUE);
+    public boolean processValues(String key, Predicate<String> originFilter, PostingProcessor processor) {
+        View view = openView();
+        try {
+            return processValues(key, originFilter, view, processor);
+        } finally {
+            closeView(view);
+        }
+    }
 
-        return inverted.subMap(minKey, true, maxKey, true);
+    private boolean processValues(String key, Predicate<String> originFilter, View view, PostingProcessor processor) {
+        boolean[] allowed = allowedOrigins(originFilter);
+        Iterator<Map.Entry<Object[], Integer>> it = keyOrigins.entryIterator(
+                new Object[]{key, Integer.MIN_VALUE}, true, new Object[]{key, Integer.MAX_VALUE}, true);
+        while (it.hasNext()) {
+            Map.Entry<Object[], Integer> entry = it.next();
+            int originId = (Integer) entry.getKey()[1];
+            if (!isAllowed(allowed, originId)) {
+                continue;
+            }
+            if (!processPostings(key, originId, entry.getValue(), view, processor)) {
+                return false;
+            }
+        }
+        for (Map.Entry<Integer, FileImage> image : view.start.images.entrySet()) {
+            FileImage before = image.getValue();
+            if (before.seq > view.stagedThrough) continue;
+            byte[] value = before.postings.get(key);
+            if (value != null && isAllowed(allowed, before.originId)
+                    && !processor.process(key, image.getKey(), value)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public void snapshot() {
+    /**
+     * Prefix scan (e.g., "Li" -> "List", "LinkedList") over all origins, in (key, origin, fileId) order.
+     */
+    public boolean processPrefix(String prefix, PostingProcessor processor) {
+        return processPrefix(prefix, ALL_ORIGINS, processor);
+    }
 
+    /**
+     * Prefix scan restricted to origins accepted by {@code originFilter}.
+     * <p>
+     * If every origin is accepted, results come in (key, origin, fileId) order. Otherwise each accepted
+     * origin's key range is scanned on its own, in (origin, key, fileId) order, and rejected partitions
+     * are never visited.
+     */
+    public boolean processPrefix(String prefix, Predicate<String> originFilter, PostingProcessor processor) {
+        View view = openView();
+        try {
+            return processPrefix(prefix, originFilter, view, processor);
+        } finally {
+            closeView(view);
+        }
+    }
+
+    private boolean processPrefix(String prefix, Predicate<String> originFilter, View view, PostingProcessor processor) {
+        boolean[] allowed = allowedOrigins(originFilter);
+        String upper = prefix + Character.MAX_VALUE;
+
+        if (allowed == null) {
+            Iterator<Map.Entry<Object[], Integer>> keys = keyOrigins.entryIterator(
+                    new Object[]{prefix, Integer.MIN_VALUE}, true, new Object[]{upper, Integer.MAX_VALUE}, true);
+            while (keys.hasNext()) {
+                Map.Entry<Object[], Integer> key = keys.next();
+                if (!processPostings((String) key.getKey()[0], (Integer) key.getKey()[1], key.getValue(), view, processor)) {
+                    return false;
+                }
+            }
+            return processPrefixImages(prefix, null, view, processor);
+        }
+
+        for (int originId = 0; originId < allowed.length; originId++) {
+            if (!allowed[originId]) continue;
+            Iterator<Map.Entry<Object[], Integer>> keys = originKeys.entryIterator(
+                    new Object[]{originId, prefix}, true, new Object[]{originId, upper}, true);
+            while (keys.hasNext()) {
+                Map.Entry<Object[], Integer> key = keys.next();
+                if (!processPostings((String) key.getKey()[1], originId, key.getValue(), view, processor)) {
+                    return false;
+                }
+            }
+        }
+        return processPrefixImages(prefix, allowed, view, processor);
+    }
+
+    private static boolean processPrefixImages(String prefix, boolean[] allowed, View view,
+                                               PostingProcessor processor) {
+        for (Map.Entry<Integer, FileImage> image : view.start.images.entrySet()) {
+            FileImage before = image.getValue();
+            if (before.seq > view.stagedThrough || before.postings.isEmpty()
+                    || !isAllowed(allowed, before.originId)) continue;
+            for (Map.Entry<String, byte[]> posting : before.postings.entrySet()) {
+                if (posting.getKey().startsWith(prefix)
+                        && !processor.process(posting.getKey(), image.getKey(), posting.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
-     * Clears all data for this index (both inverted + forward maps).
+     * @return null if every origin passes the filter, otherwise a table indexed by origin id.
+     */
+    private boolean[] allowedOrigins(Predicate<String> originFilter) {
+        if (originFilter == ALL_ORIGINS) {
+            return null;
+        }
+        boolean[] allowed = new boolean[Math.max(0, originIdSequence.get()) + 1];
+        boolean rejectedAny = false;
+        for (Map.Entry<String, Integer> origin : origins.entrySet()) {
+            int id = origin.getValue();
+            if (id < 0) continue;
+            if (id >= allowed.length) {
+                allowed = Arrays.copyOf(allowed, id + 1);
+            }
+            if (originFilter.test(origin.getKey())) {
+                allowed[id] = true;
+            } else {
+                rejectedAny = true;
+            }
+        }
+        return rejectedAny ? allowed : null;
+    }
+
+    private static boolean isAllowed(boolean[] allowed, Integer originId) {
+        return allowed == null || (originId != null && originId >= 0 && originId < allowed.length && allowed[originId]);
+    }
+
+    /**
+     * Scans one key id's postings. Files in the view are skipped, since their before-images are served after
+     * the scan; files staged after the query started are served their before-image's value instead.
+     */
+    private boolean processPostings(String key, int originId, int keyId, View view, PostingProcessor processor) {
+        Iterator<Map.Entry<Long, byte[]>> it =
+                postings.entryIterator(postingKey(keyId, 0), true, postingKey(keyId, -1), true);
+        while (it.hasNext()) {
+            Map.Entry<Long, byte[]> posting = it.next();
+            int fileId = fileIdOf(posting.getKey());
+            byte[] value = posting.getValue();
+            FileImage image = view.imageOf(fileId);
+            if (image != null) {
+                if (view.covers(fileId, image) || image.originId != originId) {
+                    continue;
+                }
+                // the committed posting lives under this key id, so it is visited here and only here.
+                value = image.postings.get(key);
+                if (value == null) {
+                    continue;
+                }
+            }
+            if (!processor.process(key, fileId, value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Exact Match Search
+     */
+    public Map<InvertedKey, byte[]> getValues(String key) {
+        Map<InvertedKey, byte[]> result = new LinkedHashMap<>();
+        processValues(key, (k, fileId, value) -> {
+            result.put(new InvertedKey(k, fileId), value);
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Prefix Search (e.g., "Li" -> "List", "LinkedList")
+     */
+    public Map<InvertedKey, byte[]> searchPrefix(String prefix) {
+        Map<InvertedKey, byte[]> result = new LinkedHashMap<>();
+        processPrefix(prefix, (k, fileId, value) -> {
+            result.put(new InvertedKey(k, fileId), value);
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Clears all data for this index (key directories, postings, file origins and forward map).
+     * Origin ids are kept.
      * Caller must hold the IndexManager write lock.
      */
     public void clear() {
-        inverted.clear();
+        discardGeneration();
+        postings.clear();
+        originKeys.clear();
+        keyOrigins.clear();
+        fileOrigins.clear();
+        if (originFiles != null) {
+            originFiles.clear();
+        }
         forward.clear();
+        if (forwardDigests != null) {
+            forwardDigests.clear();
+        }
     }
 
     /**
@@ -170,14 +863,21 @@ public class MapDBIndexWrapper {
      */
     public boolean hasAnyData() {
         try {
-            // inverted holds the primary key space; checking it is sufficient.
-            return !inverted.isEmpty();
+            // postings hold the primary key space; checking them is sufficient.
+            return !postings.isEmpty();
         } catch (Throwable ignored) {
             return false;
         }
     }
 
+    /**
+     * @return number of (key, origin) pairs in the key directory.
+     */
+    int keyCount() {
+        return keyOrigins.size();
+    }
+
     public boolean hasIndexed(int fileId) {
         return forward.containsKey(fileId);
     }
-}
\ No newline at end of file
+}
@@ -68,6 +68,7 @@ public final class SharedIndexBuilder {
                 keysByIndex.put(id, new LongAdder());
             }
 
+            IndexOrigins origins = new IndexOrigins();
             LongAdder filesVisited = new LongAdder();
             LongAdder filesIndexed = new LongAdder();
 
@@ -79,11 +80,12 @@ public final class SharedIndexBuilder {
 
                     int fileId = getOrCreateId(pathToId, idToPath, nextFileId, file.getPath());
                     Object helper = buildHelper(file);
+                    String origin = origins.originOf(file);
 
                     for (IndexDefinition<?, ?> def : defsById.values()) {
                         try {
                             if (!def.supports(file)) continue;
-                            int added = updateIndex(wrappers.get(def.id()), def, file, fileId, helper);
+                            int added = updateIndex(wrappers.get(def.id()), def, file, fileId, origin, helper);
                             if (added > 0) {
                                 keysByIndex.get(def.id()).add(added);
                             }
@@ -153,6 +155,7 @@ public final class SharedIndexBuilder {
                                            IndexDefinition<K, V> def,
                                            FileObject file,
                                            int fileId,
+                                           String origin,
                                            Object helper) {
         if (wrapper == null || def == null) return 0;
 
@@ -170,6 +173,7 @@ public final class SharedIndexBuilder {
         for (String oldKey : oldKeys) {
             wrapper.removeInvertedByFileId(oldKey, fileId);
         }
+        wrapper.putOrigin(fileId, origin);
 
         Set<String> newKeysForForward = new HashSet<>();
         for (Map.Entry<K, V> entry : newEntries.entrySet()) {
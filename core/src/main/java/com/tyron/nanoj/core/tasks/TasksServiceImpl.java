@@ -16,13 +16,14 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 /**
  * Core implementation of the project-scoped Tasks API.
  */
 public final class TasksServiceImpl implements TasksService, Disposable {
 
-    private static final int STATE_VERSION = 3;
+    private static final int STATE_VERSION = 4;
 
     private final Project project;
     private final DB db;
@@ -59,6 +60,12 @@ public final class TasksServiceImpl implements TasksService, Disposable {
             // VirtualFileSystem also emits delete/create for rename; treat this as a hint.
             markDirtyForPath(event.getFile().getPath());
         }
+
+        @Override
+        public void filesChanged(BulkFileEvent event) {
+            if (pathToTaskIds.isEmpty()) return;
+            FileChangeListener.super.filesChanged(event);
+        }
     };
 
     public TasksServiceImpl(Project project) {
@@ -301,26 +308,46 @@ public final class TasksServiceImpl implements TasksService, Disposable {
         long optionsHash = hashOptions(task.options);
         if (state.optionsHash != optionsHash) return false;
 
-        List<SnapshotEntry> currentInputs = snapshotAll(task.fingerprintMode, task.getAllInputEntries());
-        if (!snapshotsEqual(state.inputs, currentInputs)) return false;
+        return inSnapshotBatch(() -> {
+            Map<String, Long> digests = new HashMap<>();
+            List<SnapshotEntry> currentInputs = snapshotAll(task.fingerprintMode, task.getAllInputEntries(), state.inputs, state.treeDigests, digests);
+            if (!snapshotsEqual(state.inputs, currentInputs)) return false;
 
-        List<SnapshotEntry> currentOutputs = snapshotAll(task.fingerprintMode, task.getAllOutputEntries());
-        if (!allOutputsExist(currentOutputs)) return false;
-        return snapshotsEqual(state.outputs, currentOutputs);
+            List<SnapshotEntry> currentOutputs = snapshotAll(task.fingerprintMode, task.getAllOutputEntries(), state.outputs, state.treeDigests, digests);
+            if (!allOutputsExist(currentOutputs)) return false;
+            return snapshotsEqual(state.outputs, currentOutputs);
+        });
     }
 
     private void persistState(DefaultTask task, TaskOptions optionsAtExecution) throws IOException {
         if (!task.cacheable) return;
 
         long optionsHash = hashOptions(optionsAtExecution);
-        List<SnapshotEntry> inputs = snapshotAll(task.fingerprintMode, task.getAllInputEntries());
-        List<SnapshotEntry> outputs = snapshotAll(task.fingerprintMode, task.getAllOutputEntries());
-
-        TaskState state = new TaskState(optionsHash, inputs, outputs);
+        TaskState previous = storedState(task.id);
+        List<SnapshotEntry> previousInputs = previous != null ? previous.inputs : List.of();
+        List<SnapshotEntry> previousOutputs = previous != null ? previous.outputs : List.of();
+        Map<String, Long> previousDigests = previous != null ? previous.treeDigests : Map.of();
+
+        TaskState state = inSnapshotBatch(() -> {
+            Map<String, Long> digests = new HashMap<>();
+            List<SnapshotEntry> inputs = snapshotAll(task.fingerprintMode, task.getAllInputEntries(), previousInputs, previousDigests, digests);
+            List<SnapshotEntry> outputs = snapshotAll(task.fingerprintMode, task.getAllOutputEntries(), previousOutputs, previousDigests, digests);
+            return new TaskState(optionsHash, inputs, outputs, digests);
+        });
         stateByTaskId.put(task.id, encodeState(state));
         db.commit();
     }
 
+    private TaskState storedState(String taskId) {
+        byte[] stored = stateByTaskId.get(taskId);
+        if (stored == null) return null;
+        try {
+            return decodeState(stored);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private static boolean allOutputsExist(List<SnapshotEntry> outputs) {
         for (SnapshotEntry s : outputs) {
             if (!s.exists) return false;
@@ -328,17 +355,75 @@ public final class TasksServiceImpl implements TasksService, Disposable {
         return true;
     }
 
-    private static List<SnapshotEntry> snapshotAll(TaskFingerprintMode mode, List<InputEntry> entries) {
+    /**
+     * Snapshots the given entries. A tree whose VFS digest still equals the one recorded with
+     * {@code previous} is taken from {@code previous} (content hashes included) instead of being walked.
+     *
+     * @param digestsOut receives the current digest of every tree the VFS can digest
+     */
+    private static List<SnapshotEntry> snapshotAll(TaskFingerprintMode mode, List<InputEntry> entries,
+                                                   List<SnapshotEntry> previous, Map<String, Long> previousDigests,
+                                                   Map<String, Long> digestsOut) {
         List<SnapshotEntry> out = new ArrayList<>();
         for (InputEntry e : entries) {
             if (e == null) continue;
+            if (e.mode == VfsSnapshot.Mode.TREE) {
+                String root = e.file.getPath();
+                OptionalLong digest = treeDigestOf(e.file);
+                if (digest.isPresent()) {
+                    digestsOut.put(root, digest.getAsLong());
+                    Long previousDigest = previousDigests.get(root);
+                    if (previousDigest != null && previousDigest == digest.getAsLong()) {
+                        addSubtree(previous, root, out);
+                        continue;
+                    }
+                }
+            }
             VfsSnapshot snap = VfsSnapshots.snapshot(e.file, e.mode, true);
             for (VfsSnapshot.Entry se : snap.getEntries()) {
                 out.add(SnapshotEntry.from(mode, se));
             }
         }
         out.sort(Comparator.comparing(s -> s.path));
-        return out;
+
+        // a file can be both a direct input and part of an input tree.
+        List<SnapshotEntry> unique = new ArrayList<>(out.size());
+        for (SnapshotEntry s : out) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1).path.equals(s.path)) {
+                unique.add(s);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Runs {@code snapshots} as one VFS snapshot batch, so its tree digests and snapshots share one sync.
+     */
+    private static <T> T inSnapshotBatch(Supplier<T> snapshots) {
+        VirtualFileManager vfm;
+        try {
+            vfm = VirtualFileManager.getInstance();
+        } catch (Throwable ignored) {
+            return snapshots.get();
+        }
+        return vfm != null ? vfm.snapshotBatch(snapshots) : snapshots.get();
+    }
+
+    private static OptionalLong treeDigestOf(FileObject root) {
+        try {
+            return VirtualFileManager.getInstance().getTreeDigest(root);
+        } catch (Throwable ignored) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private static void addSubtree(List<SnapshotEntry> snaps, String root, List<SnapshotEntry> out) {
+        String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+        for (SnapshotEntry s : snaps) {
+            if (s.path.equals(root) || s.path.startsWith(prefix)) {
+                out.add(s);
+            }
+        }
     }
 
     private static boolean snapshotsEqual(List<SnapshotEntry> a, List<SnapshotEntry> b) {
@@ -371,6 +456,12 @@ public final class TasksServiceImpl implements TasksService, Disposable {
 
             writeSnapshots(out, state.inputs);
             writeSnapshots(out, state.outputs);
+
+            out.writeInt(state.treeDigests.size());
+            for (Map.Entry<String, Long> e : state.treeDigests.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue());
+            }
         }
         return baos.toByteArray();
     }
@@ -378,12 +469,20 @@ public final class TasksServiceImpl implements TasksService, Disposable {
     private static TaskState decodeState(byte[] data) throws IOException {
         try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
             int version = in.readInt();
-            if (version != 1 && version != 2 && version != STATE_VERSION) throw new IOException("Unsupported version: " + version);
+            if (version < 1 || version > STATE_VERSION) throw new IOException("Unsupported version: " + version);
 
             long optionsHash = in.readLong();
             List<SnapshotEntry> inputs = readSnapshots(in, version);
             List<SnapshotEntry> outputs = readSnapshots(in, version);
-            return new TaskState(optionsHash, inputs, outputs);
+
+            Map<String, Long> treeDigests = new HashMap<>();
+            if (version >= 4) {
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    treeDigests.put(in.readUTF(), in.readLong());
+                }
+            }
+            return new TaskState(optionsHash, inputs, outputs, treeDigests);
         }
     }
 
@@ -458,11 +557,14 @@ public final class TasksServiceImpl implements TasksService, Disposable {
         final long optionsHash;
         final List<SnapshotEntry> inputs;
         final List<SnapshotEntry> outputs;
+        // tree root path -> VFS digest taken with the snapshots above
+        final Map<String, Long> treeDigests;
 
-        TaskState(long optionsHash, List<SnapshotEntry> inputs, List<SnapshotEntry> outputs) {
+        TaskState(long optionsHash, List<SnapshotEntry> inputs, List<SnapshotEntry> outputs, Map<String, Long> treeDigests) {
             this.optionsHash = optionsHash;
             this.inputs = inputs;
             this.outputs = outputs;
+            this.treeDigests = treeDigests;
         }
     }
 
@@ -0,0 +1,466 @@
+package com.tyron.nanoj.core.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable, columnar directory tree of an archive (a jar or the jrt runtime image).
+ * <p>
+ * Everything lives in a single {@link ByteBuffer}: path segments are interned into one UTF-8 blob
+ * addressed by an offset array, and nodes are stored as fixed-width columns. Nodes are numbered
+ * breadth-first, so the children of a directory occupy a contiguous range sorted by name and
+ * lookups are a binary search per path segment.
+ * <p>
+ * The in-memory and on-disk layouts are identical; a persisted index is used by mapping the file
+ * (see {@link ArchiveIndexStore}), which avoids rebuilding per-entry maps on every start.
+ */
+final class ArchiveDirectoryIndex {
+
+    static final int NOT_FOUND = -1;
+    static final int ROOT = 0;
+
+    private static final int MAGIC = 0x4E4A4449; // "NJDI"
+    private static final int VERSION = 2;
+
+    // magic, version, sourceSize, sourceLastModified, sourceFingerprint, segmentCount, nodeCount, blobLength, keyLength
+    private static final int HEADER_FIXED = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+
+    private final ByteBuffer buf;
+
+    private final String sourceKey;
+    private final long sourceSize;
+    private final long sourceLastModified;
+    private final long sourceFingerprint;
+    private final int segmentCount;
+    private final int nodeCount;
+
+    // absolute section positions within buf
+    private final int segmentOffsetsPos;
+    private final int blobPos;
+    private final int namePos;
+    private final int firstChildPos;
+    private final int childCountPos;
+    private final int sizePos;
+    private final int timePos;
+    private final int crcPos;
+    private final int methodPos;
+    private final int storedSizePos;
+    private final int dataPositionPos;
+
+    // decoded lazily; racy writes are benign since decoding is deterministic.
+    private final String[] segmentCache;
+
+    private ArchiveDirectoryIndex(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_FIXED || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not an archive directory index");
+        }
+        this.sourceSize = buf.getLong(8);
+        this.sourceLastModified = buf.getLong(16);
+        this.sourceFingerprint = buf.getLong(24);
+        this.segmentCount = buf.getInt(32);
+        this.nodeCount = buf.getInt(36);
+        int blobLength = buf.getInt(40);
+        int keyLength = buf.getInt(44);
+        if (segmentCount < 0 || nodeCount < 1 || blobLength < 0 || keyLength < 0) {
+            throw new IOException("Corrupt archive directory index header");
+        }
+
+        byte[] key = new byte[keyLength];
+        buf.get(HEADER_FIXED, key);
+        this.sourceKey = new String(key, StandardCharsets.UTF_8);
+
+        long pos = HEADER_FIXED + (long) keyLength;
+        this.segmentOffsetsPos = (int) pos;
+        pos += 4L * (segmentCount + 1);
+        this.blobPos = (int) pos;
+        pos += blobLength;
+        this.namePos = (int) pos;
+        pos += 4L * nodeCount;
+        this.firstChildPos = (int) pos;
+        pos += 4L * nodeCount;
+        this.childCountPos = (int) pos;
+        pos += 4L * nodeCount;
+        this.methodPos = (int) pos;
+        pos += 4L * nodeCount;
+        this.sizePos = (int) pos;
+        pos += 8L * nodeCount;
+        this.timePos = (int) pos;
+        pos += 8L * nodeCount;
+        this.crcPos = (int) pos;
+        pos += 8L * nodeCount;
+        this.storedSizePos = (int) pos;
+        pos += 8L * nodeCount;
+        this.dataPositionPos = (int) pos;
+        pos += 8L * nodeCount;
+        if (pos != buf.capacity()) {
+            throw new IOException("Corrupt archive directory index (expected " + pos + " bytes, got " + buf.capacity() + ")");
+        }
+
+        this.segmentCache = new String[segmentCount];
+    }
+
+    /**
+     * Wraps a buffer (typically a read-only file mapping) produced by {@link #writeTo(Path)}.
+     */
+    static ArchiveDirectoryIndex wrap(ByteBuffer buf) throws IOException {
+        try {
+            return new ArchiveDirectoryIndex(buf);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt archive directory index", e);
+        }
+    }
+
+    /**
+     * @return true if this index was built from the given source state.
+     */
+    boolean matches(String key, long size, long lastModified) {
+        return sourceKey.equals(key) && sourceSize == size && sourceLastModified == lastModified;
+    }
+
+    /**
+     * @return the fingerprint of the source's contents this index was built with, or 0 if none was
+     * given; see {@link ZipCentralDirectory#fingerprint()}.
+     */
+    long sourceFingerprint() {
+        return sourceFingerprint;
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Resolves a {@code /}-separated relative path; leading/trailing separators are ignored.
+     *
+     * @return node id, or {@link #NOT_FOUND}.
+     */
+    int find(String path) {
+        int node = ROOT;
+        int len = path.length();
+        int start = 0;
+        while (start < len) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = len;
+            }
+            if (end > start) {
+                node = child(node, path.substring(start, end));
+                if (node == NOT_FOUND) {
+                    return NOT_FOUND;
+                }
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * @return the named child of a directory node, or {@link #NOT_FOUND}.
+     */
+    int child(int dir, String name) {
+        int count = buf.getInt(childCountPos + 4 * dir);
+        if (count <= 0) {
+            return NOT_FOUND;
+        }
+        int lo = buf.getInt(firstChildPos + 4 * dir);
+        int hi = lo + count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = name(mid).compareTo(name);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    boolean isDirectory(int node) {
+        return buf.getInt(childCountPos + 4 * node) >= 0;
+    }
+
+    String name(int node) {
+        int segment = buf.getInt(namePos + 4 * node);
+        return segment < 0 ? "" : segment(segment);
+    }
+
+    /**
+     * @return child names of a directory node, sorted.
+     */
+    List<String> childNames(int dir) {
+        int count = buf.getInt(childCountPos + 4 * dir);
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        int first = buf.getInt(firstChildPos + 4 * dir);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = name(first + i);
+        }
+        return List.of(names);
+    }
+
+    long size(int node) {
+        return buf.getLong(sizePos + 8 * node);
+    }
+
+    /**
+     * @return epoch millis, or -1 if unknown.
+     */
+    long lastModified(int node) {
+        return buf.getLong(timePos + 8 * node);
+    }
+
+    /**
+     * @return unsigned CRC-32, or -1 if unknown.
+     */
+    long crc32(int node) {
+        return buf.getLong(crcPos + 8 * node);
+    }
+
+    /**
+     * @return zip compression method, or -1 if the entry has no readable archive data.
+     */
+    int method(int node) {
+        return buf.getInt(methodPos + 4 * node);
+    }
+
+    long storedSize(int node) {
+        return buf.getLong(storedSizePos + 8 * node);
+    }
+
+    /**
+     * @return absolute position of the entry's data (for zips: its local header), or -1.
+     */
+    long dataPosition(int node) {
+        return buf.getLong(dataPositionPos + 8 * node);
+    }
+
+    private String segment(int segment) {
+        String cached = segmentCache[segment];
+        if (cached != null) {
+            return cached;
+        }
+        int start = buf.getInt(segmentOffsetsPos + 4 * segment);
+        int end = buf.getInt(segmentOffsetsPos + 4 * (segment + 1));
+        byte[] bytes = new byte[end - start];
+        buf.get(blobPos + start, bytes);
+        String s = new String(bytes, StandardCharsets.UTF_8);
+        segmentCache[segment] = s;
+        return s;
+    }
+
+    void writeTo(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer src = buf.duplicate().clear();
+            while (src.hasRemaining()) {
+                ch.write(src);
+            }
+            ch.force(false);
+        }
+    }
+
+    /**
+     * Collects entries and lays them out in the columnar format.
+     * <p>
+     * Entries may arrive in any order; missing parent directories are created implicitly. When the
+     * same file path is added twice the first one wins, matching how zip readers resolve duplicates.
+     */
+    static final class Builder {
+
+        private final Node root = new Node(true);
+
+        void addDirectory(String path) {
+            resolveDirectory(path);
+        }
+
+        void addFile(String path, long size, long lastModified, long crc32, int method, long storedSize, long dataPosition) {
+            int end = path.length();
+            while (end > 0 && path.charAt(end - 1) == '/') {
+                end--;
+            }
+            int slash = path.lastIndexOf('/', end - 1);
+            String name = path.substring(slash + 1, end);
+            if (name.isEmpty()) {
+                return;
+            }
+            Node parent = resolveDirectory(path.substring(0, Math.max(slash, 0)));
+            if (parent.children.containsKey(name)) {
+                return;
+            }
+            Node file = new Node(false);
+            file.size = size;
+            file.lastModified = lastModified;
+            file.crc32 = crc32;
+            file.method = method;
+            file.storedSize = storedSize;
+            file.dataPosition = dataPosition;
+            parent.children.put(name, file);
+        }
+
+        private Node resolveDirectory(String path) {
+            Node node = root;
+            int len = path.length();
+            int start = 0;
+            while (start < len) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = len;
+                }
+                if (end > start) {
+                    String seg = path.substring(start, end);
+                    Node next = node.children.get(seg);
+                    if (next == null || next.children == null) {
+                        // A directory shadows a same-named file entry.
+                        next = new Node(true);
+                        node.children.put(seg, next);
+                    }
+                    node = next;
+                }
+                start = end + 1;
+            }
+            return node;
+        }
+
+        ArchiveDirectoryIndex build(String sourceKey, long sourceSize, long sourceLastModified) {
+            return build(sourceKey, sourceSize, sourceLastModified, 0L);
+        }
+
+        /**
+         * @param sourceFingerprint a cheap digest of the source's contents, checked before a stored index is
+         *                          trusted because size and timestamp survive an in-place rewrite.
+         */
+        ArchiveDirectoryIndex build(String sourceKey, long sourceSize, long sourceLastModified, long sourceFingerprint) {
+            // Breadth-first numbering keeps every directory's children contiguous.
+            List<Node> order = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            order.add(root);
+            names.add(null);
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                Node dir = queue.poll();
+                dir.firstChild = order.size();
+                for (Map.Entry<String, Node> e : dir.children.entrySet()) {
+                    order.add(e.getValue());
+                    names.add(e.getKey());
+                    if (e.getValue().children != null) {
+                        queue.add(e.getValue());
+                    }
+                }
+            }
+
+            Map<String, Integer> segmentIds = new HashMap<>();
+            List<byte[]> segments = new ArrayList<>();
+            int[] nameIds = new int[order.size()];
+            int blobLength = 0;
+            for (int i = 0; i < nameIds.length; i++) {
+                String name = names.get(i);
+                if (name == null) {
+                    nameIds[i] = -1;
+                    continue;
+                }
+                Integer id = segmentIds.get(name);
+                if (id == null) {
+                    id = segments.size();
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    segments.add(bytes);
+                    blobLength += bytes.length;
+                    segmentIds.put(name, id);
+                }
+                nameIds[i] = id;
+            }
+
+            byte[] key = sourceKey.getBytes(StandardCharsets.UTF_8);
+            int nodeCount = order.size();
+            long total = HEADER_FIXED + (long) key.length
+                    + 4L * (segments.size() + 1) + blobLength
+                    + 4L * 4 * nodeCount
+                    + 8L * 5 * nodeCount;
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Archive directory index too large: " + sourceKey);
+            }
+
+            ByteBuffer out = ByteBuffer.allocate((int) total);
+            out.putInt(MAGIC).putInt(VERSION)
+                    .putLong(sourceSize).putLong(sourceLastModified).putLong(sourceFingerprint)
+                    .putInt(segments.size()).putInt(nodeCount).putInt(blobLength).putInt(key.length)
+                    .put(key);
+
+            int offset = 0;
+            for (byte[] seg : segments) {
+                out.putInt(offset);
+                offset += seg.length;
+            }
+            out.putInt(offset);
+            for (byte[] seg : segments) {
+                out.put(seg);
+            }
+
+            for (int id : nameIds) {
+                out.putInt(id);
+            }
+            for (Node n : order) {
+                out.putInt(n.children != null ? n.firstChild : -1);
+            }
+            for (Node n : order) {
+                out.putInt(n.children != null ? n.children.size() : -1);
+            }
+            for (Node n : order) {
+                out.putInt(n.method);
+            }
+            for (Node n : order) {
+                out.putLong(n.size);
+            }
+            for (Node n : order) {
+                out.putLong(n.lastModified);
+            }
+            for (Node n : order) {
+                out.putLong(n.crc32);
+            }
+            for (Node n : order) {
+                out.putLong(n.storedSize);
+            }
+            for (Node n : order) {
+                out.putLong(n.dataPosition);
+            }
+
+            try {
+                return new ArchiveDirectoryIndex(out.flip());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static final class Node {
+            // sorted, so breadth-first numbering yields name-sorted sibling ranges.
+            final TreeMap<String, Node> children;
+            int firstChild;
+            long size;
+            long lastModified = -1L;
+            long crc32 = -1L;
+            int method = -1;
+            long storedSize = -1L;
+            long dataPosition = -1L;
+
+            Node(boolean directory) {
+                this.children = directory ? new TreeMap<>() : null;
+            }
+        }
+    }
+}
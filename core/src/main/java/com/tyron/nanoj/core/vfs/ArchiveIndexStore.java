@@ -0,0 +1,114 @@
+package com.tyron.nanoj.core.vfs;
+
+import com.tyron.nanoj.api.application.ApplicationManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On-disk cache of {@link ArchiveDirectoryIndex} files, one per archive.
+ * <p>
+ * Entries are keyed by the archive's absolute path, size and mtime. A warm start maps the stored
+ * index instead of re-reading the archive; a stale or unreadable entry is simply rebuilt. Since a
+ * file rewritten in place can keep its size and mtime, callers also compare
+ * {@link ArchiveDirectoryIndex#sourceFingerprint()} against the archive before trusting an entry.
+ * <p>
+ * The location defaults to {@code archive-indexes} under the application cache directory and can
+ * be overridden with {@link #DIR_KEY}. Without either, indexes are kept in memory only.
+ */
+final class ArchiveIndexStore {
+
+    /**
+     * Directory for persisted archive indexes; set to an empty string to disable persistence.
+     */
+    static final String DIR_KEY = "nanoj.vfs.archiveIndexDir";
+
+    private static final Object LOCK = new Object();
+    private static volatile ArchiveIndexStore instance;
+
+    private final File dir;
+
+    ArchiveIndexStore(File dir) {
+        this.dir = dir;
+    }
+
+    static ArchiveIndexStore getInstance() {
+        ArchiveIndexStore cached = instance;
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (LOCK) {
+            if (instance == null) {
+                instance = new ArchiveIndexStore(resolveDir());
+            }
+            return instance;
+        }
+    }
+
+    private static File resolveDir() {
+        String override = System.getProperty(DIR_KEY);
+        if (override != null) {
+            return override.isBlank() ? null : new File(override);
+        }
+        try {
+            return new File(ApplicationManager.getApplication().getCacheDirectory(), "archive-indexes");
+        } catch (Throwable ignored) {
+            // No application installed (e.g. plain library use); stay in-memory.
+            return null;
+        }
+    }
+
+    /**
+     * @return the stored index for the archive, or null if none is stored or it is stale.
+     */
+    ArchiveDirectoryIndex load(String kind, File archive) {
+        if (dir == null) {
+            return null;
+        }
+        Path file = indexFile(kind, archive);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ArchiveDirectoryIndex index = ArchiveDirectoryIndex.wrap(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            if (index.matches(archive.getAbsolutePath(), archive.length(), archive.lastModified())) {
+                return index;
+            }
+        } catch (Throwable ignored) {
+            // Corrupt or concurrently replaced; fall through and rebuild.
+        }
+        return null;
+    }
+
+    /**
+     * Persists an index; best-effort, failures only cost a rebuild on the next start.
+     */
+    void save(String kind, File archive, ArchiveDirectoryIndex index) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(dir.toPath());
+            Path target = indexFile(kind, archive);
+            Path tmp = Files.createTempFile(dir.toPath(), target.getFileName().toString(), ".tmp");
+            try {
+                index.writeTo(tmp);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+    }
+
+    private Path indexFile(String kind, File archive) {
+        String path = archive.getAbsolutePath();
+        String name = archive.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(dir, kind + "-" + name + "-" + Integer.toHexString(path.hashCode()) + ".idx").toPath();
+    }
+}
@@ -0,0 +1,136 @@
+package com.tyron.nanoj.core.vfs;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte-budgeted LRU of file contents, shared by all file systems of this process.
+ * <p>
+ * Entries are keyed by file id and validated against a version and a length chosen by the file system (mtime
+ * and length for local files, CRC-32 and size for archive entries) and the file's URI, so a stale or reused id
+ * never serves foreign bytes. Cached buffers are read-only; memory-mapped ones are not copied onto the heap, so
+ * only contents that are never rewritten in place (archive entries) may be mapped.
+ */
+final class ContentCache {
+
+    /**
+     * Total size in bytes of the cached contents.
+     */
+    static final String MAX_BYTES_KEY = "nanoj.vfs.contentCache.maxBytes";
+
+    private static final ContentCache INSTANCE = new ContentCache(Long.getLong(MAX_BYTES_KEY, 32L * 1024 * 1024));
+
+    private record Entry(String uri, long version, long length, ByteBuffer content) {}
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    // insertion order is moved on access: first entry is the least recently used one.
+    private final Int2ObjectLinkedOpenHashMap<Entry> entries = new Int2ObjectLinkedOpenHashMap<>();
+    private long usedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    ContentCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        // a single file must not flush the whole cache.
+        this.maxEntryBytes = this.maxBytes / 4;
+    }
+
+    static ContentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a private view of the cached content positioned at 0, or null on a miss.
+     */
+    ByteBuffer get(int fileId, String uri, long version, long length) {
+        if (fileId <= 0) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            entry = entries.getAndMoveToLast(fileId);
+        }
+        if (entry == null || entry.version != version || entry.length != length || !entry.uri.equals(uri)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.content.duplicate();
+    }
+
+    /**
+     * Caches {@code content} (expected to be read-only) if it fits the per-entry budget.
+     */
+    void put(int fileId, String uri, long version, long length, ByteBuffer content) {
+        int size = content.remaining();
+        if (fileId <= 0 || size > maxEntryBytes) {
+            remove(fileId);
+            return;
+        }
+        Entry entry = new Entry(uri, version, length, content.slice());
+        synchronized (this) {
+            Entry previous = entries.putAndMoveToLast(fileId, entry);
+            if (previous != null) {
+                usedBytes -= previous.content.capacity();
+            }
+            usedBytes += size;
+            while (usedBytes > maxBytes && !entries.isEmpty()) {
+                usedBytes -= entries.removeFirst().content.capacity();
+            }
+        }
+    }
+
+    synchronized void remove(int fileId) {
+        Entry removed = entries.remove(fileId);
+        if (removed != null) {
+            usedBytes -= removed.content.capacity();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return a fresh heap copy of the remaining bytes, leaving {@code buffer} untouched.
+     */
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.duplicate().get(out);
+        return out;
+    }
+
+    /**
+     * @return the file's VFS id, or -1 if no {@code VirtualFileManager} is available.
+     */
+    static int idOf(FileObject file) {
+        try {
+            return file.getId();
+        } catch (Throwable ignored) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.tyron.nanoj.core.vfs;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of local directory listings (child names only), shared by all {@link LocalFileObject}s.
+ * <p>
+ * The budget counts names rather than directories, and a directory larger than a quarter of it is never
+ * cached: huge folders are always streamed from disk instead of being pinned on the heap. Entries are
+ * validated against the directory mtime and dropped by the VFS on creations, deletions and renames.
+ */
+final class DirectoryListingCache {
+
+    /**
+     * Total number of child names kept across all cached directories.
+     */
+    static final String MAX_NAMES_KEY = "nanoj.vfs.listingCache.maxNames";
+
+    private static final DirectoryListingCache INSTANCE = new DirectoryListingCache(Integer.getInteger(MAX_NAMES_KEY, 65536));
+
+    private record Listing(long lastModified, String[] names) {}
+
+    private final int maxNames;
+    private final int maxDirectoryNames;
+
+    // access-ordered: eldest entry is the least recently listed directory.
+    private final LinkedHashMap<Path, Listing> listings = new LinkedHashMap<>(64, 0.75f, true);
+    private int usedNames;
+
+    DirectoryListingCache(int maxNames) {
+        this.maxNames = Math.max(0, maxNames);
+        this.maxDirectoryNames = this.maxNames / 4;
+    }
+
+    static DirectoryListingCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return cached child names of {@code dir} if it was listed at the given mtime, otherwise null.
+     */
+    synchronized String[] get(Path dir, long lastModified) {
+        Listing listing = listings.get(dir);
+        if (listing == null) {
+            return null;
+        }
+        if (listing.lastModified != lastModified) {
+            remove(dir);
+            return null;
+        }
+        return listing.names;
+    }
+
+    /**
+     * @return whether a directory with {@code count} children may be cached at all.
+     */
+    boolean accepts(int count) {
+        return count <= maxDirectoryNames;
+    }
+
+    synchronized void put(Path dir, long lastModified, String[] names) {
+        if (!accepts(names.length)) {
+            return;
+        }
+        Listing previous = listings.put(dir, new Listing(lastModified, names));
+        if (previous != null) {
+            usedNames -= previous.names.length;
+        }
+        usedNames += names.length;
+        Iterator<Map.Entry<Path, Listing>> it = listings.entrySet().iterator();
+        while (usedNames > maxNames && it.hasNext()) {
+            usedNames -= it.next().getValue().names.length;
+            it.remove();
+        }
+    }
+
+    synchronized void invalidate(Path dir) {
+        if (dir != null) {
+            remove(dir);
+        }
+    }
+
+    synchronized void clear() {
+        listings.clear();
+        usedNames = 0;
+    }
+
+    synchronized int size() {
+        return listings.size();
+    }
+
+    private void remove(Path dir) {
+        Listing removed = listings.remove(dir);
+        if (removed != null) {
+            usedNames -= removed.names.length;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.tyron.nanoj.core.vfs;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded fileId -> (URI string, resolved {@link FileObject}) cache in front of the persistent VFS.
+ * <p>
+ * Split into segments, each a primitive-keyed LRU guarded by its own monitor, so concurrent lookups of
+ * different ids rarely contend.
+ */
+final class FileIdCache {
+
+    /**
+     * Maximum number of cached ids.
+     */
+    static final String MAX_ENTRIES_KEY = "nanoj.vfs.idCache.maxEntries";
+
+    private static final int SEGMENTS = 16;
+
+    record Entry(String uri, FileObject file) {}
+
+    private final Int2ObjectLinkedOpenHashMap<Entry>[] segments;
+    private final int maxPerSegment;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    FileIdCache(int maxEntries) {
+        this.maxPerSegment = Math.max(1, maxEntries / SEGMENTS);
+        this.segments = new Int2ObjectLinkedOpenHashMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Int2ObjectLinkedOpenHashMap<>();
+        }
+    }
+
+    static FileIdCache fromSystemProperties() {
+        return new FileIdCache(Integer.getInteger(MAX_ENTRIES_KEY, 64 * 1024));
+    }
+
+    private Int2ObjectLinkedOpenHashMap<Entry> segmentFor(int id) {
+        return segments[(id ^ (id >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    Entry get(int id) {
+        Int2ObjectLinkedOpenHashMap<Entry> segment = segmentFor(id);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.getAndMoveToLast(id);
+        }
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    void put(int id, String uri, FileObject file) {
+        Int2ObjectLinkedOpenHashMap<Entry> segment = segmentFor(id);
+        synchronized (segment) {
+            segment.putAndMoveToLast(id, new Entry(uri, file));
+            while (segment.size() > maxPerSegment) {
+                segment.removeFirst();
+            }
+        }
+    }
+
+    void remove(int id) {
+        Int2ObjectLinkedOpenHashMap<Entry> segment = segmentFor(id);
+        synchronized (segment) {
+            segment.remove(id);
+        }
+    }
+
+    /**
+     * Drops {@code id} if it is cached under a different URI.
+     */
+    void removeIfMoved(int id, String uri) {
+        Int2ObjectLinkedOpenHashMap<Entry> segment = segmentFor(id);
+        synchronized (segment) {
+            Entry entry = segment.get(id);
+            if (entry != null && !entry.uri.equals(uri)) {
+                segment.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Drops every entry at or below the given URI (a renamed or deleted folder).
+     */
+    void removeUnder(String uri) {
+        String folderPrefix = uri.endsWith("/") ? uri : uri + "/";
+        for (Int2ObjectLinkedOpenHashMap<Entry> segment : segments) {
+            synchronized (segment) {
+                ObjectIterator<Entry> it = segment.values().iterator();
+                while (it.hasNext()) {
+                    String cached = it.next().uri;
+                    if (cached.equals(uri) || cached.startsWith(folderPrefix)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    void clear() {
+        for (Int2ObjectLinkedOpenHashMap<Entry> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Int2ObjectLinkedOpenHashMap<Entry> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+}
@@ -6,7 +6,6 @@ import org.jspecify.annotations.NonNull;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.Spliterators;
@@ -16,35 +15,55 @@ import java.util.stream.StreamSupport;
 /**
  * A lazy iterator that traverses the FileObject tree but ONLY returns files (leaves).
  * Directories are traversed to find children but are never returned by next().
+ * <p>
+ * Children are pulled from {@link FileObject#streamChildren()}, so only one open listing per
+ * depth is held instead of every pending sibling. Listings are closed as soon as they are exhausted;
+ * callers that stop early should {@link #close()} the iterator (or the {@link #stream()}).
  */
-public class FileObjectTreeIterator implements Iterator<FileObject>, Iterable<FileObject> {
+public class FileObjectTreeIterator implements Iterator<FileObject>, Iterable<FileObject>, AutoCloseable {
 
-    private final Deque<FileObject> stack = new ArrayDeque<>();
+    private record Level(Stream<FileObject> stream, Iterator<FileObject> children) {}
+
+    private final Deque<Level> stack = new ArrayDeque<>();
+    private FileObject pending;
     private FileObject nextFile;
 
     public FileObjectTreeIterator(FileObject root) {
-        if (root != null) {
-            stack.push(root);
-        }
+        pending = root;
         advance();
     }
 
     /**
-     * Loops through the stack until it finds a File (not a folder)
+     * Walks depth-first until it finds a File (not a folder)
      * or runs out of items.
      */
     private void advance() {
         nextFile = null;
 
-        while (!stack.isEmpty()) {
-            FileObject current = stack.pop();
+        while (true) {
+            FileObject current = pending;
+            pending = null;
+            if (current == null) {
+                Level top = stack.peek();
+                if (top == null) {
+                    return;
+                }
+                if (!hasNextChild(top)) {
+                    stack.pop().stream.close();
+                    continue;
+                }
+                current = top.children.next();
+                if (current == null) {
+                    continue;
+                }
+            }
 
             if (current.isFolder()) {
-                List<FileObject> children = current.getChildren();
-                if (children != null) {
-                    for (int i = children.size() - 1; i >= 0; i--) {
-                        stack.push(children.get(i));
-                    }
+                try {
+                    Stream<FileObject> children = current.streamChildren();
+                    stack.push(new Level(children, children.iterator()));
+                } catch (RuntimeException ignored) {
+                    // unreadable folder; skip it.
                 }
             } else {
                 nextFile = current;
@@ -53,6 +72,26 @@ public class FileObjectTreeIterator implements Iterator<FileObject>, Iterable<Fi
         }
     }
 
+    private static boolean hasNextChild(Level level) {
+        try {
+            return level.children.hasNext();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes the listings still open; the iterator is exhausted afterwards.
+     */
+    @Override
+    public void close() {
+        while (!stack.isEmpty()) {
+            stack.pop().stream.close();
+        }
+        pending = null;
+        nextFile = null;
+    }
+
     @Override
     public boolean hasNext() {
         return nextFile != null;
@@ -81,6 +120,6 @@ public class FileObjectTreeIterator implements Iterator<FileObject>, Iterable<Fi
         return StreamSupport.stream(
                 Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
                 false
-        );
+        ).onClose(this::close);
     }
 }
\ No newline at end of file
@@ -84,6 +84,19 @@ public class FileUtil {
         return null; // Not a child
     }
 
+    /**
+     * CRC-32 of the file's content if the file system records it (archive entries, from the central
+     * directory), without reading the content.
+     *
+     * @return the CRC-32, or -1 if unknown.
+     */
+    public static long storedCrc32(FileObject file) {
+        if (file instanceof JarFileObject jarFile) {
+            return jarFile.getCrc32();
+        }
+        return -1L;
+    }
+
     public static Stream<FileObject> childrenStream(FileObject dir) {
         return new FileObjectTreeIterator(dir).stream();
     }
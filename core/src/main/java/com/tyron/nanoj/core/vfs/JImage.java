@@ -0,0 +1,207 @@
+package com.tyron.nanoj.core.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal reader of the JDK runtime image ({@code lib/modules}, "jimage" format).
+ * <p>
+ * The image starts with a location table describing every resource (module, parent, base name, extension,
+ * data offset and sizes), followed by the resource data. This reader maps the file once and walks that
+ * table directly, so {@link JrtFileSystem} can list {@code jrt:/modules} and read uncompressed class files
+ * without booting the NIO {@code jrt:} provider. Compressed resources are left to the provider.
+ */
+final class JImage {
+
+    private static final int MAGIC = 0xCAFEDADA;
+    private static final int MAJOR_VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private static final int ATTRIBUTE_MODULE = 1;
+    private static final int ATTRIBUTE_PARENT = 2;
+    private static final int ATTRIBUTE_BASE = 3;
+    private static final int ATTRIBUTE_EXTENSION = 4;
+    private static final int ATTRIBUTE_OFFSET = 5;
+    private static final int ATTRIBUTE_COMPRESSED = 6;
+    private static final int ATTRIBUTE_UNCOMPRESSED = 7;
+    private static final int ATTRIBUTE_COUNT = 8;
+
+    /**
+     * Receives one resource of a module, e.g. {@code java.base/java/lang/String.class}.
+     *
+     * @param position       absolute position of the resource data in the image
+     * @param compressedSize size of the stored data if it is compressed, otherwise 0
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void resource(String path, long position, long compressedSize, long size);
+    }
+
+    private final File file;
+    private final MappedByteBuffer mapped;
+    private final ByteBuffer index;
+    private final int tableLength;
+    private final int offsetsPos;
+    private final int locationsPos;
+    private final int stringsPos;
+    private final long indexSize;
+
+    private JImage(File file, MappedByteBuffer mapped) throws IOException {
+        this.file = file;
+        this.mapped = mapped;
+        ByteBuffer buf = mapped.duplicate().order(ByteOrder.nativeOrder());
+        if (buf.capacity() < HEADER_SIZE) {
+            throw new IOException("Not a runtime image: " + file);
+        }
+        if (buf.getInt(0) != MAGIC) {
+            buf.order(buf.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException("Not a runtime image: " + file);
+            }
+        }
+        if (buf.getInt(4) >>> 16 != MAJOR_VERSION) {
+            throw new IOException("Unsupported runtime image version " + Integer.toHexString(buf.getInt(4)) + ": " + file);
+        }
+        this.tableLength = buf.getInt(16);
+        int locationsSize = buf.getInt(20);
+        int stringsSize = buf.getInt(24);
+        if (tableLength < 0 || locationsSize < 0 || stringsSize < 0) {
+            throw new IOException("Corrupt runtime image header: " + file);
+        }
+
+        long redirectPos = HEADER_SIZE;
+        long offsets = redirectPos + 4L * tableLength;
+        long locations = offsets + 4L * tableLength;
+        long strings = locations + locationsSize;
+        this.indexSize = strings + stringsSize;
+        if (indexSize > buf.capacity()) {
+            throw new IOException("Corrupt runtime image header: " + file);
+        }
+        this.offsetsPos = (int) offsets;
+        this.locationsPos = (int) locations;
+        this.stringsPos = (int) strings;
+        this.index = buf;
+    }
+
+    /**
+     * Maps a runtime image. Images are well below 2GB; larger files are rejected.
+     */
+    static JImage open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Runtime image too large to map: " + file);
+            }
+            // the mapping stays valid after the channel is closed.
+            return new JImage(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Visits every module resource; the synthetic {@code /modules} and {@code /packages} trees are skipped.
+     */
+    void forEachResource(Visitor visitor) throws IOException {
+        long[] attributes = new long[ATTRIBUTE_COUNT];
+        // modules and parent packages repeat for every class.
+        Map<Long, String> shared = new HashMap<>();
+        StringBuilder path = new StringBuilder(128);
+        for (int i = 0; i < tableLength; i++) {
+            int location = index.getInt(offsetsPos + 4 * i);
+            decode(locationsPos + location, attributes);
+
+            String module = string(attributes[ATTRIBUTE_MODULE], shared);
+            if (module.isEmpty() || module.equals("modules") || module.equals("packages")) {
+                continue;
+            }
+            String parent = string(attributes[ATTRIBUTE_PARENT], shared);
+            String base = string(attributes[ATTRIBUTE_BASE]);
+            String extension = string(attributes[ATTRIBUTE_EXTENSION], shared);
+
+            path.setLength(0);
+            path.append(module).append('/');
+            if (!parent.isEmpty()) {
+                path.append(parent).append('/');
+            }
+            path.append(base);
+            if (!extension.isEmpty()) {
+                path.append('.').append(extension);
+            }
+            visitor.resource(path.toString(),
+                    indexSize + attributes[ATTRIBUTE_OFFSET],
+                    attributes[ATTRIBUTE_COMPRESSED],
+                    attributes[ATTRIBUTE_UNCOMPRESSED]);
+        }
+    }
+
+    /**
+     * @return a read-only slice of the image; uncompressed resources need no copy.
+     */
+    ByteBuffer read(long position, long length) throws IOException {
+        if (position < indexSize || length < 0 || position + length > mapped.capacity()) {
+            throw new IOException("read beyond end of runtime image (position=" + position + ", length=" + length + ")");
+        }
+        return mapped.duplicate().position((int) position).limit((int) (position + length)).slice().asReadOnlyBuffer();
+    }
+
+    private void decode(int pos, long[] attributes) throws IOException {
+        Arrays.fill(attributes, 0L);
+        int limit = stringsPos;
+        while (pos < limit) {
+            int data = index.get(pos++) & 0xFF;
+            if (data <= 0x7) {
+                return;
+            }
+            int kind = data >>> 3;
+            if (kind >= ATTRIBUTE_COUNT) {
+                throw new IOException("Invalid runtime image location attribute " + kind + ": " + file);
+            }
+            int length = (data & 0x7) + 1;
+            long value = 0;
+            for (int j = 0; j < length; j++) {
+                value = (value << 8) | (index.get(pos++) & 0xFF);
+            }
+            attributes[kind] = value;
+        }
+        throw new IOException("Truncated runtime image location: " + file);
+    }
+
+    private String string(long offset, Map<Long, String> shared) throws IOException {
+        String cached = shared.get(offset);
+        if (cached == null) {
+            cached = string(offset);
+            shared.put(offset, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Strings are NUL-terminated (modified) UTF-8; resource names never contain the encodings where the
+     * two differ.
+     */
+    private String string(long offset) throws IOException {
+        int start = (int) (stringsPos + offset);
+        int end = start;
+        while (end < indexSize && index.get(end) != 0) {
+            end++;
+        }
+        if (end >= indexSize) {
+            throw new IOException("Truncated runtime image string table: " + file);
+        }
+        byte[] bytes = new byte[end - start];
+        index.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -138,6 +139,13 @@ final class JarFileObject implements FileObject {
 
     @Override
     public long lastModified() {
+        // Files: entry timestamp from the central directory, no decompression.
+        if (!isFolder()) {
+            long entryTime = index.entryLastModified(entryPath);
+            if (entryTime > 0) {
+                return entryTime;
+            }
+        }
         // Best-effort: jar file timestamp if available.
         if ("file".equalsIgnoreCase(jarUri.getScheme())) {
             try {
@@ -153,6 +161,10 @@ final class JarFileObject implements FileObject {
         if (isFolder()) {
             return 0L;
         }
+        long length = index.entryLength(entryPath);
+        if (length >= 0) {
+            return length;
+        }
         try (InputStream in = getInputStream()) {
             return in.readAllBytes().length;
         } catch (IOException e) {
@@ -160,12 +172,49 @@ final class JarFileObject implements FileObject {
         }
     }
 
+    /**
+     * @return CRC-32 of the entry content as recorded in the central directory, or -1 if unknown.
+     */
+    long getCrc32() {
+        if (isFolder()) {
+            return -1L;
+        }
+        return index.entryCrc32(entryPath);
+    }
+
     @Override
     public InputStream getInputStream() throws IOException {
         if (isFolder()) {
             throw new IOException("Cannot open InputStream for directory: " + getPath());
         }
-        return index.openEntryStream(entryPath);
+        return new ByteBufferInputStream(getContentBuffer());
+    }
+
+    @Override
+    public byte[] getContent() throws IOException {
+        return ContentCache.toArray(getContentBuffer());
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() throws IOException {
+        if (isFolder()) {
+            throw new IOException("Cannot read content of directory: " + getPath());
+        }
+        // Entry content is immutable for a given CRC-32 and size, once the index matches the jar on disk.
+        index.revalidate();
+        long crc = getCrc32();
+        long length = getLength();
+        ContentCache cache = ContentCache.getInstance();
+        int id = crc < 0 ? -1 : ContentCache.idOf(this);
+        String uri = getPath();
+
+        ByteBuffer cached = cache.get(id, uri, crc, length);
+        if (cached != null) {
+            return cached;
+        }
+        ByteBuffer content = index.readEntryBuffer(entryPath).asReadOnlyBuffer();
+        cache.put(id, uri, crc, length, content);
+        return content;
     }
 
     @Override
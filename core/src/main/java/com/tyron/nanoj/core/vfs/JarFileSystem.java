@@ -10,19 +10,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -44,6 +42,11 @@ public final class JarFileSystem implements FileSystem {
     // Cache of jar indexes by underlying jar URI string
     private final Map<String, JarIndex> indexCache = new ConcurrentHashMap<>();
 
+    private static final String STORE_KIND = "jar";
+
+    // Open archives shared by all indexes; one handle per jar file.
+    private final JarHandleCache handles = JarHandleCache.fromSystemProperties();
+
     private JarFileSystem() {
     }
 
@@ -85,6 +88,7 @@ public final class JarFileSystem implements FileSystem {
     @Override
     public void refresh(boolean asynchronous) {
         indexCache.clear();
+        handles.invalidateAll();
     }
 
     @Override
@@ -104,7 +108,17 @@ public final class JarFileSystem implements FileSystem {
 
     JarIndex getOrBuildIndex(URI jarUri) {
         String key = jarUri.toString();
-        return indexCache.computeIfAbsent(key, k -> buildIndex(jarUri));
+        JarIndex[] built = new JarIndex[1];
+        JarIndex index = indexCache.computeIfAbsent(key, k -> built[0] = buildIndex(jarUri));
+        if (index != built[0]) {
+            try {
+                // the jar may have been replaced since the index was cached.
+                index.revalidate();
+            } catch (IOException ignored) {
+                // reported by the reads of its entries.
+            }
+        }
+        return index;
     }
 
     private JarIndex buildIndex(URI jarUri) {
@@ -128,103 +142,98 @@ public final class JarFileSystem implements FileSystem {
     }
 
     private JarIndex buildIndexFromZipFile(URI jarUri, File jarFile) {
-        Set<String> allDirs = new HashSet<>();
-        Set<String> allFiles = new HashSet<>();
-        Map<String, List<String>> childrenByDir = new HashMap<>();
-
-        allDirs.add("");
-        try (ZipFile zip = new ZipFile(jarFile)) {
-            zip.stream().forEach(entry -> {
-                String name = normalizeEntryPath(entry.getName());
-                if (entry.isDirectory()) {
-                    addDir(allDirs, childrenByDir, name);
-                } else {
-                    addFile(allDirs, allFiles, childrenByDir, name);
-                }
-            });
+        try (JarHandleCache.Handle handle = handles.acquire(jarFile)) {
+            return JarIndex.forZipFile(jarUri, jarFile, handles, treeOf(jarFile, handle));
+        } catch (ZipException e) {
+            // Layout we can't map directly; let the in-memory path (and its streaming fallback) handle it.
+            try {
+                return buildIndexFromBytes(jarUri, Files.readAllBytes(jarFile.toPath()));
+            } catch (IOException ioe) {
+                throw new RuntimeException("Failed to open jar: " + jarFile, ioe);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Failed to open jar: " + jarFile, e);
         }
+    }
 
-        normalizeChildren(childrenByDir);
-        return JarIndex.forZipFile(jarUri, jarFile, allDirs, allFiles, childrenByDir);
+    /**
+     * @return the stored directory tree of the archive mapped by {@code handle} if it was built from the same
+     * central directory, otherwise a new one, which is stored.
+     */
+    static ArchiveDirectoryIndex treeOf(File jarFile, JarHandleCache.Handle handle) throws IOException {
+        ArchiveIndexStore store = ArchiveIndexStore.getInstance();
+        ArchiveDirectoryIndex tree = store.load(STORE_KIND, jarFile);
+        // size and timestamp survive an in-place rewrite; the stored offsets and CRCs must not.
+        if (tree != null && tree.sourceFingerprint() == handle.fingerprint()) {
+            return tree;
+        }
+        ZipCentralDirectory directory = ZipCentralDirectory.parse(handle);
+        // the handle's stat was taken before mapping, so a concurrent rewrite leaves a stale key rather than a stale index.
+        tree = buildTree(directory).build(jarFile.getAbsolutePath(), handle.size(), handle.lastModified(), directory.fingerprint());
+        store.save(STORE_KIND, jarFile, tree);
+        return tree;
     }
 
     private JarIndex buildIndexFromBytes(URI jarUri, byte[] jarBytes) {
-        Set<String> allDirs = new HashSet<>();
-        Set<String> allFiles = new HashSet<>();
-        Map<String, List<String>> childrenByDir = new HashMap<>();
+        ZipCentralDirectory directory;
+        try {
+            directory = ZipCentralDirectory.parse(ZipCentralDirectory.Source.of(jarBytes));
+        } catch (IOException e) {
+            return buildIndexFromStream(jarUri, jarBytes);
+        }
+
+        ArchiveDirectoryIndex tree = buildTree(directory).build(jarUri.toString(), jarBytes.length, 0L);
+        return JarIndex.forInMemory(jarUri, jarBytes, tree);
+    }
+
+    /**
+     * Fallback for archives without a readable central directory (e.g. truncated streams):
+     * walks local headers and keeps every entry's bytes in memory.
+     */
+    private JarIndex buildIndexFromStream(URI jarUri, byte[] jarBytes) {
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
         Map<String, byte[]> fileBytes = new HashMap<>();
 
-        allDirs.add("");
         try (ZipInputStream zin = new ZipInputStream(new ByteArrayInputStream(jarBytes))) {
             ZipEntry e;
             while ((e = zin.getNextEntry()) != null) {
                 String name = normalizeEntryPath(e.getName());
                 if (e.isDirectory()) {
-                    addDir(allDirs, childrenByDir, name);
+                    builder.addDirectory(name);
                 } else {
-                    addFile(allDirs, allFiles, childrenByDir, name);
-                    fileBytes.put(name, readAll(zin));
+                    byte[] data = readAll(zin);
+                    fileBytes.putIfAbsent(name, data);
+                    builder.addFile(name, data.length, -1L, -1L, -1, -1L, -1L);
                 }
             }
         } catch (IOException e) {
             throw new RuntimeException("Failed to parse jar bytes: " + jarUri, e);
         }
 
-        normalizeChildren(childrenByDir);
-        return JarIndex.forInMemory(jarUri, jarBytes, allDirs, allFiles, childrenByDir, fileBytes);
-    }
-
-    private static void normalizeChildren(Map<String, List<String>> childrenByDir) {
-        for (Map.Entry<String, List<String>> e : childrenByDir.entrySet()) {
-            e.getValue().sort(Comparator.naturalOrder());
-        }
-    }
-
-    private static void addDir(Set<String> allDirs, Map<String, List<String>> childrenByDir, String dirPath) {
-        dirPath = normalizeDirPath(dirPath);
-        if (dirPath.isEmpty()) {
-            allDirs.add("");
-            return;
-        }
-        ensureParents(allDirs, childrenByDir, dirPath);
-        allDirs.add(dirPath);
-        String parent = parentDir(dirPath);
-        addChild(childrenByDir, parent, nameOf(dirPath));
-    }
-
-    private static void addFile(Set<String> allDirs, Set<String> allFiles, Map<String, List<String>> childrenByDir, String filePath) {
-        filePath = normalizeEntryPath(filePath);
-        if (filePath.isEmpty() || filePath.endsWith("/")) {
-            return;
-        }
-        ensureParents(allDirs, childrenByDir, filePath);
-        allFiles.add(filePath);
-        String parent = parentDir(filePath);
-        addChild(childrenByDir, parent, nameOf(filePath));
+        ArchiveDirectoryIndex tree = builder.build(jarUri.toString(), jarBytes.length, 0L);
+        return JarIndex.forStreamed(jarUri, jarBytes, tree, fileBytes);
     }
 
-    private static void ensureParents(Set<String> allDirs, Map<String, List<String>> childrenByDir, String path) {
-        String parent = parentDir(path);
-        while (parent != null && !parent.isEmpty()) {
-            String dir = normalizeDirPath(parent);
-            if (allDirs.add(dir)) {
-                String pp = parentDir(dir);
-                addChild(childrenByDir, pp == null ? "" : pp, nameOf(dir));
+    private static ArchiveDirectoryIndex.Builder buildTree(ZipCentralDirectory directory) {
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
+        for (int slot = 0; slot < directory.size(); slot++) {
+            String name = normalizeEntryPath(directory.name(slot));
+            if (name.endsWith("/")) {
+                builder.addDirectory(name);
+            } else {
+                long time = directory.lastModified(slot);
+                builder.addFile(
+                        name,
+                        directory.uncompressedSize(slot),
+                        time > 0 ? time : -1L,
+                        directory.crc32(slot),
+                        directory.method(slot),
+                        directory.compressedSize(slot),
+                        directory.localHeaderPosition(slot)
+                );
             }
-            parent = parentDir(dir);
-        }
-        allDirs.add("");
-    }
-
-    private static void addChild(Map<String, List<String>> childrenByDir, String parentDir, String childName) {
-        if (parentDir == null) parentDir = "";
-        parentDir = normalizeDirPath(parentDir);
-        List<String> children = childrenByDir.computeIfAbsent(parentDir, k -> new ArrayList<>());
-        if (!children.contains(childName)) {
-            children.add(childName);
         }
+        return builder;
     }
 
     static String normalizeEntryPath(String entryPath) {
@@ -247,7 +256,7 @@ public final class JarFileSystem implements FileSystem {
         if (entryPath.isEmpty()) return null;
 
         // Handle directory paths like "p/"; otherwise lastIndexOf('/') points at the trailing slash
-        // and parentDir("p/") would incorrectly return "p/" (infinite loop in ensureParents()).
+        // and parentDir("p/") would incorrectly return "p/" (callers walking up to the root would loop).
         while (entryPath.endsWith("/")) {
             entryPath = entryPath.substring(0, entryPath.length() - 1);
         }
@@ -283,91 +292,180 @@ public final class JarFileSystem implements FileSystem {
         final byte[] jarBytes;
         final Map<String, byte[]> inMemoryEntryBytes;
 
-        final Set<String> dirs;
-        final Set<String> files;
-        final Map<String, List<String>> childrenByDir;
+        /**
+         * Directory tree with per-entry metadata and local header positions. For an on-disk jar it is replaced
+         * when the jar's central directory no longer has the fingerprint the tree was built from.
+         */
+        private volatile ArchiveDirectoryIndex tree;
+        private final JarHandleCache handles;
+        private final ZipCentralDirectory.Source inMemorySource;
 
         private JarIndex(
                 URI jarUri,
                 File zipFileOnDisk,
+                JarHandleCache handles,
                 byte[] jarBytes,
                 Map<String, byte[]> inMemoryEntryBytes,
-                Set<String> dirs,
-                Set<String> files,
-                Map<String, List<String>> childrenByDir
+                ArchiveDirectoryIndex tree
         ) {
             this.jarUri = jarUri;
             this.zipFileOnDisk = zipFileOnDisk;
+            this.handles = handles;
             this.jarBytes = jarBytes;
             this.inMemoryEntryBytes = inMemoryEntryBytes;
-            this.dirs = dirs;
-            this.files = files;
-            this.childrenByDir = childrenByDir;
+            this.tree = tree;
+            this.inMemorySource = jarBytes != null && inMemoryEntryBytes == null ? ZipCentralDirectory.Source.of(jarBytes) : null;
         }
 
-        static JarIndex forZipFile(URI jarUri, File zipFile, Set<String> dirs, Set<String> files, Map<String, List<String>> childrenByDir) {
-            return new JarIndex(jarUri, zipFile, null, null, dirs, files, childrenByDir);
+        static JarIndex forZipFile(URI jarUri, File zipFile, JarHandleCache handles, ArchiveDirectoryIndex tree) {
+            return new JarIndex(jarUri, zipFile, handles, null, null, tree);
         }
 
-        static JarIndex forInMemory(
-                URI jarUri,
-                byte[] jarBytes,
-                Set<String> dirs,
-                Set<String> files,
-                Map<String, List<String>> childrenByDir,
-                Map<String, byte[]> entryBytes
-        ) {
-            return new JarIndex(jarUri, null, jarBytes, entryBytes, dirs, files, childrenByDir);
+        static JarIndex forInMemory(URI jarUri, byte[] jarBytes, ArchiveDirectoryIndex tree) {
+            return new JarIndex(jarUri, null, null, jarBytes, null, tree);
+        }
+
+        static JarIndex forStreamed(URI jarUri, byte[] jarBytes, ArchiveDirectoryIndex tree, Map<String, byte[]> entryBytes) {
+            return new JarIndex(jarUri, null, null, jarBytes, entryBytes, tree);
+        }
+
+        /**
+         * Rebuilds the tree of an on-disk jar if the archive on disk is no longer the one it was built from.
+         */
+        void revalidate() throws IOException {
+            if (zipFileOnDisk == null) {
+                return;
+            }
+            try (JarHandleCache.Handle handle = handles.acquire(zipFileOnDisk)) {
+                treeFor(handle);
+            }
+        }
+
+        /**
+         * @return the tree describing the archive mapped by {@code handle}; offsets of any other tree would
+         * point into other entries.
+         */
+        private ArchiveDirectoryIndex treeFor(JarHandleCache.Handle handle) throws IOException {
+            long fingerprint = handle.fingerprint();
+            ArchiveDirectoryIndex current = tree;
+            if (current.sourceFingerprint() == fingerprint) {
+                return current;
+            }
+            synchronized (this) {
+                current = tree;
+                if (current.sourceFingerprint() != fingerprint) {
+                    current = treeOf(zipFileOnDisk, handle);
+                    tree = current;
+                }
+                return current;
+            }
         }
 
         boolean isDirectory(String entryPath) {
-            return dirs.contains(normalizeDirPath(entryPath));
+            ArchiveDirectoryIndex current = tree;
+            int node = current.find(normalizeEntryPath(entryPath));
+            return node != ArchiveDirectoryIndex.NOT_FOUND && current.isDirectory(node);
         }
 
         boolean isFile(String entryPath) {
-            return files.contains(normalizeEntryPath(entryPath));
+            int node = fileNode(tree, entryPath);
+            return node != ArchiveDirectoryIndex.NOT_FOUND;
         }
 
         List<String> listChildren(String dirPath) {
-            dirPath = normalizeDirPath(dirPath);
-            List<String> kids = childrenByDir.get(dirPath);
-            if (kids == null) return Collections.emptyList();
-            return kids;
+            ArchiveDirectoryIndex current = tree;
+            int node = current.find(normalizeEntryPath(dirPath));
+            if (node == ArchiveDirectoryIndex.NOT_FOUND || !current.isDirectory(node)) {
+                return Collections.emptyList();
+            }
+            return current.childNames(node);
+        }
+
+        /**
+         * @return uncompressed entry size, or -1 if unknown.
+         */
+        long entryLength(String entryPath) {
+            ArchiveDirectoryIndex current = tree;
+            int node = fileNode(current, entryPath);
+            return node != ArchiveDirectoryIndex.NOT_FOUND ? current.size(node) : -1L;
+        }
+
+        /**
+         * @return entry DOS timestamp in epoch millis, or -1 if unknown.
+         */
+        long entryLastModified(String entryPath) {
+            ArchiveDirectoryIndex current = tree;
+            int node = fileNode(current, entryPath);
+            return node != ArchiveDirectoryIndex.NOT_FOUND ? current.lastModified(node) : -1L;
+        }
+
+        /**
+         * @return entry CRC-32 from the central directory, or -1 if unknown.
+         */
+        long entryCrc32(String entryPath) {
+            ArchiveDirectoryIndex current = tree;
+            int node = fileNode(current, entryPath);
+            return node != ArchiveDirectoryIndex.NOT_FOUND ? current.crc32(node) : -1L;
         }
 
-        InputStream openEntryStream(String entryPath) throws IOException {
+        /**
+         * @return the entry content; STORED entries of on-disk jars are slices of the shared mapping.
+         */
+        ByteBuffer readEntryBuffer(String entryPath) throws IOException {
             entryPath = normalizeEntryPath(entryPath);
-            if (zipFileOnDisk != null) {
-                ZipFile zf = new ZipFile(zipFileOnDisk);
-                ZipEntry ze = zf.getEntry(entryPath);
-                if (ze == null) {
-                    zf.close();
-                    throw new IOException("Entry not found: " + entryPath);
-                }
-                // Ensure the ZipFile is closed when the entry stream is closed.
-                InputStream raw = zf.getInputStream(ze);
-                return new InputStream() {
-                    @Override public int read() throws IOException { return raw.read(); }
-                    @Override public int read(byte[] b, int off, int len) throws IOException { return raw.read(b, off, len); }
-                    @Override public void close() throws IOException {
-                        try {
-                            raw.close();
-                        } finally {
-                            zf.close();
-                        }
-                    }
-                };
-            }
 
             if (inMemoryEntryBytes != null) {
                 byte[] data = inMemoryEntryBytes.get(entryPath);
                 if (data == null) {
                     throw new IOException("Entry not found: " + entryPath);
                 }
-                return new ByteArrayInputStream(data);
+                return ByteBuffer.wrap(data);
             }
 
-            throw new IOException("Jar index is missing data for: " + jarUri);
+            ZipCentralDirectory.Source source = inMemorySource;
+            JarHandleCache.Handle handle = null;
+            if (zipFileOnDisk != null) {
+                // a mapping outlives its channel, so slices stay valid after the handle is released.
+                handle = handles.acquire(zipFileOnDisk);
+                source = handle;
+            }
+            if (source == null) {
+                throw new IOException("Jar index is missing data for: " + jarUri);
+            }
+            try {
+                ArchiveDirectoryIndex current = handle != null ? treeFor(handle) : tree;
+                int node = fileNode(current, entryPath);
+                if (node == ArchiveDirectoryIndex.NOT_FOUND) {
+                    throw new IOException("Entry not found: " + entryPath);
+                }
+                return ZipCentralDirectory.entryBuffer(
+                        source,
+                        current.dataPosition(node),
+                        current.method(node),
+                        current.storedSize(node),
+                        current.size(node),
+                        entryPath
+                );
+            } catch (InternalError e) {
+                if (handle == null || !JarHandleCache.isMappingFault(e)) {
+                    throw e;
+                }
+                // truncated while mapped; the next read maps the jar again.
+                handles.invalidate(zipFileOnDisk);
+                throw new IOException("Jar changed while it was read: " + zipFileOnDisk, e);
+            } finally {
+                if (handle != null) {
+                    handle.close();
+                }
+            }
+        }
+
+        private static int fileNode(ArchiveDirectoryIndex tree, String entryPath) {
+            int node = tree.find(normalizeEntryPath(entryPath));
+            if (node == ArchiveDirectoryIndex.NOT_FOUND || tree.isDirectory(node)) {
+                return ArchiveDirectoryIndex.NOT_FOUND;
+            }
+            return node;
         }
     }
 
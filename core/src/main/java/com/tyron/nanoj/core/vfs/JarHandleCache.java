@@ -0,0 +1,273 @@
+package com.tyron.nanoj.core.vfs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of open, memory-mapped jar archives.
+ * <p>
+ * Keeps at most one open handle per jar file, bounded by LRU. Handles are reference counted:
+ * eviction and {@link #invalidateAll()} only drop the pool's own reference, so an archive is never
+ * closed while a read is in flight.
+ * <p>
+ * A pooled handle is only served while the jar still has the size, timestamp and file key (inode) it was
+ * opened with; otherwise it is dropped and the jar mapped again. Mappings are never unmapped explicitly, because
+ * slices of STORED entries outlive the handle (see {@link Handle#read}); they are released by the GC.
+ * Jars must therefore be replaced, not rewritten in place: truncating a mapped jar makes the pages past
+ * the new end fault on access, which the JVM raises as an {@link InternalError} (see
+ * {@link #isMappingFault}), and on Windows a mapped jar cannot be written at all.
+ */
+final class JarHandleCache {
+
+    /**
+     * Maximum number of jar archives kept open at the same time.
+     */
+    static final String MAX_OPEN_HANDLES_KEY = "nanoj.vfs.jar.maxOpenHandles";
+
+    private final int maxOpenHandles;
+
+    // access-ordered: eldest entry is the least recently used jar.
+    private final LinkedHashMap<File, Handle> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+    JarHandleCache(int maxOpenHandles) {
+        this.maxOpenHandles = Math.max(1, maxOpenHandles);
+    }
+
+    static JarHandleCache fromSystemProperties() {
+        return new JarHandleCache(Integer.getInteger(MAX_OPEN_HANDLES_KEY, 64));
+    }
+
+    /**
+     * Returns a retained handle for the given jar. Callers must {@link Handle#close()} it when done.
+     */
+    Handle acquire(File jarFile) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(jarFile.toPath(), BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Object fileKey = attrs.fileKey();
+
+        Handle stale = null;
+        synchronized (this) {
+            Handle cached = handles.get(jarFile);
+            if (cached != null) {
+                if (cached.matches(size, lastModified, fileKey)) {
+                    cached.retain();
+                    return cached;
+                }
+                // changed on disk since it was mapped.
+                handles.remove(jarFile);
+                stale = cached;
+            }
+        }
+        if (stale != null) {
+            stale.close();
+        }
+
+        // Open outside the lock; mapping can touch the disk.
+        Handle opened = Handle.open(jarFile, lastModified, fileKey);
+
+        List<Handle> evicted = new ArrayList<>();
+        Handle result;
+        synchronized (this) {
+            Handle raced = handles.get(jarFile);
+            if (raced != null && raced.matches(opened.size, opened.lastModified, opened.fileKey)) {
+                raced.retain();
+                result = raced;
+                evicted.add(opened);
+            } else {
+                if (raced != null) {
+                    evicted.add(raced);
+                }
+                handles.put(jarFile, opened);
+                opened.retain();
+                result = opened;
+
+                Iterator<Map.Entry<File, Handle>> it = handles.entrySet().iterator();
+                while (handles.size() > maxOpenHandles && it.hasNext()) {
+                    Map.Entry<File, Handle> eldest = it.next();
+                    if (eldest.getValue() == opened) {
+                        continue;
+                    }
+                    evicted.add(eldest.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        for (Handle h : evicted) {
+            h.close();
+        }
+        return result;
+    }
+
+    /**
+     * Drops the pool reference of a single jar (e.g. after it changed on disk).
+     */
+    void invalidate(File jarFile) {
+        Handle removed;
+        synchronized (this) {
+            removed = handles.remove(jarFile);
+        }
+        if (removed != null) {
+            removed.close();
+        }
+    }
+
+    /**
+     * Drops all pooled handles. In-flight readers keep their handle open until they release it.
+     */
+    void invalidateAll() {
+        List<Handle> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(handles.values());
+            handles.clear();
+        }
+        for (Handle h : removed) {
+            h.close();
+        }
+    }
+
+    synchronized int openHandleCount() {
+        return handles.size();
+    }
+
+    /**
+     * @return whether {@code error} is the JVM reporting an access to a mapped page that is gone, e.g.
+     * because the jar was truncated while mapped.
+     */
+    static boolean isMappingFault(Throwable error) {
+        return error instanceof InternalError
+                && error.getMessage() != null
+                && error.getMessage().contains("fault occurred");
+    }
+
+    /**
+     * Reference-counted view over one open jar file.
+     * <p>
+     * Archives up to 2GB are served from a single read-only mapping; larger ones fall back to
+     * positional channel reads.
+     */
+    static final class Handle implements ZipCentralDirectory.Source, Closeable {
+
+        private final File file;
+        private final FileChannel channel;
+        private final long size;
+        private final long lastModified;
+        private final Object fileKey;
+        private final MappedByteBuffer mapped;
+
+        // ZipCentralDirectory.fingerprint of the mapped archive, computed on first use.
+        private volatile boolean fingerprinted;
+        private volatile long fingerprint;
+
+        // starts at 1: the pool's own reference.
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private Handle(File file, FileChannel channel, long size, long lastModified, Object fileKey, MappedByteBuffer mapped) {
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.mapped = mapped;
+        }
+
+        /**
+         * @param lastModified the jar's timestamp, taken before opening so a concurrent rewrite leaves the
+         *                     handle looking stale rather than current.
+         * @param fileKey      the jar's file key from the same stat, or null if the platform has none.
+         */
+        static Handle open(File file, long lastModified, Object fileKey) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                MappedByteBuffer mapped = size <= Integer.MAX_VALUE
+                        ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                        : null;
+                return new Handle(file, channel, size, lastModified, fileKey, mapped);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        long lastModified() {
+            return lastModified;
+        }
+
+        boolean matches(long size, long lastModified, Object fileKey) {
+            return this.size == size && this.lastModified == lastModified && Objects.equals(this.fileKey, fileKey);
+        }
+
+        /**
+         * @return the {@link ZipCentralDirectory#fingerprint(ZipCentralDirectory.Source)} of this archive; an
+         * index is only valid for the handles with the fingerprint it was built from.
+         */
+        long fingerprint() throws IOException {
+            if (!fingerprinted) {
+                fingerprint = ZipCentralDirectory.fingerprint(this);
+                fingerprinted = true;
+            }
+            return fingerprint;
+        }
+
+        void retain() {
+            refCount.incrementAndGet();
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public ByteBuffer read(long position, int length) throws IOException {
+            if (mapped != null) {
+                return ZipCentralDirectory.slice(mapped, position, length);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            long pos = position;
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, pos);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of jar: " + file);
+                }
+                pos += n;
+            }
+            return buf.flip();
+        }
+
+        /**
+         * Releases one reference; the channel is closed when the last reference is gone.
+         */
+        @Override
+        public void close() {
+            if (refCount.decrementAndGet() == 0) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // best-effort.
+                }
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -16,34 +17,83 @@ import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * FileObject of the {@code jrt:} filesystem, addressed by its normalized path (e.g.
+ * {@code /modules/java.base/java/lang/String.class}).
+ * <p>
+ * Everything below {@code /modules} is answered from the runtime image index and mapping; the NIO
+ * {@code jrt:} provider is only started for other paths, compressed resources, or when no index is available.
+ */
 final class JrtFileObject implements FileObject {
 
-    private static final ConcurrentHashMap<Path, JrtFileObject> INTERN = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, JrtFileObject> INTERN = new ConcurrentHashMap<>();
 
-    static JrtFileObject of(Path path) {
+    /**
+     * @param path a path as returned by {@link JrtFileSystem#normalizePath(String)}
+     */
+    static JrtFileObject of(String path) {
         Objects.requireNonNull(path, "path");
         return INTERN.computeIfAbsent(path, JrtFileObject::new);
     }
 
-    private final Path path;
+    private final String path;
+
+    private volatile Path nioPath;
 
     private volatile Boolean existsCache;
     private volatile Boolean isFolderCache;
     private volatile Long lastModifiedCache;
     private volatile Long lengthCache;
-    private volatile List<Path> childrenPathCache;
+    private volatile List<String> childrenPathCache;
+
+    private static final int UNRESOLVED = -2;
+
+    // node in the jrt image index; NOT_FOUND also covers paths the index does not describe.
+    private volatile int imageNode = UNRESOLVED;
 
-    private JrtFileObject(Path path) {
+    private JrtFileObject(String path) {
         this.path = Objects.requireNonNull(path, "path");
     }
 
+    private Path nioPath() {
+        Path p = nioPath;
+        if (p == null) {
+            p = JrtFileSystem.getOrCreateJrtNioFs().getPath(path);
+            nioPath = p;
+        }
+        return p;
+    }
+
+    private String resolve(String name) {
+        return JrtFileSystem.normalizePath(path + "/" + name);
+    }
+
+    /**
+     * @return the image index if it describes this path, otherwise null (query NIO instead).
+     */
+    private ArchiveDirectoryIndex imageIndex() {
+        String rel = JrtFileSystem.relativeToModules(path);
+        if (rel == null) {
+            return null;
+        }
+        return JrtFileSystem.getInstance().getImageIndex();
+    }
+
+    private int imageNode(ArchiveDirectoryIndex index) {
+        int node = imageNode;
+        if (node == UNRESOLVED) {
+            node = index.find(JrtFileSystem.relativeToModules(path));
+            imageNode = node;
+        }
+        return node;
+    }
+
     @Override
     public String getName() {
-        Path name = path.getFileName();
-        if (name == null) {
+        if (path.equals("/")) {
             return "jrt:/";
         }
-        return name.toString();
+        return path.substring(path.lastIndexOf('/') + 1);
     }
 
     @Override
@@ -65,24 +115,16 @@ final class JrtFileObject implements FileObject {
     public URI toUri() {
         // Avoid relying on Path#toUri() here; for some Path instances this can produce a relative
         // jrt URI (e.g. "jrt:modules/..."), which breaks callers that expect "jrt:/...".
-        String p = path.toString();
-        if (p == null || p.isBlank()) {
-            p = "/";
-        }
-        p = p.replace('\\', '/');
-        if (!p.startsWith("/")) {
-            p = "/" + p;
-        }
-        return URI.create("jrt:" + p);
+        return URI.create("jrt:" + path);
     }
 
     @Override
     public FileObject getParent() {
-        Path parent = path.getParent();
-        if (parent == null) {
+        if (path.equals("/")) {
             return null;
         }
-        return of(parent);
+        int slash = path.lastIndexOf('/');
+        return of(slash == 0 ? "/" : path.substring(0, slash));
     }
 
     @Override
@@ -91,15 +133,24 @@ final class JrtFileObject implements FileObject {
             return Collections.emptyList();
         }
 
-        List<Path> cached = childrenPathCache;
+        List<String> cached = childrenPathCache;
         if (cached == null) {
             synchronized (this) {
                 cached = childrenPathCache;
-                if (cached == null) {
-                    try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
-                        List<Path> out = new ArrayList<>();
+                ArchiveDirectoryIndex index = cached == null ? imageIndex() : null;
+                if (index != null) {
+                    List<String> names = index.childNames(imageNode(index));
+                    List<String> out = new ArrayList<>(names.size());
+                    for (String name : names) {
+                        out.add(resolve(name));
+                    }
+                    cached = out;
+                    childrenPathCache = cached;
+                } else if (cached == null) {
+                    try (DirectoryStream<Path> ds = Files.newDirectoryStream(nioPath())) {
+                        List<String> out = new ArrayList<>();
                         for (Path p : ds) {
-                            out.add(p);
+                            out.add(JrtFileSystem.normalizePath(p.toString()));
                         }
                         cached = out;
                     } catch (IOException e) {
@@ -115,7 +166,7 @@ final class JrtFileObject implements FileObject {
         }
 
         List<FileObject> result = new ArrayList<>(cached.size());
-        for (Path p : cached) {
+        for (String p : cached) {
             result.add(of(p));
         }
         return result;
@@ -126,7 +177,7 @@ final class JrtFileObject implements FileObject {
         if (name == null || name.isBlank()) {
             return null;
         }
-        return of(path.resolve(name));
+        return of(resolve(name));
     }
 
     @Override
@@ -135,7 +186,10 @@ final class JrtFileObject implements FileObject {
         if (cached != null) {
             return cached;
         }
-        boolean ex = Files.exists(path);
+        ArchiveDirectoryIndex index = imageIndex();
+        boolean ex = index != null
+                ? imageNode(index) != ArchiveDirectoryIndex.NOT_FOUND
+                : Files.exists(nioPath());
         existsCache = ex;
         return ex;
     }
@@ -146,7 +200,14 @@ final class JrtFileObject implements FileObject {
         if (cached != null) {
             return cached;
         }
-        boolean dir = Files.isDirectory(path);
+        ArchiveDirectoryIndex index = imageIndex();
+        boolean dir;
+        if (index != null) {
+            int node = imageNode(index);
+            dir = node != ArchiveDirectoryIndex.NOT_FOUND && index.isDirectory(node);
+        } else {
+            dir = Files.isDirectory(nioPath());
+        }
         isFolderCache = dir;
         return dir;
     }
@@ -162,9 +223,17 @@ final class JrtFileObject implements FileObject {
         if (cached != null) {
             return cached;
         }
+        ArchiveDirectoryIndex index = imageIndex();
+        if (index != null) {
+            int node = imageNode(index);
+            if (node != ArchiveDirectoryIndex.NOT_FOUND && !index.isDirectory(node)) {
+                lastModifiedCache = index.lastModified(node);
+                return lastModifiedCache;
+            }
+        }
         long lm;
         try {
-            lm = Files.getLastModifiedTime(path).toMillis();
+            lm = Files.getLastModifiedTime(nioPath()).toMillis();
         } catch (IOException e) {
             lm = 0L;
         }
@@ -178,9 +247,17 @@ final class JrtFileObject implements FileObject {
         if (cached != null) {
             return cached;
         }
+        ArchiveDirectoryIndex index = imageIndex();
+        if (index != null) {
+            int node = imageNode(index);
+            if (node != ArchiveDirectoryIndex.NOT_FOUND && !index.isDirectory(node)) {
+                lengthCache = index.size(node);
+                return lengthCache;
+            }
+        }
         long len;
         try {
-            len = Files.size(path);
+            len = Files.size(nioPath());
         } catch (IOException e) {
             len = 0L;
         }
@@ -190,7 +267,35 @@ final class JrtFileObject implements FileObject {
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return Files.newInputStream(path);
+        ByteBuffer mapped = readFromImage();
+        return mapped != null ? new ByteBufferInputStream(mapped) : Files.newInputStream(nioPath());
+    }
+
+    @Override
+    public byte[] getContent() throws IOException {
+        ByteBuffer mapped = readFromImage();
+        return mapped != null ? ContentCache.toArray(mapped) : Files.readAllBytes(nioPath());
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() throws IOException {
+        ByteBuffer mapped = readFromImage();
+        return mapped != null ? mapped : ByteBuffer.wrap(Files.readAllBytes(nioPath())).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a slice of the mapped runtime image, or null if the provider has to serve this file.
+     */
+    private ByteBuffer readFromImage() throws IOException {
+        ArchiveDirectoryIndex index = imageIndex();
+        if (index == null) {
+            return null;
+        }
+        int node = imageNode(index);
+        if (node == ArchiveDirectoryIndex.NOT_FOUND || index.isDirectory(node)) {
+            return null;
+        }
+        return JrtFileSystem.getInstance().readImageResource(index, node);
     }
 
     @Override
@@ -225,6 +330,6 @@ final class JrtFileObject implements FileObject {
 
     @Override
     public String toString() {
-        return path.toString();
+        return path;
     }
 }
@@ -4,9 +4,16 @@ import com.tyron.nanoj.api.vfs.FileChangeListener;
 import com.tyron.nanoj.api.vfs.FileObject;
 import com.tyron.nanoj.api.vfs.FileSystem;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
@@ -30,6 +37,17 @@ public final class JrtFileSystem implements FileSystem {
 
     private static volatile java.nio.file.FileSystem JRT_NIO_FS;
 
+    static final String MODULES_ROOT = "/modules";
+
+    // "jrt" indexes were walked through the NIO provider and carry no resource offsets.
+    private static final String STORE_KIND = "jimage";
+
+    private volatile ArchiveDirectoryIndex imageIndex;
+    private volatile boolean imageIndexUnavailable;
+
+    private volatile JImage image;
+    private volatile boolean imageUnavailable;
+
     private JrtFileSystem() {
     }
 
@@ -45,13 +63,7 @@ public final class JrtFileSystem implements FileSystem {
             throw new IllegalArgumentException("Unsupported scheme for JrtFileSystem: " + uri);
         }
 
-        java.nio.file.FileSystem jrt = getOrCreateJrtNioFs();
-        String p = uri.getPath();
-        if (p == null || p.isBlank()) {
-            p = "/";
-        }
-        Path path = jrt.getPath(p);
-        return JrtFileObject.of(path);
+        return JrtFileObject.of(normalizePath(uri.getPath()));
     }
 
     @Override
@@ -61,12 +73,23 @@ public final class JrtFileSystem implements FileSystem {
             return findResource(URI.create(path));
         }
 
-        java.nio.file.FileSystem jrt = getOrCreateJrtNioFs();
-        String p = path;
-        if (!p.startsWith("/")) {
-            p = "/" + p;
+        return JrtFileObject.of(normalizePath(path));
+    }
+
+    /**
+     * @return an absolute {@code /}-separated path without trailing or repeated separators.
+     */
+    static String normalizePath(String path) {
+        if (path == null || path.isBlank()) {
+            return "/";
         }
-        return JrtFileObject.of(jrt.getPath(p));
+        StringBuilder sb = new StringBuilder(path.length() + 1);
+        for (String segment : path.replace('\\', '/').split("/")) {
+            if (!segment.isEmpty()) {
+                sb.append('/').append(segment);
+            }
+        }
+        return sb.length() == 0 ? "/" : sb.toString();
     }
 
     @Override
@@ -90,6 +113,165 @@ public final class JrtFileSystem implements FileSystem {
         return true;
     }
 
+    /**
+     * Directory tree of {@code jrt:/modules} with the position of every resource in the runtime image.
+     * It is extracted once per image from the image's own location table and persisted through
+     * {@link ArchiveIndexStore}, so later launches map it and never start the NIO provider for listings.
+     *
+     * @return null if the image could not be indexed; callers then query the NIO provider directly.
+     */
+    ArchiveDirectoryIndex getImageIndex() {
+        ArchiveDirectoryIndex cached = imageIndex;
+        if (cached != null || imageIndexUnavailable) {
+            return cached;
+        }
+        synchronized (this) {
+            if (imageIndex == null && !imageIndexUnavailable) {
+                try {
+                    imageIndex = loadOrBuildImageIndex();
+                } catch (Throwable t) {
+                    imageIndexUnavailable = true;
+                }
+            }
+            return imageIndex;
+        }
+    }
+
+    private ArchiveDirectoryIndex loadOrBuildImageIndex() throws IOException {
+        // The jrt provider serves the running JDK; its image file identifies the index.
+        File image = imageFile();
+        boolean persistent = image.isFile();
+        ArchiveIndexStore store = ArchiveIndexStore.getInstance();
+        String key = image.getAbsolutePath();
+        long size = persistent ? image.length() : 0L;
+        long lastModified = persistent ? image.lastModified() : 0L;
+
+        if (persistent) {
+            ArchiveDirectoryIndex stored = store.load(STORE_KIND, image);
+            if (stored != null) {
+                return stored;
+            }
+        }
+
+        ArchiveDirectoryIndex built = persistent ? buildFromImage(key, size, lastModified) : null;
+        if (built == null) {
+            built = buildFromProvider(key, size, lastModified);
+        }
+        if (persistent) {
+            store.save(STORE_KIND, image, built);
+        }
+        return built;
+    }
+
+    private static File imageFile() {
+        return new File(System.getProperty("java.home"), "lib" + File.separator + "modules");
+    }
+
+    /**
+     * @return the index extracted from the image's location table, or null if the image cannot be read.
+     */
+    private ArchiveDirectoryIndex buildFromImage(String key, long size, long lastModified) {
+        JImage jimage = getImage();
+        if (jimage == null) {
+            return null;
+        }
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
+        try {
+            // The provider reports the image's own timestamp for every node.
+            jimage.forEachResource((path, position, compressedSize, resourceSize) -> builder.addFile(
+                    path,
+                    resourceSize,
+                    lastModified,
+                    -1L,
+                    compressedSize == 0 ? ZipCentralDirectory.STORED : -1,
+                    compressedSize == 0 ? resourceSize : compressedSize,
+                    position
+            ));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return builder.build(key, size, lastModified);
+    }
+
+    private ArchiveDirectoryIndex buildFromProvider(String key, long size, long lastModified) throws IOException {
+        Path modules = getOrCreateJrtNioFs().getPath(MODULES_ROOT);
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
+        Files.walkFileTree(modules, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                builder.addDirectory(relativeToModules(dir.toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                builder.addFile(
+                        relativeToModules(file.toString()),
+                        attrs.size(),
+                        attrs.lastModifiedTime().toMillis(),
+                        -1L, -1, -1L, -1L
+                );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return builder.build(key, size, lastModified);
+    }
+
+    /**
+     * @return the mapped runtime image, or null if this runtime has none (or it cannot be parsed).
+     */
+    JImage getImage() {
+        JImage cached = image;
+        if (cached != null || imageUnavailable) {
+            return cached;
+        }
+        synchronized (this) {
+            if (image == null && !imageUnavailable) {
+                try {
+                    File file = imageFile();
+                    if (file.isFile()) {
+                        image = JImage.open(file);
+                    } else {
+                        imageUnavailable = true;
+                    }
+                } catch (Throwable t) {
+                    imageUnavailable = true;
+                }
+            }
+            return image;
+        }
+    }
+
+    /**
+     * @return the content of an uncompressed image resource straight from the mapping, or null if the
+     * node has to be read through the NIO provider.
+     */
+    ByteBuffer readImageResource(ArchiveDirectoryIndex index, int node) throws IOException {
+        if (index.method(node) != ZipCentralDirectory.STORED || index.dataPosition(node) < 0) {
+            return null;
+        }
+        JImage jimage = getImage();
+        if (jimage == null) {
+            return null;
+        }
+        return jimage.read(index.dataPosition(node), index.size(node));
+    }
+
+    /**
+     * @return the path relative to {@code /modules}, or null if it lies outside of it.
+     */
+    static String relativeToModules(String path) {
+        path = path.replace('\\', '/');
+        if (path.equals(MODULES_ROOT)) {
+            return "";
+        }
+        if (path.startsWith(MODULES_ROOT + "/")) {
+            return path.substring(MODULES_ROOT.length() + 1);
+        }
+        return null;
+    }
+
     public static java.nio.file.FileSystem getOrCreateJrtNioFs() {
         java.nio.file.FileSystem cached = JRT_NIO_FS;
         if (cached != null) {
@@ -7,18 +7,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Concrete implementation of FileObject using java.nio.path.
  */
 public class LocalFileObject implements FileObject {
 
+    /**
+     * Content and listings of entries modified this recently are not cached: a second change within the
+     * timestamp granularity could keep the mtime (and the length).
+     */
+    private static final long RACY_MILLIS = 2000;
+
     private final LocalFileSystem fs;
     private final Path path;
 
@@ -58,11 +70,92 @@ public class LocalFileObject implements FileObject {
 
     @Override
     public List<FileObject> getChildren() {
-        if (!isFolder()) return Collections.emptyList();
-        try (Stream<Path> s = Files.list(path)) {
-            return s.map(p -> new LocalFileObject(fs, p)).collect(Collectors.toList());
+        try (Stream<FileObject> s = streamChildren()) {
+            return s.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Serves the listing from {@link DirectoryListingCache} while the directory mtime is unchanged, otherwise
+     * streams it from a {@link DirectoryStream} and caches the names once the stream was fully consumed.
+     */
+    @Override
+    public Stream<FileObject> streamChildren() {
+        long modified;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isDirectory()) {
+                return Stream.empty();
+            }
+            modified = attrs.lastModifiedTime().toMillis();
         } catch (IOException e) {
-            return Collections.emptyList();
+            return Stream.empty();
+        }
+
+        DirectoryListingCache cache = DirectoryListingCache.getInstance();
+        String[] cached = cache.get(path, modified);
+        if (cached != null) {
+            return Arrays.stream(cached).map(name -> new LocalFileObject(fs, path.resolve(name)));
+        }
+
+        DirectoryStream<Path> ds;
+        try {
+            ds = Files.newDirectoryStream(path);
+        } catch (IOException e) {
+            return Stream.empty();
+        }
+        Iterator<Path> entries = ds.iterator();
+        Iterator<FileObject> children = new Iterator<>() {
+            // null once the listing turned out not to be cacheable.
+            private List<String> names = modified < System.currentTimeMillis() - RACY_MILLIS ? new ArrayList<>() : null;
+
+            @Override
+            public boolean hasNext() {
+                boolean more;
+                try {
+                    more = entries.hasNext();
+                } catch (DirectoryIteratorException e) {
+                    names = null;
+                    return false;
+                }
+                if (!more && names != null) {
+                    cache.put(path, modified, names.toArray(String[]::new));
+                    names = null;
+                }
+                return more;
+            }
+
+            @Override
+            public FileObject next() {
+                Path child = entries.next();
+                if (names != null) {
+                    if (cache.accepts(names.size() + 1)) {
+                        names.add(child.getFileName().toString());
+                    } else {
+                        names = null;
+                    }
+                }
+                return new LocalFileObject(fs, child);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(children, Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        ds.close();
+                    } catch (IOException ignored) {
+                        // best-effort.
+                    }
+                });
+    }
+
+    /**
+     * Drops the cached listings that {@code fo} appearing, disappearing or moving made stale.
+     */
+    static void invalidateListings(FileObject fo) {
+        if (fo instanceof LocalFileObject local) {
+            DirectoryListingCache cache = DirectoryListingCache.getInstance();
+            cache.invalidate(local.path);
+            cache.invalidate(local.path.getParent());
         }
     }
 
@@ -109,6 +202,37 @@ public class LocalFileObject implements FileObject {
         return Files.newInputStream(path);
     }
 
+    @Override
+    public byte[] getContent() throws IOException {
+        return ContentCache.toArray(getContentBuffer());
+    }
+
+    @Override
+    public ByteBuffer getContentBuffer() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attrs.isDirectory()) {
+            throw new IOException("Is a directory: " + path);
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        long length = attrs.size();
+
+        ContentCache cache = ContentCache.getInstance();
+        int id = ContentCache.idOf(this);
+        String uri = path.toUri().toString();
+        ByteBuffer cached = cache.get(id, uri, modified, length);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Read onto the heap, never mapped: saving rewrites the file in place (see getOutputStream()), which would
+        // tear a mapping still held by a reader, and on Windows an open mapping blocks the save.
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path)).asReadOnlyBuffer();
+        if (modified < System.currentTimeMillis() - RACY_MILLIS) {
+            cache.put(id, uri, modified, length, content);
+        }
+        return content;
+    }
+
     @Override
     public OutputStream getOutputStream() throws IOException {
         // Return a wrapper that notifies on close
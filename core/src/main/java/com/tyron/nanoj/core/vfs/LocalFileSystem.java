@@ -69,11 +69,13 @@ public class LocalFileSystem implements FileSystem {
     }
 
     void notifyCreated(FileObject fo) {
+        LocalFileObject.invalidateListings(fo);
         FileEvent e = new FileEvent(fo);
         for (FileChangeListener l : listeners) l.fileCreated(e);
     }
 
     void notifyDeleted(FileObject fo) {
+        LocalFileObject.invalidateListings(fo);
         FileEvent e = new FileEvent(fo);
         for (FileChangeListener l : listeners) l.fileDeleted(e);
     }
@@ -84,6 +86,8 @@ public class LocalFileSystem implements FileSystem {
     }
 
     void notifyRenamed(FileObject oldFile, FileObject newFile) {
+        LocalFileObject.invalidateListings(oldFile);
+        LocalFileObject.invalidateListings(newFile);
         FileRenameEvent e = new FileRenameEvent(oldFile, newFile);
         for (FileChangeListener l : listeners) l.fileRenamed(e);
     }
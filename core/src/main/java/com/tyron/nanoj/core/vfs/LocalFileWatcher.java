@@ -0,0 +1,386 @@
+package com.tyron.nanoj.core.vfs;
+
+import org.jspecify.annotations.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incremental change source for local tracked roots, backed by the platform {@link WatchService}.
+ * <p>
+ * Every directory below a watched root is registered. {@link #poll(boolean)} drains the queued events into the
+ * set of paths that may have changed; a queue overflow reports the affected directory for a rescan instead.
+ * A root whose directories cannot all be registered (e.g., the inotify watch limit) stops being watched, so the
+ * caller falls back to full scans for it.
+ * <p>
+ * Only used where the JDK has a native watch service; the polling fallback reports changes seconds late.
+ */
+final class LocalFileWatcher implements Closeable {
+
+    /**
+     * Set to false to always refresh tracked roots with full scans.
+     */
+    static final String ENABLED_KEY = "nanoj.vfs.watcher.enabled";
+
+    private static final long BARRIER_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * @param dirty  paths that were created, changed or deleted (and the directories holding them), including
+     *               entries of new directories
+     * @param rescan directories whose events were lost and need a subtree rescan
+     */
+    record Changes(Set<Path> dirty, Set<Path> rescan) {
+        boolean isEmpty() {
+            return dirty.isEmpty() && rescan.isEmpty();
+        }
+    }
+
+    private final WatchService service;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> roots = new LinkedHashSet<>();
+
+    /**
+     * Private directory registered with the same service. On platforms that deliver events of one service in
+     * order (inotify), seeing a marker file created here proves that events of earlier disk changes were read.
+     */
+    private final Path barrierDir;
+    private final WatchKey barrierKey;
+    private final AtomicLong barrierSequence = new AtomicLong();
+
+    private LocalFileWatcher(WatchService service, Path barrierDir, WatchKey barrierKey) {
+        this.service = service;
+        this.barrierDir = barrierDir;
+        this.barrierKey = barrierKey;
+    }
+
+    /**
+     * @return a watcher, or null if native file watching is unavailable or disabled.
+     */
+    static LocalFileWatcher create() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED_KEY, "true"))) {
+            return null;
+        }
+        WatchService service = null;
+        Path barrierDir = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            if (service.getClass().getName().contains("Polling")) {
+                service.close();
+                return null;
+            }
+            barrierDir = BarrierDirs.create();
+            WatchKey barrierKey = barrierDir.register(service, StandardWatchEventKinds.ENTRY_CREATE);
+            return new LocalFileWatcher(service, barrierDir, barrierKey);
+        } catch (Throwable t) {
+            BarrierDirs.delete(barrierDir);
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (IOException ignored) {
+                    // best-effort.
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Starts watching {@code root} and every directory below it.
+     *
+     * @return false if some directory could not be registered; the root is then not watched.
+     */
+    synchronized boolean watch(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        if (roots.contains(normalized)) {
+            return true;
+        }
+        try {
+            registerTree(normalized, null);
+        } catch (IOException e) {
+            unwatch(normalized);
+            return false;
+        }
+        roots.add(normalized);
+        return true;
+    }
+
+    synchronized boolean isWatching(Path root) {
+        return roots.contains(root.toAbsolutePath().normalize());
+    }
+
+    synchronized void unwatchAll() {
+        for (WatchKey key : directories.keySet()) {
+            key.cancel();
+        }
+        directories.clear();
+        roots.clear();
+    }
+
+    private void unwatch(Path root) {
+        directories.entrySet().removeIf(e -> {
+            if (e.getValue().startsWith(root)) {
+                e.getKey().cancel();
+                return true;
+            }
+            return false;
+        });
+        roots.remove(root);
+    }
+
+    /**
+     * Registers {@code dir} and its subdirectories. If {@code entries} is given, every entry found below
+     * {@code dir} is added to it (they may have appeared before the registration).
+     */
+    private void registerTree(Path dir, Set<Path> entries) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public @NonNull FileVisitResult preVisitDirectory(@NonNull Path d, @NonNull BasicFileAttributes attrs) throws IOException {
+                WatchKey key = d.register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, d);
+                if (entries != null && !d.equals(dir)) {
+                    entries.add(d);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public @NonNull FileVisitResult visitFile(@NonNull Path file, @NonNull BasicFileAttributes attrs) {
+                if (entries != null) {
+                    entries.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Drains the queued events.
+     *
+     * @param sync if true, first waits until changes made before this call were delivered. Where that cannot
+     *             be confirmed, every watched root is reported for a rescan.
+     */
+    synchronized Changes poll(boolean sync) {
+        Set<Path> dirty = new LinkedHashSet<>();
+        Set<Path> rescan = new LinkedHashSet<>();
+        if (roots.isEmpty()) {
+            drainBarrier();
+            return new Changes(dirty, rescan);
+        }
+
+        if (sync && !awaitBarrier(dirty, rescan)) {
+            rescan.addAll(roots);
+        }
+
+        WatchKey key;
+        while ((key = service.poll()) != null) {
+            process(key, dirty, rescan, null);
+        }
+        return new Changes(dirty, rescan);
+    }
+
+    private boolean awaitBarrier(Set<Path> dirty, Set<Path> rescan) {
+        String marker = "barrier-" + barrierSequence.incrementAndGet();
+        Path markerFile = barrierDir.resolve(marker);
+        try {
+            Files.createFile(markerFile);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BARRIER_TIMEOUT_MILLIS);
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                WatchKey key = service.poll(remaining, TimeUnit.NANOSECONDS);
+                if (key == null) {
+                    return false;
+                }
+                if (process(key, dirty, rescan, marker)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(markerFile);
+            } catch (IOException ignored) {
+                // best-effort.
+            }
+        }
+    }
+
+    /**
+     * @return barriers waited for so far.
+     */
+    long barrierCount() {
+        return barrierSequence.get();
+    }
+
+    /**
+     * @return the private directory of the barrier markers.
+     */
+    Path barrierDir() {
+        return barrierDir;
+    }
+
+    private void drainBarrier() {
+        WatchKey key;
+        while ((key = service.poll()) != null) {
+            if (key == barrierKey) {
+                key.pollEvents();
+                key.reset();
+            }
+        }
+    }
+
+    /**
+     * @return true if {@code key} carried the creation of {@code marker} in the barrier directory.
+     */
+    private boolean process(WatchKey key, Set<Path> dirty, Set<Path> rescan, String marker) {
+        if (key == barrierKey) {
+            boolean seen = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (marker != null && event.context() instanceof Path p && p.toString().equals(marker)) {
+                    seen = true;
+                }
+            }
+            key.reset();
+            return seen;
+        }
+
+        Path dir = directories.get(key);
+        if (dir == null) {
+            key.cancel();
+            return false;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan.add(dir);
+                continue;
+            }
+            if (!(event.context() instanceof Path name)) {
+                continue;
+            }
+            Path child = dir.resolve(name);
+            dirty.add(child);
+            if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY) {
+                // adding or removing an entry moves the directory mtime too.
+                dirty.add(dir);
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    registerTree(child, dirty);
+                } catch (IOException e) {
+                    Path root = rootOf(child);
+                    if (root != null) {
+                        unwatch(root);
+                        rescan.add(root);
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            // The directory is gone; its parent reported the deletion.
+            directories.remove(key);
+        }
+        return false;
+    }
+
+    private Path rootOf(Path path) {
+        return roots.stream()
+                .filter(path::startsWith)
+                .max(Comparator.comparingInt(Path::getNameCount))
+                .orElse(null);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            service.close();
+        } catch (IOException ignored) {
+            // best-effort.
+        }
+        directories.clear();
+        roots.clear();
+        BarrierDirs.delete(barrierDir);
+    }
+
+    /**
+     * The barrier directories of the watchers of this process. Each is deleted with what is left in it when its
+     * watcher is closed, and those of watchers that were never closed when the process exits.
+     */
+    private static final class BarrierDirs {
+
+        private static final Set<Path> LIVE = ConcurrentHashMap.newKeySet();
+        // Guarded by BarrierDirs.class.
+        private static boolean hooked;
+
+        static Path create() throws IOException {
+            synchronized (BarrierDirs.class) {
+                if (!hooked) {
+                    hooked = true;
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                        for (Path dir : LIVE) {
+                            delete(dir);
+                        }
+                    }, "nanoj-watch-barrier-cleanup"));
+                }
+            }
+            Path dir = Files.createTempDirectory("nanoj-watch-barrier");
+            LIVE.add(dir);
+            return dir;
+        }
+
+        static void delete(Path dir) {
+            if (dir == null) {
+                return;
+            }
+            try {
+                Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                    @Override
+                    public @NonNull FileVisitResult visitFile(@NonNull Path file, @NonNull BasicFileAttributes attrs) throws IOException {
+                        Files.deleteIfExists(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public @NonNull FileVisitResult postVisitDirectory(@NonNull Path d, IOException e) throws IOException {
+                        Files.deleteIfExists(d);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                LIVE.remove(dir);
+            } catch (NoSuchFileException e) {
+                LIVE.remove(dir);
+            } catch (IOException ignored) {
+                // best-effort; the shutdown hook tries again.
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.tyron.nanoj.core.vfs;
+
+import com.tyron.nanoj.core.vfs.persistent.PersistentVfs;
+import com.tyron.nanoj.core.vfs.persistent.PersistentVfsRecord;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parallel scanner of a local directory tree, producing snapshot records in URI order.
+ * <p>
+ * Every directory is handled by its own fork/join task, so large trees are read by all cores. Results are
+ * handed to the {@link Sink} on the calling thread in ascending URI string order (siblings sorted, each folder
+ * followed by its subtree), the order of {@code recordsByUri}.
+ * <p>
+ * A directory whose mtime matches its snapshot record had no entries added, removed or renamed, so it is not
+ * listed: its children are taken from the snapshot and only re-stat'ed (file content changes do not touch the
+ * directory mtime). Directories modified within {@value #RACY_MILLIS} ms of the scan are always listed, since a
+ * second change within the same mtime tick would go unnoticed.
+ */
+final class LocalTreeScanner {
+
+    static final String PARALLELISM_KEY = "nanoj.vfs.scan.parallelism";
+
+    private static final long RACY_MILLIS = 2000;
+
+    private static final ForkJoinPool POOL = createPool();
+
+    @FunctionalInterface
+    interface Sink {
+        void accept(String uri, PersistentVfsRecord record);
+    }
+
+    private final NavigableMap<String, PersistentVfsRecord> snapshot;
+    private final long racyThreshold;
+    private final LongAdder listedDirectories;
+    private final LongAdder prunedDirectories;
+
+    /**
+     * @param snapshot records of the previous scan, keyed by normalized URI string
+     */
+    LocalTreeScanner(NavigableMap<String, PersistentVfsRecord> snapshot, LongAdder listedDirectories, LongAdder prunedDirectories) {
+        this.snapshot = snapshot;
+        this.racyThreshold = System.currentTimeMillis() - RACY_MILLIS;
+        this.listedDirectories = listedDirectories;
+        this.prunedDirectories = prunedDirectories;
+    }
+
+    private static ForkJoinPool createPool() {
+        int parallelism = Math.max(1, Integer.getInteger(PARALLELISM_KEY, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger counter = new AtomicInteger();
+        return new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("Vfs-Scan-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Scans {@code root} (which must exist) and everything below it.
+     *
+     * @throws IOException if some directory could not be read; nothing after it is delivered.
+     */
+    void scan(Path root, Sink sink) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        URI uri = root.toUri();
+        String uriStr = PersistentVfs.normalizeUriString(uri);
+        sink.accept(uriStr, recordOf(uri, attrs));
+        if (!attrs.isDirectory()) {
+            return;
+        }
+        DirTask task = new DirTask(root, uriStr, mtimeOf(attrs));
+        POOL.execute(task);
+        emit(task, sink);
+    }
+
+    private void emit(DirTask task, Sink sink) throws IOException {
+        Listing listing = task.join();
+        if (listing.error != null) {
+            throw listing.error;
+        }
+        for (Child child : listing.children) {
+            sink.accept(child.uri, child.record);
+            if (child.subtask != null) {
+                emit(child.subtask, sink);
+            }
+        }
+    }
+
+    static PersistentVfsRecord recordOf(URI uri, BasicFileAttributes attrs) {
+        boolean folder = attrs.isDirectory();
+        long len = folder ? 0L : attrs.size();
+        String fileKey = PersistentVfs.tryGetLocalFileKey(uri, attrs);
+        return new PersistentVfsRecord(folder, mtimeOf(attrs), len, fileKey);
+    }
+
+    private static long mtimeOf(BasicFileAttributes attrs) {
+        FileTime lm = attrs.lastModifiedTime();
+        return lm != null ? lm.toMillis() : 0L;
+    }
+
+    private record Child(String uri, PersistentVfsRecord record, DirTask subtask) {}
+
+    private record Listing(List<Child> children, IOException error) {}
+
+    private final class DirTask extends RecursiveTask<Listing> {
+        private final Path dir;
+        private final String uri;
+        private final long mtime;
+
+        DirTask(Path dir, String uri, long mtime) {
+            this.dir = dir;
+            this.uri = uri.endsWith("/") ? uri : uri + "/";
+            this.mtime = mtime;
+        }
+
+        @Override
+        protected Listing compute() {
+            List<Child> children = new ArrayList<>();
+            try {
+                PersistentVfsRecord old = snapshot.get(uri);
+                if (old != null && old.isFolder() && mtime > 0 && old.getLastModified() == mtime && mtime < racyThreshold) {
+                    prunedDirectories.increment();
+                    for (String childUri : snapshotChildren()) {
+                        Path child = PersistentVfs.toLocalPath(URI.create(childUri));
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException gone) {
+                            continue;
+                        }
+                        add(children, child, childUri, attrs);
+                    }
+                } else {
+                    listedDirectories.increment();
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                        for (Path child : stream) {
+                            BasicFileAttributes attrs;
+                            try {
+                                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                            } catch (IOException gone) {
+                                continue;
+                            }
+                            add(children, child, PersistentVfs.normalizeUriString(child.toUri()), attrs);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                return new Listing(List.of(), e);
+            }
+            children.sort(Comparator.comparing(Child::uri));
+            return new Listing(children, null);
+        }
+
+        private void add(List<Child> children, Path child, String childUri, BasicFileAttributes attrs) {
+            PersistentVfsRecord record = recordOf(URI.create(childUri), attrs);
+            DirTask subtask = null;
+            if (attrs.isDirectory()) {
+                subtask = new DirTask(child, childUri, record.getLastModified());
+                subtask.fork();
+            }
+            children.add(new Child(childUri, record, subtask));
+        }
+
+        /**
+         * Direct children of this directory in the snapshot, skipping over each child folder's subtree.
+         */
+        private List<String> snapshotChildren() {
+            List<String> result = new ArrayList<>();
+            String key = snapshot.higherKey(uri);
+            while (key != null && key.startsWith(uri)) {
+                result.add(key);
+                key = snapshot.higherKey(key.endsWith("/") ? key + '\uffff' : key);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.tyron.nanoj.core.vfs;
+
+import com.tyron.nanoj.core.vfs.persistent.PersistentVfsRecord;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Merge-join of two snapshots of the same URI range, both in ascending URI string order.
+ * <p>
+ * The old snapshot is pulled from an iterator (typically a live {@code recordsByUri} range) while the new one
+ * is pushed through {@link #accept}; only the differences are kept, so memory is proportional to the number
+ * of changes rather than to the size of the tree.
+ */
+final class SnapshotDiff {
+
+    private final Iterator<Map.Entry<String, PersistentVfsRecord>> old;
+    private Map.Entry<String, PersistentVfsRecord> pendingOld;
+    private String lastUri;
+
+    final Map<String, PersistentVfsRecord> created = new LinkedHashMap<>();
+    final Map<String, PersistentVfsRecord> changed = new LinkedHashMap<>();
+    /**
+     * Deleted URIs with their last known record.
+     */
+    final Map<String, PersistentVfsRecord> deleted = new LinkedHashMap<>();
+
+    SnapshotDiff(Iterator<Map.Entry<String, PersistentVfsRecord>> old) {
+        this.old = old;
+        this.pendingOld = old.hasNext() ? old.next() : null;
+    }
+
+    void accept(String uri, PersistentVfsRecord record) {
+        if (lastUri != null && uri.compareTo(lastUri) <= 0) {
+            throw new IllegalStateException("Snapshot not in URI order: " + uri + " after " + lastUri);
+        }
+        lastUri = uri;
+
+        while (pendingOld != null && pendingOld.getKey().compareTo(uri) < 0) {
+            deleted.put(pendingOld.getKey(), pendingOld.getValue());
+            advance();
+        }
+        if (pendingOld != null && pendingOld.getKey().equals(uri)) {
+            if (!record.equals(pendingOld.getValue())) {
+                changed.put(uri, record);
+            }
+            advance();
+        } else {
+            created.put(uri, record);
+        }
+    }
+
+    /**
+     * Call after the last {@link #accept}: whatever is left of the old snapshot was deleted.
+     */
+    SnapshotDiff finish() {
+        while (pendingOld != null) {
+            deleted.put(pendingOld.getKey(), pendingOld.getValue());
+            advance();
+        }
+        return this;
+    }
+
+    boolean isEmpty() {
+        return created.isEmpty() && changed.isEmpty() && deleted.isEmpty();
+    }
+
+    private void advance() {
+        pendingOld = old.hasNext() ? old.next() : null;
+    }
+}
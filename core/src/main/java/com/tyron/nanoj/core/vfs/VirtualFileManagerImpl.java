@@ -1,37 +1,43 @@
 package com.tyron.nanoj.core.vfs;
 
+import com.tyron.nanoj.api.vfs.BulkFileEvent;
 import com.tyron.nanoj.api.vfs.FileChangeListener;
 import com.tyron.nanoj.api.vfs.FileEvent;
 import com.tyron.nanoj.api.vfs.FileObject;
 import com.tyron.nanoj.api.vfs.FileSystem;
 import com.tyron.nanoj.api.vfs.FileRenameEvent;
+import com.tyron.nanoj.api.vfs.VfsSnapshot;
 import com.tyron.nanoj.api.vfs.VirtualFileManager;
 import com.tyron.nanoj.api.service.Disposable;
 import com.tyron.nanoj.core.vfs.persistent.PersistentVfs;
 import com.tyron.nanoj.core.vfs.persistent.PersistentVfsRecord;
 import org.jetbrains.annotations.TestOnly;
-import org.jspecify.annotations.NonNull;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
  * Default implementation of {@link VirtualFileManager}.
@@ -49,6 +55,25 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
 
     private final PersistentVfs persistentVfs;
 
+    // findById is on the path of every index hit; skips the id -> URI lookup and FileSystem dispatch.
+    private final FileIdCache idCache = FileIdCache.fromSystemProperties();
+
+    private final LongAdder listedDirectories = new LongAdder();
+    private final LongAdder prunedDirectories = new LongAdder();
+
+    // Null where native file watching is unavailable; tracked roots are then rescanned on every refresh.
+    private final LocalFileWatcher localWatcher = LocalFileWatcher.create();
+
+    /**
+     * Snapshot reads that wait for the watcher share a sync: one started after a caller arrived covers it.
+     */
+    private final ReentrantLock snapshotSyncLock = new ReentrantLock();
+    private final AtomicLong snapshotSyncsStarted = new AtomicLong();
+    private long snapshotSyncsCompleted; // guarded by snapshotSyncLock
+
+    // non-null inside snapshotBatch; true once the batch waited for the watcher.
+    private final ThreadLocal<boolean[]> snapshotBatch = new ThreadLocal<>();
+
     public VirtualFileManagerImpl() {
         this.persistentVfs = new PersistentVfs(defaultVfsDbPath());
 
@@ -71,6 +96,9 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         } catch (Throwable ignored) {
             // best-effort.
         } finally {
+            if (localWatcher != null) {
+                localWatcher.close();
+            }
             try {
                 persistentVfs.close();
             } catch (Throwable ignored) {
@@ -122,9 +150,9 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         }
 
         if (asynchronous) {
-            CompletableFuture.runAsync(this::syncTrackedRoots);
+            CompletableFuture.runAsync(() -> syncTrackedRoots(false, null));
         } else {
-            syncTrackedRoots();
+            syncTrackedRoots(true, null);
         }
     }
 
@@ -161,15 +189,86 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
     @Override
     public int getFileId(FileObject file) {
         Objects.requireNonNull(file, "file");
-        PersistentVfsRecord record = recordOf(file);
-        return persistentVfs.getOrCreateId(file.toUri(), record.getFileKey());
+        URI uri = file.toUri();
+        Integer known = persistentVfs.getIdIfExists(uri);
+        if (known != null) {
+            return known;
+        }
+        int id = persistentVfs.getOrCreateId(uri, fileKeyOf(file));
+        // The file key may have moved an existing id to this URI.
+        idCache.removeIfMoved(id, PersistentVfs.normalizeUriString(uri));
+        return id;
+    }
+
+    @Override
+    public OptionalInt findFileId(FileObject file) {
+        Integer id = persistentVfs.getIdIfExists(Objects.requireNonNull(file, "file").toUri());
+        return id != null ? OptionalInt.of(id) : OptionalInt.empty();
     }
 
     @Override
     public FileObject findById(int id) {
+        FileIdCache.Entry cached = idCache.get(id);
+        if (cached != null) {
+            return cached.file();
+        }
         URI uri = persistentVfs.getUriById(id);
         if (uri == null) return null;
-        return find(uri);
+        FileObject file = find(uri);
+        if (file != null) {
+            idCache.put(id, uri.toString(), file);
+        }
+        return file;
+    }
+
+    @Override
+    public void syncFileIds() {
+        persistentVfs.syncIds();
+    }
+
+    public long getIdCacheHitCount() {
+        return idCache.hitCount();
+    }
+
+    public long getIdCacheMissCount() {
+        return idCache.missCount();
+    }
+
+    public int getIdCacheSize() {
+        return idCache.size();
+    }
+
+    public long getContentCacheHitCount() {
+        return ContentCache.getInstance().hitCount();
+    }
+
+    public long getContentCacheMissCount() {
+        return ContentCache.getInstance().missCount();
+    }
+
+    public long getContentCacheUsedBytes() {
+        return ContentCache.getInstance().usedBytes();
+    }
+
+    /**
+     * @return directories read from disk by full root scans so far.
+     */
+    public long getListedDirectoryCount() {
+        return listedDirectories.sum();
+    }
+
+    /**
+     * @return directories whose listing full root scans took from the snapshot, since their mtime was unchanged.
+     */
+    public long getPrunedDirectoryCount() {
+        return prunedDirectories.sum();
+    }
+
+    /**
+     * @return times snapshot reads waited for the file watcher to deliver earlier changes.
+     */
+    public long getWatcherBarrierCount() {
+        return localWatcher != null ? localWatcher.barrierCount() : 0;
     }
 
     @Override
@@ -178,6 +277,154 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         persistentVfs.trackRoot(root.toUri());
     }
 
+    /**
+     * Reads the snapshot of a local tree from {@code recordsByUri} with one ordered range query. Only roots
+     * below a tracked, watched folder qualify: their records are brought up to date by polling the watcher
+     * first, so they match what a walk would see.
+     */
+    @Override
+    public VfsSnapshot snapshotTree(FileObject root) {
+        Objects.requireNonNull(root, "root");
+        String key = syncedRecordKeyOf(root);
+        if (key == null) {
+            return null;
+        }
+
+        List<VfsSnapshot.Entry> entries = new ArrayList<>();
+        synchronized (persistentVfs) {
+            var records = persistentVfs.storage().recordsByUri;
+            PersistentVfsRecord rootRecord = records.get(key + "/");
+            if (rootRecord == null) {
+                rootRecord = records.get(key);
+            }
+            if (rootRecord == null) {
+                return null;
+            }
+            if (!rootRecord.isFolder()) {
+                entries.add(entryOf(key, rootRecord));
+            } else {
+                String prefix = key + "/";
+                for (Map.Entry<String, PersistentVfsRecord> e : records.subMap(prefix, true, prefix + "\uffff", true).entrySet()) {
+                    entries.add(entryOf(e.getKey(), e.getValue()));
+                }
+            }
+        }
+        // URI order and path order differ around separators and escapes.
+        entries.sort(Comparator.comparing(VfsSnapshot.Entry::getPath));
+        return new VfsSnapshot(VfsSnapshot.Mode.TREE, root.getPath(), entries);
+    }
+
+    /**
+     * Digest of the persisted records below {@code root}, under the same conditions as {@link #snapshotTree}.
+     */
+    @Override
+    public OptionalLong getTreeDigest(FileObject root) {
+        Objects.requireNonNull(root, "root");
+        String key = syncedRecordKeyOf(root);
+        if (key == null) {
+            return OptionalLong.empty();
+        }
+        Long digest = persistentVfs.getTreeDigest(URI.create(key));
+        return digest != null ? OptionalLong.of(digest) : OptionalLong.empty();
+    }
+
+    @Override
+    public <T> T snapshotBatch(Supplier<T> batch) {
+        if (snapshotBatch.get() != null) {
+            return batch.get();
+        }
+        snapshotBatch.set(new boolean[1]);
+        try {
+            return batch.get();
+        } finally {
+            snapshotBatch.remove();
+        }
+    }
+
+    /**
+     * Syncs the tracked root containing {@code root} if {@code root} is a local file below a tracked root.
+     *
+     * @return the record key of {@code root} without a trailing slash, or null if its records are not kept
+     * current by the watcher.
+     */
+    private String syncedRecordKeyOf(FileObject root) {
+        URI rootUri = root.toUri();
+        if (localWatcher == null || !"file".equalsIgnoreCase(rootUri.getScheme())) {
+            return null;
+        }
+        String rootStr = PersistentVfs.normalizeUriString(rootUri);
+        String trackedRoot = trackedRootOf(rootStr, false);
+        if (trackedRoot == null) {
+            return null;
+        }
+
+        syncForSnapshot(trackedRoot);
+        if (trackedRootOf(rootStr, true) == null) {
+            return null;
+        }
+        return rootStr.endsWith("/") ? rootStr.substring(0, rootStr.length() - 1) : rootStr;
+    }
+
+    /**
+     * Brings the records of {@code trackedRoot} up to date for a snapshot read. A root that is not watched yet is
+     * watched and scanned, which needs no barrier. For a watched root, the watcher is drained after a barrier
+     * that proves earlier changes were delivered; the barrier is shared with concurrent readers and paid once
+     * per {@link #snapshotBatch}.
+     */
+    private void syncForSnapshot(String trackedRoot) {
+        Path watchable = watchablePathOf(URI.create(trackedRoot));
+        boolean[] batch = snapshotBatch.get();
+        if (watchable == null || !localWatcher.isWatching(watchable) || (batch != null && batch[0])) {
+            syncTrackedRoots(false, trackedRoot);
+            return;
+        }
+
+        long arrival = snapshotSyncsStarted.get();
+        snapshotSyncLock.lock();
+        try {
+            if (snapshotSyncsCompleted <= arrival) {
+                long sync = snapshotSyncsStarted.incrementAndGet();
+                syncTrackedRoots(true, trackedRoot);
+                snapshotSyncsCompleted = sync;
+            }
+        } finally {
+            snapshotSyncLock.unlock();
+        }
+        if (batch != null) {
+            batch[0] = true;
+        }
+    }
+
+    /**
+     * @return the tracked root containing {@code uriStr} (and whose local folder is being watched, if
+     * {@code watched}), or null.
+     */
+    private String trackedRootOf(String uriStr, boolean watched) {
+        List<String> roots;
+        synchronized (persistentVfs) {
+            roots = List.copyOf(persistentVfs.storage().trackedRoots.getKeys());
+        }
+        for (String rootStr : roots) {
+            String prefix = rootStr.endsWith("/") ? rootStr : rootStr + "/";
+            if (!uriStr.startsWith(prefix) && !uriStr.equals(rootStr)) {
+                continue;
+            }
+            if (!watched) {
+                return rootStr;
+            }
+            Path watchable = watchablePathOf(URI.create(rootStr));
+            if (watchable != null && localWatcher.isWatching(watchable)) {
+                return rootStr;
+            }
+        }
+        return null;
+    }
+
+    private static VfsSnapshot.Entry entryOf(String uriStr, PersistentVfsRecord record) {
+        String path = PersistentVfs.toLocalPath(URI.create(uriStr)).toString();
+        return new VfsSnapshot.Entry(path, true, record.isFolder(), record.getLastModified(), record.getLength());
+    }
+
     @Override
     public void addGlobalListener(FileChangeListener l) {
         globalListeners.add(l);
@@ -190,32 +437,72 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
 
     @Override
     public void fireFileCreated(FileObject fo) {
+        LocalFileObject.invalidateListings(fo);
         FileEvent event = new FileEvent(fo);
         for (FileChangeListener l : globalListeners) l.fileCreated(event);
     }
 
     @Override
     public void fireFileDeleted(FileObject fo) {
+        invalidateIdCache(fo, false);
+        invalidateContent(fo);
+        LocalFileObject.invalidateListings(fo);
         FileEvent event = new FileEvent(fo);
         for (FileChangeListener l : globalListeners) l.fileDeleted(event);
     }
 
     @Override
     public void fireFileChanged(FileObject fo) {
+        invalidateContent(fo);
         FileEvent event = new FileEvent(fo);
         for (FileChangeListener l : globalListeners) l.fileChanged(event);
     }
 
     @Override
     public void fireFileRenamed(FileObject oldFile, FileObject newFile) {
-        FileRenameEvent event = new FileRenameEvent(oldFile, newFile);
-        for (FileChangeListener l : globalListeners) l.fileRenamed(event);
+        fireFileRenamed(new FileRenameEvent(oldFile, newFile));
     }
 
     private void fireFileRenamed(FileEvent event) {
+        if (event instanceof FileRenameEvent re) {
+            invalidateIdCache(re.getOldFile(), true);
+            LocalFileObject.invalidateListings(re.getOldFile());
+        }
+        invalidateIdCache(event.getFile(), true);
+        LocalFileObject.invalidateListings(event.getFile());
         for (FileChangeListener l : globalListeners) l.fileRenamed(event);
     }
 
+    /**
+     * Drops the cached id of {@code fo}. After a rename the ids below it moved too; a deletion keeps
+     * every id -> URI mapping, so children stay valid.
+     */
+    private void invalidateIdCache(FileObject fo, boolean subtree) {
+        URI uri = fo != null ? fo.toUri() : null;
+        if (uri == null) {
+            return;
+        }
+        Integer id = persistentVfs.getIdIfExists(uri);
+        if (id != null) {
+            idCache.remove(id);
+        }
+        if (subtree) {
+            idCache.removeUnder(PersistentVfs.normalizeUriString(uri));
+        }
+    }
+
+    /**
+     * Drops cached content of {@code fo}. Content stamps already catch most changes; this covers a
+     * rewrite that kept both the mtime and the length.
+     */
+    private void invalidateContent(FileObject fo) {
+        URI uri = fo != null ? fo.toUri() : null;
+        Integer id = uri != null ? persistentVfs.getIdIfExists(uri) : null;
+        if (id != null) {
+            ContentCache.getInstance().remove(id);
+        }
+    }
+
     @Override
     @TestOnly
     public void clear() {
@@ -225,14 +512,12 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         registry.clear();
         globalListeners.clear();
 
-        synchronized (persistentVfs) {
-            persistentVfs.storage().uriToId.clear();
-            persistentVfs.storage().idToUri.clear();
-            persistentVfs.storage().fileKeyToId.clear();
-            persistentVfs.storage().recordsByUri.clear();
-            persistentVfs.storage().trackedRoots.clear();
-            persistentVfs.storage().nextId.set(0);
-            persistentVfs.storage().commit();
+        persistentVfs.clear();
+        idCache.clear();
+        ContentCache.getInstance().clear();
+        DirectoryListingCache.getInstance().clear();
+        if (localWatcher != null) {
+            localWatcher.unwatchAll();
         }
 
         register(LocalFileSystem.getInstance());
@@ -336,103 +621,202 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         return lower.contains("junit") || lower.contains("surefire") || lower.contains("testng");
     }
 
-    private void syncTrackedRoots() {
+    /**
+     * Brings the snapshot of tracked roots up to date. Local roots are scanned fully once, then only
+     * the paths reported by {@link #localWatcher} are re-read.
+     *
+     * @param sync     whether changes made right before this call must be seen
+     * @param onlyRoot the only tracked root to scan if it is not watched yet, or null for all of them; changes
+     *                 the watcher reported are applied either way
+     */
+    private void syncTrackedRoots(boolean sync, String onlyRoot) {
         List<String> roots;
-        synchronized (persistentVfs) {
-            roots = List.copyOf(persistentVfs.storage().trackedRoots.getKeys());
+        if (onlyRoot != null) {
+            roots = List.of(onlyRoot);
+        } else {
+            synchronized (persistentVfs) {
+                roots = List.copyOf(persistentVfs.storage().trackedRoots.getKeys());
+            }
+        }
+
+        if (localWatcher != null) {
+            LocalFileWatcher.Changes changes = localWatcher.poll(sync);
+            for (Path dir : changes.rescan()) {
+                try {
+                    syncRoot(dir.toUri());
+                    // the lost events may have hidden rewrites that kept every stamp.
+                    persistentVfs.renewDigests(dir.toUri());
+                } catch (Throwable ignored) {
+                    // Best-effort.
+                }
+            }
+            try {
+                syncPaths(changes.dirty());
+            } catch (Throwable ignored) {
+                // Best-effort.
+            }
         }
 
         for (String rootUriStr : roots) {
             try {
-                syncRoot(URI.create(rootUriStr));
+                URI rootUri = URI.create(rootUriStr);
+                Path watchable = watchablePathOf(rootUri);
+                if (watchable != null) {
+                    if (localWatcher.isWatching(watchable)) {
+                        continue;
+                    }
+                    // Watch before the scan, so changes made during the scan are not missed.
+                    localWatcher.watch(watchable);
+                }
+                syncRoot(rootUri);
             } catch (Throwable ignored) {
                 // Best-effort.
             }
         }
     }
 
-    private void syncRoot(URI rootUri) throws IOException {
-        FileObject root = find(rootUri);
-        boolean rootIsFolder = root.exists() && root.isFolder();
-        String rootPrefix = PersistentVfs.rootPrefixOf(root.toUri(), rootIsFolder);
-        String rootPrefixEnd = rootPrefix + "\uffff";
-
-        Map<String, PersistentVfsRecord> oldRecords;
-        synchronized (persistentVfs) {
-            oldRecords = new LinkedHashMap<>(persistentVfs.storage().recordsByUri.subMap(rootPrefix, true, rootPrefixEnd, true));
+    private Path watchablePathOf(URI rootUri) {
+        if (localWatcher == null || !"file".equalsIgnoreCase(rootUri.getScheme())) {
+            return null;
         }
+        Path path = PersistentVfs.toLocalPath(rootUri);
+        return Files.isDirectory(path) ? path : null;
+    }
 
-        Map<String, PersistentVfsRecord> newRecords = scanTree(root);
-
-        Map<String, String> renames = detectRenamesByFileKey(oldRecords, newRecords);
-
-        Set<String> deleted = new HashSet<>();
-        Set<String> created = new HashSet<>();
-        Set<String> changed = new HashSet<>();
+    /**
+     * Re-reads the given local paths and applies the difference to their snapshot records. Records below a
+     * path that turned out deleted are dropped too.
+     */
+    private void syncPaths(Set<Path> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        TreeMap<String, PersistentVfsRecord> oldRecords = new TreeMap<>();
+        TreeMap<String, PersistentVfsRecord> newRecords = new TreeMap<>();
 
-        for (String oldUri : oldRecords.keySet()) {
-            if (renames.containsKey(oldUri)) continue;
-            if (!newRecords.containsKey(oldUri)) {
-                deleted.add(oldUri);
+        for (Path path : paths) {
+            URI uri = path.toUri();
+            String uriStr = PersistentVfs.normalizeUriString(uri);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                newRecords.put(uriStr, LocalTreeScanner.recordOf(uri, attrs));
+            } catch (IOException gone) {
+                // Deleted: its records (and, for a folder, those below it) become deletions.
             }
         }
 
-        for (String newUri : newRecords.keySet()) {
-            if (renames.containsValue(newUri)) continue;
-            if (!oldRecords.containsKey(newUri)) {
-                created.add(newUri);
+        synchronized (persistentVfs) {
+            var records = persistentVfs.storage().recordsByUri;
+            for (Path path : paths) {
+                String uriStr = PersistentVfs.normalizeUriString(path.toUri());
+                PersistentVfsRecord old = records.get(uriStr);
+                if (old != null) {
+                    oldRecords.put(uriStr, old);
+                }
+                if (!newRecords.containsKey(uriStr)) {
+                    String prefix = uriStr.endsWith("/") ? uriStr : uriStr + "/";
+                    oldRecords.putAll(records.subMap(prefix, true, prefix + "\uffff", true));
+                }
             }
         }
 
+        // the watcher saw these files being written, even if their stamps did not move.
         for (Map.Entry<String, PersistentVfsRecord> e : newRecords.entrySet()) {
-            String uri = e.getKey();
-            if (!oldRecords.containsKey(uri)) continue;
-            if (renames.containsKey(uri) || renames.containsValue(uri)) continue;
-            PersistentVfsRecord old = oldRecords.get(uri);
-            PersistentVfsRecord neu = e.getValue();
-            if (!neu.equals(old)) {
-                changed.add(uri);
+            if (!e.getValue().isFolder() && e.getValue().equals(oldRecords.get(e.getKey()))) {
+                persistentVfs.onTouched(e.getKey());
             }
         }
 
+        SnapshotDiff diff = new SnapshotDiff(oldRecords.entrySet().iterator());
+        newRecords.forEach(diff::accept);
+        applySnapshotDiff(diff.finish());
+    }
+
+    private void syncRoot(URI rootUri) throws IOException {
+        FileObject root = find(rootUri);
+        boolean rootIsFolder = root.exists() && root.isFolder();
+        String rootPrefix = PersistentVfs.rootPrefixOf(root.toUri(), rootIsFolder);
+        String rootPrefixEnd = rootPrefix + "\uffff";
+
+        // Both sides stream in URI order; only the differences are held in memory.
+        SnapshotDiff diff = new SnapshotDiff(persistentVfs.storage().recordsByUri
+                .subMap(rootPrefix, true, rootPrefixEnd, true).entrySet().iterator());
+        scanTree(root, diff::accept);
+
+        applySnapshotDiff(diff.finish());
+    }
+
+    /**
+     * Persists a snapshot difference and delivers it to global listeners as one {@link BulkFileEvent}.
+     */
+    private void applySnapshotDiff(SnapshotDiff diff) {
+        if (diff.isEmpty()) {
+            return;
+        }
+        Map<String, String> renames = detectRenamesByFileKey(diff.deleted, diff.created);
+        for (Map.Entry<String, String> rn : renames.entrySet()) {
+            diff.deleted.remove(rn.getKey());
+        }
+        Map<String, PersistentVfsRecord> renamedTo = new HashMap<>();
+        for (String newUri : renames.values()) {
+            renamedTo.put(newUri, diff.created.remove(newUri));
+        }
+
         synchronized (persistentVfs) {
-            for (String uriStr : deleted) {
-                persistentVfs.storage().recordsByUri.remove(uriStr);
+            for (String uriStr : diff.deleted.keySet()) {
+                persistentVfs.removeRecord(uriStr);
             }
             for (Map.Entry<String, String> rn : renames.entrySet()) {
-                String oldUriStr = rn.getKey();
-                String newUriStr = rn.getValue();
-                PersistentVfsRecord r = newRecords.get(newUriStr);
+                PersistentVfsRecord r = renamedTo.get(rn.getValue());
                 String fileKey = r != null ? r.getFileKey() : null;
-                persistentVfs.onRenamed(URI.create(oldUriStr), URI.create(newUriStr), fileKey, r);
+                persistentVfs.onRenamed(URI.create(rn.getKey()), URI.create(rn.getValue()), fileKey, r);
             }
-            for (String uriStr : created) {
-                PersistentVfsRecord r = newRecords.get(uriStr);
-                persistentVfs.getOrCreateId(URI.create(uriStr), r != null ? r.getFileKey() : null);
-                persistentVfs.storage().recordsByUri.put(uriStr, r);
+            for (Map.Entry<String, PersistentVfsRecord> e : diff.created.entrySet()) {
+                persistentVfs.getOrCreateId(URI.create(e.getKey()), e.getValue().getFileKey());
+                persistentVfs.putRecord(e.getKey(), e.getValue());
             }
-            for (String uriStr : changed) {
-                PersistentVfsRecord r = newRecords.get(uriStr);
-                persistentVfs.getOrCreateId(URI.create(uriStr), r != null ? r.getFileKey() : null);
-                persistentVfs.storage().recordsByUri.put(uriStr, r);
+            for (Map.Entry<String, PersistentVfsRecord> e : diff.changed.entrySet()) {
+                persistentVfs.getOrCreateId(URI.create(e.getKey()), e.getValue().getFileKey());
+                persistentVfs.putRecord(e.getKey(), e.getValue());
             }
-            persistentVfs.storage().commit();
+            persistentVfs.commit();
         }
 
+        List<FileRenameEvent> renamed = new ArrayList<>(renames.size());
         for (Map.Entry<String, String> rn : renames.entrySet()) {
-            FileObject oldFo = find(URI.create(rn.getKey()));
-            FileObject newFo = find(URI.create(rn.getValue()));
-            fireFileRenamed(oldFo, newFo);
+            renamed.add(new FileRenameEvent(find(URI.create(rn.getKey())), find(URI.create(rn.getValue()))));
+        }
+        fireFilesChanged(new BulkFileEvent(renamed, findAll(diff.created.keySet()),
+                findAll(diff.changed.keySet()), findAll(diff.deleted.keySet())));
+    }
+
+    private List<FileObject> findAll(Set<String> uris) {
+        List<FileObject> files = new ArrayList<>(uris.size());
+        for (String uriStr : uris) {
+            files.add(find(URI.create(uriStr)));
+        }
+        return files;
+    }
+
+    private void fireFilesChanged(BulkFileEvent event) {
+        for (FileRenameEvent re : event.getRenamed()) {
+            invalidateIdCache(re.getOldFile(), true);
+            invalidateIdCache(re.getFile(), true);
+            LocalFileObject.invalidateListings(re.getOldFile());
+            LocalFileObject.invalidateListings(re.getFile());
         }
-        for (String uriStr : created) {
-            fireFileCreated(find(URI.create(uriStr)));
+        for (FileObject created : event.getCreated()) {
+            LocalFileObject.invalidateListings(created);
         }
-        for (String uriStr : changed) {
-            fireFileChanged(find(URI.create(uriStr)));
+        for (FileObject changed : event.getChanged()) {
+            invalidateContent(changed);
         }
-        for (String uriStr : deleted) {
-            fireFileDeleted(find(URI.create(uriStr)));
+        for (FileObject deleted : event.getDeleted()) {
+            invalidateIdCache(deleted, false);
+            invalidateContent(deleted);
+            LocalFileObject.invalidateListings(deleted);
         }
+        for (FileChangeListener l : globalListeners) l.filesChanged(event);
     }
 
     private static Map<String, String> detectRenamesByFileKey(
@@ -460,44 +844,25 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         return renames;
     }
 
-    private static Map<String, PersistentVfsRecord> scanTree(FileObject root) throws IOException {
-        Map<String, PersistentVfsRecord> out = new LinkedHashMap<>();
-
+    /**
+     * Delivers records of {@code root} and everything below it to {@code sink} in ascending URI order.
+     */
+    private void scanTree(FileObject root, LocalTreeScanner.Sink sink) throws IOException {
         if (!root.exists()) {
-            return out;
+            return;
         }
 
         URI rootUri = root.toUri();
         String scheme = rootUri.getScheme();
         if (scheme != null && scheme.equalsIgnoreCase("file")) {
-            Path start = PersistentVfs.toLocalPath(rootUri);
-            Files.walkFileTree(start, new SimpleFileVisitor<>() {
-                @Override
-                public @NonNull FileVisitResult preVisitDirectory(@NonNull Path dir, @NonNull BasicFileAttributes attrs) {
-                    add(dir, attrs);
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public @NonNull FileVisitResult visitFile(@NonNull Path file, @NonNull BasicFileAttributes attrs) {
-                    add(file, attrs);
-                    return FileVisitResult.CONTINUE;
-                }
-
-                private void add(Path p, BasicFileAttributes attrs) {
-                    URI uri = p.toUri();
-                    String uriStr = PersistentVfs.normalizeUriString(uri);
-                    boolean folder = attrs.isDirectory();
-                    FileTime lm = attrs.lastModifiedTime();
-                    long len = folder ? 0L : attrs.size();
-                    String fileKey = PersistentVfs.tryGetLocalFileKey(uri, attrs);
-                    out.put(uriStr, new PersistentVfsRecord(folder, lm != null ? lm.toMillis() : 0L, len, fileKey));
-                }
-            });
-            return out;
+            new LocalTreeScanner(persistentVfs.storage().recordsByUri, listedDirectories, prunedDirectories)
+                    .scan(PersistentVfs.toLocalPath(rootUri), sink);
+            return;
         }
 
-        List<FileObject> stack = new java.util.ArrayList<>();
+        // Archive/jrt trees: folder URIs need not sort before their children, so order them explicitly.
+        TreeMap<String, PersistentVfsRecord> out = new TreeMap<>();
+        List<FileObject> stack = new ArrayList<>();
         stack.add(root);
         while (!stack.isEmpty()) {
             FileObject fo = stack.remove(stack.size() - 1);
@@ -515,7 +880,7 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
                 }
             }
         }
-        return out;
+        out.forEach(sink::accept);
     }
 
     private static PersistentVfsRecord recordOf(FileObject fo) {
@@ -524,19 +889,22 @@ public class VirtualFileManagerImpl implements VirtualFileManager, Disposable {
         long lm = exists ? fo.lastModified() : 0L;
         long len = exists ? fo.getLength() : 0L;
 
-        String fileKey = null;
-        if (exists) {
-            URI uri = fo.toUri();
-            if (uri != null && "file".equalsIgnoreCase(uri.getScheme())) {
-                try {
-                    BasicFileAttributes attrs = Files.readAttributes(PersistentVfs.toLocalPath(uri), BasicFileAttributes.class);
-                    fileKey = PersistentVfs.tryGetLocalFileKey(uri, attrs);
-                } catch (Throwable ignored) {
-                    // best-effort.
-                }
-            }
-        }
+        String fileKey = exists ? fileKeyOf(fo) : null;
 
         return new PersistentVfsRecord(folder, lm, len, fileKey);
     }
+
+    private static String fileKeyOf(FileObject fo) {
+        URI uri = fo.toUri();
+        if (uri == null || !"file".equalsIgnoreCase(uri.getScheme())) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(PersistentVfs.toLocalPath(uri), BasicFileAttributes.class);
+            return PersistentVfs.tryGetLocalFileKey(uri, attrs);
+        } catch (Throwable ignored) {
+            // best-effort.
+            return null;
+        }
+    }
 }
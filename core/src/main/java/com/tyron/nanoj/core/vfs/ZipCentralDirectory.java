@@ -0,0 +1,460 @@
+package com.tyron.nanoj.core.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Parsed zip central directory.
+ * <p>
+ * Acts as an offset table from entry to its local header, so entry reads can seek straight to the
+ * entry data without re-opening or re-parsing the archive. Per-entry metadata (size, CRC-32, DOS
+ * time) is kept alongside so metadata queries never decompress anything. The parsed table is
+ * transient: {@link JarFileSystem} copies it into an {@link ArchiveDirectoryIndex} and drops it.
+ * <p>
+ * Supports STORED/DEFLATED entries, ZIP64 archives and archives with prepended data.
+ */
+final class ZipCentralDirectory {
+
+    /**
+     * Random-access view over the raw archive bytes.
+     */
+    interface Source {
+
+        long size();
+
+        /**
+         * @return a buffer positioned at 0 containing exactly {@code length} bytes at {@code position}.
+         */
+        ByteBuffer read(long position, int length) throws IOException;
+
+        static Source of(byte[] bytes) {
+            ByteBuffer whole = ByteBuffer.wrap(bytes);
+            return new Source() {
+                @Override
+                public long size() {
+                    return bytes.length;
+                }
+
+                @Override
+                public ByteBuffer read(long position, int length) throws IOException {
+                    return slice(whole, position, length);
+                }
+            };
+        }
+    }
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOC_SIG = 0x07064b50;
+
+    private static final int LOC_HDR = 30;
+    private static final int CEN_HDR = 46;
+    private static final int END_HDR = 22;
+    private static final int ZIP64_LOC_HDR = 20;
+    private static final int ZIP64_END_HDR = 56;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Offset of the archive start within the source (non-zero when data is prepended).
+     */
+    private final long base;
+
+    private final long fingerprint;
+    private final int count;
+    private final String[] names;
+    private final int[] methods;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+    private final int[] crcs;
+    private final int[] dosTimes;
+    private final long[] localHeaderOffsets;
+
+    private ZipCentralDirectory(
+            long base,
+            long fingerprint,
+            int count,
+            String[] names,
+            int[] methods,
+            long[] compressedSizes,
+            long[] sizes,
+            int[] crcs,
+            int[] dosTimes,
+            long[] localHeaderOffsets
+    ) {
+        this.base = base;
+        this.fingerprint = fingerprint;
+        this.count = count;
+        this.names = names;
+        this.methods = methods;
+        this.compressedSizes = compressedSizes;
+        this.sizes = sizes;
+        this.crcs = crcs;
+        this.dosTimes = dosTimes;
+        this.localHeaderOffsets = localHeaderOffsets;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return a digest of the central directory (entry count and CRC-32 of its bytes and position), which
+     * covers every entry's name, CRC, sizes and local header offset; see {@link #fingerprint(Source)}.
+     */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    String name(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @return compression method, or -1 if the entry cannot be read (e.g. encrypted).
+     */
+    int method(int slot) {
+        return methods[slot];
+    }
+
+    long compressedSize(int slot) {
+        return compressedSizes[slot];
+    }
+
+    /**
+     * @return absolute position of the entry's local header within the source.
+     */
+    long localHeaderPosition(int slot) {
+        return base + localHeaderOffsets[slot];
+    }
+
+    long uncompressedSize(int slot) {
+        return sizes[slot];
+    }
+
+    /**
+     * @return CRC-32 of the uncompressed entry data, as an unsigned value.
+     */
+    long crc32(int slot) {
+        return crcs[slot] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return entry modification time in epoch millis (local-time DOS stamp), or 0 if invalid.
+     */
+    long lastModified(int slot) {
+        return dosToJavaTime(dosTimes[slot]);
+    }
+
+    /**
+     * Reads and (if needed) inflates the full content of an entry.
+     */
+    byte[] readEntry(Source source, int slot) throws IOException {
+        return readEntry(source, localHeaderPosition(slot), methods[slot], compressedSizes[slot], sizes[slot], names[slot]);
+    }
+
+    /**
+     * Reads an entry from its local header position, without needing the parsed directory.
+     */
+    static byte[] readEntry(Source source, long localHeaderPos, int method, long compressedSize, long size, String name) throws IOException {
+        ByteBuffer data = entryBuffer(source, localHeaderPos, method, compressedSize, size, name);
+        if (method == STORED) {
+            byte[] out = new byte[(int) size];
+            data.get(out);
+            return out;
+        }
+        return data.array();
+    }
+
+    /**
+     * Like {@link #readEntry(Source, long, int, long, long, String)}, but a STORED entry is returned as a
+     * slice of the source (zero-copy when the source is memory-mapped). Inflated entries wrap a fresh array.
+     */
+    static ByteBuffer entryBuffer(Source source, long localHeaderPos, int method, long compressedSize, long size, String name) throws IOException {
+        if (size > MAX_ENTRY_SIZE) {
+            throw new ZipException("entry too large: " + name);
+        }
+
+        ByteBuffer hdr = read(source, localHeaderPos, LOC_HDR);
+        if (hdr.getInt(0) != LOC_SIG) {
+            throw new ZipException("invalid LOC header (bad signature): " + name);
+        }
+        int nameLen = u16(hdr, 26);
+        // the header must belong to the entry asked for, not to one that moved to its offset.
+        String locName = StandardCharsets.UTF_8.decode(read(source, localHeaderPos + LOC_HDR, nameLen)).toString();
+        if (!JarFileSystem.normalizeEntryPath(locName).equals(JarFileSystem.normalizeEntryPath(name))) {
+            throw new ZipException("invalid LOC header (name " + locName + " does not match): " + name);
+        }
+        long dataPos = localHeaderPos + LOC_HDR + nameLen + u16(hdr, 28);
+
+        switch (method) {
+            case STORED:
+                return source.read(dataPos, (int) size);
+            case DEFLATED: {
+                if (compressedSize > MAX_ENTRY_SIZE) {
+                    throw new ZipException("entry too large: " + name);
+                }
+                return ByteBuffer.wrap(inflate(read(source, dataPos, (int) compressedSize), (int) size, name));
+            }
+            default:
+                throw new ZipException("unsupported compression method " + method + ": " + name);
+        }
+    }
+
+    private static byte[] inflate(ByteBuffer compressed, int size, String name) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[size];
+            int off = 0;
+            while (off < size) {
+                int n = inflater.inflate(out, off, size - off);
+                if (n == 0) {
+                    // finished, needs a dictionary, or ran out of input before the declared size.
+                    break;
+                }
+                off += n;
+            }
+            if (off != size) {
+                throw new ZipException("invalid entry size (expected " + size + " but got " + off + " bytes): " + name);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new ZipException("invalid compressed data in " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Computes {@link #fingerprint()} by reading only the END record and the central directory, so a
+     * stored index can be checked against the archive without parsing it.
+     */
+    static long fingerprint(Source source) throws IOException {
+        CentralDirectoryLocation cen = locate(source);
+        return fingerprint(cen, read(source, cen.position, (int) cen.size));
+    }
+
+    private static long fingerprint(CentralDirectoryLocation location, ByteBuffer cen) {
+        CRC32 crc = new CRC32();
+        crc.update(cen.duplicate());
+        // offsets in the directory are relative to the archive start.
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, location.base));
+        return (location.entryCount << 32) | crc.getValue();
+    }
+
+    /**
+     * Position, size and entry count of the central directory, from the (ZIP64) END record.
+     */
+    private record CentralDirectoryLocation(long position, long size, long entryCount, long base) {}
+
+    private static CentralDirectoryLocation locate(Source source) throws IOException {
+        long archiveSize = source.size();
+        if (archiveSize < END_HDR) {
+            throw new ZipException("zip file is empty");
+        }
+
+        // END header sits in the last (END_HDR + max comment length) bytes.
+        int tailLen = (int) Math.min(archiveSize, END_HDR + 0xFFFF);
+        long tailStart = archiveSize - tailLen;
+        ByteBuffer tail = read(source, tailStart, tailLen);
+
+        int endPos = -1;
+        for (int i = tailLen - END_HDR; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIG && i + END_HDR + u16(tail, i + 20) <= tailLen) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new ZipException("zip END header not found");
+        }
+
+        long endAbs = tailStart + endPos;
+        long entryCount = u16(tail, endPos + 10);
+        long cenSize = u32(tail, endPos + 12);
+        long cenOffset = u32(tail, endPos + 16);
+
+        if (entryCount == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+            long locatorPos = endAbs - ZIP64_LOC_HDR;
+            if (locatorPos >= 0) {
+                ByteBuffer locator = read(source, locatorPos, ZIP64_LOC_HDR);
+                if (locator.getInt(0) == ZIP64_LOC_SIG) {
+                    long zip64EndPos = locator.getLong(8);
+                    ByteBuffer end64 = read(source, zip64EndPos, ZIP64_END_HDR);
+                    if (end64.getInt(0) != ZIP64_END_SIG) {
+                        throw new ZipException("invalid ZIP64 END header");
+                    }
+                    entryCount = end64.getLong(32);
+                    cenSize = end64.getLong(40);
+                    cenOffset = end64.getLong(48);
+                    endAbs = zip64EndPos;
+                }
+            }
+        }
+
+        long cenPos = endAbs - cenSize;
+        long base = cenPos - cenOffset;
+        if (cenPos < 0 || base < 0) {
+            throw new ZipException("invalid END header (bad central directory offset)");
+        }
+        if (cenSize > Integer.MAX_VALUE || entryCount > Integer.MAX_VALUE) {
+            throw new ZipException("central directory too large");
+        }
+        return new CentralDirectoryLocation(cenPos, cenSize, entryCount, base);
+    }
+
+    static ZipCentralDirectory parse(Source source) throws IOException {
+        CentralDirectoryLocation location = locate(source);
+        long cenPos = location.position;
+        long cenSize = location.size;
+        long entryCount = location.entryCount;
+        long base = location.base;
+
+        ByteBuffer cen = read(source, cenPos, (int) cenSize);
+
+        int capacity = (int) Math.max(16, Math.min(entryCount, cenSize / CEN_HDR));
+        String[] names = new String[capacity];
+        int[] methods = new int[capacity];
+        long[] compressedSizes = new long[capacity];
+        long[] sizes = new long[capacity];
+        int[] crcs = new int[capacity];
+        int[] dosTimes = new int[capacity];
+        long[] offsets = new long[capacity];
+
+        int n = 0;
+        int pos = 0;
+        while (pos + CEN_HDR <= cenSize) {
+            if (cen.getInt(pos) != CEN_SIG) {
+                throw new ZipException("invalid CEN header (bad signature)");
+            }
+
+            int flags = u16(cen, pos + 8);
+            int method = u16(cen, pos + 10);
+            int dosTime = cen.getInt(pos + 12);
+            int crc = cen.getInt(pos + 16);
+            long csize = u32(cen, pos + 20);
+            long size = u32(cen, pos + 24);
+            int nameLen = u16(cen, pos + 28);
+            int extraLen = u16(cen, pos + 30);
+            int commentLen = u16(cen, pos + 32);
+            long offset = u32(cen, pos + 42);
+
+            int namePos = pos + CEN_HDR;
+            int extraPos = namePos + nameLen;
+            int next = extraPos + extraLen + commentLen;
+            if (next > cenSize) {
+                throw new ZipException("invalid CEN header (bad header size)");
+            }
+            if ((flags & 1) != 0) {
+                // Encrypted entries cannot be read; surface them as an unsupported method.
+                method = -1;
+            }
+
+            if (size == ZIP64_MAGIC || csize == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                int p = extraPos;
+                int extraEnd = extraPos + extraLen;
+                while (p + 4 <= extraEnd) {
+                    int id = u16(cen, p);
+                    int len = u16(cen, p + 2);
+                    int dataPos = p + 4;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int q = dataPos;
+                        int dataEnd = Math.min(dataPos + len, extraEnd);
+                        if (size == ZIP64_MAGIC && q + 8 <= dataEnd) {
+                            size = cen.getLong(q);
+                            q += 8;
+                        }
+                        if (csize == ZIP64_MAGIC && q + 8 <= dataEnd) {
+                            csize = cen.getLong(q);
+                            q += 8;
+                        }
+                        if (offset == ZIP64_MAGIC && q + 8 <= dataEnd) {
+                            offset = cen.getLong(q);
+                        }
+                        break;
+                    }
+                    p = dataPos + len;
+                }
+            }
+
+            if (n == names.length) {
+                int grown = names.length * 2;
+                names = Arrays.copyOf(names, grown);
+                methods = Arrays.copyOf(methods, grown);
+                compressedSizes = Arrays.copyOf(compressedSizes, grown);
+                sizes = Arrays.copyOf(sizes, grown);
+                crcs = Arrays.copyOf(crcs, grown);
+                dosTimes = Arrays.copyOf(dosTimes, grown);
+                offsets = Arrays.copyOf(offsets, grown);
+            }
+
+            byte[] nameBytes = new byte[nameLen];
+            cen.get(namePos, nameBytes);
+            names[n] = new String(nameBytes, StandardCharsets.UTF_8);
+            methods[n] = method;
+            compressedSizes[n] = csize;
+            sizes[n] = size;
+            crcs[n] = crc;
+            dosTimes[n] = dosTime;
+            offsets[n] = offset;
+            n++;
+
+            pos = next;
+        }
+
+        return new ZipCentralDirectory(base, fingerprint(location, cen), n, names, methods, compressedSizes, sizes, crcs, dosTimes, offsets);
+    }
+
+    static long dosToJavaTime(int dosTime) {
+        try {
+            LocalDateTime t = LocalDateTime.of(
+                    ((dosTime >> 25) & 0x7f) + 1980,
+                    (dosTime >> 21) & 0x0f,
+                    (dosTime >> 16) & 0x1f,
+                    (dosTime >> 11) & 0x1f,
+                    (dosTime >> 5) & 0x3f,
+                    (dosTime << 1) & 0x3e
+            );
+            return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return 0L;
+        }
+    }
+
+    static ByteBuffer slice(ByteBuffer whole, long position, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > whole.capacity()) {
+            throw new ZipException("read beyond end of archive (position=" + position + ", length=" + length + ")");
+        }
+        return whole.duplicate().position((int) position).limit((int) position + length).slice();
+    }
+
+    private static ByteBuffer read(Source source, long position, int length) throws IOException {
+        return source.read(position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int u16(ByteBuffer buf, int index) {
+        return buf.getShort(index) & 0xFFFF;
+    }
+
+    private static long u32(ByteBuffer buf, int index) {
+        return buf.getInt(index) & 0xFFFFFFFFL;
+    }
+}
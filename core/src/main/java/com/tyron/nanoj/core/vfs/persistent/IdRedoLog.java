@@ -0,0 +1,193 @@
+package com.tyron.nanoj.core.vfs.persistent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of file ids handed out by {@link PersistentVfs} but not committed to its DB yet.
+ * <p>
+ * {@link #append} only writes the record; {@link #sync} forces everything written so far to disk
+ * ({@code force(false)}) and is called before a commit that could store an id, so no committed state refers to
+ * an id that a crash of the machine could hand out again. Ids that nothing committed refers to may be lost with
+ * the machine, that is harmless. The log is replayed and truncated on the next start. A torn trailing record is
+ * ignored. I/O failures are swallowed: the log is a safety net, not the source of truth.
+ */
+final class IdRedoLog {
+
+    record Entry(int id, String uri, String fileKey) {}
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile FileChannel channel;
+    // guarded by lock.
+    private boolean unforced;
+    // guarded by lock.
+    private long forces;
+
+    IdRedoLog(Path path) {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException ignored) {
+            this.channel = null;
+        }
+    }
+
+    List<Entry> read() {
+        lock.lock();
+        try {
+            return readLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Entry> readLocked() {
+        List<Entry> entries = new ArrayList<>();
+        if (channel == null) {
+            return entries;
+        }
+        try {
+            InputStream in = Channels.newInputStream(channel.position(0));
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            while (true) {
+                int id = data.readInt();
+                String uri = data.readUTF();
+                String fileKey = data.readBoolean() ? data.readUTF() : null;
+                entries.add(new Entry(id, uri, fileKey));
+            }
+        } catch (EOFException endOfLog) {
+            // done, possibly after a torn record.
+        } catch (IOException ignored) {
+            // best-effort.
+        }
+        try {
+            channel.position(channel.size());
+        } catch (IOException ignored) {
+            // best-effort.
+        }
+        return entries;
+    }
+
+    /**
+     * Appends a record without forcing it to disk, see {@link #sync}.
+     */
+    void append(int id, String uri, String fileKey) {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer record;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + uri.length());
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeUTF(uri);
+            out.writeBoolean(fileKey != null);
+            if (fileKey != null) {
+                out.writeUTF(fileKey);
+            }
+            record = ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException ignored) {
+            // best-effort.
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            unforced = true;
+        } catch (IOException ignored) {
+            // best-effort.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to disk, unless they already were.
+     */
+    void sync() {
+        lock.lock();
+        try {
+            if (channel == null || !unforced) {
+                return;
+            }
+            channel.force(false);
+            unforced = false;
+            forces++;
+        } catch (IOException ignored) {
+            // best-effort.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of forces so far.
+     */
+    long forceCount() {
+        lock.lock();
+        try {
+            return forces;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all records. Callers make sure no {@link #append} is in flight.
+     */
+    void truncate() {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            channel.truncate(0);
+            channel.position(0);
+            unforced = false;
+        } catch (IOException ignored) {
+            // best-effort.
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            channel.close();
+        } catch (IOException ignored) {
+            // best-effort.
+        } finally {
+            channel = null;
+            lock.unlock();
+        }
+    }
+}
@@ -1,97 +1,374 @@
 package com.tyron.nanoj.core.vfs.persistent;
 
 import com.tyron.nanoj.api.vfs.FileObject;
+import it.unimi.dsi.fastutil.HashCommon;
 
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * IntelliJ-inspired persistent VFS core:
  * - stable file ids (best-effort via fileKey for local FS)
  * - persistent snapshot records
+ * <p>
+ * <b>Id allocation</b> is write-behind: new ids go to an in-memory buffer and a small append-only redo log
+ * ({@code <db>.idlog}) instead of committing the DB per id. Redo records are written without forcing them;
+ * the log is forced once before the next commit that could store an id, see {@link #commit()} and
+ * {@link #syncIds()}, so allocation costs no fsync per id. The buffer is written to the DB in one commit
+ * once it holds {@value #DEFAULT_ID_COMMIT_BATCH} ids ({@value #ID_COMMIT_BATCH_KEY}), once a second
+ * ({@value #ID_COMMIT_MILLIS_KEY}), before ids are moved, and on {@link #close()}. Ids that were handed out but not
+ * committed yet are replayed from the redo log on the next start, so a crash cannot reuse them.
+ * <p>
+ * Lookups ({@link #getIdIfExists}, {@link #getUriById}, and {@link #getOrCreateId} for known files) take no
+ * lock. Allocations only lock one of {@value #STRIPES} stripes chosen by URI; moving an id to another URI and
+ * the {@code on*} snapshot updates still go through this instance's monitor.
+ * <p>
+ * <b>Tree digests</b> ({@link #getTreeDigest}) form a Merkle tree over the snapshot records: a folder's digest
+ * combines the names and stamps of its children, a generation of its last child change and the digests of its
+ * sub folders. Digests are computed lazily with ordered range reads and cached; every record update drops the
+ * cached digests of the record's ancestors only, so asking again after a change re-reads just the folders on
+ * the changed paths. The generations are stored with the records, so digests stay comparable across sessions.
  */
-public record PersistentVfs(PersistentVfsStorage storage) {
+public final class PersistentVfs {
+
+    public static final String ID_COMMIT_BATCH_KEY = "nanoj.vfs.idCommitBatch";
+    public static final String ID_COMMIT_MILLIS_KEY = "nanoj.vfs.idCommitMillis";
+
+    private static final int DEFAULT_ID_COMMIT_BATCH = 1024;
+    private static final int STRIPES = 64;
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Vfs-Id-Flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PersistentVfsStorage storage;
+    private final IdRedoLog redoLog;
+    private final int commitBatch;
+
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicInteger nextId;
+    private final ConcurrentHashMap<String, Integer> pendingUriToId = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> pendingIdToUri = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> pendingFileKeyToId = new ConcurrentHashMap<>();
+
+    /**
+     * Allocations hold the read lock; {@link #flushIds()} holds the write lock so the buffer, the DB and
+     * the redo log change together.
+     */
+    private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private final ScheduledFuture<?> periodicFlush;
+
+    // folder URI (ending in '/') -> digest of its subtree; guarded by this.
+    private final TreeMap<String, Long> digests = new TreeMap<>();
+    // folder URI -> generation of its last observed child change (storage.digestGenerations); guarded by this.
+    // It makes digests history-sensitive: a change that is undone later still yields a new digest.
+    private final NavigableMap<String, Long> generations;
 
     public PersistentVfs(Path storage) {
-        this(new PersistentVfsStorage(storage));
+        this(new PersistentVfsStorage(storage), Path.of(storage.toString() + ".idlog"));
+    }
+
+    /**
+     * @param redoLog redo log of uncommitted ids, or null to keep them in memory only.
+     */
+    public PersistentVfs(PersistentVfsStorage storage, Path redoLog) {
+        this.storage = Objects.requireNonNull(storage, "storage");
+        this.generations = storage.digestGenerations;
+        this.redoLog = redoLog != null && !storage.isInMemory() ? new IdRedoLog(redoLog) : null;
+        this.commitBatch = Math.max(1, Integer.getInteger(ID_COMMIT_BATCH_KEY, DEFAULT_ID_COMMIT_BATCH));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+
+        if (this.redoLog != null) {
+            replay(this.redoLog.read());
+        }
+        this.nextId = new AtomicInteger(storage.nextId.get());
+
+        long millis = Math.max(10, Long.getLong(ID_COMMIT_MILLIS_KEY, 1000L));
+        this.periodicFlush = FLUSHER.scheduleWithFixedDelay(() -> {
+            try {
+                if (!pendingIdToUri.isEmpty()) {
+                    flushIds();
+                }
+            } catch (Throwable ignored) {
+                // best-effort; retried on the next tick.
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public PersistentVfsStorage storage() {
+        return storage;
     }
 
     public synchronized void close() {
-        storage.close();
+        periodicFlush.cancel(false);
+        try {
+            flushIds();
+        } finally {
+            if (redoLog != null) {
+                redoLog.close();
+            }
+            storage.close();
+        }
     }
 
     public synchronized void trackRoot(URI rootUri) {
         storage.trackedRoots.put(normalizeUriString(rootUri), Boolean.TRUE);
-        storage.commit();
+        commit();
     }
 
     public synchronized boolean isTrackedRoot(URI rootUri) {
         return Boolean.TRUE.equals(storage.trackedRoots.get(normalizeUriString(rootUri)));
     }
 
-    public synchronized int getOrCreateId(URI uri, String fileKey) {
+    public int getOrCreateId(URI uri, String fileKey) {
         String uriStr = normalizeUriString(uri);
+        String key = fileKey != null && !fileKey.isBlank() ? fileKey : null;
 
-        if (fileKey != null && !fileKey.isBlank()) {
-            Integer existing = storage.fileKeyToId.get(fileKey);
+        if (key != null) {
+            Integer existing = idOfFileKey(key);
             if (existing != null) {
-                // Ensure URI maps to this id (rename / move).
-                String oldUri = storage.idToUri.get(existing);
-                if (oldUri != null && !oldUri.equals(uriStr)) {
-                    storage.uriToId.remove(oldUri);
+                if (uriStr.equals(uriOf(existing))) {
+                    return existing;
                 }
-                storage.uriToId.put(uriStr, existing);
-                storage.idToUri.put(existing, uriStr);
-                storage.commit();
-                return existing;
+                // Rename / move.
+                return moveId(existing, uriStr);
             }
         }
 
-        Integer id = storage.uriToId.get(uriStr);
+        Integer id = idOf(uriStr);
         if (id != null) return id;
 
-        int newId = storage.nextId.incrementAndGet();
-        storage.uriToId.put(uriStr, newId);
-        storage.idToUri.put(newId, uriStr);
-        if (fileKey != null && !fileKey.isBlank()) {
-            storage.fileKeyToId.put(fileKey, newId);
+        return allocate(uriStr, key);
+    }
+
+    private int allocate(String uriStr, String fileKey) {
+        int newId;
+        flushLock.readLock().lock();
+        try {
+            synchronized (stripes[(uriStr.hashCode() & 0x7fffffff) % STRIPES]) {
+                Integer raced = idOf(uriStr);
+                if (raced != null) {
+                    return raced;
+                }
+                newId = nextId.incrementAndGet();
+                if (redoLog != null) {
+                    redoLog.append(newId, uriStr, fileKey);
+                }
+                pendingUriToId.put(uriStr, newId);
+                pendingIdToUri.put(newId, uriStr);
+                if (fileKey != null) {
+                    pendingFileKeyToId.put(fileKey, newId);
+                }
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+
+        if (pendingIdToUri.size() >= commitBatch) {
+            flushIds();
         }
-        storage.commit();
         return newId;
     }
 
-    public synchronized Integer getIdIfExists(URI uri) {
-        return storage.uriToId.get(normalizeUriString(uri));
+    private synchronized int moveId(int id, String uriStr) {
+        flushIds();
+        String oldUri = storage.idToUri.get(id);
+        if (oldUri != null && !oldUri.equals(uriStr)) {
+            storage.uriToId.remove(oldUri);
+        }
+        storage.uriToId.put(uriStr, id);
+        storage.idToUri.put(id, uriStr);
+        commit();
+        return id;
+    }
+
+    /**
+     * Writes buffered ids to the DB in one commit and truncates the redo log.
+     */
+    public synchronized void flushIds() {
+        flushLock.writeLock().lock();
+        try {
+            if (pendingIdToUri.isEmpty()) {
+                return;
+            }
+            storage.uriToId.putAll(pendingUriToId);
+            storage.idToUri.putAll(pendingIdToUri);
+            storage.fileKeyToId.putAll(pendingFileKeyToId);
+            storage.nextId.set(Math.max(storage.nextId.get(), nextId.get()));
+            storage.commit();
+
+            pendingUriToId.clear();
+            pendingIdToUri.clear();
+            pendingFileKeyToId.clear();
+            if (redoLog != null) {
+                redoLog.truncate();
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the redo records of the ids handed out so far to disk. Call it before committing anything else that
+     * stores ids, such as an index, so a crash cannot hand out an id that committed state still refers to.
+     */
+    public void syncIds() {
+        if (redoLog != null) {
+            redoLog.sync();
+        }
+    }
+
+    /**
+     * Commits the snapshot records updated with {@link #putRecord} and {@link #removeRecord}, forcing the redo
+     * log first ({@link #syncIds()}).
+     */
+    public synchronized void commit() {
+        syncIds();
+        storage.commit();
+    }
+
+    private void replay(List<IdRedoLog.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        int maxId = storage.nextId.get();
+        for (IdRedoLog.Entry entry : entries) {
+            if (storage.idToUri.get(entry.id()) == null && storage.uriToId.get(entry.uri()) == null) {
+                storage.uriToId.put(entry.uri(), entry.id());
+                storage.idToUri.put(entry.id(), entry.uri());
+                if (entry.fileKey() != null) {
+                    storage.fileKeyToId.putIfAbsent(entry.fileKey(), entry.id());
+                }
+            }
+            maxId = Math.max(maxId, entry.id());
+        }
+        storage.nextId.set(maxId);
+        storage.commit();
+        redoLog.truncate();
+    }
+
+    /**
+     * Drops all ids, snapshot records and tracked roots.
+     */
+    public synchronized void clear() {
+        flushLock.writeLock().lock();
+        try {
+            pendingUriToId.clear();
+            pendingIdToUri.clear();
+            pendingFileKeyToId.clear();
+            storage.uriToId.clear();
+            storage.idToUri.clear();
+            storage.fileKeyToId.clear();
+            storage.recordsByUri.clear();
+            storage.trackedRoots.clear();
+            storage.nextId.set(0);
+            nextId.set(0);
+            digests.clear();
+            // the generation counter is kept, so digests handed out before still never match again.
+            generations.clear();
+            storage.commit();
+            if (redoLog != null) {
+                redoLog.truncate();
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids allocated but not committed to the DB yet.
+     */
+    public int getPendingIdCount() {
+        return pendingIdToUri.size();
+    }
+
+    private Integer idOf(String uriStr) {
+        Integer id = pendingUriToId.get(uriStr);
+        return id != null ? id : storage.uriToId.get(uriStr);
+    }
+
+    private Integer idOfFileKey(String fileKey) {
+        Integer id = pendingFileKeyToId.get(fileKey);
+        return id != null ? id : storage.fileKeyToId.get(fileKey);
+    }
+
+    private String uriOf(int id) {
+        String uri = pendingIdToUri.get(id);
+        return uri != null ? uri : storage.idToUri.get(id);
     }
 
-    public synchronized URI getUriById(int id) {
-        String s = storage.idToUri.get(id);
+    public Integer getIdIfExists(URI uri) {
+        return idOf(normalizeUriString(uri));
+    }
+
+    public URI getUriById(int id) {
+        String s = uriOf(id);
         return s != null ? URI.create(s) : null;
     }
 
     public synchronized void onCreated(FileObject fo, PersistentVfsRecord record) {
         URI uri = fo.toUri();
         getOrCreateId(uri, record.getFileKey());
-        storage.recordsByUri.put(normalizeUriString(uri), record);
-        storage.commit();
+        putRecord(normalizeUriString(uri), record);
+        commit();
     }
 
     public synchronized void onDeleted(URI uri) {
-        storage.recordsByUri.remove(normalizeUriString(uri));
-        storage.commit();
+        removeRecord(normalizeUriString(uri));
+        commit();
     }
 
     public synchronized void onChanged(FileObject fo, PersistentVfsRecord record) {
         URI uri = fo.toUri();
         getOrCreateId(uri, record.getFileKey());
-        storage.recordsByUri.put(normalizeUriString(uri), record);
-        storage.commit();
+        putRecord(normalizeUriString(uri), record);
+        commit();
+    }
+
+    /**
+     * Notes that a file was rewritten although its record (mtime, length) stayed the same, so tree digests
+     * still change for content-sensitive consumers.
+     */
+    public synchronized void onTouched(String uriStr) {
+        recordChanged(uriStr);
+    }
+
+    /**
+     * Updates a snapshot record without committing.
+     */
+    public synchronized void putRecord(String uriStr, PersistentVfsRecord record) {
+        storage.recordsByUri.put(uriStr, record);
+        recordChanged(uriStr);
+    }
+
+    /**
+     * Drops a snapshot record without committing.
+     */
+    public synchronized void removeRecord(String uriStr) {
+        storage.recordsByUri.remove(uriStr);
+        recordRemoved(uriStr);
     }
 
     public synchronized void onRenamed(URI oldUri, URI newUri, String fileKey, PersistentVfsRecord newRecord) {
+        flushIds();
         String oldStr = normalizeUriString(oldUri);
         String newStr = normalizeUriString(newUri);
 
@@ -109,7 +386,142 @@ public record PersistentVfs(PersistentVfsStorage storage) {
 
         PersistentVfsRecord oldRecord = storage.recordsByUri.remove(oldStr);
         storage.recordsByUri.put(newStr, newRecord != null ? newRecord : oldRecord);
-        storage.commit();
+        recordRemoved(oldStr);
+        recordChanged(newStr);
+        commit();
+    }
+
+    /**
+     * Digest of the snapshot records of {@code uri} and everything below it.
+     * <p>
+     * Two digests of the same tree are equal iff no entry below it was created, deleted, renamed, changed or
+     * touched in between, as far as the snapshot records saw it, even if the change was undone later, or
+     * {@link #renewDigests} was called for a folder on its path. Digests are comparable across sessions.
+     *
+     * @return the digest, or null if there is no record for {@code uri}.
+     */
+    public synchronized Long getTreeDigest(URI uri) {
+        String uriStr = normalizeUriString(uri);
+        String key = uriStr.endsWith("/") ? uriStr.substring(0, uriStr.length() - 1) : uriStr;
+        PersistentVfsRecord folder = storage.recordsByUri.get(key + "/");
+        if (folder != null && folder.isFolder()) {
+            return HashCommon.murmurHash3(folderDigest(key + "/"));
+        }
+        PersistentVfsRecord file = storage.recordsByUri.get(key);
+        if (file == null) {
+            return null;
+        }
+        // the generation of the parent stands in for the file's own history.
+        String parent = parentKeyOf(key);
+        long h = mix(leafDigest(key, file, key.lastIndexOf('/') + 1), parent != null ? generations.getOrDefault(parent, 0L) : 0L);
+        return HashCommon.murmurHash3(h);
+    }
+
+    /**
+     * Makes the digests of {@code uri} and everything below it stale, e.g. after a rescan that replaced lost
+     * change events and may have missed rewrites that kept every stamp. Digests of other trees are kept.
+     */
+    public synchronized void renewDigests(URI uri) {
+        String uriStr = normalizeUriString(uri);
+        String key = uriStr.endsWith("/") ? uriStr.substring(0, uriStr.length() - 1) : uriStr;
+        String prefix = key + "/";
+        // a folder's generation also stands in for the files directly below it.
+        generations.put(prefix, nextGeneration());
+        Map.Entry<String, PersistentVfsRecord> e;
+        String cursor = prefix;
+        while ((e = storage.recordsByUri.higherEntry(cursor)) != null && e.getKey().startsWith(prefix)) {
+            if (e.getValue().isFolder() && e.getKey().endsWith("/")) {
+                generations.put(e.getKey(), nextGeneration());
+            }
+            cursor = e.getKey();
+        }
+        invalidateDigests(key);
+        commit();
+    }
+
+    private long nextGeneration() {
+        return storage.lastDigestGeneration.incrementAndGet();
+    }
+
+    private long folderDigest(String folderKey) {
+        Long cached = digests.get(folderKey);
+        if (cached != null) {
+            return cached;
+        }
+        long h = mix(0x6a09e667f3bcc909L, generations.getOrDefault(folderKey, 0L));
+        int nameStart = folderKey.length();
+        String cursor = folderKey;
+        Map.Entry<String, PersistentVfsRecord> e;
+        // Only the children are visited; a sub folder's range is skipped and folded in by its digest.
+        while ((e = storage.recordsByUri.higherEntry(cursor)) != null && e.getKey().startsWith(folderKey)) {
+            String key = e.getKey();
+            PersistentVfsRecord record = e.getValue();
+            if (record.isFolder() && key.endsWith("/")) {
+                h = mix(h, nameHash(key, nameStart));
+                h = mix(h, folderDigest(key));
+                cursor = key + "\uffff";
+            } else {
+                h = mix(h, leafDigest(key, record, nameStart));
+                cursor = key;
+            }
+        }
+        digests.put(folderKey, h);
+        return h;
+    }
+
+    private long leafDigest(String key, PersistentVfsRecord record, int nameStart) {
+        long h = mix(0x3c6ef372fe94f82bL, nameHash(key, nameStart));
+        h = mix(h, record.getLastModified());
+        return mix(h, record.getLength());
+    }
+
+    private void recordChanged(String uriStr) {
+        String parent = parentKeyOf(uriStr);
+        if (parent != null) {
+            generations.put(parent, nextGeneration());
+        }
+        invalidateDigests(uriStr);
+    }
+
+    private void recordRemoved(String uriStr) {
+        String key = uriStr.endsWith("/") ? uriStr.substring(0, uriStr.length() - 1) : uriStr;
+        generations.subMap(key + "/", true, key + "/\uffff", true).clear();
+        recordChanged(uriStr);
+    }
+
+    private void invalidateDigests(String uriStr) {
+        if (digests.isEmpty()) {
+            return;
+        }
+        String key = uriStr.endsWith("/") ? uriStr.substring(0, uriStr.length() - 1) : uriStr;
+        // a folder that went away (or was replaced by a file) takes the digests below it along.
+        digests.subMap(key + "/", true, key + "/\uffff", true).clear();
+        for (int i = key.lastIndexOf('/'); i > 0; i = key.lastIndexOf('/', i - 1)) {
+            digests.remove(key.substring(0, i + 1));
+        }
+    }
+
+    /**
+     * @return the folder key (ending in '/') of the parent of {@code uriStr}, or null at the top.
+     */
+    private static String parentKeyOf(String uriStr) {
+        String key = uriStr.endsWith("/") ? uriStr.substring(0, uriStr.length() - 1) : uriStr;
+        int i = key.lastIndexOf('/');
+        return i > 0 ? key.substring(0, i + 1) : null;
+    }
+
+    private static long nameHash(String key, int from) {
+        // FNV-1a
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        return HashCommon.murmurHash3(h ^ value);
     }
 
     public static String normalizeUriString(URI uri) {
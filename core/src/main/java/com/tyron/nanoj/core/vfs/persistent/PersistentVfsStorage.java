@@ -18,6 +18,7 @@ import java.util.Objects;
 public final class PersistentVfsStorage implements Closeable {
 
     private final DB db;
+    private final boolean inMemory;
 
     public final HTreeMap<String, Integer> uriToId;
     public final HTreeMap<Integer, String> idToUri;
@@ -36,6 +37,13 @@ public final class PersistentVfsStorage implements Closeable {
 
     public final org.mapdb.Atomic.Integer nextId;
 
+    /**
+     * Folder URI (ending in '/') -> generation of its last observed child change, see
+     * {@link PersistentVfs#getTreeDigest}. Generations come from {@link #lastDigestGeneration} and never repeat.
+     */
+    public final BTreeMap<String, Long> digestGenerations;
+    public final org.mapdb.Atomic.Long lastDigestGeneration;
+
     public PersistentVfsStorage(Path dbFile) {
         Objects.requireNonNull(dbFile, "dbFile");
         try {
@@ -44,7 +52,9 @@ public final class PersistentVfsStorage implements Closeable {
             // Best-effort.
         }
 
-        this.db = openDb(dbFile);
+        DB opened = openDb(dbFile);
+        this.inMemory = opened == null;
+        this.db = opened != null ? opened : DBMaker.memoryDB().closeOnJvmShutdown().make();
 
         this.nextId = db.atomicInteger("vfs.nextId").createOrOpen();
 
@@ -55,9 +65,39 @@ public final class PersistentVfsStorage implements Closeable {
         //noinspection unchecked
         this.recordsByUri = db.treeMap("vfs.recordsByUri", Serializer.STRING, Serializer.JAVA).createOrOpen();
         this.trackedRoots = db.hashMap("vfs.trackedRoots", Serializer.STRING, Serializer.BOOLEAN).createOrOpen();
+        this.digestGenerations = db.treeMap("vfs.digestGenerations", Serializer.STRING, Serializer.LONG).createOrOpen();
+        this.lastDigestGeneration = db.atomicLong("vfs.lastDigestGeneration").createOrOpen();
     }
 
+    /**
+     * @return the file DB, or null to fall back to an in-memory DB.
+     */
     private static DB openDb(Path dbFile) {
+        try {
+            return makeFileDb(dbFile);
+        } catch (DBException.DataCorruption corrupt) {
+            // A process killed while creating the DB leaves an empty file behind; start over from scratch.
+            if (!isEmptyFile(dbFile)) {
+                throw corrupt;
+            }
+            try {
+                Files.deleteIfExists(dbFile);
+            } catch (Exception ignored) {
+                // Best-effort.
+            }
+            return makeFileDb(dbFile);
+        }
+    }
+
+    private static boolean isEmptyFile(Path file) {
+        try {
+            return Files.isRegularFile(file) && Files.size(file) == 0;
+        } catch (Exception ignored) {
+            return false;
+        }
+    }
+
+    private static DB makeFileDb(Path dbFile) {
         try {
             return DBMaker
                     .fileDB(dbFile.toFile())
@@ -69,7 +109,7 @@ public final class PersistentVfsStorage implements Closeable {
             // In tests (and some dev scenarios), multiple JVMs may run concurrently.
             // Falling back to an in-memory DB keeps the IDE/test process functional.
             if (isTestEnvironment() || Boolean.parseBoolean(System.getProperty("nanoj.vfs.allowInMemoryFallback", "false"))) {
-                return DBMaker.memoryDB().closeOnJvmShutdown().make();
+                return null;
             }
             throw locked;
         }
@@ -84,6 +124,13 @@ public final class PersistentVfsStorage implements Closeable {
         return lower.contains("junit") || lower.contains("surefire") || lower.contains("testng");
     }
 
+    /**
+     * @return true if the DB file was locked by another process and this storage fell back to memory.
+     */
+    public boolean isInMemory() {
+        return inMemory;
+    }
+
     public void commit() {
         db.commit();
     }
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexManagerTest extends BaseIdeTest {
 
@@ -97,6 +98,55 @@ public class IndexManagerTest extends BaseIdeTest {
         indexManager.processBatch(List.of(f1));
     }
 
+    @Test
+    public void unchangedClassBytesSkipMapping() {
+        CountingIndexer counting = new CountingIndexer();
+        indexManager.register(counting);
+        MockFileObject classFile = new MockFileObject("/out/A.class", new byte[]{1, 2, 3});
+        long unchangedBefore = indexManager.getUnchangedFileCount();
+
+        indexManager.processBatch(List.of(classFile));
+        indexManager.flush();
+        Assertions.assertEquals(1, counting.calls.get());
+
+        // Same bytes, new timestamp.
+        classFile.setByteContent(new byte[]{1, 2, 3});
+        indexManager.processBatch(List.of(classFile));
+        indexManager.flush();
+        Assertions.assertEquals(1, counting.calls.get());
+        Assertions.assertEquals(unchangedBefore + 1, indexManager.getUnchangedFileCount());
+        Assertions.assertEquals(1, indexManager.search("counting_index", "A.class").size());
+
+        classFile.setByteContent(new byte[]{4, 5});
+        indexManager.processBatch(List.of(classFile));
+        indexManager.flush();
+        Assertions.assertEquals(2, counting.calls.get());
+    }
+
+    private static class CountingIndexer implements IndexDefinition<String, String> {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override public String id() { return "counting_index"; }
+        @Override public int getVersion() { return 1; }
+        @Override public boolean supports(FileObject fileObject) { return "class".equals(fileObject.getExtension()); }
+
+        @Override
+        public Map<String, String> map(FileObject file, Object inputData) {
+            calls.incrementAndGet();
+            return Map.of(file.getName(), file.getPath());
+        }
+
+        @Override
+        public boolean isValueForFile(String value, int fileId) {
+            return true;
+        }
+
+        @Override public byte[] serializeKey(String key) { return key.getBytes(StandardCharsets.UTF_8); }
+        @Override public byte[] serializeValue(String value) { return value.getBytes(StandardCharsets.UTF_8); }
+        @Override public String deserializeKey(byte[] data) { return new String(data, StandardCharsets.UTF_8); }
+        @Override public String deserializeValue(byte[] data) { return new String(data, StandardCharsets.UTF_8); }
+    }
+
     /**
      * Test Indexer. Maps: Word -> FilePath
      */
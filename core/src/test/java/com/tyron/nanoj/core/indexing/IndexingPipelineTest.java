@@ -0,0 +1,239 @@
+package com.tyron.nanoj.core.indexing;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.core.test.MockFileObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IndexingPipelineTest {
+
+    private record Item(String path, long weight) implements IndexingPipeline.Weighted {}
+
+    @Test
+    public void queueBlocksOnByteBudgetButAdmitsOversizedItemWhenEmpty() throws Exception {
+        ByteBudgetQueue<String> queue = new ByteBudgetQueue<>(100);
+        Assertions.assertTrue(queue.put("huge", 1_000));
+        Assertions.assertEquals(1_000, queue.usedBytes());
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("small", 10);
+                admitted.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        producer.start();
+        Assertions.assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+
+        Assertions.assertEquals("huge", queue.take());
+        Assertions.assertTrue(admitted.await(2, TimeUnit.SECONDS));
+        Assertions.assertEquals("small", queue.take());
+        Assertions.assertEquals(1_000, queue.peakBytes());
+
+        queue.close();
+        Assertions.assertNull(queue.take());
+        Assertions.assertFalse(queue.put("late", 1));
+    }
+
+    @Test
+    public void filesFlowThroughAllStagesAndFlushWaitsForCommit() throws Exception {
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger commits = new AtomicInteger();
+
+        IndexingPipeline<Item, Item, Item> pipeline = new IndexingPipeline<>("Test", new IndexingPipeline.Steps<>() {
+            @Override
+            public Item read(FileObject file) {
+                return new Item(file.getPath(), 10);
+            }
+
+            @Override
+            public Item map(Item read) {
+                return read.path.endsWith("Skip.java") ? null : read;
+            }
+
+            @Override
+            public Item serialize(Item mapped) {
+                return mapped;
+            }
+
+            @Override
+            public void apply(Item serialized) {
+                applied.add(serialized.path);
+            }
+
+            @Override
+            public void commit() {
+                commits.incrementAndGet();
+            }
+
+            @Override
+            public void rollback(Throwable error) {
+            }
+        });
+
+        try {
+            int files = 500;
+            for (int i = 0; i < files; i++) {
+                pipeline.submit(new MockFileObject("/src/F" + i + ".java", ""));
+            }
+            pipeline.submit(new MockFileObject("/src/Skip.java", ""));
+            pipeline.flush();
+
+            Assertions.assertEquals(files, applied.size());
+            // Group commit: by bytes, by age or on flush, never once per file.
+            Assertions.assertTrue(commits.get() >= 1);
+            Assertions.assertTrue(commits.get() < files / 10, "commits: " + commits.get());
+            Assertions.assertEquals(0, pipeline.queuedFiles());
+            Assertions.assertEquals(0, pipeline.runningFiles());
+            Assertions.assertEquals(0, pipeline.trackedPaths());
+
+            List<IndexingPipeline.StageMetrics> metrics = pipeline.getMetrics();
+            Assertions.assertEquals(List.of("read", "map", "serialize", "write"),
+                    metrics.stream().map(IndexingPipeline.StageMetrics::stage).toList());
+            Assertions.assertEquals(files + 1, metrics.get(0).items());
+            Assertions.assertEquals(files, metrics.get(3).items());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void failedApplyRollsBackAndKeepsTheOtherFilesOfTheGeneration() throws Exception {
+        List<String> staged = new ArrayList<>();
+        List<String> committed = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger rollbacks = new AtomicInteger();
+
+        IndexingPipeline<Item, Item, Item> pipeline = new IndexingPipeline<>("Test", new IndexingPipeline.Steps<>() {
+            @Override
+            public Item read(FileObject file) {
+                return file.getPath().endsWith("Missing.java") ? null : new Item(file.getPath(), 10);
+            }
+
+            @Override
+            public Item map(Item read) {
+                return read;
+            }
+
+            @Override
+            public Item serialize(Item mapped) {
+                return mapped;
+            }
+
+            @Override
+            public void apply(Item serialized) {
+                staged.add(serialized.path + ":begin");
+                if (serialized.path.endsWith("Bad.java")) {
+                    throw new IllegalStateException("broken payload");
+                }
+                staged.add(serialized.path + ":end");
+            }
+
+            @Override
+            public void commit() {
+                committed.addAll(staged);
+                staged.clear();
+            }
+
+            @Override
+            public void rollback(Throwable error) {
+                rollbacks.incrementAndGet();
+                staged.clear();
+            }
+        });
+
+        try {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                String path = "/src/F" + i + ".java";
+                pipeline.submit(new MockFileObject(path, ""));
+                expected.add(path + ":begin");
+                expected.add(path + ":end");
+                if (i == 10) {
+                    pipeline.submit(new MockFileObject("/src/Bad.java", ""));
+                    pipeline.submit(new MockFileObject("/src/Missing.java", ""));
+                }
+            }
+            pipeline.flush();
+
+            Assertions.assertTrue(rollbacks.get() >= 1);
+            Assertions.assertEquals(expected.stream().sorted().toList(), committed.stream().sorted().toList());
+            Assertions.assertEquals(0, pipeline.trackedPaths());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void failedCommitIsRetriedAndReportedByFlushWhenItFailsAgain() throws Exception {
+        List<String> staged = new ArrayList<>();
+        List<String> committed = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failingCommits = new AtomicInteger(1);
+
+        IndexingPipeline<Item, Item, Item> pipeline = new IndexingPipeline<>("Test", new IndexingPipeline.Steps<>() {
+            @Override
+            public Item read(FileObject file) {
+                return new Item(file.getPath(), 10);
+            }
+
+            @Override
+            public Item map(Item read) {
+                return read;
+            }
+
+            @Override
+            public Item serialize(Item mapped) {
+                return mapped;
+            }
+
+            @Override
+            public void apply(Item serialized) {
+                staged.add(serialized.path);
+            }
+
+            @Override
+            public void commit() {
+                if (failingCommits.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                    throw new IllegalStateException("disk full");
+                }
+                committed.addAll(staged);
+                staged.clear();
+            }
+
+            @Override
+            public void rollback(Throwable error) {
+                staged.clear();
+            }
+        });
+
+        try {
+            // one failure: the generation is applied again and the retry commits it.
+            pipeline.submit(new MockFileObject("/src/A.java", ""));
+            pipeline.submit(new MockFileObject("/src/B.java", ""));
+            pipeline.flush();
+            Assertions.assertEquals(List.of("/src/A.java", "/src/B.java"), committed.stream().sorted().toList());
+
+            // the retry fails too: the files are lost, and the flush says so once.
+            failingCommits.set(2);
+            pipeline.submit(new MockFileObject("/src/C.java", ""));
+            IndexingPipeline.CommitFailedException failure =
+                    Assertions.assertThrows(IndexingPipeline.CommitFailedException.class, pipeline::flush);
+            Assertions.assertEquals(List.of("/src/C.java"), failure.getLostPaths());
+            Assertions.assertEquals("disk full", failure.getCause().getMessage());
+            Assertions.assertFalse(committed.contains("/src/C.java"));
+
+            pipeline.submit(new MockFileObject("/src/D.java", ""));
+            pipeline.flush();
+            Assertions.assertTrue(committed.contains("/src/D.java"));
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+}
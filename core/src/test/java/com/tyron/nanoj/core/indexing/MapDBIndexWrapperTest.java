@@ -0,0 +1,351 @@
+package com.tyron.nanoj.core.indexing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class MapDBIndexWrapperTest {
+
+    private DB db;
+
+    @BeforeEach
+    public void setUp() {
+        db = DBMaker.memoryDB().make();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void postingsAreGroupedByKeyAndSortedByFileId() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        for (int fileId = 1000; fileId > 0; fileId--) {
+            wrapper.putInverted("java.lang", fileId, new byte[]{(byte) fileId});
+        }
+        wrapper.putInverted("java.util", 5, new byte[]{5});
+        wrapper.putInverted("javax.swing", 7, new byte[0]);
+
+        List<Integer> fileIds = new ArrayList<>();
+        wrapper.processValues("java.lang", (key, fileId, value) -> {
+            Assertions.assertEquals("java.lang", key);
+            Assertions.assertEquals((byte) fileId, value[0]);
+            fileIds.add(fileId);
+            return true;
+        });
+        Assertions.assertEquals(1000, fileIds.size());
+        Assertions.assertEquals(1, fileIds.get(0));
+        Assertions.assertEquals(1000, fileIds.get(999));
+
+        List<String> keys = new ArrayList<>();
+        wrapper.processPrefix("java.", (key, fileId, value) -> {
+            if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(key)) {
+                keys.add(key);
+            }
+            return true;
+        });
+        Assertions.assertEquals(List.of("java.lang", "java.util"), keys);
+
+        Map<MapDBIndexWrapper.InvertedKey, byte[]> all = wrapper.searchPrefix("java");
+        Assertions.assertEquals(1002, all.size());
+        Assertions.assertTrue(all.containsKey(new MapDBIndexWrapper.InvertedKey("javax.swing", 7)));
+    }
+
+    @Test
+    public void removalAndEarlyStop() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        wrapper.putInverted("a", 1, new byte[]{1});
+        wrapper.putInverted("a", 2, new byte[]{2});
+        wrapper.putInverted("a", 3, new byte[]{3});
+        wrapper.removeInvertedByFileId("a", 2);
+        wrapper.removeInvertedByFileId("missing", 2);
+
+        Assertions.assertEquals(2, wrapper.getValues("a").size());
+        Assertions.assertNull(wrapper.getValues("a").get(new MapDBIndexWrapper.InvertedKey("a", 2)));
+
+        int[] seen = {0};
+        boolean completed = wrapper.processValues("a", (key, fileId, value) -> ++seen[0] < 1);
+        Assertions.assertFalse(completed);
+        Assertions.assertEquals(1, seen[0]);
+
+        wrapper.clear();
+        Assertions.assertFalse(wrapper.hasAnyData());
+        Assertions.assertTrue(wrapper.getValues("a").isEmpty());
+    }
+
+    @Test
+    public void openExistingSeesWrittenPostings() {
+        MapDBIndexWrapper writer = new MapDBIndexWrapper(db, "shared");
+        writer.putInverted("List", 42, new byte[]{9});
+        db.commit();
+
+        Assertions.assertNull(MapDBIndexWrapper.openExisting(db, "missing"));
+        MapDBIndexWrapper reader = MapDBIndexWrapper.openExisting(db, "shared");
+        Assertions.assertNotNull(reader);
+        Assertions.assertArrayEquals(new byte[]{9}, reader.getValues("List").get(new MapDBIndexWrapper.InvertedKey("List", 42)));
+    }
+
+    @Test
+    public void originFilterSkipsWholePartitions() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        String jdk = "jrt:/modules/java.base/";
+        String lib = "jar:file:/libs/guava.jar!/";
+        for (int fileId = 1; fileId <= 100; fileId++) {
+            wrapper.putOrigin(fileId, fileId <= 50 ? jdk : lib);
+            wrapper.putInverted("List" + fileId, fileId, new byte[]{(byte) fileId});
+        }
+        wrapper.putInverted("List", 500, new byte[0]);
+
+        List<Integer> visited = new ArrayList<>();
+        wrapper.processPrefix("L", lib::equals, (key, fileId, value) -> visited.add(fileId));
+        Assertions.assertEquals(50, visited.size());
+        Assertions.assertTrue(visited.stream().allMatch(fileId -> fileId > 50));
+
+        List<Integer> exact = new ArrayList<>();
+        wrapper.processValues("List7", origin -> !origin.equals(jdk), (key, fileId, value) -> exact.add(fileId));
+        Assertions.assertTrue(exact.isEmpty());
+        wrapper.processValues("List", origin -> !origin.equals(jdk), (key, fileId, value) -> exact.add(fileId));
+        Assertions.assertEquals(List.of(500), exact);
+
+        Assertions.assertEquals(java.util.Set.of(MapDBIndexWrapper.DEFAULT_ORIGIN, jdk, lib), wrapper.getOrigins());
+    }
+
+    @Test
+    public void removalFollowsRecordedOrigin() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        wrapper.putOrigin(1, "file:/src/");
+        wrapper.putInverted("Main", 1, new byte[]{1});
+
+        wrapper.removeInvertedByFileId("Main", 1);
+        wrapper.putOrigin(1, "file:/other/");
+        wrapper.putInverted("Main", 1, new byte[]{2});
+
+        List<byte[]> values = new ArrayList<>();
+        wrapper.processValues("Main", (key, fileId, value) -> values.add(value));
+        Assertions.assertEquals(1, values.size());
+        Assertions.assertArrayEquals(new byte[]{2}, values.get(0));
+    }
+
+    @Test
+    public void keysAndOriginsWithoutPostingsAreDropped() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        String oldJar = "jar:file:/libs/guava-1.jar!/";
+        String newJar = "jar:file:/libs/guava-2.jar!/";
+        byte[] v = {1};
+        long d = MapDBIndexWrapper.payloadDigest(v);
+        wrapper.replaceFile(1, oldJar, new String[]{"A", "B"}, new byte[][]{v, v}, new long[]{d, d});
+        wrapper.replaceFile(2, oldJar, new String[]{"A"}, new byte[][]{v}, new long[]{d});
+        Assertions.assertEquals(2, wrapper.keyCount());
+
+        // "B" loses its only posting, "A" keeps file 2's.
+        wrapper.replaceFile(1, oldJar, new String[]{"C"}, new byte[][]{v}, new long[]{d});
+        Assertions.assertEquals(2, wrapper.keyCount());
+        Assertions.assertTrue(wrapper.getValues("B").isEmpty());
+
+        // The jar is replaced: its files are removed and indexed under the new origin.
+        for (int fileId : new int[]{1, 2}) {
+            for (String key : wrapper.getForwardKeys(fileId)) {
+                wrapper.removeInvertedByFileId(key, fileId);
+            }
+            wrapper.removeForward(fileId);
+        }
+        Assertions.assertEquals(0, wrapper.keyCount());
+        Assertions.assertFalse(wrapper.getOrigins().contains(oldJar));
+
+        wrapper.replaceFile(3, newJar, new String[]{"A"}, new byte[][]{v}, new long[]{d});
+        Assertions.assertEquals(java.util.Set.of(newJar), wrapper.getOrigins());
+        Assertions.assertEquals(1, wrapper.getValues("A").size());
+
+        // An origin with files but no keys is kept.
+        wrapper.replaceFile(3, newJar, new String[0], new byte[0][], new long[0]);
+        Assertions.assertEquals(0, wrapper.keyCount());
+        Assertions.assertEquals(java.util.Set.of(newJar), wrapper.getOrigins());
+    }
+
+    @Test
+    public void queriesSeeLastPublishedGeneration() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        wrapper.enableReadIsolation();
+        wrapper.putInverted("Old", 1, new byte[]{1});
+        wrapper.putForward(1, java.util.Set.of("Old"));
+        db.commit();
+        Assertions.assertEquals(1, wrapper.publishGeneration());
+
+        // Re-index file 1 and add file 2 without publishing.
+        for (String key : wrapper.getForwardKeys(1)) {
+            wrapper.removeInvertedByFileId(key, 1);
+        }
+        wrapper.putInverted("New", 1, new byte[]{2});
+        wrapper.putForward(1, java.util.Set.of("New"));
+        wrapper.putInverted("New", 2, new byte[]{3});
+        wrapper.putForward(2, java.util.Set.of("New"));
+
+        Assertions.assertTrue(wrapper.getValues("New").isEmpty());
+        Assertions.assertArrayEquals(new byte[]{1}, wrapper.getValues("Old").get(new MapDBIndexWrapper.InvertedKey("Old", 1)));
+        Assertions.assertEquals(1, wrapper.searchPrefix("").size());
+
+        wrapper.prepareCommit();
+        db.commit();
+        Assertions.assertEquals(2, wrapper.publishGeneration());
+        Assertions.assertTrue(wrapper.getValues("Old").isEmpty());
+        Assertions.assertEquals(2, wrapper.getValues("New").size());
+    }
+
+    @Test
+    public void concurrentQueriesSeeEachFileOnceAndOnlyPublishedValues() throws Exception {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        wrapper.enableReadIsolation();
+        int files = 64;
+        for (int fileId = 1; fileId <= files; fileId++) {
+            byte[] v = {0};
+            wrapper.replaceFile(fileId, "file:/src/", new String[]{"Key"}, new byte[][]{v},
+                    new long[]{MapDBIndexWrapper.payloadDigest(v)});
+        }
+        db.commit();
+        wrapper.publishGeneration();
+
+        // The writer re-indexes every file with the number of the generation it belongs to.
+        java.util.concurrent.atomic.AtomicInteger published = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.concurrent.atomic.AtomicBoolean done = new java.util.concurrent.atomic.AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int gen = 1; gen <= 100; gen++) {
+                byte[] v = {(byte) gen};
+                long digest = MapDBIndexWrapper.payloadDigest(v);
+                for (int fileId = 1; fileId <= files; fileId++) {
+                    wrapper.replaceFile(fileId, "file:/src/", new String[]{"Key"}, new byte[][]{v}, new long[]{digest});
+                    if (fileId % 16 == 0) {
+                        Thread.yield();
+                    }
+                }
+                wrapper.prepareCommit();
+                db.commit();
+                wrapper.publishGeneration();
+                published.set(gen);
+            }
+            done.set(true);
+        });
+        writer.start();
+
+        int queries = 0;
+        try {
+            while (!done.get() || queries == 0) {
+                java.util.Set<Integer> seen = new java.util.HashSet<>();
+                List<Integer> duplicates = new ArrayList<>();
+                int[] newest = {0};
+                MapDBIndexWrapper.PostingProcessor collect = (key, fileId, value) -> {
+                    if (!seen.add(fileId)) {
+                        duplicates.add(fileId);
+                    }
+                    newest[0] = Math.max(newest[0], value[0]);
+                    return true;
+                };
+                if (queries % 2 == 0) {
+                    wrapper.processValues("Key", collect);
+                } else {
+                    wrapper.processPrefix("K", collect);
+                }
+                int publishedAfter = published.get();
+
+                Assertions.assertEquals(List.of(), duplicates);
+                Assertions.assertEquals(files, seen.size());
+                Assertions.assertTrue(newest[0] <= publishedAfter,
+                        "saw generation " + newest[0] + " but only " + publishedAfter + " was published");
+                queries++;
+            }
+        } finally {
+            writer.join();
+        }
+    }
+
+    @Test
+    public void runningQueryKeepsPostingsOfFilesStagedAfterItStarted() throws Exception {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        wrapper.enableReadIsolation();
+        byte[] v = {1};
+        long digest = MapDBIndexWrapper.payloadDigest(v);
+        for (int fileId = 1; fileId <= 3; fileId++) {
+            wrapper.replaceFile(fileId, "file:/src/", new String[]{"Key"}, new byte[][]{v}, new long[]{digest});
+        }
+        db.commit();
+        wrapper.publishGeneration();
+
+        java.util.concurrent.CountDownLatch scanning = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.CountDownLatch resume = new java.util.concurrent.CountDownLatch(1);
+        List<Integer> seen = new java.util.concurrent.CopyOnWriteArrayList<>();
+        Thread query = new Thread(() -> wrapper.processValues("Key", (key, fileId, value) -> {
+            seen.add(fileId);
+            if (fileId == 1) {
+                scanning.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }));
+        query.start();
+        Assertions.assertTrue(scanning.await(10, java.util.concurrent.TimeUnit.SECONDS));
+
+        // File 3 is staged after the query started and loses its posting before the scan reaches it.
+        wrapper.replaceFile(3, "file:/src/", new String[0], new byte[0][], new long[0]);
+        Thread committer = new Thread(() -> {
+            wrapper.prepareCommit();
+            db.commit();
+            wrapper.publishGeneration();
+        });
+        committer.start();
+        committer.join(200);
+        Assertions.assertTrue(committer.isAlive(), "removal applied under a running query");
+
+        resume.countDown();
+        query.join(10_000);
+        committer.join(10_000);
+        Assertions.assertEquals(List.of(1, 2, 3), seen);
+        Assertions.assertEquals(2, wrapper.getValues("Key").size());
+    }
+
+    @Test
+    public void replaceFileTouchesOnlyChangedPostings() {
+        MapDBIndexWrapper wrapper = new MapDBIndexWrapper(db, "test_index");
+        byte[] a = {1};
+        byte[] b = {2};
+        long da = MapDBIndexWrapper.payloadDigest(a);
+        long db2 = MapDBIndexWrapper.payloadDigest(b);
+
+        Assertions.assertEquals(2, wrapper.replaceFile(1, "file:/src/",
+                new String[]{"A", "B"}, new byte[][]{a, b}, new long[]{da, db2}));
+        Assertions.assertEquals(Map.of("A", da, "B", db2), wrapper.getForwardDigests(1));
+
+        // Same keys and payloads: nothing is written.
+        Assertions.assertEquals(0, wrapper.replaceFile(1, "file:/src/",
+                new String[]{"B", "A"}, new byte[][]{b, a}, new long[]{db2, da}));
+
+        // "A" changes, "B" goes away, "C" is new.
+        byte[] a2 = {3};
+        long da2 = MapDBIndexWrapper.payloadDigest(a2);
+        Assertions.assertEquals(3, wrapper.replaceFile(1, "file:/src/",
+                new String[]{"A", "C"}, new byte[][]{a2, b}, new long[]{da2, db2}));
+        Assertions.assertArrayEquals(a2, wrapper.getValues("A").get(new MapDBIndexWrapper.InvertedKey("A", 1)));
+        Assertions.assertTrue(wrapper.getValues("B").isEmpty());
+        Assertions.assertEquals(java.util.Set.of("A", "C"), wrapper.getForwardKeys(1));
+
+        // Moving to another origin rewrites everything under the new partition.
+        Assertions.assertEquals(4, wrapper.replaceFile(1, "file:/other/",
+                new String[]{"A", "C"}, new byte[][]{a2, b}, new long[]{da2, db2}));
+        List<String> src = new ArrayList<>();
+        wrapper.processPrefix("", origin -> origin.equals("file:/src/"), (key, fileId, value) -> src.add(key));
+        List<String> other = new ArrayList<>();
+        wrapper.processPrefix("", origin -> origin.equals("file:/other/"), (key, fileId, value) -> other.add(key));
+        Assertions.assertTrue(src.isEmpty());
+        Assertions.assertEquals(List.of("A", "C"), other);
+    }
+}
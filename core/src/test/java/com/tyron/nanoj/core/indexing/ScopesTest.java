@@ -0,0 +1,104 @@
+package com.tyron.nanoj.core.indexing;
+
+import com.tyron.nanoj.api.indexing.FileIdBitmap;
+import com.tyron.nanoj.api.indexing.RootSetScope;
+import com.tyron.nanoj.api.indexing.Scopes;
+import com.tyron.nanoj.api.indexing.SearchScope;
+import com.tyron.nanoj.api.vfs.VirtualFileManager;
+import com.tyron.nanoj.core.test.MockFileObject;
+import com.tyron.nanoj.testFramework.BaseIdeTest;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScopesTest extends BaseIdeTest {
+
+    @Test
+    public void bitmapAlgebra() {
+        FileIdBitmap a = new FileIdBitmap();
+        FileIdBitmap b = new FileIdBitmap();
+        a.set(1);
+        a.set(70_000);
+        a.set(200_000);
+        b.set(70_000);
+        b.set(3);
+
+        Assertions.assertTrue(a.get(200_000));
+        Assertions.assertFalse(a.get(3));
+        Assertions.assertFalse(a.get(-1));
+        Assertions.assertEquals(3, a.cardinality());
+
+        List<Integer> and = new ArrayList<>();
+        a.and(b).forEach(and::add);
+        Assertions.assertEquals(List.of(70_000), and);
+
+        List<Integer> or = new ArrayList<>();
+        a.or(b).forEach(or::add);
+        Assertions.assertEquals(List.of(1, 3, 70_000, 200_000), or);
+
+        List<Integer> andNot = new ArrayList<>();
+        a.andNot(b).forEach(andNot::add);
+        Assertions.assertEquals(List.of(1, 200_000), andNot);
+
+        a.clear(1);
+        Assertions.assertFalse(a.get(1));
+        Assertions.assertTrue(SearchScope.of(a).contains(70_000));
+    }
+
+    @Test
+    public void projectSourceScopeIsSharedAndTracksVfsEvents() {
+        configureJavaProject();
+        MockFileObject main = java("p.Main", "class Main {}");
+        MockFileObject other = file("other/Other.java", "class Other {}");
+
+        VirtualFileManager vfm = VirtualFileManager.getInstance();
+        int mainId = vfm.getFileId(main);
+        int otherId = vfm.getFileId(other);
+
+        SearchScope scope = Scopes.projectSource(project);
+        Assertions.assertSame(scope, Scopes.projectSource(project));
+        Assertions.assertTrue(scope.contains(mainId));
+        Assertions.assertFalse(scope.contains(otherId));
+        Assertions.assertTrue(scope.contains(mainId));
+        Assertions.assertEquals(1, ((RootSetScope) scope).snapshotMembers().cardinality());
+
+        String sourceRoot = project.getSourceRoots().get(0).toUri().normalize().toString();
+        Assertions.assertTrue(scope.mayContainOrigin("file:"));
+        Assertions.assertTrue(scope.mayContainOrigin(sourceRoot));
+        Assertions.assertFalse(scope.mayContainOrigin("jrt:/modules/java.base/"));
+        Assertions.assertFalse(scope.mayContainOrigin("jar:file:/libs/guava.jar!/"));
+
+        testVfs.fireFileDeleted(main);
+        Assertions.assertFalse(scope.contains(mainId));
+
+        SearchScope everything = scope.union(fileId -> fileId == otherId);
+        Assertions.assertTrue(everything.contains(otherId));
+        Assertions.assertFalse(scope.intersect(fileId -> fileId == otherId).contains(otherId));
+
+        // Scopes without an origin filter skip resolving origins altogether.
+        Assertions.assertSame(MapDBIndexWrapper.ALL_ORIGINS, IndexManagerImpl.originFilter(SearchScope.all()));
+        Assertions.assertSame(MapDBIndexWrapper.ALL_ORIGINS, IndexManagerImpl.originFilter(fileId -> fileId == otherId));
+        Assertions.assertNotSame(MapDBIndexWrapper.ALL_ORIGINS, IndexManagerImpl.originFilter(scope));
+        Assertions.assertFalse(IndexManagerImpl.originFilter(scope).test("jrt:/modules/java.base/"));
+    }
+
+    @Test
+    public void vfsEventsInvalidateOnlyTheAffectedIds() {
+        configureJavaProject();
+        MockFileObject main = java("p.Main", "class Main {}");
+        MockFileObject util = java("p.Util", "class Util {}");
+        MockFileObject generated = file("src/main/java-gen/p/Gen.java", "class Gen {}");
+
+        VirtualFileManager vfm = VirtualFileManager.getInstance();
+        RootSetScope scope = (RootSetScope) Scopes.projectSource(project);
+        Assertions.assertTrue(scope.contains(vfm.getFileId(main)));
+        Assertions.assertTrue(scope.contains(vfm.getFileId(util)));
+        // a sibling folder whose name starts with the root's name is not below it.
+        Assertions.assertFalse(scope.contains(vfm.getFileId(generated)));
+
+        testVfs.fireFileDeleted(main);
+        Assertions.assertEquals(1, scope.snapshotMembers().cardinality());
+    }
+}
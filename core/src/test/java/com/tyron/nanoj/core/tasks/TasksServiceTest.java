@@ -13,6 +13,7 @@ import com.tyron.nanoj.core.test.MockProject;
 import com.tyron.nanoj.api.vfs.VirtualFileManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
@@ -303,6 +304,45 @@ public class TasksServiceTest {
         deleteRecursive(cacheDir);
     }
 
+    @Test
+    public void testTrackedInputTreeReusesSnapshotWhileDigestIsUnchanged() throws Exception {
+        Path tempDir = Files.createTempDirectory("nanoj_tasks_digest");
+        Path cacheDir = Files.createTempDirectory("nanoj_tasks_digest_cache");
+
+        MockProject project = new MockProject(cacheDir.toFile());
+        tasks = new TasksServiceImpl(project);
+
+        Files.createDirectories(tempDir.resolve("src/p"));
+        FileObject src = vfsFile(tempDir.resolve("src").toFile());
+        VirtualFileManager.getInstance().trackRoot(src);
+        Assumptions.assumeTrue(VirtualFileManager.getInstance().getTreeDigest(src).isPresent(), "no tree digests");
+
+        FileObject child = vfsFile(tempDir.resolve("src/p/A.java").toFile());
+        FileObject out = vfsFile(tempDir.resolve("out.txt").toFile());
+        writeText(child, "AAAA");
+
+        AtomicInteger runs = new AtomicInteger();
+        Task t = tasks.task("digest")
+                .fingerprintMode(TaskFingerprintMode.CONTENT_HASH)
+                .inputTrees(src)
+                .outputs(out)
+                .register(ctx -> writeText(out, Integer.toString(runs.incrementAndGet())));
+
+        Assertions.assertEquals(TaskResult.Status.EXECUTED, tasks.run(t).getResult(t).getStatus());
+        Assertions.assertEquals(TaskResult.Status.UP_TO_DATE, tasks.run(t).getResult(t).getStatus());
+
+        // Same length and mtime: only the content hash (or the watcher) can tell.
+        FileTime mtime = Files.getLastModifiedTime(Path.of(child.getPath()));
+        writeText(child, "BBBB");
+        Files.setLastModifiedTime(Path.of(child.getPath()), mtime);
+        Assertions.assertEquals(TaskResult.Status.EXECUTED, tasks.run(t).getResult(t).getStatus());
+        Assertions.assertEquals(TaskResult.Status.UP_TO_DATE, tasks.run(t).getResult(t).getStatus());
+        Assertions.assertEquals(2, runs.get());
+
+        deleteRecursive(tempDir);
+        deleteRecursive(cacheDir);
+    }
+
     @Test
     public void testOutputToInputChaining() throws Exception {
         Path tempDir = Files.createTempDirectory("nanoj_tasks_chain");
@@ -0,0 +1,68 @@
+package com.tyron.nanoj.core.vfs;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ArchiveDirectoryIndexTest {
+
+    @TempDir
+    public File temporaryFolder;
+
+    @Test
+    public void buildsSortedTreeWithImplicitParents() {
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
+        builder.addFile("p/q/B.class", 20, 1000L, 7L, 8, 10, 100);
+        builder.addFile("p/q/A.class", 10, 2000L, 9L, 0, 10, 200);
+        builder.addFile("p/q/A.class", 99, 0L, 0L, 0, 0, 0);
+        builder.addDirectory("empty/");
+        builder.addFile("Top.txt", 1, -1L, -1L, 0, 1, 300);
+
+        ArchiveDirectoryIndex index = builder.build("key", 1, 2);
+
+        Assertions.assertEquals(List.of("Top.txt", "empty", "p"), index.childNames(ArchiveDirectoryIndex.ROOT));
+        Assertions.assertEquals(List.of("A.class", "B.class"), index.childNames(index.find("p/q/")));
+        Assertions.assertTrue(index.childNames(index.find("empty")).isEmpty());
+        Assertions.assertTrue(index.isDirectory(index.find("/p")));
+
+        int a = index.find("p/q/A.class");
+        Assertions.assertFalse(index.isDirectory(a));
+        // First entry for a duplicated path wins.
+        Assertions.assertEquals(10, index.size(a));
+        Assertions.assertEquals(2000L, index.lastModified(a));
+        Assertions.assertEquals(9L, index.crc32(a));
+        Assertions.assertEquals(200L, index.dataPosition(a));
+
+        Assertions.assertEquals(ArchiveDirectoryIndex.NOT_FOUND, index.find("p/missing"));
+        Assertions.assertEquals(ArchiveDirectoryIndex.NOT_FOUND, index.find("p/q/A.class/x"));
+    }
+
+    @Test
+    public void storeMapsPersistedIndexUntilArchiveChanges() throws Exception {
+        File archive = new File(temporaryFolder, "lib.jar");
+        Files.write(archive.toPath(), new byte[]{1, 2, 3});
+
+        ArchiveDirectoryIndex.Builder builder = new ArchiveDirectoryIndex.Builder();
+        builder.addFile("a/b/C.class", 3, 5L, 6L, 0, 3, 0);
+        ArchiveDirectoryIndex built = builder.build(archive.getAbsolutePath(), archive.length(), archive.lastModified());
+
+        ArchiveIndexStore store = new ArchiveIndexStore(new File(temporaryFolder, "indexes"));
+        Assertions.assertNull(store.load("jar", archive));
+        store.save("jar", archive, built);
+
+        ArchiveDirectoryIndex loaded = store.load("jar", archive);
+        Assertions.assertNotNull(loaded);
+        Assertions.assertEquals(built.nodeCount(), loaded.nodeCount());
+        int c = loaded.find("a/b/C.class");
+        Assertions.assertEquals(List.of("C.class"), loaded.childNames(loaded.find("a/b")));
+        Assertions.assertEquals(3, loaded.size(c));
+        Assertions.assertEquals(6L, loaded.crc32(c));
+
+        Files.write(archive.toPath(), new byte[]{1, 2, 3, 4});
+        Assertions.assertNull(store.load("jar", archive));
+    }
+}
@@ -7,10 +7,17 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -57,6 +64,225 @@ public class JarFileSystemTest extends BaseIdeTest {
         Assertions.assertArrayEquals(new byte[]{4, 5}, b.getContent());
     }
 
+    @Test
+    public void onDiskJarReadsStoredAndDeflatedEntriesAndRefreshesAfterRewrite() throws Exception {
+        byte[] big = new byte[64 * 1024];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) (i % 7);
+        }
+
+        File jarFile = new File(temporaryFolder, "disk.jar");
+        Files.write(jarFile.toPath(), makeJarWithStoredEntry(
+                "p/A.class", big,
+                "p/S.class", new byte[]{4, 2}
+        ));
+
+        URI jarRootUri = URI.create("jar:" + jarFile.toURI() + "!/");
+        FileObject root = VirtualFileManager.getInstance().find(jarRootUri);
+
+        FileObject p = root.getChild("p");
+        Assertions.assertNotNull(p);
+        Assertions.assertArrayEquals(big, p.getChild("A.class").getContent());
+        Assertions.assertArrayEquals(new byte[]{4, 2}, p.getChild("S.class").getContent());
+        // Repeated reads go through the pooled handle.
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertArrayEquals(new byte[]{4, 2}, p.getChild("S.class").getContent());
+        }
+
+        // Replace the jar rather than truncate it while mapped.
+        replace(jarFile, makeJar("p/C.class", new byte[]{1}));
+
+        FileObject refreshed = VirtualFileManager.getInstance().find(jarRootUri).getChild("p");
+        Assertions.assertNull(refreshed.getChild("A.class"));
+        Assertions.assertArrayEquals(new byte[]{1}, refreshed.getChild("C.class").getContent());
+    }
+
+    @Test
+    public void pooledHandleIsNotServedAfterTheJarChanged() throws Exception {
+        File jarFile = new File(temporaryFolder, "pooled.jar");
+        Files.write(jarFile.toPath(), makeJar("p/A.class", new byte[]{1}));
+
+        JarHandleCache cache = new JarHandleCache(4);
+        JarHandleCache.Handle first = cache.acquire(jarFile);
+        first.close();
+        JarHandleCache.Handle same = cache.acquire(jarFile);
+        same.close();
+        Assertions.assertSame(first, same);
+
+        replace(jarFile, makeJar("p/A.class", new byte[]{1, 2, 3}, "p/B.class", new byte[]{4}));
+        try (JarHandleCache.Handle reopened = cache.acquire(jarFile)) {
+            Assertions.assertNotSame(first, reopened);
+            Assertions.assertEquals(jarFile.length(), reopened.size());
+            Assertions.assertEquals(2, ZipCentralDirectory.parse(reopened).size());
+        }
+        Assertions.assertEquals(1, cache.openHandleCount());
+        cache.invalidateAll();
+    }
+
+    @Test
+    public void persistedIndexIsRebuiltWhenTheJarChangesWithSameSizeAndTimestamp() throws Exception {
+        File jarFile = new File(temporaryFolder, "same-stat.jar");
+        URI jarRootUri = URI.create("jar:" + jarFile.toURI() + "!/");
+        long stamp = 1_600_000_000_000L;
+
+        byte[] before = makeJarWithStoredEntry("p/A.class", new byte[]{1}, "p/S.class", new byte[]{1, 2, 3});
+        Files.write(jarFile.toPath(), before);
+        Assertions.assertTrue(jarFile.setLastModified(stamp));
+        FileObject s = VirtualFileManager.getInstance().find(jarRootUri).getChild("p").getChild("S.class");
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, s.getContent());
+
+        byte[] after = makeJarWithStoredEntry("p/A.class", new byte[]{1}, "p/S.class", new byte[]{7, 8, 9});
+        Assertions.assertEquals(before.length, after.length);
+        replace(jarFile, after);
+        Assertions.assertTrue(jarFile.setLastModified(stamp));
+        // drop the in-memory index, so the stored one is loaded and checked.
+        JarFileSystem.getInstance().refresh(false);
+
+        s = VirtualFileManager.getInstance().find(jarRootUri).getChild("p").getChild("S.class");
+        CRC32 crc = new CRC32();
+        crc.update(new byte[]{7, 8, 9});
+        Assertions.assertEquals(crc.getValue(), ((JarFileObject) s).getCrc32());
+        Assertions.assertArrayEquals(new byte[]{7, 8, 9}, s.getContent());
+    }
+
+    @Test
+    public void replacedJarIsReadWithItsOwnOffsetsWithoutARefresh() throws Exception {
+        File jarFile = new File(temporaryFolder, "moved.jar");
+        URI jarRootUri = URI.create("jar:" + jarFile.toURI() + "!/");
+        long stamp = 1_600_000_000_000L;
+
+        Files.write(jarFile.toPath(), makeStoredJar("p/A.class", new byte[]{1, 2, 3}, "p/B.class", new byte[]{4, 5, 6}));
+        Assertions.assertTrue(jarFile.setLastModified(stamp));
+        FileObject p = VirtualFileManager.getInstance().find(jarRootUri).getChild("p");
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, p.getChild("A.class").getContent());
+        Assertions.assertArrayEquals(new byte[]{4, 5, 6}, p.getChild("B.class").getContent());
+
+        // same size and timestamp, but every entry now sits at the other one's offset.
+        byte[] swapped = makeStoredJar("p/B.class", new byte[]{7, 8, 9}, "p/A.class", new byte[]{10, 11, 12});
+        replace(jarFile, swapped);
+        Assertions.assertTrue(jarFile.setLastModified(stamp));
+        Assertions.assertEquals(swapped.length, jarFile.length());
+
+        FileObject reread = VirtualFileManager.getInstance().find(jarRootUri).getChild("p");
+        Assertions.assertArrayEquals(new byte[]{10, 11, 12}, reread.getChild("A.class").getContent());
+        Assertions.assertArrayEquals(new byte[]{7, 8, 9}, reread.getChild("B.class").getContent());
+        // objects resolved before the change read the new jar as well.
+        Assertions.assertArrayEquals(new byte[]{10, 11, 12}, p.getChild("A.class").getContent());
+    }
+
+    @Test
+    public void storedEntryIsSharedFromTheMappedJarThroughTheContentCache() throws Exception {
+        byte[] stored = "stored class bytes".getBytes(StandardCharsets.UTF_8);
+        File jarFile = new File(temporaryFolder, "buffer.jar");
+        Files.write(jarFile.toPath(), makeJarWithStoredEntry("p/A.class", new byte[]{1, 2, 3}, "p/S.class", stored));
+
+        URI jarRootUri = URI.create("jar:" + jarFile.toURI() + "!/");
+        JarFileSystem.getInstance().refresh(false);
+        FileObject s = VirtualFileManager.getInstance().find(jarRootUri).getChild("p").getChild("S.class");
+
+        ContentCache cache = ContentCache.getInstance();
+        ByteBuffer first = s.getContentBuffer();
+        Assertions.assertTrue(first.isDirect(), "STORED entry should be a slice of the jar mapping");
+        Assertions.assertTrue(first.isReadOnly());
+        Assertions.assertEquals(stored.length, first.remaining());
+
+        long hits = cache.hitCount();
+        ByteBuffer second = s.getContentBuffer();
+        Assertions.assertEquals(hits + 1, cache.hitCount());
+        Assertions.assertEquals(first, second);
+
+        // Callers get private views and copies.
+        second.get();
+        Assertions.assertEquals(stored.length, s.getContentBuffer().remaining());
+        byte[] copy = s.getContent();
+        copy[0] = 0;
+        Assertions.assertArrayEquals(stored, s.getContent());
+        Assertions.assertArrayEquals(stored, s.getInputStream().readAllBytes());
+        Assertions.assertEquals("stored class bytes", s.getText());
+    }
+
+    @Test
+    public void entryMetadataComesFromCentralDirectory() throws Exception {
+        byte[] content = "class A {}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        long entryTime = LocalDateTime.of(2020, 5, 17, 10, 20, 30)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
+            ZipEntry e = new ZipEntry("p/A.class");
+            e.setTime(entryTime);
+            zout.putNextEntry(e);
+            zout.write(content);
+            zout.closeEntry();
+        }
+
+        File jarFile = new File(temporaryFolder, "meta.jar");
+        Files.write(jarFile.toPath(), out.toByteArray());
+
+        URI jarRootUri = URI.create("jar:" + jarFile.toURI() + "!/");
+        JarFileSystem.getInstance().refresh(false);
+        FileObject root = VirtualFileManager.getInstance().find(jarRootUri);
+
+        FileObject a = root.getChild("p").getChild("A.class");
+        Assertions.assertEquals(content.length, a.getLength());
+        Assertions.assertEquals(entryTime, a.lastModified());
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        Assertions.assertEquals(crc.getValue(), ((JarFileObject) a).getCrc32());
+
+        // Folders keep the jar's own timestamp.
+        Assertions.assertEquals(jarFile.lastModified(), root.getChild("p").lastModified());
+    }
+
+    private static void replace(File target, byte[] bytes) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        Files.write(tmp.toPath(), bytes);
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] makeJarWithStoredEntry(String deflatedPath, byte[] deflated, String storedPath, byte[] stored) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
+            zout.putNextEntry(new ZipEntry(deflatedPath));
+            zout.write(deflated);
+            zout.closeEntry();
+
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ZipEntry e = new ZipEntry(storedPath);
+            e.setMethod(ZipEntry.STORED);
+            e.setSize(stored.length);
+            e.setCompressedSize(stored.length);
+            e.setCrc(crc.getValue());
+            zout.putNextEntry(e);
+            zout.write(stored);
+            zout.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] makeStoredJar(Object... pathAndBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zout = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < pathAndBytes.length; i += 2) {
+                byte[] bytes = (byte[]) pathAndBytes[i + 1];
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                ZipEntry e = new ZipEntry((String) pathAndBytes[i]);
+                e.setMethod(ZipEntry.STORED);
+                e.setSize(bytes.length);
+                e.setCompressedSize(bytes.length);
+                e.setCrc(crc.getValue());
+                e.setTime(0);
+                zout.putNextEntry(e);
+                zout.write(bytes);
+                zout.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
     private static byte[] makeJar(Object... pathAndBytes) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try (ZipOutputStream zout = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
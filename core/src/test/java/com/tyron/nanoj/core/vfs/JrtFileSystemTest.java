@@ -5,7 +5,14 @@ import com.tyron.nanoj.testFramework.BaseIdeTest;
 import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -27,6 +34,56 @@ public class JrtFileSystemTest extends BaseIdeTest {
         assertTrue(stringClass.getParent().isFolder());
     }
 
+    @Test
+    public void modulesListingMatchesRuntimeImage() throws Exception {
+        Assumptions.assumeTrue(isJrtAvailable());
+        assertNotNull(JrtFileSystem.getInstance().getImageIndex());
+
+        FileObject lang = VirtualFileManager.getInstance()
+                .find(URI.create("jrt:/modules/java.base/java/lang"));
+        assertTrue(lang.isFolder());
+
+        List<String> names = new ArrayList<>();
+        for (FileObject child : lang.getChildren()) {
+            names.add(child.getName());
+        }
+        List<String> expected = new ArrayList<>();
+        try (Stream<Path> s = Files.list(JrtFileSystem.getOrCreateJrtNioFs().getPath("/modules/java.base/java/lang"))) {
+            s.forEach(p -> expected.add(p.getFileName().toString()));
+        }
+        Collections.sort(expected);
+        assertEquals(expected, names);
+
+        FileObject missing = lang.getChild("DoesNotExist.class");
+        assertFalse(missing.exists());
+    }
+
+    @Test
+    public void classBytesAreServedFromTheImageMapping() throws Exception {
+        Assumptions.assumeTrue(isJrtAvailable());
+        Assumptions.assumeTrue(JrtFileSystem.getInstance().getImage() != null);
+
+        String path = "/modules/java.base/java/lang/String.class";
+        FileObject stringClass = VirtualFileManager.getInstance().find(URI.create("jrt:" + path));
+        byte[] expected = Files.readAllBytes(JrtFileSystem.getOrCreateJrtNioFs().getPath(path));
+
+        ArchiveDirectoryIndex index = JrtFileSystem.getInstance().getImageIndex();
+        int node = index.find(JrtFileSystem.relativeToModules(path));
+        assertTrue(index.dataPosition(node) > 0);
+        if (index.method(node) == ZipCentralDirectory.STORED) {
+            assertTrue(stringClass.getContentBuffer().isDirect());
+        }
+        assertArrayEquals(expected, stringClass.getContent());
+        try (InputStream in = stringClass.getInputStream()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+        assertEquals(expected.length, stringClass.getLength());
+
+        FileObject moduleInfo = VirtualFileManager.getInstance().find(URI.create("jrt:/modules/java.base/module-info.class"));
+        assertTrue(moduleInfo.exists());
+        assertEquals("jrt:/modules/java.base", moduleInfo.getParent().getPath());
+    }
+
     private static boolean isJrtAvailable() {
         try {
             // Will throw on JDK8.
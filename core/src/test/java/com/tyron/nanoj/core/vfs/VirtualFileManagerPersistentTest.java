@@ -1,14 +1,18 @@
 package com.tyron.nanoj.core.vfs;
 
+import com.tyron.nanoj.api.vfs.BulkFileEvent;
 import com.tyron.nanoj.api.vfs.FileChangeListener;
 import com.tyron.nanoj.api.vfs.FileEvent;
 import com.tyron.nanoj.api.vfs.FileObject;
 import com.tyron.nanoj.api.vfs.FileRenameEvent;
+import com.tyron.nanoj.api.vfs.VfsSnapshot;
+import com.tyron.nanoj.api.vfs.VfsSnapshots;
 import com.tyron.nanoj.testFramework.TestApplication;
 import com.tyron.nanoj.core.service.ApplicationServiceManager;
 import com.tyron.nanoj.api.vfs.VirtualFileManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -16,9 +20,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class VirtualFileManagerPersistentTest {
 
@@ -62,6 +69,26 @@ public class VirtualFileManagerPersistentTest {
         Assertions.assertEquals(idA, idB);
     }
 
+    @Test
+    public void testFindByIdCachedAndInvalidatedOnRename() throws IOException {
+        VirtualFileManagerImpl impl = (VirtualFileManagerImpl) vfm;
+        FileObject dir = root.createFolder("pkg");
+        FileObject a = dir.createFile("A.java");
+        int id = vfm.getFileId(a);
+
+        long misses = impl.getIdCacheMissCount();
+        Assertions.assertEquals(a.getPath(), vfm.findById(id).getPath());
+        Assertions.assertEquals(misses + 1, impl.getIdCacheMissCount());
+        long hits = impl.getIdCacheHitCount();
+        Assertions.assertEquals(a.getPath(), vfm.findById(id).getPath());
+        Assertions.assertEquals(hits + 1, impl.getIdCacheHitCount());
+
+        dir.rename("moved");
+        FileObject moved = root.getChild("moved").getChild("A.java");
+        Assertions.assertEquals(id, vfm.getFileId(moved));
+        Assertions.assertEquals(moved.getPath(), vfm.findById(id).getPath());
+    }
+
     @Test
     public void testRefreshSyncDetectsExternalChanges() throws IOException {
         List<String> events = new ArrayList<>();
@@ -123,6 +150,280 @@ public class VirtualFileManagerPersistentTest {
         }
     }
 
+    @Test
+    public void testClosedWatcherDeletesBarrierDirWithLeftovers() throws IOException {
+        LocalFileWatcher watcher = LocalFileWatcher.create();
+        Assumptions.assumeTrue(watcher != null, "no native file watching");
+        Path barrierDir = watcher.barrierDir();
+        // e.g. the marker of a barrier interrupted by a crash.
+        Files.createFile(barrierDir.resolve("barrier-0"));
+
+        watcher.close();
+        Assertions.assertFalse(Files.exists(barrierDir), "barrier directory was left behind");
+    }
+
+    @Test
+    public void testWatchedRootReportsNestedChanges() throws IOException {
+        LocalFileWatcher watcher = LocalFileWatcher.create();
+        Assumptions.assumeTrue(watcher != null, "no native file watching");
+        watcher.close();
+
+        List<String> events = new ArrayList<>();
+        FileChangeListener listener = new FileChangeListener() {
+            @Override
+            public void fileCreated(FileEvent event) {
+                events.add("CREATED:" + event.getFile().getName());
+            }
+
+            @Override
+            public void fileDeleted(FileEvent event) {
+                events.add("DELETED:" + event.getFile().getName());
+            }
+
+            @Override
+            public void fileChanged(FileEvent event) {
+            }
+
+            @Override
+            public void fileRenamed(FileEvent event) {
+            }
+        };
+
+        // The first refresh scans the root and starts watching it.
+        vfm.refreshAll(false);
+        vfm.addGlobalListener(listener);
+        try {
+            Path nested = tempDir.resolve("a/b");
+            Files.createDirectories(nested);
+            Files.writeString(nested.resolve("N.java"), "class N {}");
+            vfm.refreshAll(false);
+            Assertions.assertTrue(events.containsAll(List.of("CREATED:a", "CREATED:b", "CREATED:N.java")), String.valueOf(events));
+
+            events.clear();
+            Files.delete(nested.resolve("N.java"));
+            Files.delete(nested);
+            vfm.refreshAll(false);
+            Assertions.assertTrue(events.containsAll(List.of("DELETED:b", "DELETED:N.java")), String.valueOf(events));
+            Assertions.assertFalse(events.contains("DELETED:a"), String.valueOf(events));
+        } finally {
+            vfm.removeGlobalListener(listener);
+        }
+    }
+
+    @Test
+    public void testRescanSkipsListingUnchangedDirectories() throws IOException {
+        System.setProperty(LocalFileWatcher.ENABLED_KEY, "false");
+        VirtualFileManagerImpl impl = new VirtualFileManagerImpl();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Path dir = Files.createDirectories(tempDir.resolve("d" + i + "/sub"));
+                Files.writeString(dir.resolve("F.java"), "class F {}");
+            }
+            FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+            try (var paths = Files.walk(tempDir)) {
+                for (Path p : paths.toList()) {
+                    Files.setLastModifiedTime(p, old);
+                }
+            }
+            impl.trackRoot(impl.find(tempDir.toFile()));
+            impl.refreshAll(false);
+            long listed = impl.getListedDirectoryCount();
+
+            List<String> changed = new ArrayList<>();
+            impl.addGlobalListener(new FileChangeListener() {
+                @Override
+                public void fileCreated(FileEvent event) {
+                    changed.add("CREATED:" + event.getFile().getName());
+                }
+
+                @Override
+                public void fileDeleted(FileEvent event) {
+                }
+
+                @Override
+                public void fileChanged(FileEvent event) {
+                    changed.add("CHANGED:" + event.getFile().getName());
+                }
+
+                @Override
+                public void fileRenamed(FileEvent event) {
+                }
+            });
+
+            Path edited = tempDir.resolve("d2/sub/F.java");
+            Files.writeString(edited, "class F { int x; }");
+            Files.setLastModifiedTime(edited, FileTime.fromMillis(System.currentTimeMillis() - 30_000));
+            impl.refreshAll(false);
+
+            Assertions.assertEquals(listed, impl.getListedDirectoryCount());
+            Assertions.assertEquals(9, impl.getPrunedDirectoryCount());
+            Assertions.assertEquals(List.of("CHANGED:F.java"), changed);
+        } finally {
+            System.clearProperty(LocalFileWatcher.ENABLED_KEY);
+            impl.dispose();
+        }
+    }
+
+    @Test
+    public void testRefreshDeliversChangesAsOneBatch() throws IOException {
+        List<BulkFileEvent> batches = new ArrayList<>();
+        FileChangeListener listener = new FileChangeListener() {
+            @Override
+            public void fileCreated(FileEvent event) {
+                Assertions.fail("expected a batch");
+            }
+
+            @Override
+            public void fileDeleted(FileEvent event) {
+                Assertions.fail("expected a batch");
+            }
+
+            @Override
+            public void fileChanged(FileEvent event) {
+                Assertions.fail("expected a batch");
+            }
+
+            @Override
+            public void fileRenamed(FileEvent event) {
+                Assertions.fail("expected a batch");
+            }
+
+            @Override
+            public void filesChanged(BulkFileEvent event) {
+                batches.add(event);
+            }
+        };
+
+        Files.writeString(tempDir.resolve("Gone.java"), "class Gone {}");
+        vfm.refreshAll(false);
+
+        vfm.addGlobalListener(listener);
+        try {
+            Files.createDirectories(tempDir.resolve("gen"));
+            for (int i = 0; i < 20; i++) {
+                Files.writeString(tempDir.resolve("gen/G" + i + ".java"), "class G" + i + " {}");
+            }
+            Files.delete(tempDir.resolve("Gone.java"));
+            vfm.refreshAll(false);
+
+            Assertions.assertEquals(1, batches.size());
+            BulkFileEvent batch = batches.get(0);
+            Assertions.assertEquals(21, batch.getCreated().size());
+            Assertions.assertEquals(List.of("Gone.java"), batch.getDeleted().stream().map(FileObject::getName).toList());
+        } finally {
+            vfm.removeGlobalListener(listener);
+        }
+    }
+
+    @Test
+    public void testTreeSnapshotIsReadFromRecordsOfWatchedRoot() throws IOException {
+        LocalFileWatcher watcher = LocalFileWatcher.create();
+        Assumptions.assumeTrue(watcher != null, "no native file watching");
+        watcher.close();
+
+        Files.createDirectories(tempDir.resolve("src/p"));
+        Files.writeString(tempDir.resolve("src/p/A.java"), "class A {}");
+        Files.writeString(tempDir.resolve("src/B.java"), "class B {}");
+        FileObject src = vfm.find(tempDir.resolve("src").toFile());
+
+        VfsSnapshot snapshot = vfm.snapshotTree(src);
+        Assertions.assertNotNull(snapshot);
+        Assertions.assertEquals(walk(tempDir.resolve("src")), snapshot.getEntries());
+
+        // Changes are picked up by the watcher before the records are read.
+        Files.writeString(tempDir.resolve("src/p/C.java"), "class C {}");
+        snapshot = VfsSnapshots.snapshot(src, VfsSnapshot.Mode.TREE, true);
+        Assertions.assertEquals(walk(tempDir.resolve("src")), snapshot.getEntries());
+        Assertions.assertTrue(snapshot.getEntries().stream().anyMatch(e -> e.getPath().endsWith("C.java")));
+
+        FileObject outside = vfm.find(Files.createTempDirectory("nanoj_vfs_untracked").toFile());
+        try {
+            Assertions.assertNull(vfm.snapshotTree(outside));
+        } finally {
+            Files.delete(Path.of(outside.getPath()));
+        }
+    }
+
+    private static List<VfsSnapshot.Entry> walk(Path dir) throws IOException {
+        List<VfsSnapshot.Entry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.toList()) {
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                entries.add(new VfsSnapshot.Entry(p.toString(), true, attrs.isDirectory(),
+                        attrs.lastModifiedTime().toMillis(), attrs.isDirectory() ? 0L : attrs.size()));
+            }
+        }
+        entries.sort(Comparator.comparing(VfsSnapshot.Entry::getPath));
+        return entries;
+    }
+
+    @Test
+    public void testTreeDigestChangesOnlyAlongChangedPaths() throws IOException {
+        LocalFileWatcher watcher = LocalFileWatcher.create();
+        Assumptions.assumeTrue(watcher != null, "no native file watching");
+        watcher.close();
+
+        Files.createDirectories(tempDir.resolve("a/p"));
+        Files.createDirectories(tempDir.resolve("b"));
+        Path a = tempDir.resolve("a/p/A.java");
+        Files.writeString(a, "class A {}");
+        Files.writeString(tempDir.resolve("b/B.java"), "class B {}");
+        FileObject folderA = vfm.find(tempDir.resolve("a").toFile());
+        FileObject folderB = vfm.find(tempDir.resolve("b").toFile());
+
+        long rootDigest = vfm.getTreeDigest(root).orElseThrow();
+        long aDigest = vfm.getTreeDigest(folderA).orElseThrow();
+        long bDigest = vfm.getTreeDigest(folderB).orElseThrow();
+        Assertions.assertEquals(rootDigest, vfm.getTreeDigest(root).orElseThrow());
+
+        Files.writeString(tempDir.resolve("a/p/C.java"), "class C {}");
+        Assertions.assertNotEquals(rootDigest, vfm.getTreeDigest(root).orElseThrow());
+        Assertions.assertNotEquals(aDigest, vfm.getTreeDigest(folderA).orElseThrow());
+        Assertions.assertEquals(bDigest, vfm.getTreeDigest(folderB).orElseThrow());
+
+        // A rewrite that keeps mtime and length is still seen by the watcher.
+        aDigest = vfm.getTreeDigest(folderA).orElseThrow();
+        FileTime mtime = Files.getLastModifiedTime(a);
+        Files.writeString(a, "class Z {}");
+        Files.setLastModifiedTime(a, mtime);
+        Assertions.assertNotEquals(aDigest, vfm.getTreeDigest(folderA).orElseThrow());
+        Assertions.assertEquals(bDigest, vfm.getTreeDigest(folderB).orElseThrow());
+    }
+
+    @Test
+    public void testSnapshotBatchWaitsForTheWatcherOnce() throws IOException {
+        LocalFileWatcher watcher = LocalFileWatcher.create();
+        Assumptions.assumeTrue(watcher != null, "no native file watching");
+        watcher.close();
+
+        VirtualFileManagerImpl impl = (VirtualFileManagerImpl) vfm;
+        Files.createDirectories(tempDir.resolve("a"));
+        Files.createDirectories(tempDir.resolve("b"));
+        Files.writeString(tempDir.resolve("a/A.java"), "class A {}");
+        FileObject folderA = vfm.find(tempDir.resolve("a").toFile());
+        FileObject folderB = vfm.find(tempDir.resolve("b").toFile());
+
+        // The first read watches and scans the root; there is nothing to wait for yet.
+        long barriers = impl.getWatcherBarrierCount();
+        long aDigest = vfm.getTreeDigest(folderA).orElseThrow();
+        Assertions.assertEquals(barriers, impl.getWatcherBarrierCount());
+
+        Files.writeString(tempDir.resolve("a/C.java"), "class C {}");
+        long[] seen = vfm.snapshotBatch(() -> new long[]{
+                vfm.getTreeDigest(folderA).orElseThrow(),
+                vfm.getTreeDigest(folderB).orElseThrow(),
+                vfm.getTreeDigest(root).orElseThrow(),
+                vfm.snapshotTree(folderA).getEntries().size()
+        });
+        Assertions.assertEquals(barriers + 1, impl.getWatcherBarrierCount());
+        Assertions.assertNotEquals(aDigest, seen[0]);
+        Assertions.assertEquals(3, seen[3]);
+
+        // Outside a batch every read waits again.
+        vfm.getTreeDigest(folderB);
+        Assertions.assertEquals(barriers + 2, impl.getWatcherBarrierCount());
+    }
+
     @Test
     public void testAttributesCached() {
 
@@ -1,5 +1,6 @@
 package com.tyron.nanoj.core.vfs;
 
+import com.tyron.nanoj.api.vfs.ChildrenCursor;
 import com.tyron.nanoj.api.vfs.FileChangeListener;
 import com.tyron.nanoj.api.vfs.FileEvent;
 import com.tyron.nanoj.api.vfs.FileObject;
@@ -16,9 +17,12 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class VirtualFileSystemTest {
 
@@ -155,6 +159,74 @@ public class VirtualFileSystemTest {
         }
     }
     
+    @Test
+    public void testStreamedAndPagedChildrenUseListingCache() throws IOException {
+        FileObject dir = root.createFolder("big");
+        for (int i = 0; i < 50; i++) {
+            dir.createFile("F" + i + ".java");
+        }
+        FileObject nested = dir.createFolder("nested");
+        nested.createFile("Deep.java");
+        Path dirPath = tempDir.resolve("big");
+        // Listings modified within the racy window are never cached.
+        Files.setLastModifiedTime(dirPath, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        long modified = Files.getLastModifiedTime(dirPath).toMillis();
+
+        DirectoryListingCache cache = DirectoryListingCache.getInstance();
+        List<String> streamed = new ArrayList<>();
+        try (Stream<FileObject> children = dir.streamChildren()) {
+            children.forEach(c -> streamed.add(c.getName()));
+        }
+        Assertions.assertEquals(51, streamed.size());
+        Assertions.assertArrayEquals(streamed.toArray(), cache.get(dirPath.toAbsolutePath().normalize(), modified));
+
+        List<String> paged = new ArrayList<>();
+        try (ChildrenCursor cursor = dir.openChildren()) {
+            List<FileObject> page;
+            while (!(page = cursor.next(20)).isEmpty()) {
+                Assertions.assertTrue(page.size() == 20 || !cursor.hasNext());
+                page.forEach(c -> paged.add(c.getName()));
+            }
+        }
+        Assertions.assertEquals(streamed, paged);
+
+        int files = 0;
+        try (FileObjectTreeIterator it = new FileObjectTreeIterator(dir)) {
+            while (it.hasNext()) {
+                Assertions.assertFalse(it.next().isFolder());
+                files++;
+            }
+        }
+        Assertions.assertEquals(51, files);
+
+        // Local mutations drop the cached listing even if the directory mtime is reset.
+        dir.createFile("Late.java");
+        Files.setLastModifiedTime(dirPath, FileTime.fromMillis(modified));
+        Assertions.assertNull(cache.get(dirPath.toAbsolutePath().normalize(), modified));
+        Assertions.assertEquals(52, dir.getChildren().size());
+    }
+
+    @Test
+    public void testLargeContentIsReadOntoTheHeapAndRevalidatedByMtimeAndLength() throws IOException {
+        Path path = tempDir.resolve("Big.java");
+        byte[] before = new byte[128 * 1024];
+        Arrays.fill(before, (byte) 'a');
+        Files.write(path, before);
+        long modified = System.currentTimeMillis() - 60_000;
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified));
+        FileObject file = VirtualFileManager.getInstance().find(path.toFile());
+
+        Assertions.assertFalse(file.getContentBuffer().isDirect(), "editable files must not be mapped");
+        Assertions.assertArrayEquals(before, file.getContent());
+
+        // one millisecond later and 31 bytes shorter, written behind the VFS's back.
+        byte[] after = new byte[before.length - 31];
+        Arrays.fill(after, (byte) 'b');
+        Files.write(path, after);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified + 1));
+        Assertions.assertArrayEquals(after, file.getContent());
+    }
+
     @Test
     public void testEquality() {
         FileObject a = VirtualFileManager.getInstance().find(new File(tempDir.toFile(), "A.txt"));
@@ -0,0 +1,177 @@
+package com.tyron.nanoj.core.vfs.persistent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PersistentVfsTest {
+
+    private Path tempDir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("nanoj_persistent_vfs_test");
+        // Keep the periodic flusher out of the way; tests flush explicitly.
+        System.setProperty(PersistentVfs.ID_COMMIT_MILLIS_KEY, String.valueOf(3_600_000));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        System.clearProperty(PersistentVfs.ID_COMMIT_MILLIS_KEY);
+        if (Files.exists(tempDir)) {
+            Files.walk(tempDir)
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void concurrentAllocationHandsOutOneIdPerUri() throws Exception {
+        PersistentVfs vfs = new PersistentVfs(tempDir.resolve("vfs.db"));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    int[] ids = new int[500];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = vfs.getOrCreateId(URI.create("file:/src/F" + i + ".java"), null);
+                    }
+                    return ids;
+                }));
+            }
+            int[] first = results.get(0).get();
+            for (Future<int[]> result : results) {
+                Assertions.assertArrayEquals(first, result.get());
+            }
+            Set<Integer> distinct = new HashSet<>();
+            for (int id : first) {
+                distinct.add(id);
+            }
+            Assertions.assertEquals(500, distinct.size());
+            Assertions.assertEquals(500, vfs.getPendingIdCount());
+            Assertions.assertNull(vfs.storage().uriToId.get("file:/src/F0.java"));
+
+            vfs.flushIds();
+            Assertions.assertEquals(0, vfs.getPendingIdCount());
+            Assertions.assertEquals(first[0], vfs.storage().uriToId.get("file:/src/F0.java"));
+            Assertions.assertEquals(URI.create("file:/src/F7.java"), vfs.getUriById(first[7]));
+        } finally {
+            pool.shutdownNow();
+            vfs.close();
+        }
+    }
+
+    @Test
+    public void redoAppendsAreForcedOnceOnSync() throws Exception {
+        Path path = tempDir.resolve("group.idlog");
+        IdRedoLog log = new IdRedoLog(path);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> appenders = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                appenders.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        int id = thread * 1000 + i;
+                        log.append(id, "file:/src/F" + id + ".java", i % 2 == 0 ? "inode-" + id : null);
+                    }
+                }));
+            }
+            for (Future<?> appender : appenders) {
+                appender.get();
+            }
+            Assertions.assertEquals(0, log.forceCount());
+            log.sync();
+            log.sync();
+            Assertions.assertEquals(1, log.forceCount());
+
+            // Read through another handle, without closing the writer.
+            IdRedoLog other = new IdRedoLog(path);
+            List<IdRedoLog.Entry> entries = other.read();
+            other.close();
+            Assertions.assertEquals(1600, entries.size());
+            Set<Integer> ids = new HashSet<>();
+            for (IdRedoLog.Entry entry : entries) {
+                Assertions.assertEquals("file:/src/F" + entry.id() + ".java", entry.uri());
+                ids.add(entry.id());
+            }
+            Assertions.assertEquals(1600, ids.size());
+        } finally {
+            pool.shutdownNow();
+            log.close();
+        }
+    }
+
+    @Test
+    public void treeDigestsSurviveRestartAndAreRenewedPerFolder() {
+        Path db = tempDir.resolve("vfs.db");
+        URI root = URI.create("file:/p/");
+        URI a = URI.create("file:/p/a/");
+        URI b = URI.create("file:/p/b/");
+
+        PersistentVfs vfs = new PersistentVfs(db);
+        vfs.putRecord("file:/p/", new PersistentVfsRecord(true, 1, 0, null));
+        vfs.putRecord("file:/p/a/", new PersistentVfsRecord(true, 1, 0, null));
+        vfs.putRecord("file:/p/a/A.java", new PersistentVfsRecord(false, 1, 10, null));
+        vfs.putRecord("file:/p/b/", new PersistentVfsRecord(true, 1, 0, null));
+        vfs.putRecord("file:/p/b/B.java", new PersistentVfsRecord(false, 1, 10, null));
+        vfs.commit();
+        Long rootDigest = vfs.getTreeDigest(root);
+        Long aDigest = vfs.getTreeDigest(a);
+        Long bDigest = vfs.getTreeDigest(b);
+        vfs.close();
+
+        PersistentVfs reopened = new PersistentVfs(db);
+        try {
+            Assertions.assertEquals(rootDigest, reopened.getTreeDigest(root));
+            Assertions.assertEquals(aDigest, reopened.getTreeDigest(a));
+
+            reopened.renewDigests(a);
+            Assertions.assertNotEquals(aDigest, reopened.getTreeDigest(a));
+            Assertions.assertNotEquals(rootDigest, reopened.getTreeDigest(root));
+            Assertions.assertEquals(bDigest, reopened.getTreeDigest(b));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void uncommittedIdsAreReplayedAfterCrash() {
+        Path db = tempDir.resolve("vfs.db");
+        Path log = tempDir.resolve("vfs.db.idlog");
+
+        PersistentVfsStorage storage = new PersistentVfsStorage(db);
+        PersistentVfs crashed = new PersistentVfs(storage, log);
+        int a = crashed.getOrCreateId(URI.create("file:/src/A.java"), null);
+        int b = crashed.getOrCreateId(URI.create("file:/src/B.java"), "inode-2");
+        // Crash: the DB goes away without the buffered ids being committed.
+        storage.close();
+
+        PersistentVfs reopened = new PersistentVfs(new PersistentVfsStorage(db), log);
+        try {
+            Assertions.assertEquals(a, reopened.getIdIfExists(URI.create("file:/src/A.java")));
+            Assertions.assertEquals(b, reopened.getOrCreateId(URI.create("file:/src/B.java"), "inode-2"));
+            int c = reopened.getOrCreateId(URI.create("file:/src/C.java"), null);
+            Assertions.assertTrue(c > Math.max(a, b));
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -1,30 +1,44 @@
 package com.tyron.nanoj.lang.java.compiler;
 
 import com.sun.tools.javac.code.ClassFinder;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Scope;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
-import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Symbol.Completer;
+import com.sun.tools.javac.code.Type;
 import com.sun.tools.javac.util.Context;
-import com.sun.tools.javac.util.Name;
 import com.tyron.nanoj.api.indexing.IndexManager;
 import com.tyron.nanoj.api.project.Project;
 import com.tyron.nanoj.lang.java.indexing.JavaBinaryStubIndexer;
 import com.tyron.nanoj.lang.java.indexing.stub.ClassStub;
 
 import javax.tools.JavaFileObject;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Custom Javac ClassFinder that checks the NanoJ Index before hitting the file system.
+ * <p>
+ * Javac still lists packages through the file manager, but a top-level class found in a class file is completed
+ * from its indexed {@link ClassStub} when there is one for that very file, so the class file is never read.
+ * Classes whose stub is not {@link ClassStub#selfContained self-contained}, or whose completion from the stub
+ * fails, are read from the class file as usual.
  */
 public class IndexAwareClassFinder extends ClassFinder {
 
     private final IndexManager indexManager;
-    private final Symtab symtab;
     private final Context context;
 
+    private int stubCompletions;
+    private int classFileCompletions;
+
     /**
-     * Factory method to register this finder in the Context.
+     * Factory method to register this finder in the Context. Must be called before javac's symbol table is
+     * created, which captures the completer of the finder.
      */
     public static void preRegister(Context context, Project project) {
         context.put(ClassFinder.classFinderKey, (Context.Factory<ClassFinder>) c -> new IndexAwareClassFinder(c, project));
@@ -33,34 +47,149 @@ public class IndexAwareClassFinder extends ClassFinder {
     protected IndexAwareClassFinder(Context context, Project project) {
         super(context);
         this.context = context;
-        this.symtab = Symtab.instance(context);
         this.indexManager = IndexManager.getInstance();
     }
 
     /**
-     * This is the main entry point Javac uses to find a class.
+     * The completer javac installs on every class and package it enters. Javac asks for it while this finder
+     * is still being constructed, so it cannot be kept in a field.
      */
     @Override
-    public ClassSymbol loadClass(Symbol.ModuleSymbol msym, Name name) {
-        ClassSymbol c = symtab.getClass(msym, name);
-        if (c != null) {
-            // if it exists but isn't completed, Javac will handle calling the completer
-            return c;
+    public Completer getCompleter() {
+        return this::complete;
+    }
+
+    /**
+     * @return number of classes completed from their stub.
+     */
+    public int getStubCompletions() {
+        return stubCompletions;
+    }
+
+    /**
+     * @return number of classes read from their class file.
+     */
+    public int getClassFileCompletions() {
+        return classFileCompletions;
+    }
+
+    private void complete(Symbol sym) {
+        if (sym.kind == Kinds.Kind.TYP && sym.owner.kind == Kinds.Kind.PCK) {
+            ClassSymbol c = (ClassSymbol) sym;
+            // the listing of the package tells where the class comes from.
+            c.owner.complete();
+
+            ClassStub stub = findStub(c);
+            if (stub != null && completeFromStub(c, stub)) {
+                stubCompletions++;
+                return;
+            }
+            if (c.classfile != null && c.classfile.getKind() == JavaFileObject.Kind.CLASS) {
+                classFileCompletions++;
+            }
+        }
+        super.getCompleter().complete(sym);
+    }
+
+    private ClassStub findStub(ClassSymbol c) {
+        JavaFileObject classfile = c.classfile;
+        if (classfile == null || classfile.getKind() != JavaFileObject.Kind.CLASS) {
+            return null;
         }
 
-        String fqn = name.toString();
-        List<ClassStub> stubs = indexManager.search(JavaBinaryStubIndexer.ID, fqn);
-        
-        if (!stubs.isEmpty()) {
-            ClassStub stub = stubs.get(0);
-
-            c = symtab.enterClass(msym, name);
-            c.completer = new StubCompleter(context, stub);
-            c.classfile = new StubJavaFileObject(stub);
-            
-            return c;
+        String internalName = c.flatname.toString().replace('.', '/');
+        List<ClassStub> stubs;
+        try {
+            stubs = indexManager.search(JavaBinaryStubIndexer.ID, internalName);
+        } catch (Throwable t) {
+            return null;
         }
 
-        return super.loadClass(msym, name);
+        // the stub must describe the very file javac picked.
+        String identity = identity(classfile.toUri());
+        if (identity == null) {
+            return null;
+        }
+        for (ClassStub stub : stubs) {
+            if (internalName.equals(stub.name) && stub.sourceFile != null
+                    && identity.equals(identity(toUri(stub.sourceFile)))) {
+                return stub.selfContained ? stub : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the URI of an indexed file from its path, which is a URI for archives and the JDK image.
+     */
+    private static URI toUri(String path) {
+        try {
+            if (path.startsWith("jrt:") || path.startsWith("jar:") || path.startsWith("file:")) {
+                return URI.create(path);
+            }
+            return new File(path).toURI();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a form of {@code uri} that is equal for javac's and the VFS's URI of the same file, or {@code null}
+     * if it cannot be compared. The VFS addresses JDK classes below {@code jrt:/modules}, javac does not.
+     */
+    private static String identity(URI uri) {
+        if (uri == null || uri.getScheme() == null) {
+            return null;
+        }
+        try {
+            switch (uri.getScheme().toLowerCase(Locale.ROOT)) {
+                case "jrt": {
+                    String path = uri.normalize().getPath();
+                    if (path == null) {
+                        return null;
+                    }
+                    return "jrt:" + (path.startsWith("/modules/") ? path.substring("/modules".length()) : path);
+                }
+                case "jar": {
+                    String spec = uri.getRawSchemeSpecificPart();
+                    int sep = spec.indexOf("!/");
+                    String archive = sep < 0 ? null : identity(URI.create(spec.substring(0, sep)));
+                    if (archive == null) {
+                        return null;
+                    }
+                    return "jar:" + archive + "!" + URI.create(spec.substring(sep + 1)).normalize().getRawPath();
+                }
+                case "file":
+                    return Path.of(uri).normalize().toUri().toString();
+                default:
+                    return uri.normalize().toString();
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {@code false} if the stub could not be applied; {@code c} is then as it was before. The completer
+     * only touches other symbols once the whole stub was resolved, so they need no restoring.
+     */
+    private boolean completeFromStub(ClassSymbol c, ClassStub stub) {
+        Type.ClassType ct = (Type.ClassType) c.type;
+        long flags = c.flags_field;
+        Scope.WriteableScope members = c.members_field;
+        com.sun.tools.javac.util.List<Type> typarams = ct.typarams_field;
+        Type supertype = ct.supertype_field;
+        com.sun.tools.javac.util.List<Type> interfaces = ct.interfaces_field;
+        try {
+            new StubCompleter(context, stub).complete(c);
+            return true;
+        } catch (Throwable t) {
+            c.flags_field = flags;
+            c.members_field = members;
+            ct.typarams_field = typarams;
+            ct.supertype_field = supertype;
+            ct.interfaces_field = interfaces;
+            return false;
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,11 @@ import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.util.Context;
 import com.tyron.nanoj.api.project.Project;
 import com.tyron.nanoj.api.service.Disposable;
+import com.tyron.nanoj.api.vfs.FileChangeListener;
+import com.tyron.nanoj.api.vfs.FileEvent;
 import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.api.vfs.FileRenameEvent;
+import com.tyron.nanoj.api.vfs.VirtualFileManager;
 
 import javax.tools.JavaFileManager;
 import javax.tools.StandardJavaFileManager;
@@ -13,35 +17,190 @@ import javax.tools.ToolProvider;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A Project Service that holds the heavy JavacFileManager.
- * This ensures we only scan the bootclasspath (android.jar) once per project.
+ * A Project Service that creates the javac contexts of a project, each with its own {@link IndexedJavaFileManager}:
+ * javac's file managers are not thread-safe, and compilations run on several lanes at once. A file manager lives as
+ * long as its context, so the platform listings it scanned are kept with the warm context.
+ * <p>
+ * It keeps a small pool of warm {@link ReusableContext}s, see {@link #keepWarmContexts}: the symbols javac
+ * completed from the JDK and libraries for one {@link CompilationInfo} are handed to the next one. Adding, removing
+ * or replacing a class file, archive or source file makes the pooled contexts stale, since javac caches package
+ * listings and library symbols.
  */
 public class JavacFileManagerService implements Disposable {
 
+    /**
+     * Number of tasks a context may serve before it is replaced, bounding what accumulates in it (names of
+     * every identifier ever typed, for instance).
+     */
+    public static final String CONTEXT_MAX_USES_KEY = "nanoj.javac.context.maxUses";
+
+    /**
+     * Completes library and JDK classes from their indexed stubs instead of reading their class files,
+     * see {@link IndexAwareClassFinder}. Off by default.
+     */
+    public static final String STUB_CLASSES_KEY = "nanoj.javac.stubClasses";
+
     private final Project project;
-    private final JavaFileManager fileManager;
+    private final int contextMaxUses = Math.max(1, Integer.getInteger(CONTEXT_MAX_USES_KEY, 200));
+    private final boolean stubClasses = Boolean.getBoolean(STUB_CLASSES_KEY);
+
+    private final AtomicInteger libraryGeneration = new AtomicInteger();
+    // Most recently released first; guarded by this.
+    private final ArrayDeque<ReusableContext> warmContexts = new ArrayDeque<>();
+    private int maxWarmContexts = 1;
+    private boolean disposed;
+
+    private final FileChangeListener libraryListener = new FileChangeListener() {
+        @Override
+        public void fileCreated(FileEvent event) {
+            onLibraryChanged(event.getFile(), true);
+        }
+
+        @Override
+        public void fileDeleted(FileEvent event) {
+            onLibraryChanged(event.getFile(), true);
+        }
+
+        @Override
+        public void fileChanged(FileEvent event) {
+            // a source's own classes are re-entered per task anyway.
+            onLibraryChanged(event.getFile(), false);
+        }
+
+        @Override
+        public void fileRenamed(FileEvent event) {
+            if (event instanceof FileRenameEvent re) {
+                onLibraryChanged(re.getOldFile(), true);
+            }
+            onLibraryChanged(event.getFile(), true);
+        }
+    };
 
     public JavacFileManagerService(Project project) {
         this.project = project;
-        // true = register with context, though we manage lifecycle manually
-        var fm = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null);
-        this.fileManager = new IndexedJavaFileManager(fm, project);
+
+        try {
+            VirtualFileManager.getInstance().addGlobalListener(libraryListener);
+        } catch (Throwable ignored) {
+            // best-effort; without events the warm contexts are still replaced after CONTEXT_MAX_USES_KEY tasks.
+        }
+    }
+
+    private JavaFileManager createFileManager() {
+        return new IndexedJavaFileManager(ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null), project);
+    }
+
+    /**
+     * @return a context for a single parse; it is not kept warm, and must be {@link ReusableContext#close() closed}
+     * by the caller.
+     */
+    ReusableContext createParseContext(List<String> options) {
+        return new ReusableContext(options, -1, createFileManager());
     }
 
-    public JavaFileManager getFileManager() {
-        return fileManager;
+    /**
+     * Keeps up to {@code count} released contexts warm, one for each compilation that may run at the same time.
+     */
+    public synchronized void keepWarmContexts(int count) {
+        maxWarmContexts = Math.max(1, count);
+        trimWarmContexts();
+    }
+
+    /**
+     * @return the most recently released warm context that was created for the same options and no library
+     * changed since, otherwise a new one. Each context serves one task at a time.
+     */
+    synchronized ReusableContext acquireContext(List<String> options) {
+        int generation = libraryGeneration.get();
+        ReusableContext context = null;
+        while (context == null && !warmContexts.isEmpty()) {
+            // a stale or worn out context is dropped rather than kept behind the warmer ones.
+            ReusableContext candidate = warmContexts.pollFirst();
+            if (candidate.isReusableFor(options, generation, contextMaxUses)) {
+                context = candidate;
+            } else {
+                candidate.close();
+            }
+        }
+        if (context == null) {
+            context = new ReusableContext(options, generation, createFileManager());
+            if (stubClasses) {
+                IndexAwareClassFinder.preRegister(context, project);
+            }
+        }
+        context.markUsed();
+        return context;
+    }
+
+    /**
+     * Cleans up after the task of {@code context} and keeps it for the next {@link #acquireContext}.
+     */
+    synchronized void releaseContext(ReusableContext context) {
+        if (disposed || context.isPolluted()) {
+            context.close();
+            return;
+        }
+        try {
+            context.clear();
+        } catch (Throwable t) {
+            // a half-cleared context cannot be trusted.
+            context.close();
+            return;
+        }
+        if (context.isPolluted()) {
+            context.close();
+            return;
+        }
+        warmContexts.addFirst(context);
+        trimWarmContexts();
+    }
+
+    /**
+     * Closes the warm contexts, e.g. under memory pressure. Contexts released later are kept warm again.
+     */
+    public synchronized void dropWarmContexts() {
+        for (ReusableContext context : warmContexts) {
+            context.close();
+        }
+        warmContexts.clear();
+    }
+
+    private void trimWarmContexts() {
+        while (warmContexts.size() > maxWarmContexts) {
+            warmContexts.pollLast().close();
+        }
+    }
+
+    private void onLibraryChanged(FileObject file, boolean structural) {
+        String ext = file != null ? file.getExtension() : null;
+        if (ext == null) {
+            return;
+        }
+        boolean library = ext.equals("class") || ext.equals("jar") || ext.equals("jmod");
+        if (library || (structural && ext.equals("java"))) {
+            libraryGeneration.incrementAndGet();
+        }
     }
 
     @Override
     public void dispose() {
         try {
-            fileManager.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            VirtualFileManager.getInstance().removeGlobalListener(libraryListener);
+        } catch (Throwable ignored) {
+            // best-effort.
+        }
+        synchronized (this) {
+            disposed = true;
+            for (ReusableContext context : warmContexts) {
+                context.close();
+            }
+            warmContexts.clear();
         }
     }
 
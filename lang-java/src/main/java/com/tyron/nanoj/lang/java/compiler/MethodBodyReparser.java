@@ -0,0 +1,261 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.comp.Attr;
+import com.sun.tools.javac.comp.AttrContext;
+import com.sun.tools.javac.comp.Enter;
+import com.sun.tools.javac.comp.Env;
+import com.sun.tools.javac.parser.JavacParser;
+import com.sun.tools.javac.parser.ParserFactory;
+import com.sun.tools.javac.tree.EndPosTable;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.util.IntHashTable;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Position;
+
+import javax.tools.JavaFileObject;
+import java.util.Arrays;
+
+/**
+ * Applies an edit confined to one method body to an already attributed compilation unit: only the new body is
+ * parsed, spliced into the cached tree, and attributed against the class entered by the full compilation.
+ * <p>
+ * The edit is rejected when the new body does not end exactly where the unchanged suffix of the text starts, and
+ * when the old or the new body declares classes (local and anonymous classes are entered into the symbol table).
+ * Flow analysis is not repeated for the method.
+ */
+final class MethodBodyReparser {
+
+    private final ReusableContext context;
+    private final JCTree.JCCompilationUnit unit;
+    private JCTree.JCBlock oldBody;
+    private JCTree.JCBlock newBody;
+
+    MethodBodyReparser(ReusableContext context, JCTree.JCCompilationUnit unit) {
+        this.context = context;
+        this.unit = unit;
+    }
+
+    /**
+     * @return the body replaced by the last successful {@link #reparse}.
+     */
+    JCTree.JCBlock getOldBody() {
+        return oldBody;
+    }
+
+    /**
+     * @return the body spliced in by the last successful {@link #reparse}.
+     */
+    JCTree.JCBlock getNewBody() {
+        return newBody;
+    }
+
+    /**
+     * The source file of the unit must already return {@code newText}.
+     *
+     * @return {@code false} if the edit from {@code oldText} to {@code newText} could not be applied; the unit is
+     * untouched then. Otherwise the method containing the edit was reparsed and reattributed.
+     */
+    boolean reparse(String oldText, String newText) {
+        EndPosTable oldEndPositions = unit.endPositions;
+        if (oldEndPositions == null) {
+            return false;
+        }
+
+        int prefix = commonPrefix(oldText, newText);
+        int suffix = commonSuffix(oldText, newText, prefix);
+        int oldChangeEnd = oldText.length() - suffix;
+        int delta = newText.length() - oldText.length();
+
+        JCTree.JCMethodDecl method = findEnclosingMethod(prefix, oldChangeEnd);
+        if (method == null || containsClass(method.body)) {
+            return false;
+        }
+        Symbol.MethodSymbol sym = method.sym;
+        if (sym == null || sym.owner.kind != Kinds.Kind.TYP) {
+            return false;
+        }
+        Env<AttrContext> classEnv = Enter.instance(context).getEnv((Symbol.TypeSymbol) sym.owner);
+        if (classEnv == null) {
+            return false;
+        }
+
+        int bodyStart = TreeInfo.getStartPos(method.body);
+        int newBodyEnd = TreeInfo.getEndPos(method.body, oldEndPositions) + delta;
+
+        JavaFileObject file = unit.getSourceFile();
+        Log log = Log.instance(context);
+        // diagnostics of the new body are reported against the new text.
+        context.forgetSource(file);
+        JavaFileObject prevSource = log.useSource(file);
+        try {
+            Log.DeferredDiagnosticHandler parseDiagnostics = new Log.DeferredDiagnosticHandler(log);
+            JavacParser parser;
+            JCTree.JCBlock body;
+            try {
+                // blank out everything before the body, so the parser reports positions of the whole file.
+                char[] input = new char[newBodyEnd];
+                Arrays.fill(input, 0, bodyStart, ' ');
+                newText.getChars(bodyStart, newBodyEnd, input, bodyStart);
+                parser = ParserFactory.instance(context).newParser(new String(input), false, true, false);
+                body = parser.block();
+            } finally {
+                log.popDiagnosticHandler(parseDiagnostics);
+            }
+            if (parser.getEndPos(body) != newBodyEnd || containsClass(body)) {
+                context.forgetSource(file);
+                log.setEndPosTable(file, oldEndPositions);
+                return false;
+            }
+
+            oldBody = method.body;
+            newBody = body;
+            method.body = body;
+            SplicedEndPosTable endPositions = new SplicedEndPosTable();
+            shiftPositions(body, oldChangeEnd, delta, oldEndPositions, endPositions);
+            copyEndPositions(body, parser, endPositions);
+            unit.endPositions = endPositions;
+            unit.lineMap = Position.makeLineMap(newText.toCharArray(), newText.length(), true);
+            log.setEndPosTable(file, endPositions);
+
+            parseDiagnostics.reportDeferredDiagnostics();
+            Attr.instance(context).attribStat(method, classEnv);
+            return true;
+        } finally {
+            log.useSource(prevSource);
+        }
+    }
+
+    private JCTree.JCMethodDecl findEnclosingMethod(int changeStart, int oldChangeEnd) {
+        JCTree.JCMethodDecl[] found = new JCTree.JCMethodDecl[1];
+        new TreeScanner() {
+            @Override
+            public void visitMethodDef(JCTree.JCMethodDecl tree) {
+                if (tree.body == null || found[0] != null) {
+                    return;
+                }
+                int start = TreeInfo.getStartPos(tree.body);
+                int end = TreeInfo.getEndPos(tree.body, unit.endPositions);
+                // the braces themselves must survive the edit.
+                if (start < changeStart && oldChangeEnd < end) {
+                    found[0] = tree;
+                }
+            }
+
+            @Override
+            public void visitVarDef(JCTree.JCVariableDecl tree) {
+                // field initializers may hold anonymous classes, whose methods are not handled.
+            }
+        }.scan(unit);
+        return found[0];
+    }
+
+    /**
+     * Moves every node after the edit by {@code delta} and fills {@code to} with the (moved) end positions of
+     * every node outside of {@code newBody}.
+     */
+    private void shiftPositions(JCTree newBody, int oldChangeEnd, int delta, EndPosTable from, EndPosTable to) {
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree == null || tree == newBody) {
+                    return;
+                }
+                if (tree.pos >= oldChangeEnd) {
+                    tree.pos += delta;
+                }
+                int end = from.getEndPos(tree);
+                if (end != Position.NOPOS) {
+                    to.storeEnd(tree, end >= oldChangeEnd ? end + delta : end);
+                }
+                super.scan(tree);
+            }
+        }.scan(unit);
+    }
+
+    private static void copyEndPositions(JCTree tree, JavacParser parser, EndPosTable to) {
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree != null) {
+                    int end = parser.getEndPos(tree);
+                    if (end != Position.NOPOS) {
+                        to.storeEnd(tree, end);
+                    }
+                    super.scan(tree);
+                }
+            }
+        }.scan(tree);
+    }
+
+    private static boolean containsClass(JCTree tree) {
+        boolean[] found = new boolean[1];
+        new TreeScanner() {
+            @Override
+            public void visitClassDef(JCTree.JCClassDecl tree) {
+                found[0] = true;
+            }
+
+            @Override
+            public void visitNewClass(JCTree.JCNewClass tree) {
+                if (tree.def != null) {
+                    found[0] = true;
+                } else {
+                    super.visitNewClass(tree);
+                }
+            }
+        }.scan(tree);
+        return found[0];
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int commonSuffix(String a, String b, int prefix) {
+        int max = Math.min(a.length(), b.length()) - prefix;
+        int i = 0;
+        while (i < max && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * End positions of a spliced unit. Unlike the parser's table it stores positions as given: the ends copied
+     * from the parsers were already adjusted for their syntax errors.
+     */
+    private static final class SplicedEndPosTable implements EndPosTable {
+
+        private final IntHashTable ends = new IntHashTable();
+
+        @Override
+        public int getEndPos(JCTree tree) {
+            int value = ends.get(tree);
+            return value == -1 ? Position.NOPOS : value;
+        }
+
+        @Override
+        public void storeEnd(JCTree tree, int endPos) {
+            ends.put(tree, endPos);
+        }
+
+        @Override
+        public int replaceTree(JCTree oldTree, JCTree newTree) {
+            int pos = ends.remove(oldTree);
+            if (pos != -1) {
+                storeEnd(newTree, pos);
+                return pos;
+            }
+            return Position.NOPOS;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreeScanner;
+import com.sun.tools.javac.api.JavacTrees;
+import com.sun.tools.javac.api.MultiTaskListener;
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.Preview;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.comp.Annotate;
+import com.sun.tools.javac.comp.Check;
+import com.sun.tools.javac.comp.CompileStates;
+import com.sun.tools.javac.comp.Enter;
+import com.sun.tools.javac.comp.Modules;
+import com.sun.tools.javac.main.Arguments;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.model.JavacElements;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.Options;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A javac {@link Context} that survives its task, so the symbols completed from class files (the JDK and
+ * libraries) are shared by the following {@link CompilationInfo}s instead of being read again per snapshot.
+ * <p>
+ * This follows the JDK's own {@code JavacTaskPool} (used by jshell): {@link JavaCompiler} and {@link Log} are
+ * replaced by reusable subclasses, task-scoped components are dropped between tasks, and every class declared
+ * by a parsed source (the edited file and anything completed from the source path) is removed from the
+ * {@link Symtab}, so the next task enters it again from its new text. A task that redefined a {@code java.*}
+ * class or failed halfway leaves the context polluted; it is not reused then.
+ * <p>
+ * Package listings are cached by javac as well: a context must be dropped when the files on the class or
+ * source path change, see {@link JavacFileManagerService}.
+ * <p>
+ * Each context comes with a file manager of its own, which javac's components keep for the context's lifetime.
+ * File managers are not thread-safe (nor are the file objects they hand out, which call back into them), so
+ * contexts used on different lanes at the same time must not share one.
+ */
+final class ReusableContext extends Context implements TaskListener {
+
+    private final List<String> options;
+    private final int libraryGeneration;
+    private final JavaFileManager fileManager;
+    private final Set<CompilationUnitTree> roots = new HashSet<>();
+
+    private boolean polluted;
+    private int useCount;
+
+    ReusableContext(List<String> options, int libraryGeneration, JavaFileManager fileManager) {
+        this.options = List.copyOf(options);
+        this.libraryGeneration = libraryGeneration;
+        this.fileManager = fileManager;
+        put(Log.logKey, (Factory<Log>) ReusableLog::new);
+        put(JavaCompiler.compilerKey, (Factory<JavaCompiler>) ReusableJavaCompiler::new);
+    }
+
+    /**
+     * @return whether a new task with {@code options} may run in this context.
+     */
+    boolean isReusableFor(List<String> options, int libraryGeneration, int maxUses) {
+        return !polluted
+                && this.libraryGeneration == libraryGeneration
+                && useCount < maxUses
+                && this.options.equals(options);
+    }
+
+    void markUsed() {
+        useCount++;
+    }
+
+    /**
+     * @return the file manager every task of this context must be created with.
+     */
+    JavaFileManager getFileManager() {
+        return fileManager;
+    }
+
+    /**
+     * Closes the file manager once the context is dropped for good.
+     */
+    void close() {
+        try {
+            fileManager.close();
+        } catch (IOException | RuntimeException ignored) {
+            // best-effort.
+        }
+    }
+
+    /**
+     * Marks the context as unusable, e.g. because its task failed with an exception.
+     */
+    void markPolluted() {
+        polluted = true;
+    }
+
+    boolean isPolluted() {
+        return polluted;
+    }
+
+    /**
+     * Removes what the finished task left behind; must be called before the next task is created.
+     */
+    void clear() {
+        drop(Arguments.argsKey);
+        drop(DiagnosticListener.class);
+        drop(Log.outKey);
+        drop(Log.errKey);
+        drop(JavaFileManager.class);
+        drop(JavacTask.class);
+        drop(JavacTrees.class);
+        drop(JavacElements.class);
+
+        if (ht.get(Log.logKey) instanceof ReusableLog log) {
+            // not the first round: components exist and hold per-task state.
+            log.clear();
+            Enter.instance(this).newRound();
+            ((ReusableJavaCompiler) JavaCompiler.instance(this)).newRound();
+            Types.instance(this).newRound();
+            Check.instance(this).newRound();
+            Check.instance(this).clear();
+            Preview.instance(this).clear();
+            Modules.instance(this).newRound();
+            Annotate.instance(this).newRound();
+            CompileStates.instance(this).clear();
+            MultiTaskListener.instance(this).clear();
+            Options.instance(this).clear();
+
+            sourceClassRemover.scan(roots, Symtab.instance(this));
+            roots.clear();
+        }
+    }
+
+    /**
+     * Drops the cached text of {@code file} used to compute diagnostic line and column numbers.
+     */
+    void forgetSource(JavaFileObject file) {
+        if (ht.get(Log.logKey) instanceof ReusableLog log) {
+            log.forget(file);
+        }
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (e.getKind() == TaskEvent.Kind.PARSE) {
+            roots.add(e.getCompilationUnit());
+        }
+    }
+
+    private final TreeScanner<Void, Symtab> sourceClassRemover = new TreeScanner<>() {
+        @Override
+        public Void scan(Tree tree, Symtab syms) {
+            // LetExpr has no Tree.Kind and is not visited by the default scanner.
+            if (tree instanceof JCTree.LetExpr let) {
+                scan(let.defs, syms);
+                scan(let.expr, syms);
+                return null;
+            }
+            return super.scan(tree, syms);
+        }
+
+        @Override
+        public Void visitClass(ClassTree node, Symtab syms) {
+            Symbol sym = ((JCTree.JCClassDecl) node).sym;
+            if (sym != null) {
+                syms.removeClass(sym.packge().modle, sym.flatName());
+                Type sup = sym.type != null && sym.type.hasTag(TypeTag.CLASS)
+                        ? ((Type.ClassType) sym.type).supertype_field
+                        : null;
+                if (isCoreClass(sym) || (sup != null && isCoreClass(sup.tsym) && sup.tsym.kind != Kinds.Kind.TYP)) {
+                    polluted = true;
+                }
+            }
+            return super.visitClass(node, syms);
+        }
+
+        private boolean isCoreClass(Symbol s) {
+            return s.flatName().toString().startsWith("java.");
+        }
+    };
+
+    private <T> void drop(Key<T> key) {
+        ht.remove(key);
+    }
+
+    private <T> void drop(Class<T> type) {
+        ht.remove(key(type));
+    }
+
+    private static final class ReusableJavaCompiler extends JavaCompiler {
+
+        ReusableJavaCompiler(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void close() {
+            // the context outlives the task.
+        }
+
+        @Override
+        protected void checkReusable() {
+        }
+    }
+
+    private static final class ReusableLog extends Log {
+
+        private final Context context;
+
+        ReusableLog(Context context) {
+            super(context);
+            this.context = context;
+        }
+
+        void forget(JavaFileObject file) {
+            sourceMap.remove(file);
+        }
+
+        void clear() {
+            recorded.clear();
+            recordedSourceLevelErrors.clear();
+            sourceMap.clear();
+            nerrors = 0;
+            nwarnings = 0;
+            // Log keeps the listener of the task that created it; look up the current task's one instead.
+            diagListener = new DiagnosticListener<JavaFileObject>() {
+                private DiagnosticListener<JavaFileObject> current;
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+                    if (current == null) {
+                        current = context.get(DiagnosticListener.class);
+                    }
+                    if (current != null) {
+                        current.report(diagnostic);
+                    }
+                }
+            };
+        }
+    }
+}
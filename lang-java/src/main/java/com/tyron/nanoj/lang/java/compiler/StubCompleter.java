@@ -4,22 +4,38 @@ import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.code.Scope.WriteableScope;
 import com.sun.tools.javac.util.Context;
 import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Names;
 import com.tyron.nanoj.lang.java.indexing.stub.ClassStub;
 
 import static com.sun.tools.javac.code.Symbol.*;
 
+/**
+ * Fills a top-level {@link ClassSymbol} from its {@link ClassStub} the way javac's {@code ClassReader} would from
+ * the class file: same flags, supertypes, members, type variables and constant values.
+ * <p>
+ * Annotations are not part of the stub, only the flags javac derives from them. Only stubs that are
+ * {@link ClassStub#selfContained self-contained} can be completed. If completion fails, symbols other than the
+ * completed class are as they were, apart from classes newly entered by name.
+ */
 public class StubCompleter implements Completer {
 
+    // class file access flags which javac maps to its own flags, see ClassReader#adjust*Flags
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_BRIDGE = 0x0040;
+    private static final int ACC_VARARGS = 0x0080;
+
     private final Symtab symtab;
     private final Names names;
+    private final Types types;
     private final ClassStub stub;
     private final StubTypeResolver typeResolver;
 
     public StubCompleter(Context context, ClassStub stub) {
         this.symtab = Symtab.instance(context);
         this.names = Names.instance(context);
+        this.types = Types.instance(context);
         this.stub = stub;
         this.typeResolver = new StubTypeResolver(context, symtab, names);
     }
@@ -27,71 +43,127 @@ public class StubCompleter implements Completer {
     @Override
     public void complete(Symbol sym) throws CompletionFailure {
         ClassSymbol c = (ClassSymbol) sym;
+        if (!stub.selfContained) {
+            throw new IllegalStateException("Stub of " + stub.name + " is not self-contained");
+        }
 
         // 1. Basic Flags
-        c.flags_field = stub.accessFlags;
-        c.sourcefile = null; // or create a SimpleJavaFileObject from stub.sourceFile
+        c.flags_field = (stub.accessFlags & ~ACC_SUPER) | annotationFlags(stub.annotationFlags);
+        c.members_field = WriteableScope.create(c);
 
-        // 2. The Critical Fix: Construct c.type
-        // We must do this BEFORE filling members, as members might refer to the class's own type parameters (e.g. List<T>)
+        // 2. The type of the class is updated in place: other symbols may already refer to it.
+        // Its type parameters must exist BEFORE filling members, which may refer to them (e.g. List<T>)
+        Type.ClassType ct = (Type.ClassType) c.type;
         if (stub.signature != null) {
-            // Complex case: Class has Generics (e.g. class Map<K,V>)
-            // We delegate to typeResolver to parse "<K:Object;V:Object>..."
-            // This sets c.type to a ClassType containing TypeVars
+            // Complex case: Class has Generics (e.g. class Map<K,V>); the signature holds super/interfaces too.
             typeResolver.resolveClassSignature(c, stub.signature);
         } else {
-            // Simple case: No Generics
-            c.type = new Type.ClassType(Type.noType, List.nil(), c);
-        }
-
-        // 3. Super Class & Interfaces
-        // If signature was present, resolveClassSignature already handled super/interfaces from the signature string.
-        // If NO signature (legacy or simple class), we read from the stub fields.
-        if (stub.signature == null) {
-            if (stub.superName != null) {
-                ((Type.ClassType) c.type).supertype_field = typeResolver.resolveType(stub.superName);
-            } else {
-                ((Type.ClassType) c.type).supertype_field = symtab.objectType;
-            }
-
-            List<Type> interfaces = List.nil();
+            // Simple case: No Generics, super class & interfaces come from the stub fields.
+            ct.typarams_field = List.nil();
+            ModuleSymbol module = c.packge().modle;
+            ct.supertype_field = stub.superName != null
+                    ? typeResolver.resolveType(module, stub.superName)
+                    : Type.noType; // java.lang.Object
+
+            ListBuffer<Type> interfaces = new ListBuffer<>();
             if (stub.interfaces != null) {
                 for (String iface : stub.interfaces) {
-                    interfaces = interfaces.prepend(typeResolver.resolveType(iface));
+                    interfaces.append(typeResolver.resolveType(module, iface));
                 }
             }
-            // Update the Type's interfaces
-            ((Type.ClassType) c.type).interfaces_field = interfaces;
+            ct.interfaces_field = interfaces.toList();
         }
 
-        // 4. Fill Members (Fields/Methods)
+        // 3. Fill Members (Fields/Methods)
         fillMembers(c);
 
-        // 5. Done
-        c.completer = null;
+        // 4. Last, as it re-owns classes entered by their flat names: a stub that fails to resolve leaves them alone.
+        // Types resolved before see the change, their enclosing types are set in place or computed lazily.
+        enterInnerClasses(c.packge().modle);
+    }
+
+    /**
+     * Like ClassReader#readInnerClasses: member classes the stub refers to by their flat names are entered as
+     * members of their outer classes, and inner classes get their enclosing type.
+     */
+    private void enterInnerClasses(ModuleSymbol module) {
+        for (ClassStub.InnerClassStub ic : stub.innerClasses) {
+            ClassSymbol outer = symtab.enterClass(module, names.fromString(ic.outerName.replace('/', '.')));
+            ClassSymbol member = symtab.enterClass(module, names.fromString(ic.simpleName), outer);
+            if ((ic.accessFlags & Flags.STATIC) == 0) {
+                ((Type.ClassType) member.type).setEnclosingType(outer.type);
+                if (member.erasure_field != null) {
+                    ((Type.ClassType) member.erasure_field).setEnclosingType(types.erasure(outer.type));
+                }
+            }
+        }
     }
 
     private void fillMembers(ClassSymbol c) {
-        WriteableScope scope = WriteableScope.create(c);
-        c.members_field = scope;
+        WriteableScope scope = c.members_field;
 
         for (ClassStub.FieldStub fs : stub.fields) {
             Name name = names.fromString(fs.name);
+            if (!isEntered(fs.accessFlags, name)) {
+                continue;
+            }
             // Use signature if available (for generics), else descriptor
             String typeStr = (fs.signature != null) ? fs.signature : fs.descriptor;
-            Type type = typeResolver.resolveDescriptor(typeStr);
+            Type type = typeResolver.resolveDescriptor(c, typeStr);
 
-            VarSymbol v = new VarSymbol(fs.accessFlags, name, type, c);
+            VarSymbol v = new VarSymbol(fs.accessFlags | annotationFlags(fs.annotationFlags), name, type, c);
+            if (fs.constantValue != null && (v.flags_field & Flags.FINAL) != 0) {
+                v.setData(fs.constantValue);
+            }
             scope.enter(v);
         }
 
+        boolean isInterface = (c.flags_field & Flags.INTERFACE) != 0;
         for (ClassStub.MethodStub ms : stub.methods) {
+            long flags = adjustMethodFlags(ms.accessFlags) | annotationFlags(ms.annotationFlags);
             Name name = names.fromString(ms.name);
-            String typeStr = (ms.signature != null) ? ms.signature : ms.descriptor;
-            Type type = typeResolver.resolveMethodDescriptor(typeStr);
+            if (!isEntered(flags, name)) {
+                continue;
+            }
+            if (isInterface && (flags & (Flags.ABSTRACT | Flags.STATIC | Flags.PRIVATE)) == 0 && name != names.clinit) {
+                c.flags_field |= Flags.DEFAULT;
+                flags |= Flags.DEFAULT | Flags.ABSTRACT;
+            }
 
-            var m = new MethodSymbol(ms.accessFlags, name, type, c);
+            MethodSymbol m = new MethodSymbol(flags, name, Type.noType, c);
+            String typeStr = (ms.signature != null) ? ms.signature : ms.descriptor;
+            m.type = typeResolver.resolveMethodDescriptor(m, typeStr, ms.exceptions);
             scope.enter(m);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Like ClassReader, synthetic members other than bridges and lambda bodies are not entered.
+     */
+    private boolean isEntered(long flags, Name name) {
+        return (flags & (Flags.SYNTHETIC | Flags.BRIDGE)) != Flags.SYNTHETIC || name.startsWith(names.lambda);
+    }
+
+    private static long annotationFlags(int annotationFlags) {
+        long flags = 0;
+        if ((annotationFlags & ClassStub.DEPRECATED) != 0) flags |= Flags.DEPRECATED;
+        if ((annotationFlags & ClassStub.DEPRECATED_ANNOTATION) != 0) flags |= Flags.DEPRECATED_ANNOTATION;
+        if ((annotationFlags & ClassStub.DEPRECATED_REMOVAL) != 0) flags |= Flags.DEPRECATED_REMOVAL;
+        if ((annotationFlags & ClassStub.PREVIEW_API) != 0) flags |= Flags.PREVIEW_API;
+        if ((annotationFlags & ClassStub.PREVIEW_REFLECTIVE) != 0) flags |= Flags.PREVIEW_REFLECTIVE;
+        if ((annotationFlags & ClassStub.VALUE_BASED) != 0) flags |= Flags.VALUE_BASED;
+        return flags;
+    }
+
+    private static long adjustMethodFlags(long flags) {
+        if ((flags & ACC_BRIDGE) != 0) {
+            flags &= ~ACC_BRIDGE;
+            flags |= Flags.BRIDGE;
+        }
+        if ((flags & ACC_VARARGS) != 0) {
+            flags &= ~ACC_VARARGS;
+            flags |= Flags.VARARGS;
+        }
+        return flags;
+    }
+}
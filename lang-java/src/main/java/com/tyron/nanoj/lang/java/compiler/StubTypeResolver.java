@@ -2,7 +2,7 @@ package com.tyron.nanoj.lang.java.compiler;
 
 import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.code.Symbol.ClassSymbol;
-import com.sun.tools.javac.code.Symbol.TypeSymbol;
+import com.sun.tools.javac.code.Symbol.ModuleSymbol;
 import com.sun.tools.javac.util.*;
 
 import java.util.HashMap;
@@ -11,6 +11,9 @@ import java.util.Map;
 /**
  * Resolves String descriptors and signatures into Javac Types.
  * Includes a full JVM Signature Parser.
+ * <p>
+ * Types are resolved the way javac's {@code ClassReader} does: classes are entered (not completed) in the module
+ * of the class being completed, and a class referenced without type arguments is its erasure.
  */
 public class StubTypeResolver {
 
@@ -25,37 +28,80 @@ public class StubTypeResolver {
     }
 
     /**
-     * Resolves a simple internal name like "java/util/List" to a Type.
+     * Resolves a simple internal name like "java/util/List" to its (raw) Type.
      */
-    public Type resolveType(String internalName) {
-        String fqn = internalName.replace('/', '.');
-        Name name = names.fromString(fqn);
-
-        // This triggers the ClassFinder if the class isn't loaded yet.
-        ClassSymbol sym = symtab.enterClass(symtab.unnamedModule, name);
-        return sym.type;
+    public Type resolveType(ModuleSymbol module, String internalName) {
+        return enterClass(module, internalName).erasure(types);
     }
 
     /**
-     * Resolves a Field Descriptor like "Ljava/lang/String;" or "[[I".
+     * Resolves a Field Descriptor like "Ljava/lang/String;" or "[[I", or a field signature referring to the type
+     * parameters of {@code owner}.
      */
-    public Type resolveDescriptor(String desc) {
-        return new SignatureParser(desc).parseType();
+    public Type resolveDescriptor(ClassSymbol owner, String desc) {
+        return new SignatureParser(desc, owner, owner).parseType();
     }
 
     /**
-     * Resolves a Method Descriptor like "(Ljava/lang/Object;)V".
+     * Resolves a Method Descriptor like "(Ljava/lang/Object;)V" or a generic method signature. The method's own
+     * type parameters become a {@link Type.ForAll}.
+     *
+     * @param exceptions internal names of the thrown types, used when the signature does not list them.
      */
-    public Type.MethodType resolveMethodDescriptor(String desc) {
-        return new SignatureParser(desc).parseMethodType();
+    public Type resolveMethodDescriptor(Symbol.MethodSymbol method, String desc, String[] exceptions) {
+        return new SignatureParser(desc, method, method.enclClass()).parseMethodType(exceptions);
     }
 
     /**
-     * Parses a FULL Class Signature (with Generics) and populates the ClassSymbol.
+     * Parses a FULL Class Signature (with Generics) and populates the type of the ClassSymbol in place.
      * Example: "<E:Ljava/lang/Object;>Ljava/lang/Object;Ljava/util/List<TE;>;"
      */
     public void resolveClassSignature(ClassSymbol c, String signature) {
-        new SignatureParser(signature).parseClassSignature(c);
+        new SignatureParser(signature, c, null).parseClassSignature(c);
+    }
+
+    private ClassSymbol enterClass(ModuleSymbol module, String internalName) {
+        return symtab.enterClass(module, names.fromString(internalName.replace('/', '.')));
+    }
+
+    /**
+     * A parameterized type whose enclosing type is only known once its class is completed, as in
+     * {@code ClassReader}: "Ljava/util/Map$Entry<TK;TV;>;" does not tell whether Entry is an inner class.
+     */
+    private class EnclosedClassType extends Type.ClassType {
+
+        private boolean completed;
+
+        EnclosedClassType(Type outer, List<Type> typarams, ClassSymbol tsym) {
+            super(outer, typarams, tsym);
+        }
+
+        @Override
+        public Type getEnclosingType() {
+            if (!completed) {
+                completed = true;
+                tsym.apiComplete();
+                Type enclosingType = tsym.type.getEnclosingType();
+                if (enclosingType != Type.noType) {
+                    List<Type> typeArgs = super.getEnclosingType().allparams();
+                    List<Type> typeParams = enclosingType.allparams();
+                    if (typeParams.length() != typeArgs.length()) {
+                        // no "rare" types
+                        super.setEnclosingType(types.erasure(enclosingType));
+                    } else {
+                        super.setEnclosingType(types.subst(enclosingType, typeParams, typeArgs));
+                    }
+                } else {
+                    super.setEnclosingType(Type.noType);
+                }
+            }
+            return super.getEnclosingType();
+        }
+
+        @Override
+        public void setEnclosingType(Type outer) {
+            throw new UnsupportedOperationException();
+        }
     }
 
     // =========================================================================
@@ -67,91 +113,103 @@ public class StubTypeResolver {
         private int pos = 0;
         private final int len;
 
+        // The symbol whose signature is parsed; owns the type variables declared by it.
+        private final Symbol owner;
+        private final ModuleSymbol module;
+
         // Map for resolving Type Variables (e.g., "T" -> TypeVar) within this scope
         private final Map<Name, Type> typeVarMap = new HashMap<>();
+        // While entering formal type parameters, bounds are parsed only to be skipped.
+        private boolean entering;
 
-        public SignatureParser(String sig) {
+        /**
+         * @param enclClass the class whose type variables are in scope, {@code null} when parsing its own signature.
+         */
+        public SignatureParser(String sig, Symbol owner, ClassSymbol enclClass) {
             this.sig = sig;
             this.len = sig.length();
+            this.owner = owner;
+            this.module = owner.packge().modle;
+
+            // type variables of the enclosing class are visible to its members.
+            if (enclClass != null) {
+                for (Type tv : enclClass.type.getTypeArguments()) {
+                    typeVarMap.put(tv.tsym.name, tv);
+                }
+            }
         }
 
         // --- Class Signature Parsing ---
 
         public void parseClassSignature(ClassSymbol c) {
-            List<Type> typeParams = List.nil();
+            Type.ClassType ct = (Type.ClassType) c.type;
 
             // 1. Formal Type Parameters: <T:Ljava/lang/Object;>
-            if (current() == '<') {
-                advance(); // consume '<'
-                ListBuffer<Type> buffer = new ListBuffer<>();
-
-                while (current() != '>') {
-                    // Parse "T"
-                    Name typeName = parseIdentifier();
-
-                    // Create the TypeVar symbol immediately so bounds can refer to it
-                    Type.TypeVar typeVar = new Type.TypeVar(typeName, c, symtab.botType);
-                    typeVarMap.put(typeName, typeVar);
-                    buffer.append(typeVar);
-
-                    // Parse Bounds
-                    // Class Bound (":")
-                    if (current() == ':') {
-                        advance(); // consume ':'
-                        if (current() != ':' && current() != '>') { // Check if empty (interface bound only)
-                            typeVar.setUpperBound(parseType());
-                        } else {
-                            typeVar.setUpperBound(symtab.objectType); // Default to Object
-                        }
-                    }
-
-                    // Interface Bounds (":")
-                    while (current() == ':') {
-                        advance();
-                        // In Javac, multiple bounds are handled via setBounds or Intersection types.
-                        // For stubs, we simplify or assume the primary bound is sufficient for 90% of cases,
-                        // or strict construction if needed.
-                        // Note: TypeVar.bound usually holds the first bound (Class).
-                        // Additional bounds create an IntersectionType.
-                        Type ifaceBound = parseType();
-                        // Logic to merge bounds into IntersectionType omitted for brevity,
-                        // keeping primary bound is often safe for simple completion.
-                    }
-                }
-                advance(); // consume '>'
-                typeParams = buffer.toList();
-            }
-
-            // Construct the ClassType with the parsed parameters
-            c.type = new Type.ClassType(Type.noType, typeParams, c);
+            ct.typarams_field = parseFormalTypeParameters();
 
             // 2. Super Class Signature
-            Type superType = parseType();
+            ct.supertype_field = parseType();
 
             // 3. Interfaces
             ListBuffer<Type> interfaces = new ListBuffer<>();
             while (pos < len) {
                 interfaces.append(parseType());
             }
-
-            // Apply Super/Interfaces
-            // We must cast because c.type is generic Type, but we know it's ClassType
-            ((Type.ClassType) c.type).supertype_field = superType;
-            ((Type.ClassType) c.type).interfaces_field = interfaces.toList();
+            ct.interfaces_field = interfaces.toList();
         }
 
-        // --- Method Signature Parsing ---
+        /**
+         * Parses "<T:Ljava/lang/Object;U::Ljava/lang/Comparable<TU;>;>" if present. Like javac, the variables
+         * are entered first, so bounds may refer to any of them.
+         */
+        private List<Type> parseFormalTypeParameters() {
+            if (current() != '<') {
+                return List.nil();
+            }
+            advance(); // consume '<'
+            int start = pos;
 
-        public Type.MethodType parseMethodType() {
-            // Note: If methods have <Generics>, they appear before '(',
-            // but standard method descriptors don't have them.
-            // Signatures do. This parser handles descriptors mostly.
+            ListBuffer<Type> buffer = new ListBuffer<>();
+            entering = true;
+            while (current() != '>') {
+                Name typeName = parseIdentifier();
+                Type.TypeVar typeVar = new Type.TypeVar(typeName, owner, symtab.botType);
+                typeVarMap.put(typeName, typeVar);
+                buffer.append(typeVar);
+                parseBounds();
+            }
+            entering = false;
+
+            pos = start;
+            for (Type typeVar : buffer) {
+                parseIdentifier();
+                boolean allInterfaces = current() == ':' && peek() == ':';
+                List<Type> bounds = parseBounds();
+                if (bounds.isEmpty()) {
+                    bounds = List.of(symtab.objectType);
+                }
+                types.setBounds((Type.TypeVar) typeVar, bounds, allInterfaces);
+            }
+            advance(); // consume '>'
+            return buffer.toList();
+        }
 
-            if (current() == '<') {
-                // Method-level type variables (not fully handled in this snippet context)
-                // We'd need to parse them and add to a temporary scope.
-                skipTypeParams();
+        private List<Type> parseBounds() {
+            ListBuffer<Type> bounds = new ListBuffer<>();
+            // Class Bound (":") followed by Interface Bounds (":"); the class bound may be empty.
+            while (current() == ':') {
+                advance();
+                if (current() != ':' && current() != '>') {
+                    bounds.append(parseType());
+                }
             }
+            return bounds.toList();
+        }
+
+        // --- Method Signature Parsing ---
+
+        public Type parseMethodType(String[] exceptions) {
+            List<Type> typeParams = parseFormalTypeParameters();
 
             match('(');
             ListBuffer<Type> args = new ListBuffer<>();
@@ -162,9 +220,20 @@ public class StubTypeResolver {
 
             Type returnType = parseType();
 
-            // Throws signature might follow (^Ljava/io/IOException;), ignored here.
+            // Throws signature might follow (^Ljava/io/IOException;); otherwise the Exceptions attribute applies.
+            ListBuffer<Type> thrown = new ListBuffer<>();
+            while (current() == '^') {
+                advance();
+                thrown.append(parseType());
+            }
+            if (thrown.isEmpty() && exceptions != null) {
+                for (String ex : exceptions) {
+                    thrown.append(resolveType(module, ex));
+                }
+            }
 
-            return new Type.MethodType(args.toList(), returnType, List.nil(), symtab.methodClass);
+            Type.MethodType type = new Type.MethodType(args.toList(), returnType, thrown.toList(), symtab.methodClass);
+            return typeParams.isEmpty() ? type : new Type.ForAll(typeParams, type);
         }
 
         // --- General Type Parsing ---
@@ -191,67 +260,83 @@ public class StubTypeResolver {
                 case 'T': // Type Variable Reference: "TE;"
                     Name tvName = parseIdentifier();
                     match(';');
-                    // Look up in our map (Class scope) or return error type
                     Type tv = typeVarMap.get(tvName);
-                    return (tv != null) ? tv : symtab.unknownType;
+                    if (tv == null && !entering) {
+                        // a variable of an enclosing method or class we do not model.
+                        throw new IllegalStateException("Unknown type variable " + tvName + " in " + sig);
+                    }
+                    return tv != null ? tv : symtab.botType;
 
                 case 'L': // Class Type: "Ljava/util/List<...>;"
                     return parseClassType();
 
                 default:
-                    throw new RuntimeException("Malformed signature at " + (pos - 1) + ": " + sig);
+                    throw new IllegalStateException("Malformed signature at " + (pos - 1) + ": " + sig);
             }
         }
 
         private Type parseClassType() {
-            // Start reading FQN until '<' or ';'
-            int start = pos; // Note: we already consumed 'L'
-            while (current() != ';' && current() != '<') {
-                advance();
-            }
-
-            String internalName = sig.substring(start - 1, pos); // includes the part after 'L'
-            // Convert "java/util/List" -> Type
-            // Note: resolveType expects internal name WITHOUT 'L' prefix?
-            // My resolveType uses names.fromString(), so it needs "java.util.List".
-            Type rawType = resolveType(internalName.replace('/', '.'));
+            // we already consumed 'L'
+            StringBuilder internalName = new StringBuilder();
+            Type outer = Type.noType;
 
-            List<Type> typeArgs = List.nil();
-
-            // Check for Generics: "<Ljava/lang/String;>"
-            if (current() == '<') {
+            while (true) {
+                char c = current();
                 advance();
-                ListBuffer<Type> argsBuffer = new ListBuffer<>();
-                while (current() != '>') {
-                    // Wildcards
-                    if (current() == '*') {
-                        advance();
-                        argsBuffer.append(new Type.WildcardType(symtab.objectType, BoundKind.UNBOUND, symtab.boundClass));
-                    } else if (current() == '+') {
-                        advance();
-                        argsBuffer.append(new Type.WildcardType(parseType(), BoundKind.EXTENDS, symtab.boundClass));
-                    } else if (current() == '-') {
-                        advance();
-                        argsBuffer.append(new Type.WildcardType(parseType(), BoundKind.SUPER, symtab.boundClass));
-                    } else {
-                        argsBuffer.append(parseType());
+                switch (c) {
+                    case ';': {
+                        ClassSymbol t = enterClass(module, internalName.toString());
+                        return outer == Type.noType ? t.erasure(types) : new Type.ClassType(outer, List.nil(), t);
+                    }
+                    case '<': {
+                        ClassSymbol t = enterClass(module, internalName.toString());
+                        outer = new EnclosedClassType(outer, parseTypeArguments(), t);
+                        if (current() == ';') {
+                            advance();
+                            return outer;
+                        }
+                        match('.');
+                        internalName.append('$');
+                        break;
+                    }
+                    case '.': {
+                        // we have seen an enclosing non-generic class
+                        if (outer != Type.noType) {
+                            outer = new Type.ClassType(outer, List.nil(), enterClass(module, internalName.toString()));
+                        }
+                        internalName.append('$');
+                        break;
                     }
+                    case 0:
+                        throw new IllegalStateException("Unterminated class type: " + sig);
+                    default:
+                        internalName.append(c);
                 }
-                advance(); // consume '>'
-                typeArgs = argsBuffer.toList();
             }
+        }
 
-            match(';');
-
-            if (typeArgs.isEmpty()) {
-                return rawType;
-            } else {
-                // Parameterize the type
-                return new Type.ClassType(
-                        rawType.getEnclosingType(),
-                        typeArgs,
-                        (ClassSymbol) rawType.tsym);
+        private List<Type> parseTypeArguments() {
+            // "<Ljava/lang/String;>" with '<' consumed
+            ListBuffer<Type> argsBuffer = new ListBuffer<>();
+            while (current() != '>') {
+                // Wildcards
+                if (current() == '*') {
+                    advance();
+                    argsBuffer.append(new Type.WildcardType(symtab.objectType, BoundKind.UNBOUND, symtab.boundClass));
+                } else if (current() == '+') {
+                    advance();
+                    argsBuffer.append(new Type.WildcardType(parseType(), BoundKind.EXTENDS, symtab.boundClass));
+                } else if (current() == '-') {
+                    advance();
+                    argsBuffer.append(new Type.WildcardType(parseType(), BoundKind.SUPER, symtab.boundClass));
+                } else if (current() == 0) {
+                    throw new IllegalStateException("Unterminated type arguments: " + sig);
+                } else {
+                    argsBuffer.append(parseType());
+                }
             }
+            advance(); // consume '>'
+            return argsBuffer.toList();
         }
 
         // --- Helpers ---
@@ -268,34 +353,25 @@ public class StubTypeResolver {
             return names.fromString(sig.substring(start, pos));
         }
 
-        private void skipTypeParams() {
-            // quick skip logic for method generics which we aren't creating symbols for
-            int depth = 1;
-            advance(); // consume '<'
-            while (depth > 0 && pos < len) {
-                char c = current();
-                if (c == '<') depth++;
-                else if (c == '>') depth--;
-                advance();
-            }
-        }
-
         private char current() {
             if (pos >= len) return (char) 0;
             return sig.charAt(pos);
         }
 
+        private char peek() {
+            if (pos + 1 >= len) return (char) 0;
+            return sig.charAt(pos + 1);
+        }
+
         private void advance() {
             pos++;
         }
 
         private void match(char c) {
-            if (current() == c) {
-                advance();
-            } else {
-                // Robustness: Don't crash compiler thread, just log or skip
-                // System.err.println("Expected " + c + " at " + pos);
+            if (current() != c) {
+                throw new IllegalStateException("Expected '" + c + "' at " + pos + ": " + sig);
             }
+            advance();
         }
     }
-}
\ No newline at end of file
+}
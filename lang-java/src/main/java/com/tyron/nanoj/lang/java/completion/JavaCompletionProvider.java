@@ -30,7 +30,7 @@ public final class JavaCompletionProvider implements CompletionProvider {
         int offset = Math.min(parameters.offset(), fixed.length());
         String identifier = StringSearch.partialIdentifier(fixed.toString(), offset);
 
-        source.runUserActionTask(fixed.toString(), info -> {
+        source.runCompletionTask(fixed.toString(), info -> {
             JCTree.JCCompilationUnit compilationUnit = info.getCompilationUnit();
             TreePath pathAtCursor = new FindCompletionsAt(info.getTask()).scan(compilationUnit, (long) offset);
             if (pathAtCursor == null || pathAtCursor.getLeaf() == null) {
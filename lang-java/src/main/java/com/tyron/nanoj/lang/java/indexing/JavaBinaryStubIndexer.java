@@ -9,8 +9,11 @@ import com.tyron.nanoj.lang.java.indexing.stub.ClassStub;
 
 import java.io.*;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -23,7 +26,12 @@ import java.util.Map;
 public class JavaBinaryStubIndexer implements IndexDefinition<String, ClassStub> {
 
     public static final String ID = "java_stubs";
-    private static final int VERSION = 5;
+
+    private static final String POLYMORPHIC_SIGNATURE = "Ljava/lang/invoke/MethodHandle$PolymorphicSignature;";
+    private static final String DEPRECATED = "Ljava/lang/Deprecated;";
+    private static final String PREVIEW_FEATURE = "Ljdk/internal/javac/PreviewFeature;";
+    private static final String VALUE_BASED = "Ljdk/internal/ValueBased;";
+    private static final int VERSION = 6;
 
     public static JavaBinaryStubIndexer getInstance(Project project) {
         return ProjectServiceManager.getService(project, JavaBinaryStubIndexer.class);
@@ -60,9 +68,11 @@ public class JavaBinaryStubIndexer implements IndexDefinition<String, ClassStub>
             ClassStub stub = new ClassStub();
 
             stub.name = cf.getName();
-            stub.superName = cf.getSuperclassName();
+            // java/lang/Object has no super class
+            stub.superName = cf.super_class != 0 ? cf.getSuperclassName() : null;
             stub.accessFlags = cf.access_flags.flags;
             stub.sourceFile = file.getPath();
+            stub.annotationFlags = annotationFlags(cf.attributes, cf.constant_pool, true);
 
             int ifaceCount = cf.interfaces.length;
             stub.interfaces = new String[ifaceCount];
@@ -80,11 +90,17 @@ public class JavaBinaryStubIndexer implements IndexDefinition<String, ClassStub>
                 fs.name = f.getName(cf.constant_pool);
                 fs.descriptor = f.descriptor.getValue(cf.constant_pool);
                 fs.accessFlags = f.access_flags.flags;
+                fs.annotationFlags = annotationFlags(f.attributes, cf.constant_pool, false);
                 
                 Signature_attribute sig = (Signature_attribute) f.attributes.get(Attribute.Signature);
                 if (sig != null) {
                     fs.signature = sig.getSignature(cf.constant_pool);
                 }
+
+                ConstantValue_attribute constant = (ConstantValue_attribute) f.attributes.get(Attribute.ConstantValue);
+                if (constant != null) {
+                    fs.constantValue = readConstant(cf.constant_pool.get(constant.constantvalue_index));
+                }
                 stub.fields.add(fs);
             }
 
@@ -93,14 +109,40 @@ public class JavaBinaryStubIndexer implements IndexDefinition<String, ClassStub>
                 ms.name = m.getName(cf.constant_pool);
                 ms.descriptor = m.descriptor.getValue(cf.constant_pool);
                 ms.accessFlags = m.access_flags.flags;
+                ms.annotationFlags = annotationFlags(m.attributes, cf.constant_pool, false);
                 
                 Signature_attribute sig = (Signature_attribute) m.attributes.get(Attribute.Signature);
                 if (sig != null) {
                     ms.signature = sig.getSignature(cf.constant_pool);
                 }
+
+                Exceptions_attribute exceptions = (Exceptions_attribute) m.attributes.get(Attribute.Exceptions);
+                if (exceptions != null) {
+                    ms.exceptions = new String[exceptions.number_of_exceptions];
+                    for (int i = 0; i < ms.exceptions.length; i++) {
+                        ms.exceptions[i] = exceptions.getException(i, cf.constant_pool);
+                    }
+                }
                 stub.methods.add(ms);
             }
 
+            InnerClasses_attribute inner = (InnerClasses_attribute) cf.getAttribute(Attribute.InnerClasses);
+            if (inner != null) {
+                for (InnerClasses_attribute.Info info : inner.classes) {
+                    if (info.outer_class_info_index == 0 || info.inner_name_index == 0) {
+                        continue;
+                    }
+                    ClassStub.InnerClassStub ic = new ClassStub.InnerClassStub();
+                    ic.name = info.getInnerClassInfo(cf.constant_pool).getName();
+                    ic.outerName = info.getOuterClassInfo(cf.constant_pool).getName();
+                    ic.simpleName = info.getInnerName(cf.constant_pool);
+                    ic.accessFlags = info.inner_class_access_flags.flags;
+                    stub.innerClasses.add(ic);
+                }
+            }
+
+            stub.selfContained = isSelfContained(cf);
+
             // map key: FQN (e.g., "java/util/List") -> Stub
             Map<String, ClassStub> result = new HashMap<>();
             result.put(stub.name, stub);
@@ -113,6 +155,99 @@ public class JavaBinaryStubIndexer implements IndexDefinition<String, ClassStub>
         }
     }
 
+    private static Object readConstant(ConstantPool.CPInfo info) throws ConstantPoolException {
+        if (info instanceof ConstantPool.CONSTANT_Integer_info i) return i.value;
+        if (info instanceof ConstantPool.CONSTANT_Long_info l) return l.value;
+        if (info instanceof ConstantPool.CONSTANT_Float_info f) return f.value;
+        if (info instanceof ConstantPool.CONSTANT_Double_info d) return d.value;
+        if (info instanceof ConstantPool.CONSTANT_String_info str) return str.getString();
+        return null;
+    }
+
+    /**
+     * @return the {@link ClassStub#annotationFlags} of a class or member, as javac's ClassReader computes them.
+     */
+    private static int annotationFlags(Attributes attributes, ConstantPool cp, boolean isClass) throws ConstantPoolException {
+        int flags = attributes.get(Attribute.Deprecated) != null ? ClassStub.DEPRECATED : 0;
+        for (Annotation annotation : annotations(attributes)) {
+            switch (cp.getUTF8Value(annotation.type_index)) {
+                case DEPRECATED -> {
+                    flags |= ClassStub.DEPRECATED | ClassStub.DEPRECATED_ANNOTATION;
+                    if (isTrue(annotation, "forRemoval", cp)) flags |= ClassStub.DEPRECATED_REMOVAL;
+                }
+                case PREVIEW_FEATURE -> {
+                    flags |= ClassStub.PREVIEW_API;
+                    if (isTrue(annotation, "reflective", cp)) flags |= ClassStub.PREVIEW_REFLECTIVE;
+                }
+                case VALUE_BASED -> {
+                    if (isClass) flags |= ClassStub.VALUE_BASED;
+                }
+                default -> {
+                }
+            }
+        }
+        return flags;
+    }
+
+    private static List<Annotation> annotations(Attributes attributes) {
+        List<Annotation> result = new ArrayList<>();
+        for (String name : new String[]{Attribute.RuntimeVisibleAnnotations, Attribute.RuntimeInvisibleAnnotations}) {
+            RuntimeAnnotations_attribute annotations = (RuntimeAnnotations_attribute) attributes.get(name);
+            if (annotations != null) {
+                result.addAll(Arrays.asList(annotations.annotations));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isTrue(Annotation annotation, String element, ConstantPool cp) throws ConstantPoolException {
+        for (Annotation.element_value_pair pair : annotation.element_value_pairs) {
+            if (element.equals(cp.getUTF8Value(pair.element_name_index))
+                    && pair.value instanceof Annotation.Primitive_element_value value
+                    && cp.get(value.const_value_index) instanceof ConstantPool.CONSTANT_Integer_info info) {
+                return info.value != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @see ClassStub#selfContained
+     */
+    private static boolean isSelfContained(ClassFile cf) throws ConstantPoolException {
+        // default values of annotation members are not part of the stub.
+        if (cf.access_flags.is(AccessFlags.ACC_ANNOTATION)) {
+            return false;
+        }
+        if (cf.attributes.get(Attribute.Record) != null || cf.attributes.get(Attribute.PermittedSubclasses) != null) {
+            return false;
+        }
+
+        InnerClasses_attribute inner = (InnerClasses_attribute) cf.getAttribute(Attribute.InnerClasses);
+        if (inner != null) {
+            String name = cf.getName();
+            for (InnerClasses_attribute.Info info : inner.classes) {
+                // local and anonymous classes have no outer class entry and are not visible to javac.
+                if (info.outer_class_info_index == 0) {
+                    continue;
+                }
+                if (name.equals(info.getInnerClassInfo(cf.constant_pool).getName())
+                        || name.equals(info.getOuterClassInfo(cf.constant_pool).getName())) {
+                    return false;
+                }
+            }
+        }
+
+        for (Method m : cf.methods) {
+            for (Annotation annotation : annotations(m.attributes)) {
+                if (POLYMORPHIC_SIGNATURE.equals(cf.constant_pool.getUTF8Value(annotation.type_index))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean isValueForFile(ClassStub value, int fileId) {
         // While we store the source path in the stub, strictly checking fileId ownership
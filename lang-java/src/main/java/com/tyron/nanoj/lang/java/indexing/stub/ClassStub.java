@@ -12,15 +12,32 @@ import java.util.List;
  */
 public class ClassStub {
 
+    // bits of annotationFlags, for what javac derives from the annotations of a class or member
+    public static final int DEPRECATED = 1;            // @Deprecated or the Deprecated attribute
+    public static final int DEPRECATED_ANNOTATION = 1 << 1;
+    public static final int DEPRECATED_REMOVAL = 1 << 2;
+    public static final int PREVIEW_API = 1 << 3;
+    public static final int PREVIEW_REFLECTIVE = 1 << 4;
+    public static final int VALUE_BASED = 1 << 5;
+
     public String name;          // FQN: java/util/List
     public String superName;     // java/lang/Object
     public String[] interfaces;
     public int accessFlags;
     public String signature;     // Generic Signature
     public String sourceFile;    // Originating file path (for incremental updates)
+    public int annotationFlags;
+
+    /**
+     * Whether the class file holds nothing javac needs beyond this stub: it is not nested, declares no member
+     * classes, is no annotation type, record or sealed class and has no signature-polymorphic methods. Only such
+     * classes are completed from the stub, see {@code IndexAwareClassFinder}.
+     */
+    public boolean selfContained;
 
     public final List<FieldStub> fields = new ArrayList<>();
     public final List<MethodStub> methods = new ArrayList<>();
+    public final List<InnerClassStub> innerClasses = new ArrayList<>(); // member classes it declares or refers to
 
     public ClassStub() {}
 
@@ -34,18 +51,24 @@ public class ClassStub {
         out.writeInt(accessFlags);
         out.writeUTF(signature != null ? signature : "");
         out.writeUTF(sourceFile != null ? sourceFile : "");
+        out.writeBoolean(selfContained);
+        out.writeInt(annotationFlags);
 
         out.writeInt(fields.size());
         for (FieldStub f : fields) f.write(out);
 
         out.writeInt(methods.size());
         for (MethodStub m : methods) m.write(out);
+
+        out.writeInt(innerClasses.size());
+        for (InnerClassStub c : innerClasses) c.write(out);
     }
 
     public static ClassStub read(DataInput in) throws IOException {
         ClassStub stub = new ClassStub();
         stub.name = in.readUTF();
         stub.superName = in.readUTF();
+        if (stub.superName.isEmpty()) stub.superName = null;
         
         int ifaceCount = in.readInt();
         stub.interfaces = new String[ifaceCount];
@@ -56,6 +79,8 @@ public class ClassStub {
         if (stub.signature.isEmpty()) stub.signature = null;
         
         stub.sourceFile = in.readUTF();
+        stub.selfContained = in.readBoolean();
+        stub.annotationFlags = in.readInt();
 
         int fieldCount = in.readInt();
         for (int i = 0; i < fieldCount; i++) stub.fields.add(FieldStub.read(in));
@@ -63,6 +88,9 @@ public class ClassStub {
         int methodCount = in.readInt();
         for (int i = 0; i < methodCount; i++) stub.methods.add(MethodStub.read(in));
 
+        int innerCount = in.readInt();
+        for (int i = 0; i < innerCount; i++) stub.innerClasses.add(InnerClassStub.read(in));
+
         return stub;
     }
 
@@ -73,12 +101,16 @@ public class ClassStub {
         public String descriptor; // e.g., Ljava/lang/String;
         public String signature;  // Generic signature
         public int accessFlags;
+        public Object constantValue; // Integer, Long, Float, Double or String; null if none
+        public int annotationFlags;
 
         public void write(DataOutput out) throws IOException {
             out.writeUTF(name);
             out.writeUTF(descriptor);
             out.writeUTF(signature != null ? signature : "");
             out.writeInt(accessFlags);
+            out.writeInt(annotationFlags);
+            writeConstant(out, constantValue);
         }
 
         public static FieldStub read(DataInput in) throws IOException {
@@ -88,8 +120,42 @@ public class ClassStub {
             s.signature = in.readUTF();
             if (s.signature.isEmpty()) s.signature = null;
             s.accessFlags = in.readInt();
+            s.annotationFlags = in.readInt();
+            s.constantValue = readConstant(in);
             return s;
         }
+
+        private static void writeConstant(DataOutput out, Object value) throws IOException {
+            if (value instanceof Integer i) {
+                out.writeByte('I');
+                out.writeInt(i);
+            } else if (value instanceof Long l) {
+                out.writeByte('J');
+                out.writeLong(l);
+            } else if (value instanceof Float f) {
+                out.writeByte('F');
+                out.writeFloat(f);
+            } else if (value instanceof Double d) {
+                out.writeByte('D');
+                out.writeDouble(d);
+            } else if (value instanceof String str) {
+                out.writeByte('S');
+                out.writeUTF(str);
+            } else {
+                out.writeByte(0);
+            }
+        }
+
+        private static Object readConstant(DataInput in) throws IOException {
+            return switch (in.readByte()) {
+                case 'I' -> in.readInt();
+                case 'J' -> in.readLong();
+                case 'F' -> in.readFloat();
+                case 'D' -> in.readDouble();
+                case 'S' -> in.readUTF();
+                default -> null;
+            };
+        }
     }
 
     public static class MethodStub {
@@ -97,12 +163,17 @@ public class ClassStub {
         public String descriptor; // (Ljava/lang/Object;)V
         public String signature;  // Generic signature
         public int accessFlags;
+        public String[] exceptions = new String[0]; // java/io/IOException
+        public int annotationFlags;
 
         public void write(DataOutput out) throws IOException {
             out.writeUTF(name);
             out.writeUTF(descriptor);
             out.writeUTF(signature != null ? signature : "");
             out.writeInt(accessFlags);
+            out.writeInt(annotationFlags);
+            out.writeInt(exceptions.length);
+            for (String ex : exceptions) out.writeUTF(ex);
         }
 
         public static MethodStub read(DataInput in) throws IOException {
@@ -112,7 +183,34 @@ public class ClassStub {
             s.signature = in.readUTF();
             if (s.signature.isEmpty()) s.signature = null;
             s.accessFlags = in.readInt();
+            s.annotationFlags = in.readInt();
+            int exCount = in.readInt();
+            s.exceptions = new String[exCount];
+            for (int i = 0; i < exCount; i++) s.exceptions[i] = in.readUTF();
+            return s;
+        }
+    }
+
+    public static class InnerClassStub {
+        public String name;       // java/util/Map$Entry
+        public String outerName;  // java/util/Map
+        public String simpleName; // Entry
+        public int accessFlags;
+
+        public void write(DataOutput out) throws IOException {
+            out.writeUTF(name);
+            out.writeUTF(outerName);
+            out.writeUTF(simpleName);
+            out.writeInt(accessFlags);
+        }
+
+        public static InnerClassStub read(DataInput in) throws IOException {
+            InnerClassStub s = new InnerClassStub();
+            s.name = in.readUTF();
+            s.outerName = in.readUTF();
+            s.simpleName = in.readUTF();
+            s.accessFlags = in.readInt();
             return s;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,309 @@
+package com.tyron.nanoj.lang.java.source;
+
+import com.tyron.nanoj.api.concurrent.TaskPriority;
+import com.tyron.nanoj.api.concurrent.TaskScheduler;
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.lang.java.compiler.CompilationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The compilations kept by the lanes of {@link ParsingManager}: one per file and lane, so switching between open
+ * files does not start over, bounded by an estimate of the heap they retain.
+ * <p>
+ * A cached compilation keeps the javac context it was compiled in, with the symbol table and the library classes
+ * completed there, until it is evicted; only then is the context handed back to be kept warm. Contexts dominate
+ * {@link CompilationInfo#estimateRetainedSize()}, so the budget in effect caps the number of live contexts rather
+ * than the size of the trees.
+ * <p>
+ * An entry is only used and closed on the lane that created it. When the entries exceed the budget, the least
+ * recently used ones are closed by posting to their lanes; when the JVM reports that the old generation is still
+ * nearly full after a collection, all of them are, and their contexts are dropped instead of kept warm.
+ */
+final class CompilationCache {
+
+    private final TaskScheduler scheduler;
+    private final long maxBytes;
+    private final Runnable onLowMemory;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param onLowMemory run under memory pressure after the entries were posted for eviction, e.g. to drop warm
+     *                    contexts.
+     */
+    CompilationCache(TaskScheduler scheduler, long maxBytes, Runnable onLowMemory) {
+        this.scheduler = scheduler;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.onLowMemory = onLowMemory;
+        LowMemoryWatch.register(this);
+    }
+
+    /**
+     * A compilation of one file, owned by one lane.
+     */
+    static final class Entry {
+        final String lane;
+        final FileObject file;
+        final CompilationInfo info;
+        private final Map<String, Entry> owner;
+
+        // Only touched on the lane.
+        Fingerprint fingerprint;
+
+        private volatile long lastUsed;
+        private volatile long retainedSize;
+        // Only touched on the lane; the phase retainedSize was estimated at.
+        private CompilationInfo.Phase sizedPhase;
+        // Guarded by the cache; set while a posted eviction is pending.
+        private boolean evicting;
+        // Guarded by the cache; whether the pending eviction drops the context instead of keeping it warm.
+        private boolean discarding;
+
+        private Entry(String lane, Map<String, Entry> owner, FileObject file, CompilationInfo info, Fingerprint fingerprint) {
+            this.lane = lane;
+            this.owner = owner;
+            this.file = file;
+            this.info = info;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Identifies a text by its length and a 64-bit hash, so requests are matched to cached compilations without
+     * comparing or keeping whole texts.
+     */
+    record Fingerprint(long hash, int length) {
+
+        static Fingerprint of(CharSequence text) {
+            // FNV-1a over UTF-16 chars
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                h ^= text.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return new Fingerprint(h, text.length());
+        }
+    }
+
+    /**
+     * Called strictly inside the lane's thread.
+     * @param owner the lane's entries by file path, from which an eviction removes the entry.
+     */
+    Entry add(String lane, Map<String, Entry> owner, FileObject file, CompilationInfo info, Fingerprint fingerprint) {
+        Entry entry = new Entry(lane, owner, file, info, fingerprint);
+        entry.retainedSize = info.estimateRetainedSize();
+        entry.sizedPhase = info.getPhase();
+        owner.put(file.getPath(), entry);
+        entries.add(entry);
+        touch(entry);
+        return entry;
+    }
+
+    /**
+     * Marks {@code entry} as used, cancelling a pending eviction of it. Called strictly inside the lane's thread.
+     */
+    void touch(Entry entry) {
+        entry.lastUsed = clock.incrementAndGet();
+        synchronized (this) {
+            entry.evicting = false;
+            entry.discarding = false;
+        }
+    }
+
+    /**
+     * Estimates the size of {@code entry} again if it was advanced to another phase since, and evicts the least
+     * recently used entries if the budget is exceeded. Called strictly inside the lane's thread.
+     */
+    void update(Entry entry) {
+        if (entry.info.getPhase() == entry.sizedPhase) {
+            return;
+        }
+        entry.sizedPhase = entry.info.getPhase();
+        entry.retainedSize = entry.info.estimateRetainedSize();
+        trim(maxBytes);
+    }
+
+    /**
+     * Adjusts the size of {@code entry} by {@code change}, e.g. after a method body was spliced into it, and evicts
+     * the least recently used entries if the budget is exceeded. Called strictly inside the lane's thread.
+     */
+    void resize(Entry entry, long change) {
+        if (change == 0) {
+            return;
+        }
+        entry.retainedSize = Math.max(0, entry.retainedSize + change);
+        if (change > 0) {
+            trim(maxBytes);
+        }
+    }
+
+    /**
+     * Closes {@code entry} right away. Called strictly inside the lane's thread.
+     */
+    void remove(Entry entry) {
+        remove(entry, false);
+    }
+
+    private void remove(Entry entry, boolean discard) {
+        entries.remove(entry);
+        entry.owner.remove(entry.file.getPath(), entry);
+        if (discard) {
+            entry.info.discard();
+        } else {
+            entry.info.close();
+        }
+    }
+
+    /**
+     * Posts the eviction of the least recently used entries until the others fit in {@code budget}. The entry a
+     * lane is working with is evicted after the lane is done with it at the earliest.
+     */
+    void trim(long budget) {
+        trim(budget, false);
+    }
+
+    /**
+     * @param discard whether the evicted entries drop their contexts instead of handing them back to be kept warm.
+     */
+    private void trim(long budget, boolean discard) {
+        Map<Map<String, Entry>, String> lanes = new IdentityHashMap<>();
+        synchronized (this) {
+            List<Entry> live = new ArrayList<>();
+            long total = 0;
+            for (Entry entry : entries) {
+                if (!entry.evicting) {
+                    live.add(entry);
+                    total += entry.retainedSize;
+                } else if (discard) {
+                    entry.discarding = true;
+                }
+            }
+            if (total <= budget) {
+                return;
+            }
+            live.sort(Comparator.comparingLong(e -> e.lastUsed));
+            for (Entry entry : live) {
+                if (total <= budget) {
+                    break;
+                }
+                entry.evicting = true;
+                entry.discarding = discard;
+                total -= entry.retainedSize;
+                lanes.put(entry.owner, entry.lane);
+            }
+        }
+        // one sweep per lane; a newer sweep takes over the entries of a queued one.
+        lanes.forEach((owner, lane) -> scheduler.submitLatest(lane, owner, TaskPriority.BACKGROUND, ctx -> {
+            for (Entry entry : new ArrayList<>(owner.values())) {
+                boolean discarding;
+                synchronized (this) {
+                    // used again since the eviction was posted.
+                    if (!entry.evicting) {
+                        continue;
+                    }
+                    discarding = entry.discarding;
+                }
+                remove(entry, discarding);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * @return the estimated bytes retained by the cached compilations, including those whose eviction is pending.
+     */
+    long getRetainedSize() {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.retainedSize;
+        }
+        return total;
+    }
+
+    void dispose() {
+        LowMemoryWatch.unregister(this);
+    }
+
+    /**
+     * Posts the eviction of all entries, dropping their contexts, and runs the cache's low memory action.
+     */
+    void onLowMemory() {
+        trim(0, true);
+        if (onLowMemory != null) {
+            onLowMemory.run();
+        }
+    }
+
+    /**
+     * Observes the old generation for all caches of the process. The collection usage threshold is JVM-wide: it is
+     * set once, and only if nobody set one before.
+     */
+    private static final class LowMemoryWatch {
+
+        // Old generation usage after a collection that counts as memory pressure.
+        private static final double LOW_MEMORY_RATIO = 0.85;
+
+        private static final Set<CompilationCache> CACHES = new CopyOnWriteArraySet<>();
+        // Guarded by LowMemoryWatch.class.
+        private static boolean installed;
+
+        static void register(CompilationCache cache) {
+            CACHES.add(cache);
+            synchronized (LowMemoryWatch.class) {
+                if (!installed) {
+                    installed = true;
+                    install();
+                }
+            }
+        }
+
+        static void unregister(CompilationCache cache) {
+            CACHES.remove(cache);
+        }
+
+        private static void install() {
+            try {
+                for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                    // only the old generation supports usage thresholds.
+                    if (pool.getType() != MemoryType.HEAP
+                            || !pool.isUsageThresholdSupported()
+                            || !pool.isCollectionUsageThresholdSupported()) {
+                        continue;
+                    }
+                    long max = pool.getUsage().getMax();
+                    if (max > 0 && pool.getCollectionUsageThreshold() == 0) {
+                        pool.setCollectionUsageThreshold((long) (max * LOW_MEMORY_RATIO));
+                    }
+                }
+                NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+                emitter.addNotificationListener(LowMemoryWatch::onNotification, null, null);
+            } catch (Throwable ignored) {
+                // best-effort; the budget still bounds the caches.
+            }
+        }
+
+        private static void onNotification(Notification notification, Object handback) {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                for (CompilationCache cache : CACHES) {
+                    cache.onLowMemory();
+                }
+            }
+        }
+    }
+}
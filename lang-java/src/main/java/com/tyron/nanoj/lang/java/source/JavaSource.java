@@ -37,17 +37,29 @@ public class JavaSource {
     /**
      * Run a task that requires the code to be fully resolved (with types).
      * Used for: Code Completion, Go to Definition.
-     * Priority: HIGH (Cancels other tasks).
+     * Priority: HIGH (Cancels the previous user task for this file, preempts diagnostics).
      */
     public <T> CompletableFuture<T> runUserActionTask(String text, Function<CompilationInfo, T> action) {
         ParsingManager manager = ProjectServiceManager.getService(project, ParsingManager.class);
         return manager.post(file, text, CompilationInfo.Phase.RESOLVED, true, action);
     }
 
+    /**
+     * Run a completion task: like {@link #runUserActionTask(String, Function)}, but an edit confined to one method
+     * body only reparses and reattributes that method. The compilation handed to {@code action} may therefore
+     * carry outdated diagnostics, see {@link CompilationInfo#isPartiallyReparsed()}.
+     */
+    public <T> CompletableFuture<T> runCompletionTask(String text, Function<CompilationInfo, T> action) {
+        ParsingManager manager = ProjectServiceManager.getService(project, ParsingManager.class);
+        return manager.post(file, text, CompilationInfo.Phase.RESOLVED, true, true, action);
+    }
+
     /**
      * Run a task that only requires syntax trees (no types).
      * Used for: Syntax Highlighting, Folding, Basic Error checking.
      * Priority: LOW (Does not cancel running tasks).
+     * Runs on a parse lane with a compilation of its own, so it does not wait for attribution. The compilation
+     * handed to {@code action} cannot be resolved.
      */
     public <T> CompletableFuture<T> runModificationTask(String text, Function<CompilationInfo, T> action) {
         ParsingManager manager = ProjectServiceManager.getService(project, ParsingManager.class);
@@ -58,7 +70,8 @@ public class JavaSource {
      * Run a task intended for error highlighting (diagnostics).
      *
      * Uses a RESOLVED compilation phase so type-related errors are reported,
-     * but runs at LOW priority (does not cancel running tasks).
+     * but runs at LOW priority (does not cancel running tasks) and gives way to user tasks waiting
+     * for the same attribution lane.
      */
     public <T> CompletableFuture<T> runDiagnosticsTask(String text, Function<CompilationInfo, T> action) {
         ParsingManager manager = ProjectServiceManager.getService(project, ParsingManager.class);
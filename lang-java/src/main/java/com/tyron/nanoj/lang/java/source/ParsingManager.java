@@ -7,108 +7,347 @@ import com.tyron.nanoj.api.project.Project;
 import com.tyron.nanoj.api.vfs.FileObject;
 import com.tyron.nanoj.core.service.ProjectServiceManager;
 import com.tyron.nanoj.lang.java.compiler.CompilationInfo;
+import com.tyron.nanoj.lang.java.compiler.JavacFileManagerService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 /**
  * Singleton Service per Project.
- * Serializes all Javac access to ensure thread safety and low memory profile.
+ * Runs javac work on two groups of single-threaded lanes, so cheap and expensive requests do not wait for each other:
+ * <ul>
+ *     <li>{@link CompilationInfo.Phase#PARSED} requests run on the parse lanes. Each parse has a javac context of its
+ *     own, see {@link CompilationInfo#parseOnly}.</li>
+ *     <li>{@link CompilationInfo.Phase#RESOLVED} requests run on the attribution lanes. The project's
+ *     {@code JavacFileManagerService} keeps up to one released javac context per lane warm, so a new compilation
+ *     starts with the JDK and library symbols completed by an earlier one.</li>
+ * </ul>
+ * A file always maps to the same lane of each group, and every lane keeps the compilations of its files, so all work
+ * on one compilation stays on one thread and switching between open files does not start over. A request reuses the
+ * file's compilation when its text has the same {@link CompilationCache.Fingerprint}. The compilations of all lanes
+ * share one budget of estimated retained heap, see {@link #CACHE_MAX_BYTES_KEY}, and are released under memory
+ * pressure, together with the warm contexts.
+ * <p>
+ * Each file and feature (parsing, background attribution, user attribution) has its own latest-only slot: a
+ * diagnostics request does not cancel a completion and vice versa.
+ * <p>
+ * Completion preempts diagnostics: a background attribution yields to pending user requests of its lane before it
+ * parses and again before it attributes, and is requeued behind them instead of being discarded. Once javac
+ * attributes, it runs to the end; stopping it halfway would throw the warm context away.
  */
 public class ParsingManager implements com.tyron.nanoj.api.service.Disposable {
 
-    private static final String LANE = "javac";
+    /**
+     * Number of lanes parsing files in parallel.
+     */
+    public static final String PARSE_LANES_KEY = "nanoj.javac.parseLanes";
+
+    /**
+     * Number of lanes attributing files in parallel.
+     */
+    public static final String ATTRIBUTION_LANES_KEY = "nanoj.javac.attributionLanes";
+
+    /**
+     * Estimated bytes the cached compilations of all lanes may retain, see
+     * {@link CompilationInfo#estimateRetainedSize()}. Defaults to an eighth of the maximum heap. Every cached
+     * resolved compilation keeps a javac context of its own, so this mostly caps the number of contexts.
+     */
+    public static final String CACHE_MAX_BYTES_KEY = "nanoj.javac.cache.maxBytes";
+
+    private static final String PARSE_LANE = "javac-parse-";
+    private static final String ATTRIBUTION_LANE = "javac-attr-";
+
+    // Result of a background attribution that gave way to user requests.
+    private static final Object YIELDED = new Object();
 
     private final Project project;
 
     private final TaskScheduler scheduler;
-    
-    // The current active compilation
-    private CompilationInfo cachedInfo;
-    private String cachedContentFingerprint;
-    private FileObject cachedFile;
+
+    private final Lane[] parseLanes;
+    private final Lane[] attributionLanes;
+    private final CompilationCache cache;
+
+    private final Set<SlotKey> slots = ConcurrentHashMap.newKeySet();
+    // Latest background request per slot, guarded by this; a yielded request is only requeued while it is the latest.
+    private final Map<SlotKey, Long> backgroundGenerations = new HashMap<>();
 
     public ParsingManager(Project project) {
         this.project = Objects.requireNonNull(project, "project");
         this.scheduler = ProjectServiceManager.getService(project, TaskScheduler.class);
+        JavacFileManagerService fileManagerService = ProjectServiceManager.getService(project, JavacFileManagerService.class);
+        this.cache = new CompilationCache(scheduler, Long.getLong(CACHE_MAX_BYTES_KEY, Runtime.getRuntime().maxMemory() / 8),
+                fileManagerService::dropWarmContexts);
+        this.parseLanes = createLanes(PARSE_LANE, Integer.getInteger(PARSE_LANES_KEY, defaultLaneCount()), true);
+        this.attributionLanes = createLanes(ATTRIBUTION_LANE, Integer.getInteger(ATTRIBUTION_LANES_KEY, defaultLaneCount()), false);
+        fileManagerService.keepWarmContexts(attributionLanes.length);
     }
 
     /**
      * Enqueues a task.
-     * @param priority If true, cancels the currently running task (if any) to run this one immediately.
+     * @param priority If true, cancels the currently running task of the same file and feature (if any) and
+     *                 preempts background attribution to run this one first.
      */
     public <T> CompletableFuture<T> post(
-            FileObject file, 
-            String currentText, 
-            CompilationInfo.Phase targetPhase, 
-            boolean priority, 
+            FileObject file,
+            String currentText,
+            CompilationInfo.Phase targetPhase,
+            boolean priority,
+            Function<CompilationInfo, T> action) {
+        return post(file, currentText, targetPhase, priority, false, action);
+    }
+
+    /**
+     * Like {@link #post(FileObject, String, CompilationInfo.Phase, boolean, Function)}.
+     * @param allowPartial If true, an edit inside one method body of the cached compilation only reparses and
+     *                     reattributes that method, see {@link CompilationInfo#reparseMethodBody(String)}.
+     */
+    public <T> CompletableFuture<T> post(
+            FileObject file,
+            String currentText,
+            CompilationInfo.Phase targetPhase,
+            boolean priority,
+            boolean allowPartial,
             Function<CompilationInfo, T> action) {
 
         TaskPriority prio = priority ? TaskPriority.USER : TaskPriority.BACKGROUND;
 
-        // Serialize all javac access on a single lane to avoid thread-safety issues.
         // Latest-only semantics prevent unbounded queue growth while typing.
-        return scheduler.submitLatest(LANE, this, prio, ctx -> {
+        if (targetPhase == CompilationInfo.Phase.PARSED) {
+            Lane lane = laneFor(parseLanes, file);
+            return scheduler.submitLatest(lane.name, slot(lane, file, targetPhase, prio), prio, ctx -> {
+                ctx.cancellation().throwIfCancelled();
+                CompilationCache.Entry entry = lane.getOrCreate(file, currentText, false, ctx);
+                ctx.cancellation().throwIfCancelled();
+                entry.info.toPhase(targetPhase);
+                cache.update(entry);
+                ctx.cancellation().throwIfCancelled();
+                return action.apply(entry.info);
+            });
+        }
+
+        Lane lane = laneFor(attributionLanes, file);
+        SlotKey key = slot(lane, file, targetPhase, prio);
+        if (prio == TaskPriority.USER) {
+            lane.pendingUserTasks.incrementAndGet();
+            CompletableFuture<T> result = scheduler.submitLatest(lane.name, key, prio, ctx -> {
+                ctx.cancellation().throwIfCancelled();
+                CompilationCache.Entry entry = lane.getOrCreate(file, currentText, allowPartial, ctx);
+                ctx.cancellation().throwIfCancelled();
+                entry.info.toPhase(targetPhase);
+                cache.update(entry);
+                ctx.cancellation().throwIfCancelled();
+                return action.apply(entry.info);
+            });
+            // completes on the lane before its next task starts, also when the request was skipped or cancelled.
+            result.whenComplete((value, error) -> lane.pendingUserTasks.decrementAndGet());
+            return result;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        synchronized (this) {
+            long generation = backgroundGenerations.merge(key, 1L, Long::sum);
+            submitBackground(lane, key, generation, file, currentText, action, result);
+        }
+        return result;
+    }
+
+    /**
+     * Submits one attempt of a background attribution; an attempt that yielded to user requests is submitted
+     * again, behind them, unless a newer request for the same slot superseded it meanwhile.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void submitBackground(
+            Lane lane,
+            SlotKey key,
+            long generation,
+            FileObject file,
+            String text,
+            Function<CompilationInfo, T> action,
+            CompletableFuture<T> result) {
+
+        CompletableFuture<Object> attempt = scheduler.submitLatest(lane.name, key, TaskPriority.BACKGROUND, ctx -> {
+            if (lane.hasPendingUserTasks()) {
+                return YIELDED;
+            }
+            CompilationCache.Entry entry = lane.getOrCreate(file, text, false, ctx);
             ctx.cancellation().throwIfCancelled();
-            CompilationInfo info = getOrCreate(file, currentText, ctx);
+            entry.info.toPhase(CompilationInfo.Phase.PARSED);
+            // the parsed compilation stays cached on the lane, the retry does not parse again.
+            if (lane.hasPendingUserTasks()) {
+                return YIELDED;
+            }
             ctx.cancellation().throwIfCancelled();
-            info.toPhase(targetPhase);
+            entry.info.toPhase(CompilationInfo.Phase.RESOLVED);
+            cache.update(entry);
             ctx.cancellation().throwIfCancelled();
-            return action.apply(info);
+            return action.apply(entry.info);
         });
+
+        attempt.whenComplete((value, error) -> {
+            if (value == YIELDED) {
+                synchronized (this) {
+                    if (Objects.equals(backgroundGenerations.get(key), generation)) {
+                        submitBackground(lane, key, generation, file, text, action, result);
+                        return;
+                    }
+                }
+                result.cancel(false);
+            } else if (error instanceof CancellationException) {
+                result.cancel(false);
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete((T) value);
+            }
+        });
+    }
+
+    private SlotKey slot(Lane lane, FileObject file, CompilationInfo.Phase phase, TaskPriority priority) {
+        SlotKey key = new SlotKey(lane.name, file.getPath(), phase, priority);
+        slots.add(key);
+        return key;
+    }
+
+    private static Lane laneFor(Lane[] lanes, FileObject file) {
+        return lanes[Math.floorMod(Objects.hashCode(file.getPath()), lanes.length)];
+    }
+
+    private Lane[] createLanes(String prefix, int count, boolean parseOnly) {
+        Lane[] lanes = new Lane[Math.max(1, count)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(prefix + i, parseOnly);
+        }
+        return lanes;
+    }
+
+    private static int defaultLaneCount() {
+        // leave cores for the UI thread and indexing.
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    @Override
+    public void dispose() {
+        for (SlotKey key : slots) {
+            scheduler.cancel(key.lane(), key);
+        }
+        slots.clear();
+        synchronized (this) {
+            backgroundGenerations.clear();
+        }
+
+        for (Lane lane : parseLanes) {
+            lane.dispose();
+        }
+        for (Lane lane : attributionLanes) {
+            lane.dispose();
+        }
+        cache.dispose();
+    }
+
+    /**
+     * Releases the cached compilations and the warm contexts as if the JVM reported memory pressure.
+     */
+    void onLowMemory() {
+        cache.onLowMemory();
+    }
+
+    private record SlotKey(String lane, String path, CompilationInfo.Phase phase, TaskPriority priority) {
     }
 
     /**
-     * Called strictly inside the Javac Thread.
+     * One single-threaded lane and the compilations it keeps per file. They are only touched on the lane.
      */
-    private CompilationInfo getOrCreate(FileObject file, String text, TaskContext ctx) {
-        ctx.cancellation().throwIfCancelled();
-
-        // Check Cache
-        if (cachedInfo != null 
-            && cachedFile.equals(file) 
-            && cachedContentFingerprint.equals(text)) {
-            return cachedInfo;
+    private final class Lane {
+        final String name;
+        final boolean parseOnly;
+        final AtomicInteger pendingUserTasks = new AtomicInteger();
+
+        // The cached compilations of this lane by file path
+        private final Map<String, CompilationCache.Entry> entries = new HashMap<>();
+
+        Lane(String name, boolean parseOnly) {
+            this.name = name;
+            this.parseOnly = parseOnly;
         }
 
-        // Cache Miss - cleanup old
-        if (cachedInfo != null) {
-            cachedInfo.close();
+        boolean hasPendingUserTasks() {
+            return pendingUserTasks.get() > 0;
         }
 
-        ctx.cancellation().throwIfCancelled();
+        /**
+         * Called strictly inside the lane's thread.
+         */
+        CompilationCache.Entry getOrCreate(FileObject file, String text, boolean allowPartial, TaskContext ctx) {
+            ctx.cancellation().throwIfCancelled();
 
-        cachedInfo = new CompilationInfo(project, file, text);
-        cachedFile = file;
-        cachedContentFingerprint = text;
-        
-        return cachedInfo;
-    }
+            CompilationCache.Fingerprint fingerprint = CompilationCache.Fingerprint.of(text);
+            CompilationCache.Entry cached = entries.get(file.getPath());
 
-    @Override
-    public void dispose() {
-        scheduler.cancel(LANE, this);
+            // Check Cache
+            if (cached != null
+                && cached.fingerprint.equals(fingerprint)
+                && (allowPartial || !cached.info.isPartiallyReparsed())) {
+                cache.touch(cached);
+                return cached;
+            }
 
-        // Best-effort: close cached compilation on the javac lane to avoid races.
-        try {
-            scheduler.submitLatest(LANE, this, TaskPriority.USER, ctx -> {
-                ctx.cancellation().throwIfCancelled();
-                if (cachedInfo != null) {
-                    cachedInfo.close();
-                    cachedInfo = null;
-                    cachedFile = null;
-                    cachedContentFingerprint = null;
+            // Edit inside one method body - splice it into the cached compilation
+            if (allowPartial && cached != null) {
+                boolean reparsed;
+                try {
+                    reparsed = cached.info.reparseMethodBody(text);
+                } catch (RuntimeException | Error e) {
+                    // the tree may be half spliced.
+                    cache.remove(cached);
+                    throw e;
                 }
-                return null;
-            });
-        } catch (Throwable ignored) {
-            if (cachedInfo != null) {
-                cachedInfo.close();
-                cachedInfo = null;
-                cachedFile = null;
-                cachedContentFingerprint = null;
+                if (reparsed) {
+                    cached.fingerprint = fingerprint;
+                    cache.touch(cached);
+                    cache.resize(cached, cached.info.getReparsedSizeChange());
+                    return cached;
+                }
+            }
+
+            // Cache Miss - cleanup the file's old compilation, which hands its context to the new one
+            if (cached != null) {
+                cache.remove(cached);
+            }
+
+            ctx.cancellation().throwIfCancelled();
+
+            CompilationInfo info = parseOnly
+                    ? CompilationInfo.parseOnly(project, file, text)
+                    : new CompilationInfo(project, file, text);
+            return cache.add(name, entries, file, info, fingerprint);
+        }
+
+        private void clear() {
+            for (CompilationCache.Entry entry : new ArrayList<>(entries.values())) {
+                cache.remove(entry);
+            }
+        }
+
+        void dispose() {
+            // Best-effort: close cached compilations on the lane to avoid races.
+            try {
+                scheduler.submitLatest(name, this, TaskPriority.USER, ctx -> {
+                    ctx.cancellation().throwIfCancelled();
+                    clear();
+                    return null;
+                });
+            } catch (Throwable ignored) {
+                clear();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeInfo;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.lang.java.completion.BaseJavaCompletionTest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompilationInfoPartialReparseTest extends BaseJavaCompletionTest {
+
+    private static final String TEXT = """
+            package p;
+            import java.util.List;
+            public class Foo {
+              int f;
+              void a(List<String> l) {
+                String s = "";
+              }
+              int b() { return 1; }
+            }
+            """;
+
+    @Test
+    void editInsideMethodBodyIsSplicedAndAttributed() throws Exception {
+        FileObject file = javaFile("p.Foo", TEXT);
+        try (CompilationInfo info = new CompilationInfo(project, file, TEXT)) {
+            info.toPhase(CompilationInfo.Phase.RESOLVED);
+            JCTree.JCCompilationUnit unit = info.getCompilationUnit();
+
+            String edited = TEXT.replace("String s = \"\";", "String s = \"\";\n    int n = l.get(0).length();");
+            assertTrue(info.reparseMethodBody(edited));
+            assertTrue(info.isPartiallyReparsed());
+            assertSame(unit, info.getCompilationUnit());
+            assertTrue(info.getReparsedSizeChange() > 0, String.valueOf(info.getReparsedSizeChange()));
+
+            JCTree.JCMethodInvocation call = find(method(unit, "a"), JCTree.JCMethodInvocation.class);
+            assertNotNull(call);
+            assertEquals("int", String.valueOf(call.type));
+            assertEquals("l.get(0).length()", slice(edited, unit, call));
+
+            // positions after the edit follow the new text.
+            JCTree.JCMethodDecl b = method(unit, "b");
+            assertEquals("int b() { return 1; }", slice(edited, unit, b));
+            assertEquals(9, unit.getLineMap().getLineNumber(b.pos));
+        }
+    }
+
+    @Test
+    void editOutsideMethodBodyIsRejected() throws Exception {
+        FileObject file = javaFile("p.Foo", TEXT);
+        try (CompilationInfo info = new CompilationInfo(project, file, TEXT)) {
+            info.toPhase(CompilationInfo.Phase.RESOLVED);
+
+            assertFalse(info.reparseMethodBody(TEXT.replace("int f;", "int f, g;")));
+            assertFalse(info.reparseMethodBody(TEXT.replace("String s = \"\";", "} void c() {")));
+            assertFalse(info.reparseMethodBody(TEXT.replace("String s = \"\";", "Object o = new Object() {};")));
+            assertFalse(info.isPartiallyReparsed());
+        }
+    }
+
+    private static String slice(String text, JCTree.JCCompilationUnit unit, JCTree tree) {
+        return text.substring(TreeInfo.getStartPos(tree), TreeInfo.getEndPos(tree, unit.endPositions));
+    }
+
+    private static JCTree.JCMethodDecl method(JCTree.JCCompilationUnit unit, String name) {
+        JCTree.JCMethodDecl[] found = new JCTree.JCMethodDecl[1];
+        new TreeScanner() {
+            @Override
+            public void visitMethodDef(JCTree.JCMethodDecl tree) {
+                if (tree.name.contentEquals(name)) {
+                    found[0] = tree;
+                }
+            }
+        }.scan(unit);
+        return found[0];
+    }
+
+    private static <T extends JCTree> T find(JCTree root, Class<T> type) {
+        Object[] found = new Object[1];
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (found[0] == null && type.isInstance(tree)) {
+                    found[0] = tree;
+                }
+                super.scan(tree);
+            }
+        }.scan(root);
+        return type.cast(found[0]);
+    }
+}
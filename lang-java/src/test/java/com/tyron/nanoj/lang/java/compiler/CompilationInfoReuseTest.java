@@ -0,0 +1,81 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.core.service.ProjectServiceManager;
+import com.tyron.nanoj.lang.java.completion.BaseJavaCompletionTest;
+import org.junit.jupiter.api.Test;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileManager;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompilationInfoReuseTest extends BaseJavaCompletionTest {
+
+    @Test
+    void librarySymbolsAreSharedAndSourceSymbolsReentered() throws Exception {
+        FileObject file = javaFile("p.Foo", "package p; public class Foo {}");
+
+        CompilationInfo first = new CompilationInfo(project, file,
+                "package p; public class Foo { void a() { String s = \"\"; s.length(); } }");
+        first.toPhase(CompilationInfo.Phase.RESOLVED);
+        assertNoErrors(first);
+        TypeElement string = first.getTask().getElements().getTypeElement("java.lang.String");
+        TypeElement foo = first.getTask().getElements().getTypeElement("p.Foo");
+        first.close();
+
+        CompilationInfo second = new CompilationInfo(project, file,
+                "package p; public class Foo { int b() { return \"x\".length(); } void c() { b(); } }");
+        second.toPhase(CompilationInfo.Phase.RESOLVED);
+        assertNoErrors(second);
+
+        assertSame(first.getContext(), second.getContext());
+        assertSame(string, second.getTask().getElements().getTypeElement("java.lang.String"));
+
+        TypeElement newFoo = second.getTask().getElements().getTypeElement("p.Foo");
+        assertNotSame(foo, newFoo);
+        List<String> members = newFoo.getEnclosedElements().stream().map(Element::getSimpleName).map(Object::toString).toList();
+        assertTrue(members.containsAll(List.of("b", "c")), String.valueOf(members));
+        assertTrue(!members.contains("a"), String.valueOf(members));
+        second.close();
+    }
+
+    @Test
+    void contextsOfConcurrentCompilationsAreAllKeptWarm() throws Exception {
+        FileObject a = javaFile("p.A", "package p; public class A {}");
+        FileObject b = javaFile("p.B", "package p; public class B {}");
+        ProjectServiceManager.getService(project, JavacFileManagerService.class).keepWarmContexts(2);
+
+        CompilationInfo first = new CompilationInfo(project, a, a.getText());
+        CompilationInfo second = new CompilationInfo(project, b, b.getText());
+        first.toPhase(CompilationInfo.Phase.RESOLVED);
+        second.toPhase(CompilationInfo.Phase.RESOLVED);
+        assertNotSame(first.getContext(), second.getContext());
+        // file managers are not thread-safe; compilations of different lanes must not share one.
+        assertNotSame(first.getContext().get(JavaFileManager.class), second.getContext().get(JavaFileManager.class));
+        first.close();
+        second.close();
+
+        CompilationInfo third = new CompilationInfo(project, a, a.getText());
+        CompilationInfo fourth = new CompilationInfo(project, b, b.getText());
+        assertEquals(Set.of(first.getContext(), second.getContext()),
+                Set.of(third.getContext(), fourth.getContext()));
+        third.close();
+        fourth.close();
+    }
+
+    private static void assertNoErrors(CompilationInfo info) {
+        List<String> errors = info.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> d.getMessage(null))
+                .toList();
+        assertEquals(List.of(), errors);
+    }
+}
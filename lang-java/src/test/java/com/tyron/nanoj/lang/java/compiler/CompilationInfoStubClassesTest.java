@@ -0,0 +1,59 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.sun.tools.javac.code.ClassFinder;
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.core.service.ProjectServiceManager;
+import com.tyron.nanoj.lang.java.completion.BaseJavaCompletionTest;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.Diagnostic;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CompilationInfoStubClassesTest extends BaseJavaCompletionTest {
+
+    private static final String TEXT = """
+            package p;
+            import java.util.*;
+            public class Foo {
+              int a(List<String> l) {
+                Map<String, Integer> m = new HashMap<>();
+                for (Map.Entry<String, Integer> e : m.entrySet()) { e.getKey().length(); }
+                switch (l.size()) { case Integer.MAX_VALUE: return 1; default: }
+                return l.stream().map(String::length).reduce(0, Integer::sum);
+              }
+            }
+            """;
+
+    @Test
+    void libraryClassesAreCompletedFromStubs() throws Exception {
+        JavacFileManagerService previous = ProjectServiceManager.getService(project, JavacFileManagerService.class);
+        System.setProperty(JavacFileManagerService.STUB_CLASSES_KEY, "true");
+        try {
+            ProjectServiceManager.registerInstance(project, JavacFileManagerService.class, new JavacFileManagerService(project));
+        } finally {
+            System.clearProperty(JavacFileManagerService.STUB_CLASSES_KEY);
+            previous.dispose();
+        }
+
+        FileObject file = javaFile("p.Foo", TEXT);
+        try (CompilationInfo info = new CompilationInfo(project, file, TEXT)) {
+            info.toPhase(CompilationInfo.Phase.RESOLVED);
+
+            List<String> errors = info.getDiagnostics().stream()
+                    .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                    .map(d -> d.getMessage(null))
+                    .toList();
+            assertEquals(List.of(), errors);
+
+            IndexAwareClassFinder finder = assertInstanceOf(IndexAwareClassFinder.class, ClassFinder.instance(info.getContext()));
+            // java.lang.String, java.util.List, ... come from the shared JDK index.
+            assertTrue(finder.getStubCompletions() > 0, "no class was completed from its stub");
+            // Map.Entry is nested, so Map is read from its class file.
+            assertTrue(finder.getClassFileCompletions() > 0, "no class fell back to its class file");
+        }
+    }
+}
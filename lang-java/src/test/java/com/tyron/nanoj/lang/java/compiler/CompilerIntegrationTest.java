@@ -1,12 +1,17 @@
 package com.tyron.nanoj.lang.java.compiler;
 
 import com.sun.tools.javac.api.JavacTool;
+import com.sun.tools.javac.code.ClassFinder;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symtab;
 import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Names;
 import com.tyron.nanoj.api.indexing.IndexManager;
 import com.tyron.nanoj.core.indexing.AbstractIndexManager;
 import com.tyron.nanoj.lang.java.indexing.JavaBinaryStubIndexer;
 import com.tyron.nanoj.lang.java.indexing.JavaFullClassNameIndex;
 import com.tyron.nanoj.lang.java.indexing.JavaPackageIndex;
+import com.tyron.nanoj.lang.java.indexing.stub.ClassStub;
 import com.tyron.nanoj.core.test.MockFileObject;
 import com.tyron.nanoj.lang.java.indexing.JavaSuperTypeIndex;
 import com.tyron.nanoj.lang.java.indexing.ShortClassNameIndex;
@@ -16,6 +21,7 @@ import org.junit.jupiter.api.Test;
 
 import javax.tools.*;
 import java.io.*;
+import java.lang.reflect.Modifier;
 import java.net.URI;
 import java.util.*;
 
@@ -121,6 +127,78 @@ public class CompilerIntegrationTest extends BaseIdeTest {
         Assertions.assertTrue(success, "Star imports should be resolved via Index Package Listing");
     }
 
+    /**
+     * Scenario: Stub completion with fallback.
+     * Lib is completed from its stub (generic method, thrown type, constant); Outer declares a member class,
+     * so it and Outer$Inner are read from their class files.
+     */
+    @Test
+    public void testStubCompletionFallsBackForNestedClasses() {
+        compileAndIndex("com.example.Lib",
+                "package com.example; " +
+                "public class Lib { " +
+                "   public static final int MAX = 3; " +
+                "   public <T extends Comparable<T>> T max(java.util.List<T> l) throws java.io.IOException { return null; } " +
+                "}");
+        compileAndIndex("com.example.Outer",
+                "package com.example; " +
+                "public class Outer { public static class Inner { public int x; } }");
+
+        Context context = new Context();
+        boolean success = compileApp(context, "com.example.App",
+                "package com.example; " +
+                "public class App { " +
+                "   void test(java.util.List<String> l) throws java.io.IOException { " +
+                "       String s = new Lib().max(l); " +
+                "       switch (s.length()) { case Lib.MAX: break; } " +
+                "       int x = new Outer.Inner().x; " +
+                "   } " +
+                "}");
+
+        Assertions.assertTrue(success, "Compilation should succeed using Stubs and class files");
+        IndexAwareClassFinder finder = (IndexAwareClassFinder) ClassFinder.instance(context);
+        Assertions.assertTrue(finder.getStubCompletions() > 0, "Lib should be completed from its stub");
+        Assertions.assertTrue(finder.getClassFileCompletions() > 0, "Outer should be read from its class file");
+    }
+
+    /**
+     * Scenario: a stub that fails to resolve must not have re-owned the member classes it refers to, which javac
+     * entered by their flat names, before the class falls back to its class file.
+     */
+    @Test
+    public void testFailedStubCompletionLeavesMemberClassesAlone() {
+        Context context = new Context();
+        Assertions.assertTrue(compileApp(context, "com.example.App", "package com.example; public class App {}"));
+
+        Symtab symtab = Symtab.instance(context);
+        Names names = Names.instance(context);
+        Symbol.ClassSymbol inner = symtab.enterClass(symtab.unnamedModule, names.fromString("com.example.Broken$Inner"));
+        Symbol.ClassSymbol broken = symtab.enterClass(symtab.unnamedModule, names.fromString("com.example.Broken"));
+        Symbol packageOwner = inner.owner;
+
+        ClassStub stub = new ClassStub();
+        stub.name = "com/example/Broken";
+        stub.superName = "java/lang/Object";
+        stub.interfaces = new String[0];
+        stub.accessFlags = Modifier.PUBLIC;
+        stub.selfContained = true;
+        ClassStub.InnerClassStub ic = new ClassStub.InnerClassStub();
+        ic.name = "com/example/Broken$Inner";
+        ic.outerName = "com/example/Broken";
+        ic.simpleName = "Inner";
+        ic.accessFlags = Modifier.PUBLIC | Modifier.STATIC;
+        stub.innerClasses.add(ic);
+        ClassStub.MethodStub ms = new ClassStub.MethodStub();
+        ms.name = "m";
+        ms.descriptor = "(Q";
+        ms.accessFlags = Modifier.PUBLIC;
+        stub.methods.add(ms);
+
+        Assertions.assertThrows(RuntimeException.class, () -> new StubCompleter(context, stub).complete(broken));
+        Assertions.assertSame(packageOwner, inner.owner, "Inner must still belong to its package");
+        Assertions.assertEquals("Broken$Inner", inner.name.toString());
+    }
+
     // =================================================================================
     //                                   HELPERS
     // =================================================================================
@@ -151,10 +229,12 @@ public class CompilerIntegrationTest extends BaseIdeTest {
      * This uses our custom `IndexedJavaFileManager` and `IndexAwareClassFinder`.
      */
     private boolean compileApp(String className, String sourceCode) {
+        return compileApp(new Context(), className, sourceCode);
+    }
+
+    private boolean compileApp(Context context, String className, String sourceCode) {
         JavacTool compiler = (JavacTool) ToolProvider.getSystemJavaCompiler();
         StandardJavaFileManager stdManager = compiler.getStandardFileManager(null, null, null);
-        
-        Context context = new Context();
 
         IndexAwareClassFinder.preRegister(context, project);
 
@@ -151,11 +151,12 @@ public class JavaCompilerInfrastructureTest {
     }
 
     /**
-     * Test 4: Phase Promotion
-     * If we parse (fast), then resolve (slow) on the same text, does it upgrade the existing object?
+     * Test 4: Phase Separation
+     * Parsing (fast) runs apart from attribution (slow): resolving the same text builds its own object,
+     * which later resolve requests reuse.
      */
     @Test
-    public void testPhasePromotion() throws Exception {
+    public void testPhaseSeparation() throws Exception {
         String code = "class Promotion {}";
         JavaSource source = JavaSource.forFile(project, sourceFile);
 
@@ -164,21 +165,29 @@ public class JavaCompilerInfrastructureTest {
         // 1. Run low priority (PARSED)
         source.runModificationTask(code, info -> {
             ref.set(info);
-            // Verify internal state is PARSED (We can't access private fields, 
-            // but we know analyze() hasn't run if we only requested PARSED)
             return null;
         }).get();
 
-        CompilationInfo original = ref.get();
-        Assertions.assertNotNull(original);
+        CompilationInfo parsed = ref.get();
+        Assertions.assertNotNull(parsed);
 
         // 2. Run high priority (RESOLVED) on same text
-        source.runUserActionTask(code, info -> {
-            // Should be the same object instance
-            Assertions.assertSame(original, info, "Should reuse the object");
-            
-            // But now it should be analyzed
+        CompilationInfo resolved = source.runUserActionTask(code, info -> {
+            // The parse-only object cannot be attributed
+            Assertions.assertNotSame(parsed, info, "Should not attribute the parse-only object");
+
+            // But this one is analyzed
             Assertions.assertNotNull(info.getTask().getElements());
+            return info;
+        }).get();
+
+        // 3. Both are kept for their own kind of request
+        source.runUserActionTask(code, info -> {
+            Assertions.assertSame(resolved, info, "Should reuse the resolved object");
+            return null;
+        }).get();
+        source.runModificationTask(code, info -> {
+            Assertions.assertSame(parsed, info, "Should reuse the parsed object");
             return null;
         }).get();
     }
@@ -205,8 +214,8 @@ public class JavaCompilerInfrastructureTest {
         });
 
         // 2. Immediately start a high-priority task
-        // Because the ParsingManager is single-threaded, submitting this 
-        // with priority=true should signal the current running task to cancel.
+        // Parsing and attribution run on different lanes, the parse does not
+        // hold this one back.
         CompletableFuture<String> fastTask = source.runUserActionTask(code, info -> "Fast");
 
         // 3. Fast task should succeed
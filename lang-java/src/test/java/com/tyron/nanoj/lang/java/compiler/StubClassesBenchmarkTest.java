@@ -0,0 +1,127 @@
+package com.tyron.nanoj.lang.java.compiler;
+
+import com.sun.tools.javac.code.ClassFinder;
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.core.service.ProjectServiceManager;
+import com.tyron.nanoj.lang.java.completion.BaseJavaCompletionTest;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+/**
+ * Attribution benchmark: library classes completed from indexed stubs vs read from their class files.
+ *
+ * Every iteration attributes the same file in a new javac context, so all library classes it uses are completed
+ * again. Reported per mode: average time to {@link CompilationInfo.Phase#RESOLVED} and the heap retained by one
+ * attributed {@link CompilationInfo}.
+ *
+ * Notes:
+ * - This is intentionally opt-in. Enable with: -Dnanoj.bench.run=true
+ * - Control the number of iterations with: -Dnanoj.bench.iterations=20 (default)
+ * - Control the warmup iterations with: -Dnanoj.bench.warmup=3 (default)
+ */
+@Tag("benchmark")
+public class StubClassesBenchmarkTest extends BaseJavaCompletionTest {
+
+    private static final String RUN_PROP = "nanoj.bench.run";
+    private static final String ITERATIONS_PROP = "nanoj.bench.iterations";
+    private static final String WARMUP_PROP = "nanoj.bench.warmup";
+
+    private static final String TEXT = """
+            package p;
+            import java.io.*;
+            import java.time.*;
+            import java.util.*;
+            import java.util.function.*;
+            import java.util.stream.*;
+            public class Foo {
+              Map<String, List<Integer>> index = new HashMap<>();
+              String read(File f) throws IOException {
+                try (BufferedReader r = new BufferedReader(new FileReader(f))) { return r.readLine(); }
+              }
+              int a(List<String> l) {
+                Map<Integer, List<String>> byLength = l.stream().collect(Collectors.groupingBy(String::length));
+                Optional<String> first = l.stream().map(String::trim).sorted(Comparator.reverseOrder()).findFirst();
+                Function<String, Integer> parse = Integer::parseInt;
+                StringBuilder sb = new StringBuilder().append(first.orElse("")).reverse();
+                Duration d = Duration.between(Instant.now(), Instant.now());
+                Set<String> set = new TreeSet<>(Arrays.asList("a", "b"));
+                return byLength.size() + parse.apply("1") + sb.length() + (int) d.toMillis() + set.size();
+              }
+            }
+            """;
+
+    @Test
+    public void benchmarkStubClassesVsClassFiles() throws Exception {
+        Assumptions.assumeTrue(Boolean.parseBoolean(System.getProperty(RUN_PROP, "false")),
+                "Benchmark is opt-in. Rerun with -D" + RUN_PROP + "=true");
+
+        int iterations = Math.max(1, Integer.getInteger(ITERATIONS_PROP, 20));
+        int warmup = Math.max(0, Integer.getInteger(WARMUP_PROP, 3));
+        FileObject file = javaFile("p.Foo", TEXT);
+
+        System.out.println("=== Stub classes benchmark ===");
+        System.out.println("iterations=" + iterations + " warmup=" + warmup);
+        for (boolean stubs : new boolean[]{false, true, false, true}) {
+            useService(stubs);
+            for (int i = 0; i < warmup; i++) {
+                attribute(file).close();
+            }
+
+            long totalNanos = 0;
+            for (int i = 0; i < iterations; i++) {
+                long t0 = System.nanoTime();
+                CompilationInfo info = attribute(file);
+                totalNanos += System.nanoTime() - t0;
+                info.close();
+            }
+
+            // drop the warm context the iterations left behind.
+            useService(stubs);
+            long before = usedHeap();
+            CompilationInfo info = attribute(file);
+            long retained = usedHeap() - before;
+            String counts = "";
+            if (ClassFinder.instance(info.getContext()) instanceof IndexAwareClassFinder finder) {
+                counts = " stubCompletions=" + finder.getStubCompletions() + " classFileCompletions=" + finder.getClassFileCompletions();
+            }
+            info.close();
+
+            System.out.println(String.format(Locale.ROOT, "%-10s avg=%.2fms retained=%.1fKiB%s",
+                    stubs ? "stubs" : "classfiles",
+                    totalNanos / 1_000_000.0 / iterations,
+                    retained / 1024.0,
+                    counts));
+        }
+    }
+
+    private void useService(boolean stubs) {
+        JavacFileManagerService previous = ProjectServiceManager.getService(project, JavacFileManagerService.class);
+        System.setProperty(JavacFileManagerService.STUB_CLASSES_KEY, String.valueOf(stubs));
+        // a new context per task, so every iteration completes the library classes again.
+        System.setProperty(JavacFileManagerService.CONTEXT_MAX_USES_KEY, "1");
+        try {
+            ProjectServiceManager.registerInstance(project, JavacFileManagerService.class, new JavacFileManagerService(project));
+        } finally {
+            System.clearProperty(JavacFileManagerService.STUB_CLASSES_KEY);
+            System.clearProperty(JavacFileManagerService.CONTEXT_MAX_USES_KEY);
+            previous.dispose();
+        }
+    }
+
+    private CompilationInfo attribute(FileObject file) throws Exception {
+        CompilationInfo info = new CompilationInfo(project, file, TEXT);
+        info.toPhase(CompilationInfo.Phase.RESOLVED);
+        return info;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -68,7 +68,7 @@ public abstract class BaseJavaCompletionTest extends BaseCompletionTest {
         private static final String TEST_USE_SHARED_INDEX_PROP = "nanoj.test.useSharedIndexes";
         private static final String TEST_SHARED_INDEX_DIR_PROP = "nanoj.test.sharedIndexDir";
         private static final String TEST_BUILD_SHARED_INDEX_PROP = "nanoj.test.buildSharedIndexes";
-        private static final String TEST_SHARED_INDEX_SCHEMA_VERSION = "v1";
+        private static final String TEST_SHARED_INDEX_SCHEMA_VERSION = "v4";
 
     @Override
         protected void beforeEach() throws Exception {
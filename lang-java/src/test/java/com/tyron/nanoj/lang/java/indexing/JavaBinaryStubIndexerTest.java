@@ -84,5 +84,29 @@ public class JavaBinaryStubIndexerTest extends BaseJavaIndexingTest {
 
         ClassStub stub = indexer.map(file, null).values().iterator().next();
         assertEquals("com/example/Outer$Inner", stub.name);
+        assertFalse(stub.selfContained);
+    }
+
+    @Test
+    public void testMembersNeededForCompletion() {
+        byte[] classBytes = compile("com.example.Lib",
+                "package com.example; " +
+                        "public class Lib { " +
+                        "   public static final long MAX = 3L; " +
+                        "   @Deprecated(forRemoval = true) public void old() throws java.io.IOException {} " +
+                        "}");
+
+        MockFileObject file = createClassFile("com.example.Lib", classBytes);
+
+        // the stub survives serialization into the index unchanged.
+        ClassStub stub = indexer.deserializeValue(indexer.serializeValue(indexer.map(file, null).get("com/example/Lib")));
+        assertTrue(stub.selfContained);
+
+        ClassStub.FieldStub max = stub.fields.get(0);
+        assertEquals(3L, max.constantValue);
+
+        ClassStub.MethodStub old = stub.methods.stream().filter(m -> m.name.equals("old")).findFirst().orElseThrow();
+        assertArrayEquals(new String[]{"java/io/IOException"}, old.exceptions);
+        assertEquals(ClassStub.DEPRECATED | ClassStub.DEPRECATED_ANNOTATION | ClassStub.DEPRECATED_REMOVAL, old.annotationFlags);
     }
 }
\ No newline at end of file
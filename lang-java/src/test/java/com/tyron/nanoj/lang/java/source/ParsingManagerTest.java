@@ -0,0 +1,173 @@
+package com.tyron.nanoj.lang.java.source;
+
+import com.sun.tools.javac.util.Context;
+import com.tyron.nanoj.api.vfs.FileObject;
+import com.tyron.nanoj.core.service.ProjectServiceManager;
+import com.tyron.nanoj.lang.java.compiler.CompilationInfo;
+import com.tyron.nanoj.lang.java.completion.BaseJavaCompletionTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ParsingManagerTest extends BaseJavaCompletionTest {
+
+    @Test
+    void parsingDoesNotWaitForAttribution() throws Exception {
+        FileObject file = javaFile("p.A", "package p; class A {}");
+        JavaSource source = JavaSource.forFile(project, file);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocked = source.runUserActionTask(file.getText(), info -> {
+            await(release);
+            return null;
+        });
+        try {
+            Object unit = source.runModificationTask(file.getText(), info -> info.getCompilationUnit())
+                    .get(10, TimeUnit.SECONDS);
+            assertNotNull(unit);
+        } finally {
+            release.countDown();
+        }
+        blocked.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void diagnosticsGiveWayToCompletionWithoutBeingDropped() throws Exception {
+        useSingleAttributionLane();
+        FileObject a = javaFile("p.A", "package p; class A {}");
+        FileObject b = javaFile("p.B", "package p; class B {}");
+        JavaSource sourceA = JavaSource.forFile(project, a);
+        JavaSource sourceB = JavaSource.forFile(project, b);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocked = sourceA.runUserActionTask(a.getText(), info -> {
+            await(release);
+            return null;
+        });
+
+        // both wait behind the blocked task; the diagnostics request was posted first.
+        CompletableFuture<String> diagnostics = sourceB.runDiagnosticsTask(b.getText(), info -> {
+            order.add("diagnostics");
+            return "diagnostics";
+        });
+        CompletableFuture<String> completion = sourceB.runCompletionTask(b.getText(), info -> {
+            order.add("completion");
+            return "completion";
+        });
+        release.countDown();
+
+        blocked.get(10, TimeUnit.SECONDS);
+        assertEquals("completion", completion.get(10, TimeUnit.SECONDS));
+        assertEquals("diagnostics", diagnostics.get(10, TimeUnit.SECONDS));
+        assertFalse(diagnostics.isCancelled());
+        assertEquals(List.of("completion", "diagnostics"), order);
+    }
+
+    @Test
+    void newerDiagnosticsSupersedeOlderOnes() throws Exception {
+        FileObject file = javaFile("p.A", "package p; class A {}");
+        JavaSource source = JavaSource.forFile(project, file);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> blocked = source.runUserActionTask(file.getText(), info -> {
+            await(release);
+            return null;
+        });
+        CompletableFuture<String> older = source.runDiagnosticsTask(file.getText(), info -> "older");
+        CompletableFuture<String> newer = source.runDiagnosticsTask(file.getText() + " ", info -> "newer");
+        release.countDown();
+
+        blocked.get(10, TimeUnit.SECONDS);
+        assertEquals("newer", newer.get(10, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, () -> older.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void switchingFilesKeepsTheirCompilations() throws Exception {
+        useSingleAttributionLane();
+        FileObject a = javaFile("p.A", "package p; class A {}");
+        FileObject b = javaFile("p.B", "package p; class B {}");
+        JavaSource sourceA = JavaSource.forFile(project, a);
+        JavaSource sourceB = JavaSource.forFile(project, b);
+
+        CompilationInfo infoA = sourceA.runUserActionTask(a.getText(), info -> info).get(10, TimeUnit.SECONDS);
+        CompilationInfo infoB = sourceB.runUserActionTask(b.getText(), info -> info).get(10, TimeUnit.SECONDS);
+
+        assertSame(infoA, sourceA.runUserActionTask(a.getText(), info -> info).get(10, TimeUnit.SECONDS));
+        assertSame(infoB, sourceB.runDiagnosticsTask(b.getText(), info -> info).get(10, TimeUnit.SECONDS));
+        // same text in another String instance
+        assertSame(infoA, sourceA.runUserActionTask(new String(a.getText().toCharArray()), info -> info).get(10, TimeUnit.SECONDS));
+        assertNotSame(infoA, sourceA.runUserActionTask(a.getText() + " ", info -> info).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void compilationsOverTheBudgetAreReleased() throws Exception {
+        useParsingManager(ParsingManager.ATTRIBUTION_LANES_KEY, "1", ParsingManager.CACHE_MAX_BYTES_KEY, "1");
+        FileObject a = javaFile("p.A", "package p; class A {}");
+        FileObject b = javaFile("p.B", "package p; class B {}");
+        JavaSource sourceA = JavaSource.forFile(project, a);
+        JavaSource sourceB = JavaSource.forFile(project, b);
+
+        CompilationInfo infoA = sourceA.runUserActionTask(a.getText(), info -> info).get(10, TimeUnit.SECONDS);
+        sourceB.runUserActionTask(b.getText(), info -> info).get(10, TimeUnit.SECONDS);
+
+        // the eviction of A was posted to the lane before this request.
+        assertNotSame(infoA, sourceA.runUserActionTask(a.getText(), info -> info).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void memoryPressureDropsContextsInsteadOfKeepingThemWarm() throws Exception {
+        useSingleAttributionLane();
+        FileObject a = javaFile("p.A", "package p; class A {}");
+        JavaSource sourceA = JavaSource.forFile(project, a);
+
+        Context first = sourceA.runUserActionTask(a.getText(), CompilationInfo::getContext).get(10, TimeUnit.SECONDS);
+        ProjectServiceManager.getService(project, ParsingManager.class).onLowMemory();
+
+        // the eviction of A was posted to the lane before this request.
+        assertNotSame(first, sourceA.runUserActionTask(a.getText(), CompilationInfo::getContext).get(10, TimeUnit.SECONDS));
+    }
+
+    private void useSingleAttributionLane() {
+        useParsingManager(ParsingManager.ATTRIBUTION_LANES_KEY, "1");
+    }
+
+    private void useParsingManager(String... properties) {
+        ParsingManager previous = ProjectServiceManager.getService(project, ParsingManager.class);
+        for (int i = 0; i < properties.length; i += 2) {
+            System.setProperty(properties[i], properties[i + 1]);
+        }
+        try {
+            ProjectServiceManager.registerInstance(project, ParsingManager.class, new ParsingManager(project));
+        } finally {
+            for (int i = 0; i < properties.length; i += 2) {
+                System.clearProperty(properties[i]);
+            }
+            previous.dispose();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("not released");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
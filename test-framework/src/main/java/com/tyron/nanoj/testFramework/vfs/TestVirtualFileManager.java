@@ -11,6 +11,7 @@ import java.io.File;
 import java.net.URI;
 import java.util.Collections;
 import java.util.Map;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -151,6 +152,12 @@ public final class TestVirtualFileManager implements VirtualFileManager {
         });
     }
 
+    @Override
+    public OptionalInt findFileId(FileObject file) {
+        Integer id = file != null ? uriToId.get(file.toUri().toString()) : null;
+        return id != null ? OptionalInt.of(id) : OptionalInt.empty();
+    }
+
     @Override
     public FileObject findById(int id) {
         if (id <= 0) return null;